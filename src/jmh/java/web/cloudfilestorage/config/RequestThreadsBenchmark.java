@@ -0,0 +1,100 @@
+package web.cloudfilestorage.config;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Load test of Tomcat handling requests which block for blockMillis, as uploads and
+ * downloads do on disks and the database, concurrency of them at a time: on its pool
+ * of 200 platform threads and on a virtual thread per request.
+ *
+ * Run with ./gradlew jmh on Java 21, a batch takes about
+ * concurrency / 200 * blockMillis on platform threads and blockMillis on virtual ones.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RequestThreadsBenchmark {
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"2000"})
+    public int concurrency;
+
+    @Param({"20"})
+    public int blockMillis;
+
+    private Tomcat tomcat;
+
+    private HttpClient client;
+
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() throws IOException, LifecycleException {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("tomcat").toString());
+
+        Connector connector = new Connector();
+        connector.setPort(0);
+        connector.setProperty("acceptCount", String.valueOf(concurrency));
+        if (threads.equals("virtual")) {
+            connector.getProtocolHandler().setExecutor(VirtualThreads.newExecutor("http-"));
+        }
+        tomcat.setConnector(connector);
+
+        Context context = tomcat.addContext("", null);
+        Tomcat.addServlet(context, "blocking", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.getWriter().write("ok");
+            }
+        });
+        context.addServletMappingDecoded("/", "blocking");
+        tomcat.start();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + connector.getLocalPort() + "/")).build();
+    }
+
+    @TearDown
+    public void tearDown() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    /* a batch of concurrent requests */
+    @Benchmark
+    public int requests() {
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            responses[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        }
+        CompletableFuture.allOf(responses).join();
+        return concurrency;
+    }
+}
@@ -0,0 +1,116 @@
+package web.cloudfilestorage.security;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.util.ReflectionUtils;
+import web.cloudfilestorage.model.Role;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.service.UserService;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Run with ./gradlew jmh, allocation rate is reported by the gc profiler.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtTokenFilterBenchmark {
+
+    private final FilterChain noopChain = (request, response) -> {
+    };
+
+    private JwtTokenFilter filter;
+
+    private MockHttpServletRequest anonymousRequest;
+
+    private MockHttpServletRequest authenticatedRequest;
+
+    private MockHttpServletRequest invalidTokenRequest;
+
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() {
+        User user = User.builder()
+                .id(1L)
+                .username("benchmark")
+                .email("benchmark@test.com")
+                .status(Status.ACTIVE)
+                .roles(List.of(Role.builder().id(1L).name("ROLE_USER").build()))
+                .build();
+
+        UserService userService = new UserService(null, null, null, null) {
+            @Override
+            public UserDetails loadPrincipal(String username) throws UsernameNotFoundException {
+                return user;
+            }
+        };
+
+        JwtTokenProvider jwtTokenProvider = new JwtTokenProvider(userService);
+        setField(jwtTokenProvider, "secret", "benchmark-secret-benchmark-secret-benchmark-secret");
+        setField(jwtTokenProvider, "validityInMilliseconds", TimeUnit.HOURS.toMillis(1));
+        jwtTokenProvider.init();
+
+        // requests below carry no api key, so the api key service is never reached
+        filter = new JwtTokenFilter(jwtTokenProvider, null);
+
+        anonymousRequest = new MockHttpServletRequest("GET", "/api/files");
+
+        String token = jwtTokenProvider.createToken(user.getUsername(), user.getAuthorities());
+
+        authenticatedRequest = new MockHttpServletRequest("GET", "/api/files");
+        authenticatedRequest.addHeader("Authorization", "Bearer_" + token);
+
+        invalidTokenRequest = new MockHttpServletRequest("GET", "/api/files");
+        invalidTokenRequest.addHeader(
+                "Authorization",
+                "Bearer_" + token.substring(0, token.lastIndexOf('.') + 1) + "forged-signature"
+        );
+
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public int anonymous() throws ServletException, IOException {
+        return run(anonymousRequest);
+    }
+
+    @Benchmark
+    public int authenticated() throws ServletException, IOException {
+        return run(authenticatedRequest);
+    }
+
+    @Benchmark
+    public int invalidToken() throws ServletException, IOException {
+        return run(invalidTokenRequest);
+    }
+
+    private int run(MockHttpServletRequest request) throws ServletException, IOException {
+        response.setCommitted(false);
+        response.reset();
+        filter.doFilter(request, response, noopChain);
+        SecurityContextHolder.clearContext();
+        return response.getStatus();
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+}
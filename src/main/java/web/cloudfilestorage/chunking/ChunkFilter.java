@@ -0,0 +1,70 @@
+package web.cloudfilestorage.chunking;
+
+/*
+ * Bloom filter over chunk hashes. The collection marks live chunks in it with about ten
+ * bits per chunk, where a set of the hashes would take over a hundred bytes per chunk.
+ * A false positive only keeps a dead chunk until a later collection.
+ *
+ * Hashes are SHA-256, so their own bits serve as the filter's hash functions.
+ * */
+public class ChunkFilter {
+
+    private final long[] bits;
+
+    private final long size;
+
+    private final int hashes;
+
+    /**
+     * @param expected number of hashes which will be added
+     */
+    public ChunkFilter(long expected, double falsePositiveRate) {
+        long count = Math.max(1, expected);
+        long optimal = (long) Math.ceil(-count * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimal + 63) / 64))];
+        this.size = bits.length * 64L;
+        this.hashes = (int) Math.max(1, Math.round((double) size / count * Math.log(2)));
+    }
+
+    public void add(String hash) {
+        if (!isHash(hash)) {
+            return;
+        }
+        long first = Long.parseUnsignedLong(hash, 0, 16, 16);
+        long second = Long.parseUnsignedLong(hash, 16, 32, 16);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(first + i * second, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if the hash was certainly not added, true for anything which is not a hash
+     */
+    public boolean mightContain(String hash) {
+        if (!isHash(hash)) {
+            return true;
+        }
+        long first = Long.parseUnsignedLong(hash, 0, 16, 16);
+        long second = Long.parseUnsignedLong(hash, 16, 32, 16);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(first + i * second, size);
+            if ((bits[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHash(String hash) {
+        if (hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,138 @@
+package web.cloudfilestorage.chunking;
+
+import web.cloudfilestorage.storage.BlobStat;
+import web.cloudfilestorage.storage.StorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/*
+ * Content-addressed chunks: chunks/<hex digits 1-2>/<hex digits 3-4>/<sha-256>.
+ * A chunk is written once, whatever number of manifests refer to it.
+ *
+ * Chunks written with a single level of sharding stay readable until migrate() moves them.
+ * */
+public class ChunkStore {
+
+    public static final String PREFIX = "chunks/";
+
+    private final StorageBackend backend;
+
+    public ChunkStore(StorageBackend backend) {
+        this.backend = backend;
+    }
+
+    public String key(String hash) {
+        return PREFIX + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+    }
+
+    private static String legacyKey(String hash) {
+        return PREFIX + hash.substring(0, 2) + "/" + hash;
+    }
+
+    public InputStream open(String hash, long offset, long length) throws IOException {
+        try {
+            return backend.get(key(hash), offset, length);
+        } catch (FileNotFoundException e) {
+            try {
+                return backend.get(legacyKey(hash), offset, length);
+            } catch (FileNotFoundException legacy) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return hash of the chunk
+     */
+    public String put(byte[] buffer, int offset, int length) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(buffer, offset, length);
+        String hash = HexFormat.of().formatHex(digest.digest());
+
+        // an existing chunk is touched so that a collection running now sees it as fresh
+        if (!backend.touch(key(hash)) && !backend.touch(legacyKey(hash))) {
+            backend.put(key(hash), new ByteArrayInputStream(buffer, offset, length));
+        }
+        return hash;
+    }
+
+    /**
+     * Moves chunks written with a single level of sharding to their keys.
+     *
+     * @return number of moved chunks
+     */
+    public int migrate() throws IOException {
+        List<String> legacy;
+        try (Stream<BlobStat> chunks = backend.listStored(PREFIX)) {
+            legacy = chunks.map(BlobStat::key)
+                    .filter(key -> key.chars().filter(c -> c == '/').count() == 2)
+                    .toList();
+        }
+        int moved = 0;
+        for (String key : legacy) {
+            String hash = key.substring(key.lastIndexOf('/') + 1);
+            if (backend.stat(key(hash)).isEmpty()) {
+                try (InputStream content = backend.get(key, 0, -1)) {
+                    backend.put(key(hash), content);
+                } catch (FileNotFoundException e) {
+                    // collected in between
+                    continue;
+                }
+            }
+            backend.delete(key);
+            moved++;
+        }
+        return moved;
+    }
+
+    public long count() throws IOException {
+        try (Stream<BlobStat> chunks = backend.listStored(PREFIX)) {
+            return chunks.count();
+        }
+    }
+
+    public ChunkingOutputStream writer(GearChunker chunker) {
+        return new ChunkingOutputStream(this, chunker);
+    }
+
+    /**
+     * Deletes chunks which are not live and were not written or reused after the given moment.
+     * A chunk found old in the listing is looked at again right before it is deleted, as it
+     * may have been reused while the listing was walked.
+     *
+     * @return number of deleted chunks
+     */
+    public int sweep(Predicate<String> live, Instant before) throws IOException {
+        int deleted = 0;
+        try (Stream<BlobStat> chunks = backend.listStored(PREFIX)) {
+            for (BlobStat chunk : (Iterable<BlobStat>) chunks::iterator) {
+                String hash = chunk.key().substring(chunk.key().lastIndexOf('/') + 1);
+                if (live.test(hash) || !chunk.lastModified().isBefore(before)) {
+                    continue;
+                }
+                Optional<BlobStat> current = backend.stat(chunk.key());
+                if (current.isPresent() && current.get().lastModified().isBefore(before)) {
+                    backend.delete(chunk.key());
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,91 @@
+package web.cloudfilestorage.chunking;
+
+import web.cloudfilestorage.storage.RangeReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/*
+ * Random access to a content stored as chunks, chunks of a range are opened one by one while reading.
+ * */
+public class ChunkedContent implements RangeReader {
+
+    private final ChunkStore store;
+    private final Manifest manifest;
+
+    /* offsets[i] is the position of chunk i, offsets[chunks] is the size */
+    private final long[] offsets;
+
+    public ChunkedContent(ChunkStore store, Manifest manifest) {
+        this.store = store;
+        this.manifest = manifest;
+        this.offsets = new long[manifest.chunks().size() + 1];
+        for (int i = 0; i < manifest.chunks().size(); i++) {
+            offsets[i + 1] = offsets[i] + manifest.chunks().get(i).length();
+        }
+    }
+
+    @Override
+    public long size() {
+        return offsets[offsets.length - 1];
+    }
+
+    @Override
+    public InputStream read(long offset, long length) {
+        long end = length < 0 ? size() : Math.min(size(), offset + length);
+        int first = chunkAt(offset);
+
+        return new SequenceInputStream(new Enumeration<>() {
+
+            private int index = first;
+
+            @Override
+            public boolean hasMoreElements() {
+                return index < manifest.chunks().size() && offsets[index] < end;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                long from = Math.max(offset, offsets[index]) - offsets[index];
+                long to = Math.min(end, offsets[index + 1]) - offsets[index];
+                try {
+                    return store.open(manifest.chunks().get(index++).hash(), from, to - from);
+                } catch (IOException e) {
+                    return new FailedInputStream(e);
+                }
+            }
+        });
+    }
+
+    private int chunkAt(long offset) {
+        int index = Arrays.binarySearch(offsets, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /* Enumeration can not throw, the failure surfaces on the first read instead */
+    private static class FailedInputStream extends InputStream {
+
+        private final IOException failure;
+
+        FailedInputStream(IOException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw failure;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package web.cloudfilestorage.chunking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Splits whatever is written to it into content-defined chunks and stores them,
+ * the resulting manifest is available after close.
+ * */
+public class ChunkingOutputStream extends OutputStream {
+
+    private final ChunkStore store;
+    private final GearChunker chunker;
+
+    private final byte[] buffer;
+    private int start;
+    private int end;
+
+    private final List<Manifest.Chunk> chunks = new ArrayList<>();
+    private Manifest manifest;
+
+    ChunkingOutputStream(ChunkStore store, GearChunker chunker) {
+        this.store = store;
+        this.chunker = chunker;
+        this.buffer = new byte[chunker.getMaxSize() * 2];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (manifest != null) {
+            throw new IOException("Stream is closed!");
+        }
+        while (length > 0) {
+            if (end == buffer.length) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            int copied = Math.min(length, buffer.length - end);
+            System.arraycopy(bytes, offset, buffer, end, copied);
+            end += copied;
+            offset += copied;
+            length -= copied;
+
+            // a boundary can only be chosen once max size bytes are available
+            while (end - start >= chunker.getMaxSize()) {
+                emit(chunker.cut(buffer, start, chunker.getMaxSize()));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (manifest != null) {
+            return;
+        }
+        while (end > start) {
+            emit(chunker.cut(buffer, start, end - start));
+        }
+        manifest = new Manifest(List.copyOf(chunks));
+    }
+
+    public Manifest getManifest() {
+        if (manifest == null) {
+            throw new IllegalStateException("Manifest is available only after close!");
+        }
+        return manifest;
+    }
+
+    private void emit(int length) throws IOException {
+        chunks.add(new Manifest.Chunk(store.put(buffer, start, length), length));
+        start += length;
+    }
+}
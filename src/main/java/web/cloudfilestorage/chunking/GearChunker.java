@@ -0,0 +1,83 @@
+package web.cloudfilestorage.chunking;
+
+import java.util.SplittableRandom;
+
+/*
+ * FastCDC: content-defined chunk boundaries found with a Gear rolling hash.
+ *
+ * A boundary depends only on the bytes just before it, so an insertion or deletion
+ * moves the boundaries around the edit and leaves all the other chunks unchanged.
+ * Normalized chunking (a stricter mask before the average size, a looser one after it)
+ * keeps chunk sizes close to the average.
+ * */
+public class GearChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // fixed seed: boundaries, and therefore chunk hashes, must not change between runs
+        SplittableRandom random = new SplittableRandom(0x43444346L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+
+    private final long strictMask;
+    private final long looseMask;
+
+    public GearChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize || Integer.bitCount(avgSize) != 1) {
+            throw new IllegalArgumentException(
+                    "Chunk sizes must satisfy 0 < min <= avg <= max and avg must be a power of two!"
+            );
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        this.strictMask = mask(bits + 2);
+        this.looseMask = mask(Math.max(1, bits - 2));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param length available bytes, less than max size only at the end of the content
+     * @return length of the chunk starting at offset
+     */
+    public int cut(byte[] buffer, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(end, avgSize);
+
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & strictMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((hash & looseMask) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /* the highest bits of a Gear hash depend on the most bytes of the window */
+    private static long mask(int bits) {
+        return -1L << (Long.SIZE - bits);
+    }
+}
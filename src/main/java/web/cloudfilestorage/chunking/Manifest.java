@@ -0,0 +1,71 @@
+package web.cloudfilestorage.chunking;
+
+import web.cloudfilestorage.storage.StorageBackend;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Ordered list of chunks a content consists of, stored in place of the content itself:
+ *
+ *   cfs-manifest 1
+ *   <sha-256 of chunk> <chunk length>
+ *   ...
+ * */
+public record Manifest(List<Chunk> chunks) {
+
+    private static final String HEADER = "cfs-manifest 1";
+
+    /* blobs stored as manifests have keys with this suffix on the parent directory */
+    public static final String DIRECTORY_SUFFIX = ".chunks";
+
+    public record Chunk(String hash, int length) {
+    }
+
+    public static boolean isManifest(String key) {
+        int name = key.lastIndexOf('/');
+        return name > 0 && key.substring(0, name).endsWith(DIRECTORY_SUFFIX);
+    }
+
+    public long length() {
+        long length = 0;
+        for (Chunk chunk : chunks) {
+            length += chunk.length();
+        }
+        return length;
+    }
+
+    public void write(StorageBackend backend, String key) throws IOException {
+        StringBuilder manifest = new StringBuilder(HEADER).append('\n');
+        for (Chunk chunk : chunks) {
+            manifest.append(chunk.hash()).append(' ').append(chunk.length()).append('\n');
+        }
+        backend.put(key, new ByteArrayInputStream(manifest.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    public static Manifest read(StorageBackend backend, String key) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(backend.get(key, 0, -1), StandardCharsets.US_ASCII))) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Malformed manifest " + key + "!");
+            }
+            List<Chunk> chunks = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator < 0) {
+                    throw new IOException("Malformed manifest " + key + "!");
+                }
+                chunks.add(new Chunk(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1))));
+            }
+            return new Manifest(chunks);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed manifest " + key + "!", e);
+        }
+    }
+}
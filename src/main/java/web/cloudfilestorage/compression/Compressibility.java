@@ -0,0 +1,95 @@
+package web.cloudfilestorage.compression;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/*
+ * Decides whether content is worth compressing: media types which are compressed by
+ * themselves are skipped, anything else is compressed if a sample of it compresses well.
+ * */
+public final class Compressibility {
+
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip",
+            "application/gzip",
+            "application/x-gzip",
+            "application/x-bzip2",
+            "application/x-xz",
+            "application/zstd",
+            "application/x-7z-compressed",
+            "application/x-rar-compressed",
+            "application/vnd.rar",
+            "application/java-archive",
+            "application/pdf",
+            "font/woff",
+            "font/woff2"
+    );
+
+    /* images which are not compressed by their format */
+    private static final Set<String> RAW_IMAGES = Set.of(
+            "image/svg+xml",
+            "image/bmp",
+            "image/x-ms-bmp",
+            "image/tiff"
+    );
+
+    private Compressibility() {
+    }
+
+    /**
+     * @param contentType declared type of the content, may be null or generic
+     * @param sample      first bytes of the content
+     * @param maxRatio    compressed to original size of the sample at most
+     */
+    public static boolean isCompressible(String contentType, String fileName, byte[] sample, double maxRatio) {
+        MediaType mediaType = mediaType(contentType, fileName);
+        if (mediaType != null && isCompressedType(mediaType)) {
+            return false;
+        }
+        return sample.length > 0 && compressedSize(sample) <= sample.length * maxRatio;
+    }
+
+    private static MediaType mediaType(String contentType, String fileName) {
+        try {
+            if (contentType != null) {
+                MediaType declared = MediaType.parseMediaType(contentType);
+                if (!declared.equalsTypeAndSubtype(MediaType.APPLICATION_OCTET_STREAM)) {
+                    return declared;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // judged by the name
+        }
+        return MediaTypeFactory.getMediaType(fileName).orElse(null);
+    }
+
+    private static boolean isCompressedType(MediaType mediaType) {
+        String type = mediaType.getType() + "/" + mediaType.getSubtype();
+        if (COMPRESSED_TYPES.contains(type) || mediaType.getSubtype().startsWith("vnd.openxmlformats-")) {
+            return true;
+        }
+        return switch (mediaType.getType()) {
+            case "image" -> !RAW_IMAGES.contains(type);
+            case "video", "audio" -> true;
+            default -> false;
+        };
+    }
+
+    private static long compressedSize(byte[] sample) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                deflater.deflate(buffer);
+            }
+            return deflater.getBytesWritten();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package web.cloudfilestorage.compression;
+
+import web.cloudfilestorage.storage.BlobStat;
+import web.cloudfilestorage.storage.BoundedInputStream;
+import web.cloudfilestorage.storage.RangeReader;
+import web.cloudfilestorage.storage.StorageBackend;
+import web.cloudfilestorage.storage.StoredBlob;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * Content stored as a gzip member, so it can be sent as it is to clients accepting
+ * Content-Encoding: gzip. The header has an extra field with the length of the content
+ * and the block size, the size is known without decompressing and is not limited to
+ * 4 GiB like ISIZE:
+ *
+ *   1f 8b 08 04 <mtime 0> 04 ff <xlen 20> 'C' 'L' <len 16> <content length, 8 bytes> <block size, 8 bytes>
+ *
+ * The deflate stream is fully flushed after every block of content, so a block can be
+ * decompressed on its own. The member is followed by an empty one, which is not sent
+ * to clients, with the offset of every block in its extra field:
+ *
+ *   1f 8b 08 04 <mtime 0> 00 ff <xlen> 'I' 'X' <len> <offsets, 8 bytes each> 03 00 <crc 0> <size 0>
+ *
+ * Reading a range decompresses from the start of its first block. Blobs stored before
+ * blocks have a single member with only the content length in the extra field, reading
+ * a range of them decompresses from the start of the blob.
+ * */
+public class GzipContent implements RangeReader {
+
+    /* blobs stored compressed have keys with this suffix on the parent directory */
+    public static final String DIRECTORY_SUFFIX = ".gz";
+
+    public static final String ENCODING = "gzip";
+
+    static final int HEADER_SIZE = 32;
+
+    /* header of blobs stored before blocks */
+    private static final int SINGLE_BLOCK_HEADER_SIZE = 24;
+
+    static final long BLOCK_SIZE = 1 << 20;
+
+    /* offsets which fit into the extra field of the index */
+    private static final int MAX_BLOCKS = (0xffff - 4) / Long.BYTES;
+
+    private static final int TRAILER_SIZE = 8;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final StorageBackend backend;
+    private final BlobStat stat;
+    private final long length;
+
+    /* 0 for blobs stored before blocks */
+    private final long blockSize;
+
+    private volatile long[] offsets;
+
+    private GzipContent(StorageBackend backend, BlobStat stat, long length, long blockSize) {
+        this.backend = backend;
+        this.stat = stat;
+        this.length = length;
+        this.blockSize = blockSize;
+    }
+
+    public static boolean isCompressed(String key) {
+        int name = key.lastIndexOf('/');
+        return name > 0 && key.substring(0, name).endsWith(DIRECTORY_SUFFIX);
+    }
+
+    public static GzipContent open(StorageBackend backend, String key) throws IOException {
+        Optional<BlobStat> stat = backend.stat(key);
+        if (stat.isEmpty()) {
+            throw new FileNotFoundException("Could not read file: " + key);
+        }
+        byte[] header;
+        try (InputStream in = backend.get(key, 0, HEADER_SIZE)) {
+            header = in.readNBytes(HEADER_SIZE);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.length < SINGLE_BLOCK_HEADER_SIZE
+                || buffer.getShort(0) != (short) 0x8b1f
+                || header[3] != 0x04
+                || header[12] != 'C' || header[13] != 'L') {
+            throw new IOException("Malformed compressed blob " + key + "!");
+        }
+        if (buffer.getShort(10) == 12 && buffer.getShort(14) == 8) {
+            return new GzipContent(backend, stat.get(), buffer.getLong(16), 0);
+        }
+        if (header.length < HEADER_SIZE || buffer.getShort(10) != 20 || buffer.getShort(14) != 16 || buffer.getLong(24) <= 0) {
+            throw new IOException("Malformed compressed blob " + key + "!");
+        }
+        return new GzipContent(backend, stat.get(), buffer.getLong(16), buffer.getLong(24));
+    }
+
+    /**
+     * @param length number of bytes the content has
+     * @return gzip member of the content and its index, compressed while it is read
+     */
+    public static InputStream encode(InputStream content, long length) {
+        return encode(content, length, Math.max(BLOCK_SIZE, (length + MAX_BLOCKS - 1) / MAX_BLOCKS));
+    }
+
+    static InputStream encode(InputStream content, long length, long blockSize) {
+        return new Encoder(content, length, blockSize);
+    }
+
+    @Override
+    public long size() {
+        return length;
+    }
+
+    @Override
+    public InputStream read(long offset, long length) throws IOException {
+        if (blockSize == 0) {
+            InputStream in = new GZIPInputStream(backend.get(stat.key(), 0, -1), BUFFER_SIZE);
+            try {
+                in.skipNBytes(Math.min(offset, this.length));
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return length < 0 ? in : new BoundedInputStream(in, length);
+        }
+
+        long start = Math.min(offset, this.length);
+        long end = length < 0 ? this.length : Math.min(this.length, start + length);
+        if (start >= end) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        long[] offsets = offsets();
+        int first = (int) (start / blockSize);
+        int last = (int) ((end - 1) / blockSize);
+        long from = offsets[first];
+        long to = last + 1 < offsets.length ? offsets[last + 1] : memberSize();
+
+        Inflater inflater = new Inflater(true);
+        InputStream in = new InflaterInputStream(backend.get(stat.key(), from, to - from), inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                inflater.end();
+                super.close();
+            }
+        };
+        try {
+            in.skipNBytes(start - first * blockSize);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BoundedInputStream(in, end - start);
+    }
+
+    /**
+     * @return the gzip member as it is stored
+     */
+    public RangeReader encoded() {
+        if (blockSize == 0) {
+            return new StoredBlob(backend, stat);
+        }
+        long size = memberSize();
+        return new RangeReader() {
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public InputStream read(long offset, long length) throws IOException {
+                long start = Math.min(offset, size);
+                return backend.get(stat.key(), start, length < 0 ? size - start : Math.min(length, size - start));
+            }
+        };
+    }
+
+    private long memberSize() {
+        return stat.size() - indexSize(blocks(length, blockSize));
+    }
+
+    private long[] offsets() throws IOException {
+        long[] offsets = this.offsets;
+        if (offsets != null) {
+            return offsets;
+        }
+        int blocks = blocks(length, blockSize);
+        byte[] index;
+        try (InputStream in = backend.get(stat.key(), memberSize(), indexSize(blocks))) {
+            index = in.readNBytes(indexSize(blocks));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(index).order(ByteOrder.LITTLE_ENDIAN);
+        if (index.length < indexSize(blocks)
+                || buffer.getShort(0) != (short) 0x8b1f
+                || buffer.getShort(10) != 4 + blocks * Long.BYTES
+                || index[12] != 'I' || index[13] != 'X') {
+            throw new IOException("Malformed index of compressed blob " + stat.key() + "!");
+        }
+        offsets = new long[blocks];
+        buffer.position(16);
+        for (int i = 0; i < blocks; i++) {
+            offsets[i] = buffer.getLong();
+        }
+        this.offsets = offsets;
+        return offsets;
+    }
+
+    private static int blocks(long length, long blockSize) {
+        return (int) Math.max(1, (length + blockSize - 1) / blockSize);
+    }
+
+    /* header with the offsets, an empty final block and the trailer */
+    private static int indexSize(int blocks) {
+        return 16 + blocks * Long.BYTES + 2 + TRAILER_SIZE;
+    }
+
+    /*
+     * Compresses the content block by block, noting the offset each block starts at,
+     * then appends the trailer and the index.
+     * */
+    private static class Encoder extends InputStream {
+
+        private enum State {DATA, FLUSH, FINISH, INDEX, END}
+
+        private final InputStream content;
+        private final long length;
+        private final long blockSize;
+        private final long[] offsets;
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private final CRC32 checksum = new CRC32();
+        private final byte[] input = new byte[BUFFER_SIZE];
+        private final byte[] output = new byte[BUFFER_SIZE];
+
+        private State state = State.DATA;
+        private ByteBuffer pending;
+
+        /* bytes handed out, including pending ones */
+        private long emitted;
+
+        private int block;
+
+        /* bytes of content read, of the whole content and of the current block */
+        private long read;
+        private long blockRead;
+
+        Encoder(InputStream content, long length, long blockSize) {
+            this.content = content;
+            this.length = length;
+            this.blockSize = blockSize;
+            this.offsets = new long[blocks(length, blockSize)];
+            this.pending = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putShort((short) 0x8b1f).put((byte) 8).put((byte) 0x04).putInt(0).put((byte) 4).put((byte) 0xff)
+                    .putShort((short) 20).put((byte) 'C').put((byte) 'L').putShort((short) 16)
+                    .putLong(length).putLong(blockSize)
+                    .flip();
+            this.emitted = HEADER_SIZE;
+            this.offsets[0] = HEADER_SIZE;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (!pending.hasRemaining()) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+            int read = Math.min(length, pending.remaining());
+            pending.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            content.close();
+        }
+
+        private boolean fill() throws IOException {
+            while (true) {
+                switch (state) {
+                    case DATA -> {
+                        if (!deflater.needsInput()) {
+                            int compressed = deflater.deflate(output, 0, output.length, Deflater.NO_FLUSH);
+                            if (compressed > 0) {
+                                return emit(compressed);
+                            }
+                            continue;
+                        }
+                        long size = Math.min(blockSize, length - block * blockSize);
+                        if (blockRead < size) {
+                            int chunk = content.read(input, 0, (int) Math.min(input.length, size - blockRead));
+                            if (chunk < 0) {
+                                throw new IOException("Expected " + length + " bytes of content, got " + read + "!");
+                            }
+                            checksum.update(input, 0, chunk);
+                            deflater.setInput(input, 0, chunk);
+                            blockRead += chunk;
+                            read += chunk;
+                            continue;
+                        }
+                        if (block + 1 < offsets.length) {
+                            state = State.FLUSH;
+                        } else {
+                            deflater.finish();
+                            state = State.FINISH;
+                        }
+                    }
+                    case FLUSH -> {
+                        int compressed = deflater.deflate(output, 0, output.length, Deflater.FULL_FLUSH);
+                        if (compressed == output.length) {
+                            // more of the flush to come
+                            return emit(compressed);
+                        }
+                        block++;
+                        blockRead = 0;
+                        offsets[block] = emitted + compressed;
+                        state = State.DATA;
+                        if (compressed > 0) {
+                            return emit(compressed);
+                        }
+                    }
+                    case FINISH -> {
+                        if (!deflater.finished()) {
+                            int compressed = deflater.deflate(output, 0, output.length);
+                            if (compressed > 0) {
+                                return emit(compressed);
+                            }
+                            continue;
+                        }
+                        if (content.read() >= 0) {
+                            throw new IOException("Expected " + length + " bytes of content, got more!");
+                        }
+                        pending = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                                .putInt((int) checksum.getValue())
+                                .putInt((int) length)
+                                .flip();
+                        emitted += TRAILER_SIZE;
+                        state = State.INDEX;
+                        return true;
+                    }
+                    case INDEX -> {
+                        ByteBuffer index = ByteBuffer.allocate(indexSize(offsets.length)).order(ByteOrder.LITTLE_ENDIAN)
+                                .putShort((short) 0x8b1f).put((byte) 8).put((byte) 0x04).putInt(0).put((byte) 0).put((byte) 0xff)
+                                .putShort((short) (4 + offsets.length * Long.BYTES)).put((byte) 'I').put((byte) 'X')
+                                .putShort((short) (offsets.length * Long.BYTES));
+                        for (long offset : offsets) {
+                            index.putLong(offset);
+                        }
+                        // an empty final block, CRC-32 and size of nothing
+                        pending = index.put((byte) 0x03).put((byte) 0x00).putInt(0).putInt(0).flip();
+                        state = State.END;
+                        return true;
+                    }
+                    case END -> {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private boolean emit(int compressed) {
+            pending = ByteBuffer.wrap(output, 0, compressed);
+            emitted += compressed;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package web.cloudfilestorage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import web.cloudfilestorage.streaming.NonBlockingDownloads;
+
+/*
+ * Downloads are written by their own pool, so request threads stay free for metadata
+ * requests however many slow clients are downloading. A download waits in the queue
+ * while all downloads.threads are busy and is rejected once downloads.queue is full too.
+ * With virtual threads every download has a thread of its own.
+ *
+ * With downloads.nonBlocking a download takes a thread only to read its next buffer of
+ * downloads.bufferSize bytes, not while the client receives it. Without it every download
+ * holds a platform thread until the client has received the last byte, so 256 slow clients
+ * take all threads and the next 1024 wait in the queue: enable it wherever clients may be
+ * slow and virtual threads are not used.
+ *
+ * Downloads have no time limit by default, a large file over a slow link may take hours.
+ * A client which stops receiving is dropped by the connector once a write has stalled for
+ * server.tomcat.connection-timeout.
+ * */
+@Configuration
+public class AsyncConfiguration implements WebMvcConfigurer {
+
+    @Value("${downloads.threads:256}")
+    private int threads;
+
+    @Value("${downloads.queue:1024}")
+    private int queue;
+
+    /* a download is aborted when it takes longer, -1 for no limit */
+    @Value("${downloads.timeout:-1}")
+    private long timeout;
+
+    @Value("${downloads.nonBlocking:false}")
+    private boolean nonBlocking;
+
+    @Value("${downloads.bufferSize:65536}")
+    private int bufferSize;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean
+    public AsyncTaskExecutor downloadExecutor() {
+        if (virtualThreads) {
+            return new TaskExecutorAdapter(VirtualThreads.newExecutor("download-"));
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("download-");
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queue);
+        executor.setAllowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Bean
+    public NonBlockingDownloads nonBlockingDownloads() {
+        return new NonBlockingDownloads(nonBlocking, downloadExecutor(), timeout, bufferSize);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(downloadExecutor());
+        configurer.setDefaultTimeout(timeout);
+    }
+}
@@ -0,0 +1,35 @@
+package web.cloudfilestorage.config;
+
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+ * Second-level cache for roles, regions are bounded in application.conf. The cache is local
+ * to each instance, so only data which may be stale for a while belongs in it: users are
+ * not cached, their status, password and roles have to be current on every instance.
+ * */
+@Configuration
+public class CacheConfiguration {
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer(
+            @Value("${cache.secondLevel.enabled:true}") boolean secondLevelCacheEnabled,
+            @Value("${cache.query.enabled:true}") boolean queryCacheEnabled
+    ) {
+        return properties -> {
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, secondLevelCacheEnabled);
+            properties.put(AvailableSettings.USE_QUERY_CACHE, secondLevelCacheEnabled && queryCacheEnabled);
+            if (secondLevelCacheEnabled) {
+                properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+                properties.put(ConfigSettings.PROVIDER, CaffeineCachingProvider.class.getName());
+                properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "create");
+            }
+        };
+    }
+
+}
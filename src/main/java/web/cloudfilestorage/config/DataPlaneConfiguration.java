@@ -0,0 +1,78 @@
+package web.cloudfilestorage.config;
+
+import org.apache.catalina.connector.Connector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import web.cloudfilestorage.throttling.DataPlaneFilter;
+
+/*
+ * With dataplane.port uploads and downloads are served by a connector of their own, with
+ * its own threads, connections and accept queue, see DataPlaneFilter. The main connector
+ * (server.port, server.tomcat.threads.max) is left to metadata calls, which stay fast
+ * however many transfers are running. Clients which still send transfers to the main
+ * connector are served there, dataplane.controlPlaneTransfers at a time.
+ *
+ * With virtual threads the connector has an executor of its own as well and transfers
+ * are limited by dataplane.maxConnections only.
+ * */
+@Configuration
+@ConditionalOnProperty(name = "dataplane.port")
+public class DataPlaneConfiguration {
+
+    @Value("${dataplane.port}")
+    private int port;
+
+    /* concurrent uploads and downloads */
+    @Value("${dataplane.threads:50}")
+    private int threads;
+
+    @Value("${dataplane.maxConnections:1000}")
+    private int maxConnections;
+
+    /* connections waiting for the connector once maxConnections are open */
+    @Value("${dataplane.acceptCount:100}")
+    private int acceptCount;
+
+    /* concurrent uploads and downloads on the main connector */
+    @Value("${dataplane.controlPlaneTransfers:20}")
+    private int controlPlaneTransfers;
+
+    /* seconds clients rejected by the main connector are told to wait */
+    @Value("${dataplane.retryAfter:1}")
+    private long retryAfter;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> dataPlaneConnector() {
+        return factory -> {
+            Connector connector = new Connector(TomcatServletWebServerFactory.DEFAULT_PROTOCOL);
+            connector.setPort(port);
+            connector.setProperty("maxThreads", String.valueOf(threads));
+            connector.setProperty("minSpareThreads", String.valueOf(Math.min(10, threads)));
+            connector.setProperty("maxConnections", String.valueOf(maxConnections));
+            connector.setProperty("acceptCount", String.valueOf(acceptCount));
+            if (virtualThreads) {
+                connector.getProtocolHandler().setExecutor(VirtualThreads.newExecutor("data-"));
+            }
+            factory.addAdditionalTomcatConnectors(connector);
+        };
+    }
+
+    @Bean
+    public FilterRegistrationBean<DataPlaneFilter> dataPlaneFilter() {
+        FilterRegistrationBean<DataPlaneFilter> registration = new FilterRegistrationBean<>(
+                new DataPlaneFilter(port, controlPlaneTransfers, retryAfter)
+        );
+        // before authentication, so a misdirected transfer costs no token check
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
@@ -0,0 +1,70 @@
+package web.cloudfilestorage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import web.cloudfilestorage.throttling.AdaptiveLimit;
+import web.cloudfilestorage.throttling.EndpointClass;
+import web.cloudfilestorage.throttling.LoadSheddingFilter;
+
+import java.util.Map;
+
+/*
+ * Adaptive concurrency limits of metadata calls, uploads and downloads, see LoadSheddingFilter.
+ * Each class starts at its initialLimit and moves between minLimit and maxLimit.
+ *
+ * Off unless loadShedding.enabled: a limit which backs off rejects requests with 503, the
+ * limits should be tuned to the latencies of the deployment before it is turned on.
+ * */
+@Configuration
+@ConditionalOnProperty(name = "loadShedding.enabled", havingValue = "true")
+public class LoadSheddingConfiguration {
+
+    /* latency above this multiple of the usual one shrinks the limit */
+    @Value("${loadShedding.tolerance:2.0}")
+    private double tolerance;
+
+    @Value("${loadShedding.backoffRatio:0.9}")
+    private double backoffRatio;
+
+    /* requests the usual latency is averaged over */
+    @Value("${loadShedding.window:500}")
+    private int window;
+
+    /* seconds */
+    @Value("${loadShedding.retryAfter:1}")
+    private long retryAfter;
+
+    @Bean
+    public FilterRegistrationBean<LoadSheddingFilter> loadSheddingFilter(
+            @Value("${loadShedding.metadata.initialLimit:100}") int metadataInitial,
+            @Value("${loadShedding.metadata.minLimit:10}") int metadataMin,
+            @Value("${loadShedding.metadata.maxLimit:1000}") int metadataMax,
+            @Value("${loadShedding.uploads.initialLimit:20}") int uploadsInitial,
+            @Value("${loadShedding.uploads.minLimit:2}") int uploadsMin,
+            @Value("${loadShedding.uploads.maxLimit:200}") int uploadsMax,
+            @Value("${loadShedding.downloads.initialLimit:50}") int downloadsInitial,
+            @Value("${loadShedding.downloads.minLimit:5}") int downloadsMin,
+            @Value("${loadShedding.downloads.maxLimit:500}") int downloadsMax
+    ) {
+        LoadSheddingFilter filter = new LoadSheddingFilter(
+                Map.of(
+                        EndpointClass.METADATA, limit(metadataInitial, metadataMin, metadataMax),
+                        EndpointClass.UPLOADS, limit(uploadsInitial, uploadsMin, uploadsMax),
+                        EndpointClass.DOWNLOADS, limit(downloadsInitial, downloadsMin, downloadsMax)
+                ),
+                retryAfter
+        );
+        FilterRegistrationBean<LoadSheddingFilter> registration = new FilterRegistrationBean<>(filter);
+        // after DataPlaneFilter, before authentication, which is work a rejected request should not cost
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+
+    private AdaptiveLimit limit(int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveLimit(initialLimit, minLimit, maxLimit, tolerance, backoffRatio, window);
+    }
+}
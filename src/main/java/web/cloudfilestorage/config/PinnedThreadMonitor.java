@@ -0,0 +1,83 @@
+package web.cloudfilestorage.config;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Logs virtual threads which held on to their carrier thread longer than the threshold,
+ * blocking in a synchronized block or in native code. Each of them takes a carrier
+ * away from all other virtual threads while it is pinned.
+ * */
+@Slf4j
+public class PinnedThreadMonitor implements Closeable {
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+
+    private static final int FRAMES = 12;
+
+    private final Duration threshold;
+
+    private final AtomicLong pinned = new AtomicLong();
+
+    private RecordingStream stream;
+
+    public PinnedThreadMonitor(Duration threshold) {
+        this.threshold = threshold;
+    }
+
+    public void start() {
+        stream = new RecordingStream();
+        stream.enable(EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(EVENT, this::report);
+        stream.startAsync();
+    }
+
+    /**
+     * @return number of times a virtual thread was pinned longer than the threshold
+     */
+    public long getPinned() {
+        return pinned.get();
+    }
+
+    @Override
+    public void close() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void report(RecordedEvent event) {
+        pinned.incrementAndGet();
+        log.warn(
+                "Virtual thread {} was pinned to its carrier for {} ms{}",
+                event.getThread() == null ? "?" : event.getThread().getJavaName(),
+                event.getDuration().toMillis(),
+                frames(event.getStackTrace())
+        );
+    }
+
+    private static String frames(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "";
+        }
+        StringBuilder frames = new StringBuilder();
+        List<RecordedFrame> recorded = stackTrace.getFrames();
+        for (RecordedFrame frame : recorded.subList(0, Math.min(FRAMES, recorded.size()))) {
+            frames.append("\n\tat ")
+                    .append(frame.getMethod().getType().getName())
+                    .append('.')
+                    .append(frame.getMethod().getName())
+                    .append(':')
+                    .append(frame.getLineNumber());
+        }
+        return frames.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package web.cloudfilestorage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import web.cloudfilestorage.throttling.EndpointClass;
+import web.cloudfilestorage.throttling.RateLimiter;
+
+import java.util.Map;
+
+@Configuration
+@ConditionalOnProperty(name = "rateLimit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfiguration {
+
+    @Bean
+    public RateLimiter rateLimiter(
+            @Value("${rateLimit.maxKeys:100000}") int maxKeys,
+            @Value("${rateLimit.metadata.permitsPerSecond:50}") double metadataRate,
+            @Value("${rateLimit.metadata.burst:100}") int metadataBurst,
+            @Value("${rateLimit.uploads.permitsPerSecond:5}") double uploadsRate,
+            @Value("${rateLimit.uploads.burst:20}") int uploadsBurst,
+            @Value("${rateLimit.downloads.permitsPerSecond:20}") double downloadsRate,
+            @Value("${rateLimit.downloads.burst:40}") int downloadsBurst
+    ) {
+        return new RateLimiter(
+                Map.of(
+                        EndpointClass.METADATA, RateLimiter.Limit.of(metadataRate, metadataBurst),
+                        EndpointClass.UPLOADS, RateLimiter.Limit.of(uploadsRate, uploadsBurst),
+                        EndpointClass.DOWNLOADS, RateLimiter.Limit.of(downloadsRate, downloadsBurst)
+                ),
+                maxKeys
+        );
+    }
+}
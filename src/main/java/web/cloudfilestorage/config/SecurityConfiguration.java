@@ -1,6 +1,8 @@
 package web.cloudfilestorage.config;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -10,6 +12,11 @@ import org.springframework.security.config.annotation.web.configuration.WebSecur
 import org.springframework.security.config.http.SessionCreationPolicy;
 import web.cloudfilestorage.security.JwtConfigurer;
 import web.cloudfilestorage.security.JwtTokenProvider;
+import web.cloudfilestorage.service.ApiKeyService;
+import web.cloudfilestorage.throttling.RateLimitFilter;
+import web.cloudfilestorage.throttling.RateLimiter;
+
+import java.util.regex.Pattern;
 
 @Configuration
 @EnableGlobalMethodSecurity(
@@ -21,9 +28,27 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 
     private final JwtTokenProvider jwtTokenProvider;
 
+    private final ApiKeyService apiKeyService;
+
+    /* absent with rateLimit.enabled=false, see RateLimitConfiguration */
+    private final RateLimiter rateLimiter;
+
+    @Value("${rateLimit.clientIpHeader:X-Forwarded-For}")
+    private String clientIpHeader;
+
+    /* regular expression of proxy addresses whose clientIpHeader is believed, none if empty */
+    @Value("${rateLimit.trustedProxies:}")
+    private String trustedProxies;
+
     @Autowired
-    public SecurityConfiguration(JwtTokenProvider jwtTokenProvider) {
+    public SecurityConfiguration(
+            JwtTokenProvider jwtTokenProvider,
+            ApiKeyService apiKeyService,
+            ObjectProvider<RateLimiter> rateLimiter
+    ) {
         this.jwtTokenProvider = jwtTokenProvider;
+        this.apiKeyService = apiKeyService;
+        this.rateLimiter = rateLimiter.getIfAvailable();
     }
 
     @Bean
@@ -45,8 +70,18 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
                 .antMatchers("/api/users/register").permitAll()
                 .antMatchers("/api/files/download").permitAll()
                 .antMatchers("/docs/**").permitAll()
+                // authorized by the cluster token, see ReplicaController
+                .antMatchers("/internal/**").permitAll()
                 .anyRequest().authenticated()
         .and()
-                .apply(new JwtConfigurer(jwtTokenProvider));
+                .apply(new JwtConfigurer(
+                        jwtTokenProvider,
+                        apiKeyService,
+                        rateLimiter == null ? null : new RateLimitFilter(
+                                rateLimiter,
+                                clientIpHeader,
+                                trustedProxies.isEmpty() ? null : Pattern.compile(trustedProxies)
+                        )
+                ));
     }
 }
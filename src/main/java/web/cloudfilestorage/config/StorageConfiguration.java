@@ -0,0 +1,294 @@
+package web.cloudfilestorage.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import web.cloudfilestorage.encryption.SegmentedGcm;
+import web.cloudfilestorage.storage.AccessSketch;
+import web.cloudfilestorage.storage.EncryptingStorageBackend;
+import web.cloudfilestorage.storage.ErasureCodedStorageBackend;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.storage.MultiVolumeStorageBackend;
+import web.cloudfilestorage.storage.PackingStorageBackend;
+import web.cloudfilestorage.storage.RemoteStorageBackend;
+import web.cloudfilestorage.storage.ReplicatedStorageBackend;
+import web.cloudfilestorage.storage.S3StorageBackend;
+import web.cloudfilestorage.storage.StorageBackend;
+import web.cloudfilestorage.storage.TieredStorageBackend;
+import web.cloudfilestorage.storage.Volume;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Storage backend of the deployment, selected with storage.backend:
+ * "local" keeps blobs under filesRoot, "volumes" spreads them over several disks
+ * of the node, "s3" keeps them in an S3-compatible bucket which replicas share
+ * without a shared volume, "replicated" keeps them on the local disks of the
+ * replicas, each blob on several of them, "erasure" codes them into shards over
+ * several disks of the node, "tiered" keeps the blobs in use on a fast disk and the
+ * others on a cheap one.
+ *
+ * With storage.encryption.enabled, blobs are encrypted before they are written to a
+ * disk or a bucket, see EncryptingStorageBackend.
+ * */
+@Configuration
+public class StorageConfiguration {
+
+    /* small blobs on local disks are appended to segment files, see PackingStorageBackend */
+    @Value("${storage.packing.enabled:false}")
+    private boolean packingEnabled;
+
+    @Value("${storage.packing.root:${filesRoot:files}/../segments}")
+    private String packingRoot;
+
+    @Value("${storage.packing.threshold:16384}")
+    private int packingThreshold;
+
+    @Value("${storage.packing.segmentSize:268435456}")
+    private long segmentSize;
+
+    @Value("${storage.encryption.enabled:false}")
+    private boolean encryptionEnabled;
+
+    /* base64 AES keys, the first one encrypts new blobs */
+    @Value("${storage.encryption.keys:}")
+    private String[] encryptionKeys;
+
+    @Value("${storage.encryption.segmentSize:65536}")
+    private int encryptionSegmentSize;
+
+    private SegmentedGcm gcm;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "local", matchIfMissing = true)
+    public StorageBackend localStorageBackend(
+            @Value("${filesRoot}") String filesRoot
+    ) throws IOException {
+        return encrypted(packed(new LocalStorageBackend(Path.of(filesRoot))));
+    }
+
+    /*
+     * storage.volumes=name=path,... Blobs stored before volumes were configured are
+     * found on any volume, so the former filesRoot should stay one of them.
+     * storage.volumes.reserve is the space in bytes new content leaves free on each volume.
+     * */
+    @Bean
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "volumes")
+    public MultiVolumeStorageBackend volumes(
+            @Value("${storage.volumes}") String[] volumes,
+            @Value("${storage.volumes.reserve:1073741824}") long reserve
+    ) throws IOException {
+        List<Volume> configured = new ArrayList<>();
+        for (Map.Entry<String, String> volume : pairs(volumes, "Volume", "name=path").entrySet()) {
+            configured.add(new Volume(volume.getKey(), Files.createDirectories(Path.of(volume.getValue()))));
+        }
+        return new MultiVolumeStorageBackend(configured, reserve);
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "volumes")
+    public StorageBackend multiVolumeStorageBackend(
+            MultiVolumeStorageBackend volumes
+    ) throws IOException {
+        return encrypted(packed(volumes));
+    }
+
+    /*
+     * storage.replication.nodes=name=url,... lists every node including this one,
+     * which is found by storage.replication.self (the pod name by default).
+     * */
+    @Bean
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "replicated")
+    public ReplicatedStorageBackend replicatedStorageBackend(
+            @Value("${filesRoot}") String filesRoot,
+            @Value("${storage.replication.nodes}") String[] nodes,
+            @Value("${storage.replication.self:${HOSTNAME}}") String self,
+            @Value("${storage.replication.factor:3}") int factor,
+            @Value("${storage.replication.writeQuorum:2}") int writeQuorum,
+            @Value("${storage.replication.token}") String token,
+            @Value("${storage.replication.spool:${filesRoot:files}/../spool}") String spool
+    ) throws IOException {
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        Map<String, StorageBackend> configured = new LinkedHashMap<>();
+        for (Map.Entry<String, String> node : pairs(nodes, "Node", "name=url").entrySet()) {
+            configured.put(node.getKey(), node.getKey().equals(self)
+                    // acknowledged writes must survive a crash of the node
+                    ? encrypted(packed(new LocalStorageBackend(Path.of(filesRoot), true), true))
+                    : new RemoteStorageBackend(client, URI.create(node.getValue()), token)
+            );
+        }
+        return new ReplicatedStorageBackend(
+                self, configured, factor, writeQuorum, Path.of(spool), daemonExecutor("replication")
+        );
+    }
+
+    /*
+     * storage.erasure.volumes=name=path,... needs at least dataShards + parityShards
+     * volumes, ideally on as many disks. The default 4+2 survives the loss of any two
+     * at 1.5 times the size of the blobs. A put needs storage.erasure.writeQuorum shards,
+     * dataShards + 1 by default, see ErasureScrubService for the others.
+     * */
+    @Bean
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "erasure")
+    public ErasureCodedStorageBackend erasureCodedStorageBackend(
+            @Value("${storage.erasure.volumes}") String[] volumes,
+            @Value("${storage.erasure.dataShards:4}") int dataShards,
+            @Value("${storage.erasure.parityShards:2}") int parityShards,
+            @Value("${storage.erasure.cellSize:65536}") int cellSize,
+            /* 0 for dataShards + 1 */
+            @Value("${storage.erasure.writeQuorum:0}") int writeQuorum,
+            @Value("${storage.erasure.spool:${filesRoot:files}/../spool}") String spool
+    ) throws IOException {
+        Map<String, StorageBackend> configured = new LinkedHashMap<>();
+        for (Map.Entry<String, String> volume : pairs(volumes, "Volume", "name=path").entrySet()) {
+            configured.put(volume.getKey(), encrypted(
+                    new LocalStorageBackend(Files.createDirectories(Path.of(volume.getValue())))
+            ));
+        }
+        return new ErasureCodedStorageBackend(
+                configured, dataShards, parityShards, cellSize,
+                writeQuorum == 0 ? Math.min(dataShards + 1, dataShards + parityShards) : writeQuorum,
+                Path.of(spool), daemonExecutor("erasure")
+        );
+    }
+
+    /*
+     * Reads are recorded in a sketch of storage.tiering.sketchWidth cells per row,
+     * saved to storage.tiering.sketch by TieringService. For a single instance only.
+     * */
+    @Bean
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "tiered")
+    public TieredStorageBackend tieredStorageBackend(
+            @Value("${storage.tiering.hot}") String hot,
+            @Value("${storage.tiering.cold}") String cold,
+            @Value("${storage.tiering.sketch:${filesRoot:files}/../access.sketch}") String sketch,
+            @Value("${storage.tiering.sketchWidth:262144}") int sketchWidth
+    ) throws IOException {
+        return new TieredStorageBackend(
+                encrypted(new LocalStorageBackend(Files.createDirectories(Path.of(hot)))),
+                encrypted(new LocalStorageBackend(Files.createDirectories(Path.of(cold)))),
+                AccessSketch.load(Path.of(sketch), sketchWidth, System.currentTimeMillis()),
+                daemonExecutor("promotion")
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "storage.backend", havingValue = "s3")
+    public StorageBackend s3StorageBackend(
+            @Value("${storage.s3.endpoint:}") String endpoint,
+            @Value("${storage.s3.region:us-east-1}") String region,
+            @Value("${storage.s3.bucket}") String bucket,
+            @Value("${storage.s3.accessKey:}") String accessKey,
+            @Value("${storage.s3.secretKey:}") String secretKey,
+            @Value("${storage.s3.partSize:8388608}") int partSize
+    ) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region));
+        if (StringUtils.hasText(endpoint)) {
+            // S3-compatible servers such as MinIO are addressed by path, not by bucket subdomain
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(configuration -> configuration.pathStyleAccessEnabled(true));
+        }
+        if (StringUtils.hasText(accessKey)) {
+            builder.credentialsProvider(
+                    StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey))
+            );
+        } else {
+            builder.credentialsProvider(DefaultCredentialsProvider.create());
+        }
+        return encrypted(new S3StorageBackend(builder.build(), bucket, partSize));
+    }
+
+    private static Map<String, String> pairs(String[] entries, String what, String format) {
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (String entry : entries) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException(what + " must be given as " + format + ": " + entry);
+            }
+            pairs.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+        }
+        return pairs;
+    }
+
+    /* threads blocking on disks and nodes, virtual ones if enabled */
+    private ExecutorService daemonExecutor(String name) {
+        if (virtualThreads) {
+            return VirtualThreads.newExecutor(name + "-");
+        }
+        return Executors.newCachedThreadPool(daemonThreads(name));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /*
+     * Segments of all blobs are encrypted and decrypted on one thread per core,
+     * each stream keeps as many of them in flight. The work is CPU bound, so these
+     * stay platform threads.
+     * */
+    private StorageBackend encrypted(StorageBackend backend) {
+        if (!encryptionEnabled) {
+            return backend;
+        }
+        if (gcm == null) {
+            List<byte[]> keys = new ArrayList<>();
+            for (String key : encryptionKeys) {
+                if (StringUtils.hasText(key)) {
+                    keys.add(Base64.getDecoder().decode(key.trim()));
+                }
+            }
+            int cores = Runtime.getRuntime().availableProcessors();
+            gcm = new SegmentedGcm(
+                    keys, encryptionSegmentSize, Executors.newFixedThreadPool(cores, daemonThreads("encryption")), cores
+            );
+        }
+        return new EncryptingStorageBackend(backend, gcm);
+    }
+
+    private StorageBackend packed(StorageBackend backend) throws IOException {
+        return packed(backend, false);
+    }
+
+    /* durable packing syncs segments like a durable LocalStorageBackend syncs files */
+    private StorageBackend packed(StorageBackend backend, boolean durable) throws IOException {
+        if (!packingEnabled) {
+            return backend;
+        }
+        return new PackingStorageBackend(backend, Path.of(packingRoot), packingThreshold, segmentSize, durable);
+    }
+
+}
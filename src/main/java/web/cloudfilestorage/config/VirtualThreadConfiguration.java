@@ -0,0 +1,40 @@
+package web.cloudfilestorage.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+
+/*
+ * With spring.threads.virtual.enabled each request is handled on a virtual thread of its
+ * own instead of on Tomcat's pool, so blocking on disks and the database no longer limits
+ * concurrent transfers to the size of the pool. Downloads and the I/O pools of storage
+ * backends run on virtual threads as well, see AsyncConfiguration and StorageConfiguration.
+ *
+ * Concurrent database calls are still limited by the connection pool
+ * (spring.datasource.hikari.maximum-pool-size).
+ * */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    /* pinned virtual threads are logged when they held their carrier longer */
+    @Value("${spring.threads.virtual.pinnedThreshold:20}")
+    private long pinnedThreshold;
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        ExecutorService executor = VirtualThreads.newExecutor("http-");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public PinnedThreadMonitor pinnedThreadMonitor() {
+        return new PinnedThreadMonitor(Duration.ofMillis(pinnedThreshold));
+    }
+}
@@ -0,0 +1,43 @@
+package web.cloudfilestorage.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Executors of virtual threads, which need a Java 21 runtime. The sources are compiled
+ * for an older release, so the API is looked up when the runtime has it.
+ * */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * @return executor starting a new virtual thread, named prefix and a counter, per task
+     * @throws IllegalStateException if the runtime has no virtual threads
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        if (!isAvailable()) {
+            throw new IllegalStateException(
+                    "Virtual threads need Java 21 or later, the runtime is " + Runtime.version() + "!"
+            );
+        }
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Could not create virtual threads!", e);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import web.cloudfilestorage.model.File;
 import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.model.User;
 import web.cloudfilestorage.service.FileService;
+import web.cloudfilestorage.service.RoleRegistry;
 import web.cloudfilestorage.service.RoleService;
 import web.cloudfilestorage.service.UserService;
 
@@ -39,14 +40,18 @@ public class AdminController {
 
     private final FileService fileService;
 
+    private final RoleRegistry roleRegistry;
+
     @Autowired
     public AdminController(
             UserService userService,
             RoleService roleService,
-            FileService fileService) {
+            FileService fileService,
+            RoleRegistry roleRegistry) {
         this.userService = userService;
         this.roleService = roleService;
         this.fileService = fileService;
+        this.roleRegistry = roleRegistry;
     }
 
     @Secured("ROLE_ADMIN")
@@ -91,9 +96,7 @@ public class AdminController {
 
         User user = userService.findByUsername(username);
 
-        Role role_admin = roleService.retrieve("ROLE_ADMIN");
-
-        if (user.getRoles().contains(role_admin)) {
+        if (roleRegistry.hasRole(user, "ROLE_ADMIN")) {
             throw new AccessDeniedException(
                     "Admin users can not update admin users!"
             );
@@ -119,9 +122,7 @@ public class AdminController {
 
         User user = userService.findByUsername(username);
 
-        Role role_admin = roleService.retrieve("ROLE_ADMIN");
-
-        if (user.getRoles().contains(role_admin)) {
+        if (roleRegistry.hasRole(user, "ROLE_ADMIN")) {
             throw new AccessDeniedException(
                     "Admin users can not update admin users!"
             );
@@ -0,0 +1,90 @@
+package web.cloudfilestorage.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import web.cloudfilestorage.dto.apikey.ApiKeyData;
+import web.cloudfilestorage.dto.apikey.ApiKeyView;
+import web.cloudfilestorage.exceptions.JwtAuthenticationException;
+import web.cloudfilestorage.service.ApiKeyService;
+
+import javax.persistence.EntityNotFoundException;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/users/keys")
+@Tag(name = "Api key", description = "Api keys of machine clients")
+public class ApiKeyController {
+
+    private final ApiKeyService apiKeyService;
+
+    @Autowired
+    public ApiKeyController(ApiKeyService apiKeyService) {
+        this.apiKeyService = apiKeyService;
+    }
+
+    @GetMapping("")
+    @Operation(
+            summary = "List api keys",
+            description = "List api keys of authenticated user"
+    )
+    public ResponseEntity<List<ApiKeyView>> list(
+            Authentication authentication
+    ) throws JwtAuthenticationException {
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        return ResponseEntity.ok(
+                apiKeyService.list(authentication.getName())
+        );
+    }
+
+    @PostMapping("")
+    @Operation(
+            summary = "Create api key",
+            description = "Create api key, the key itself is shown only in this response"
+    )
+    public ResponseEntity<ApiKeyView> create(
+            @Valid @RequestBody
+            ApiKeyData apiKeyData,
+            Authentication authentication
+    ) throws JwtAuthenticationException, EntityNotFoundException {
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        return new ResponseEntity<>(
+                apiKeyService.create(authentication.getName(), apiKeyData),
+                HttpStatus.CREATED
+        );
+    }
+
+    @DeleteMapping("/{id}")
+    @Operation(
+            summary = "Revoke api key",
+            description = "Revoke api key of authenticated user"
+    )
+    public ResponseEntity<String> revoke(
+            @PathVariable(value = "id")
+            @NotNull(message = "id must be provided as path variable")
+            @Min(value = 1, message = "minimal value for id is 1")
+            Long id,
+            Authentication authentication
+    ) throws JwtAuthenticationException, EntityNotFoundException {
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        apiKeyService.revoke(id, authentication.getName());
+        return new ResponseEntity<>(
+                "Api key " + id + " is revoked!",
+                HttpStatus.NO_CONTENT
+        );
+    }
+
+}
@@ -4,27 +4,37 @@ package web.cloudfilestorage.controller;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.MissingRequestValueException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import web.cloudfilestorage.dto.file.FileData;
+import web.cloudfilestorage.dto.file.FileSignatures;
 import web.cloudfilestorage.exceptions.JwtAuthenticationException;
+import web.cloudfilestorage.exceptions.PreconditionFailedException;
 import web.cloudfilestorage.model.File;
-import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.model.FileVersion;
 import web.cloudfilestorage.service.FileService;
-import web.cloudfilestorage.service.UserService;
+import web.cloudfilestorage.storage.EncodedResource;
+import web.cloudfilestorage.storage.RangeResource;
+import web.cloudfilestorage.streaming.NonBlockingDownloads;
 
 import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -32,16 +42,17 @@ import java.util.List;
 @Tag(name = "File", description = "Files' operations")
 public class FileController {
 
-    private final UserService userService;
     private final FileService fileService;
 
+    private final NonBlockingDownloads nonBlockingDownloads;
+
     @Autowired
     public FileController(
-            UserService userService,
-            FileService fileService
+            FileService fileService,
+            NonBlockingDownloads nonBlockingDownloads
     ) {
-        this.userService = userService;
         this.fileService = fileService;
+        this.nonBlockingDownloads = nonBlockingDownloads;
     }
 
     @GetMapping("")
@@ -79,18 +90,23 @@ public class FileController {
             summary = "Get resource",
             description = "Download file of stream video retrieved via id or link"
     )
-    public ResponseEntity<Resource> resource(
+    public ResponseEntity<StreamingResponseBody> resource(
             @RequestParam(value = "id", required = false) Long id,
             @RequestParam(value = "link", required = false) String link,
-            Authentication authentication
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            Authentication authentication,
+            HttpServletRequest request,
+            HttpServletResponse response
     )
             throws
             EntityNotFoundException,
             MissingRequestValueException,
             JwtAuthenticationException,
-            FileNotFoundException
+            AccessDeniedException,
+            IOException
     {
-        Resource resource = null;
+        RangeResource resource;
 
         if (link != null) {
             resource = fileService.download(link);
@@ -101,18 +117,50 @@ public class FileController {
             if (authentication == null) {
                 throw new JwtAuthenticationException("Not authenticated!", "Authorization");
             }
-            User principal = userService.findByUsername(authentication.getName());
-            File file = fileService.findById(id);
-            if (file.getOwner() == principal) {
-                resource = fileService.download(id);
+            resource = fileService.download(id, authentication.getName());
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"");
+        headers.setContentType(MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM));
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (resource instanceof EncodedResource) {
+            // caches must not serve one encoding to clients asking for the other
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        // ranges are of the content, not of the stored bytes
+        if (resource instanceof EncodedResource encoded && range == null && accepts(acceptEncoding, encoded.getEncoding())) {
+            RangeResource stored = encoded.getEncoded();
+            headers.set(HttpHeaders.CONTENT_ENCODING, encoded.getEncoding());
+            headers.setContentLength(stored.contentLength());
+            return send(HttpStatus.OK, headers, stored, 0, -1, request, response);
+        }
+
+        long size = resource.contentLength();
+        List<HttpRange> ranges = List.of();
+        if (range != null) {
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                // a malformed range is ignored
+            }
+        }
+        // several ranges are served as the whole content
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(size);
+            if (start >= size) {
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
             }
+            long end = ranges.get(0).getRangeEnd(size);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            headers.setContentLength(end - start + 1);
+            return send(HttpStatus.PARTIAL_CONTENT, headers, resource, start, end - start + 1, request, response);
         }
 
-        assert resource != null;
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + resource.getFilename() + "\"")
-                .body(resource);
+        headers.setContentLength(size);
+        return send(HttpStatus.OK, headers, resource, 0, -1, request, response);
     }
 
     @PostMapping("")
@@ -156,36 +204,212 @@ public class FileController {
             @RequestParam(value = "file")
             MultipartFile multipartFile,
             FileData fileMetadata,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+            String ifMatch,
             Authentication authentication
     )
             throws
             JwtAuthenticationException,
             IOException,
             EntityNotFoundException,
-            AccessDeniedException {
+            AccessDeniedException,
+            PreconditionFailedException,
+            OptimisticLockException {
+
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        File file = fileService.findOwnedFile(id, authentication.getName());
+        checkVersion(file, ifMatch);
+
+        file = fileService.update(
+                file,
+                multipartFile,
+                fileMetadata
+        );
+        return ResponseEntity.ok()
+                .eTag(String.valueOf(file.getVersion()))
+                .body(file);
+    }
+
+    @PatchMapping("/{id}")
+    @Operation(
+            summary = "Update file metadata",
+            description = "Update metadata of file owned by an authorized user"
+    )
+    public ResponseEntity<File> updateMetadata(
+            @PathVariable(value = "id")
+            @NotNull(message = "id must be provided as path variable")
+            @Min(value = 1, message = "minimal value for id is 1")
+            Long id,
+            FileData fileMetadata,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+            String ifMatch,
+            Authentication authentication
+    )
+            throws
+            JwtAuthenticationException,
+            IOException,
+            EntityNotFoundException,
+            AccessDeniedException,
+            PreconditionFailedException,
+            OptimisticLockException {
+
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        File file = fileService.findOwnedFile(id, authentication.getName());
+        checkVersion(file, ifMatch);
+
+        // parameters which are not given are left unchanged
+        if (fileMetadata.getDescription() == null) {
+            fileMetadata.setDescription(file.getDescription());
+        }
+        file = fileService.update(
+                file,
+                null,
+                fileMetadata
+        );
+        return ResponseEntity.ok()
+                .eTag(String.valueOf(file.getVersion()))
+                .body(file);
+    }
+
+    @GetMapping("/{id}/signatures")
+    @Operation(
+            summary = "Get block signatures",
+            description = "Rolling and strong checksums of file blocks, used to build a delta"
+    )
+    public ResponseEntity<FileSignatures> signatures(
+            @PathVariable(value = "id")
+            @NotNull(message = "id must be provided as path variable")
+            @Min(value = 1, message = "minimal value for id is 1")
+            Long id,
+            @RequestParam(value = "blockSize", required = false)
+            Integer blockSize,
+            Authentication authentication
+    )
+            throws
+            JwtAuthenticationException,
+            EntityNotFoundException,
+            AccessDeniedException,
+            IOException {
 
         if (authentication == null) {
             throw new JwtAuthenticationException("Not authenticated!", "Authorization");
         }
-        File file = fileService.findById(id);
-        User owner = file.getOwner();
+        File file = fileService.findOwnedFile(id, authentication.getName());
+
+        return ResponseEntity.ok()
+                .eTag(String.valueOf(file.getVersion()))
+                .body(fileService.signatures(file, blockSize));
+    }
+
+    @PutMapping(value = "/{id}/delta", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(
+            summary = "Update file with delta",
+            description = "Update file owned by an authorized user with a delta against the version given in If-Match"
+    )
+    public ResponseEntity<File> delta(
+            @PathVariable(value = "id")
+            @NotNull(message = "id must be provided as path variable")
+            @Min(value = 1, message = "minimal value for id is 1")
+            Long id,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+            String ifMatch,
+            InputStream delta,
+            Authentication authentication
+    )
+            throws
+            JwtAuthenticationException,
+            IOException,
+            EntityNotFoundException,
+            AccessDeniedException,
+            PreconditionFailedException,
+            OptimisticLockException {
 
-        if (owner != userService.findByUsername(authentication.getName())) {
-            throw new AccessDeniedException(
-                    "Permission denied!"
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            throw new PreconditionFailedException(
+                    "Version the delta was built against must be provided!",
+                    HttpHeaders.IF_MATCH
             );
         }
+        File file = fileService.findOwnedFile(id, authentication.getName());
+        checkVersion(file, ifMatch);
+
+        file = fileService.applyDelta(file, delta);
+        return ResponseEntity.ok()
+                .eTag(String.valueOf(file.getVersion()))
+                .body(file);
+    }
+
+    @GetMapping("/{id}/versions")
+    @Operation(
+            summary = "List file versions",
+            description = "List retained versions of file owned by an authorized user"
+    )
+    public ResponseEntity<List<FileVersion>> versions(
+            @PathVariable(value = "id")
+            @NotNull(message = "id must be provided as path variable")
+            @Min(value = 1, message = "minimal value for id is 1")
+            Long id,
+            Authentication authentication
+    )
+            throws
+            JwtAuthenticationException,
+            EntityNotFoundException,
+            AccessDeniedException {
+
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        File file = fileService.findOwnedFile(id, authentication.getName());
 
         return new ResponseEntity<>(
-                fileService.update(
-                        file,
-                        multipartFile,
-                        fileMetadata
-                ),
+                fileService.versions(file),
                 HttpStatus.OK
         );
     }
 
+    @PostMapping("/{id}/versions/{version}/restore")
+    @Operation(
+            summary = "Restore file version",
+            description = "Make retained version current, current state is kept as a version"
+    )
+    public ResponseEntity<File> restore(
+            @PathVariable(value = "id")
+            @NotNull(message = "id must be provided as path variable")
+            @Min(value = 1, message = "minimal value for id is 1")
+            Long id,
+            @PathVariable(value = "version")
+            @NotNull(message = "version must be provided as path variable")
+            Long version,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+            String ifMatch,
+            Authentication authentication
+    )
+            throws
+            JwtAuthenticationException,
+            EntityNotFoundException,
+            AccessDeniedException,
+            PreconditionFailedException,
+            OptimisticLockException {
+
+        if (authentication == null) {
+            throw new JwtAuthenticationException("Not authenticated!", "Authorization");
+        }
+        File file = fileService.findOwnedFile(id, authentication.getName());
+        checkVersion(file, ifMatch);
+
+        file = fileService.restore(file, version);
+        return ResponseEntity.ok()
+                .eTag(String.valueOf(file.getVersion()))
+                .body(file);
+    }
+
     @DeleteMapping("/{id}")
     @Operation(
             summary = "Delete file",
@@ -206,14 +430,7 @@ public class FileController {
         if (authentication == null) {
             throw new JwtAuthenticationException("Not authenticated!", "Authorization");
         }
-        File file = fileService.findById(id);
-        User owner = file.getOwner();
-
-        if (owner != userService.findByUsername(authentication.getName())) {
-            throw new AccessDeniedException(
-                    "Permission denied!"
-            );
-        }
+        File file = fileService.findOwnedFile(id, authentication.getName());
         fileService.delete(file);
         return new ResponseEntity<>(
                 "File " + file.getFile() + " deleted!",
@@ -221,4 +438,73 @@ public class FileController {
         );
     }
 
+    private static void checkVersion(File file, String ifMatch) throws PreconditionFailedException {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return;
+        }
+        // strong comparison: a weak tag never matches
+        String expected = "\"" + file.getVersion() + "\"";
+        for (String tag : ifMatch.split(",")) {
+            if (tag.trim().equals(expected)) {
+                return;
+            }
+        }
+        throw new PreconditionFailedException(
+                "File with id " + file.getId() + " has version " + file.getVersion() + "!",
+                HttpHeaders.IF_MATCH
+        );
+    }
+
+    /*
+     * Non-blocking downloads write the response themselves, others are written by the
+     * download executor from the returned body.
+     * */
+    private ResponseEntity<StreamingResponseBody> send(
+            HttpStatus status,
+            HttpHeaders headers,
+            RangeResource resource,
+            long offset,
+            long length,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        if (!nonBlockingDownloads.isEnabled()) {
+            return ResponseEntity.status(status).headers(headers).body(transfer(resource, offset, length));
+        }
+        response.setStatus(status.value());
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        nonBlockingDownloads.start(request, response, resource, offset, length);
+        return null;
+    }
+
+    /*
+     * Written on the download executor, a slow client does not hold a request thread.
+     * */
+    private static StreamingResponseBody transfer(RangeResource resource, long offset, long length) {
+        return out -> {
+            try (InputStream in = resource.getInputStream(offset, length)) {
+                in.transferTo(out);
+            }
+        };
+    }
+
+    private static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String accepted : acceptEncoding.split(",")) {
+            String[] parameters = accepted.split(";");
+            if (!parameters[0].trim().equalsIgnoreCase(encoding)) {
+                continue;
+            }
+            for (int i = 1; i < parameters.length; i++) {
+                if (parameters[i].trim().matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
 }
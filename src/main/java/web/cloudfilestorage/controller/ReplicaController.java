@@ -0,0 +1,194 @@
+package web.cloudfilestorage.controller;
+
+import io.swagger.v3.oas.annotations.Hidden;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import web.cloudfilestorage.exceptions.TooManyAttemptsException;
+import web.cloudfilestorage.storage.BlobStat;
+import web.cloudfilestorage.storage.RemoteStorageBackend;
+import web.cloudfilestorage.storage.ReplicatedStorageBackend;
+import web.cloudfilestorage.storage.StorageBackend;
+import web.cloudfilestorage.throttling.EndpointClass;
+import web.cloudfilestorage.throttling.RateLimiter;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Local storage of this node for the other nodes of the cluster, see RemoteStorageBackend.
+ * Requests carry the cluster token instead of a user's credentials.
+ *
+ * The endpoints are reachable on the public port, so failed token checks are limited
+ * per client address; a client out of attempts gets 429 without its token being checked.
+ * */
+@Hidden
+@RestController
+@RequestMapping("/internal/blobs")
+@ConditionalOnProperty(name = "storage.backend", havingValue = "replicated")
+public class ReplicaController {
+
+    private static final int MAX_CLIENTS = 10_000;
+
+    private final ReplicatedStorageBackend replicatedStorageBackend;
+
+    private final byte[] token;
+
+    private final RateLimiter failedChecks;
+
+    @Autowired
+    public ReplicaController(
+            ReplicatedStorageBackend replicatedStorageBackend,
+            @Value("${storage.replication.token}") String token,
+            @Value("${storage.replication.failedTokenChecks.permitsPerSecond:1}") double failedChecksRate,
+            @Value("${storage.replication.failedTokenChecks.burst:10}") int failedChecksBurst
+    ) {
+        this.replicatedStorageBackend = replicatedStorageBackend;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.failedChecks = new RateLimiter(
+                Map.of(EndpointClass.INTERNAL, RateLimiter.Limit.of(failedChecksRate, failedChecksBurst)),
+                MAX_CLIENTS
+        );
+    }
+
+    @PutMapping(value = "", consumes = MediaType.ALL_VALUE)
+    public ResponseEntity<Void> put(
+            @RequestParam(value = "key") String key,
+            @RequestHeader(value = RemoteStorageBackend.TOKEN_HEADER, required = false) String token,
+            HttpServletRequest request,
+            InputStream content
+    ) throws IOException, AccessDeniedException {
+        checkToken(token, request);
+        local().put(key, content);
+        return new ResponseEntity<>(HttpStatus.CREATED);
+    }
+
+    @GetMapping("")
+    public ResponseEntity<Resource> get(
+            @RequestParam(value = "key") String key,
+            @RequestParam(value = "offset", defaultValue = "0") long offset,
+            @RequestParam(value = "length", defaultValue = "-1") long length,
+            @RequestHeader(value = RemoteStorageBackend.TOKEN_HEADER, required = false) String token,
+            HttpServletRequest request
+    ) throws IOException, AccessDeniedException {
+        checkToken(token, request);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(new InputStreamResource(local().get(key, offset, length)));
+    }
+
+    @GetMapping("/stat")
+    public ResponseEntity<Void> stat(
+            @RequestParam(value = "key") String key,
+            @RequestHeader(value = RemoteStorageBackend.TOKEN_HEADER, required = false) String token,
+            HttpServletRequest request
+    ) throws IOException, AccessDeniedException {
+        checkToken(token, request);
+        Optional<BlobStat> stat = local().stat(key);
+        if (stat.isEmpty()) {
+            throw new FileNotFoundException("Could not read file: " + key);
+        }
+        return ResponseEntity.ok()
+                .header(RemoteStorageBackend.SIZE_HEADER, String.valueOf(stat.get().size()))
+                .header(RemoteStorageBackend.MODIFIED_HEADER, String.valueOf(stat.get().lastModified().toEpochMilli()))
+                .build();
+    }
+
+    @GetMapping("/list")
+    public ResponseEntity<StreamingResponseBody> list(
+            @RequestParam(value = "prefix", defaultValue = "") String prefix,
+            @RequestParam(value = "stored", defaultValue = "false") boolean stored,
+            @RequestHeader(value = RemoteStorageBackend.TOKEN_HEADER, required = false) String token,
+            HttpServletRequest request
+    ) throws AccessDeniedException {
+        checkToken(token, request);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE)
+                .body(out -> {
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    try (Stream<BlobStat> blobs = stored ? local().listStored(prefix) : local().list(prefix)) {
+                        for (BlobStat stat : (Iterable<BlobStat>) blobs::iterator) {
+                            writer.write(RemoteStorageBackend.format(stat));
+                            writer.write('\n');
+                        }
+                    }
+                    writer.flush();
+                });
+    }
+
+    @PostMapping("/touch")
+    public ResponseEntity<Void> touch(
+            @RequestParam(value = "key") String key,
+            @RequestHeader(value = RemoteStorageBackend.TOKEN_HEADER, required = false) String token,
+            HttpServletRequest request
+    ) throws IOException, AccessDeniedException {
+        checkToken(token, request);
+        if (!local().touch(key)) {
+            throw new FileNotFoundException("Could not read file: " + key);
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    @DeleteMapping("")
+    public ResponseEntity<Void> delete(
+            @RequestParam(value = "key") String key,
+            @RequestHeader(value = RemoteStorageBackend.TOKEN_HEADER, required = false) String token,
+            HttpServletRequest request
+    ) throws IOException, AccessDeniedException {
+        checkToken(token, request);
+        local().delete(key);
+        return ResponseEntity.noContent().build();
+    }
+
+    /* RemoteStorageBackend tells a missing blob from a failed node by the status */
+    @ExceptionHandler(FileNotFoundException.class)
+    public ResponseEntity<Void> onMissingBlob() {
+        return ResponseEntity.notFound().build();
+    }
+
+    private StorageBackend local() {
+        return replicatedStorageBackend.getLocal();
+    }
+
+    @ExceptionHandler(TooManyAttemptsException.class)
+    public ResponseEntity<Void> onTooManyAttempts(TooManyAttemptsException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter()))
+                .build();
+    }
+
+    private void checkToken(String token, HttpServletRequest request) throws AccessDeniedException {
+        // not a forwarded address, which the client could pick
+        String client = request.getRemoteAddr();
+        long wait = failedChecks.peek(EndpointClass.INTERNAL, client);
+        if (wait > 0) {
+            throw new TooManyAttemptsException(
+                    "Too many failed attempts!", RemoteStorageBackend.TOKEN_HEADER,
+                    Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1))
+            );
+        }
+        if (token == null || !MessageDigest.isEqual(this.token, token.getBytes(StandardCharsets.UTF_8))) {
+            failedChecks.tryAcquire(EndpointClass.INTERNAL, client);
+            throw new AccessDeniedException("Permission denied!");
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package web.cloudfilestorage.delta;
+
+public record BlockSignature(int index, int weak, String strong) {
+}
@@ -0,0 +1,68 @@
+package web.cloudfilestorage.delta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/*
+ * rsync-style delta updates.
+ *
+ * The server publishes signatures of fixed size blocks of the current content, the client
+ * finds those blocks in its new content and sends a delta:
+ *
+ *   int MAGIC, int blockSize, then instructions until END
+ *   COPY  int firstBlock, int blockCount   - blocks of the current content
+ *   DATA  int length, byte[length]         - literal bytes
+ *   END
+ *
+ * All numbers are big-endian.
+ * */
+public final class Delta {
+
+    public static final int MAGIC = 0x43465344;
+
+    public static final byte END = 0;
+    public static final byte COPY = 1;
+    public static final byte DATA = 2;
+
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 1 << 20;
+
+    private Delta() {
+    }
+
+    /* rsync's heuristic: square root of the length, so both the signatures and the blocks stay small */
+    public static int blockSize(long length, Integer requested) {
+        long blockSize = requested != null ? requested : (long) Math.sqrt(length) & ~63L;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    public static List<BlockSignature> signatures(InputStream content, int blockSize) throws IOException {
+        MessageDigest digest = strongDigest();
+        HexFormat hex = HexFormat.of();
+        List<BlockSignature> blocks = new ArrayList<>();
+        byte[] buffer = new byte[blockSize];
+        int read;
+        while ((read = content.readNBytes(buffer, 0, blockSize)) > 0) {
+            digest.update(buffer, 0, read);
+            blocks.add(new BlockSignature(
+                    blocks.size(),
+                    RollingChecksum.of(buffer, 0, read),
+                    hex.formatHex(digest.digest())
+            ));
+        }
+        return blocks;
+    }
+
+    public static MessageDigest strongDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package web.cloudfilestorage.delta;
+
+import web.cloudfilestorage.storage.RangeReader;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/*
+ * New content rebuilt from the current one and a delta, see Delta for the format.
+ * Instructions are decoded as the content is read, so the content can be streamed
+ * to any storage without being buffered; copied ranges are read from the current
+ * content one instruction at a time.
+ * */
+public class DeltaInputStream extends InputStream {
+
+    private final RangeReader base;
+    private final DataInputStream delta;
+    private final MessageDigest sha256;
+
+    private int blockSize;
+    private boolean finished;
+
+    private InputStream copy;
+    private long copyRemaining;
+    private long dataRemaining;
+
+    public DeltaInputStream(RangeReader base, InputStream delta) {
+        this.base = base;
+        this.delta = new DataInputStream(delta);
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return SHA-256 of the content, available once the whole content was read
+     */
+    public String getContentHash() {
+        if (!finished) {
+            throw new IllegalStateException("Content is not read completely!");
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        try {
+            while (true) {
+                if (copyRemaining > 0) {
+                    int read = copy.read(bytes, offset, (int) Math.min(length, copyRemaining));
+                    if (read < 0) {
+                        throw new IOException("Current content is truncated!");
+                    }
+                    copyRemaining -= read;
+                    if (copyRemaining == 0) {
+                        copy.close();
+                    }
+                    sha256.update(bytes, offset, read);
+                    return read;
+                }
+                if (dataRemaining > 0) {
+                    int read = delta.read(bytes, offset, (int) Math.min(length, dataRemaining));
+                    if (read < 0) {
+                        throw new IOException("Malformed delta: data is truncated!");
+                    }
+                    dataRemaining -= read;
+                    sha256.update(bytes, offset, read);
+                    return read;
+                }
+                if (finished || !next()) {
+                    return -1;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Malformed delta: unexpected end!", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (copy != null) {
+            copy.close();
+        }
+        delta.close();
+    }
+
+    private boolean next() throws IOException {
+        if (blockSize == 0) {
+            if (delta.readInt() != Delta.MAGIC) {
+                throw new IOException("Malformed delta: unknown format!");
+            }
+            blockSize = delta.readInt();
+            if (blockSize < Delta.MIN_BLOCK_SIZE || blockSize > Delta.MAX_BLOCK_SIZE) {
+                throw new IOException("Malformed delta: block size " + blockSize + " is not allowed!");
+            }
+        }
+
+        byte op = delta.readByte();
+        if (op == Delta.END) {
+            finished = true;
+            return false;
+        }
+        if (op == Delta.COPY) {
+            long position = (long) delta.readInt() * blockSize;
+            long count = (long) delta.readInt() * blockSize;
+            if (position < 0 || count <= 0 || position >= base.size()) {
+                throw new IOException("Malformed delta: copy is out of current content!");
+            }
+            copyRemaining = Math.min(count, base.size() - position);
+            copy = base.read(position, copyRemaining);
+        } else if (op == Delta.DATA) {
+            dataRemaining = delta.readInt();
+            if (dataRemaining < 0) {
+                throw new IOException("Malformed delta: negative data length!");
+            }
+        } else {
+            throw new IOException("Malformed delta: unknown instruction " + op + "!");
+        }
+        return true;
+    }
+}
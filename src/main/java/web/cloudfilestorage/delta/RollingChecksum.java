@@ -0,0 +1,39 @@
+package web.cloudfilestorage.delta;
+
+/*
+ * rsync's weak checksum: two 16 bit sums over a window which can be moved
+ * by one byte in constant time.
+ * */
+public class RollingChecksum {
+
+    private int a;
+    private int b;
+    private int length;
+
+    public void reset(byte[] buffer, int offset, int length) {
+        a = 0;
+        b = 0;
+        this.length = length;
+        for (int i = 0; i < length; i++) {
+            int x = buffer[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+    }
+
+    public void roll(byte out, byte in) {
+        int x = out & 0xff;
+        a += (in & 0xff) - x;
+        b += a - length * x;
+    }
+
+    public int value() {
+        return (a & 0xffff) | (b << 16);
+    }
+
+    public static int of(byte[] buffer, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(buffer, offset, length);
+        return checksum.value();
+    }
+}
@@ -0,0 +1,25 @@
+package web.cloudfilestorage.dto.apikey;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import web.cloudfilestorage.model.ApiKeyScope;
+
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ApiKeyData {
+
+    private String name;
+
+    @NotNull(message = "scope field is not provided")
+    private ApiKeyScope scope;
+
+    private LocalDateTime expiresAt;
+
+}
@@ -0,0 +1,41 @@
+package web.cloudfilestorage.dto.apikey;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import web.cloudfilestorage.model.ApiKey;
+import web.cloudfilestorage.model.ApiKeyScope;
+
+import java.time.LocalDateTime;
+
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ApiKeyView {
+
+    private Long id;
+
+    private String name;
+
+    private ApiKeyScope scope;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime expiresAt;
+
+    /*
+     * Plain key is returned only once, right after creation
+     * */
+    private String key;
+
+    public ApiKeyView(ApiKey apiKey) {
+        this.id = apiKey.getId();
+        this.name = apiKey.getName();
+        this.scope = apiKey.getScope();
+        this.createdAt = apiKey.getCreatedAt();
+        this.expiresAt = apiKey.getExpiresAt();
+    }
+
+    public ApiKeyView(ApiKey apiKey, String key) {
+        this(apiKey);
+        this.key = key;
+    }
+}
@@ -0,0 +1,21 @@
+package web.cloudfilestorage.dto.file;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import web.cloudfilestorage.delta.BlockSignature;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class FileSignatures {
+
+    private Long version;
+
+    private long length;
+
+    private int blockSize;
+
+    private List<BlockSignature> blocks;
+
+}
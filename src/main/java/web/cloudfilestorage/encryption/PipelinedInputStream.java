@@ -0,0 +1,96 @@
+package web.cloudfilestorage.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Serves in order the results of tasks run ahead on an executor, at most window of
+ * them at a time.
+ * */
+abstract class PipelinedInputStream extends InputStream {
+
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] buffer = new byte[0];
+    private int position;
+    private boolean submittedAll;
+
+    PipelinedInputStream(ExecutorService executor, int window) {
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * @return task producing the next part, or null if there are no more
+     */
+    protected abstract Callable<byte[]> next() throws IOException;
+
+    protected abstract void closeSource() throws IOException;
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int read = Math.min(length, buffer.length - position);
+        System.arraycopy(buffer, position, bytes, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        closeSource();
+    }
+
+    private boolean fill() throws IOException {
+        while (position == buffer.length) {
+            while (!submittedAll && pending.size() < window) {
+                Callable<byte[]> task = next();
+                if (task == null) {
+                    submittedAll = true;
+                } else {
+                    pending.add(executor.submit(task));
+                }
+            }
+            Future<byte[]> future = pending.poll();
+            if (future == null) {
+                return false;
+            }
+            try {
+                buffer = future.get();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,265 @@
+package web.cloudfilestorage.encryption;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/*
+ * Envelope encryption of blobs in independently authenticated AES-GCM segments, so
+ * segments are encrypted and decrypted in parallel and a range is read by decrypting
+ * only the segments it covers.
+ *
+ * Every blob has its own data key, stored in the header wrapped by a master key:
+ *
+ *   "CFSE" 01 <master key id, 4> <segment size, 4> <nonce prefix, 8> <iv, 12> <wrapped data key, 48>
+ *   <segment 0><tag 0> ... <last segment, at most segment size><tag>
+ *
+ * Segment i is encrypted under nonce prefix || i with a single byte of associated data
+ * telling whether it is the last one, so a blob cut at a segment boundary fails to
+ * decrypt. The first master key is used for new blobs, the others only to read the
+ * blobs written before it was rotated.
+ * */
+public class SegmentedGcm {
+
+    public static final int HEADER_SIZE = 81;
+
+    public static final int TAG_SIZE = 16;
+
+    private static final byte[] MAGIC = "CFSE".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte VERSION = 1;
+
+    private static final int NONCE_PREFIX_SIZE = 8;
+
+    private static final int IV_SIZE = 12;
+
+    private static final int DATA_KEY_SIZE = 32;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<Integer, SecretKeySpec> masterKeys = new LinkedHashMap<>();
+
+    private final int currentKeyId;
+
+    private final int segmentSize;
+
+    private final ExecutorService executor;
+
+    /* segments in flight per stream */
+    private final int window;
+
+    /**
+     * @param masterKeys AES keys, the first one is used for new blobs
+     */
+    public SegmentedGcm(List<byte[]> masterKeys, int segmentSize, ExecutorService executor, int window) {
+        if (masterKeys.isEmpty()) {
+            throw new IllegalArgumentException("At least one master key is needed!");
+        }
+        for (byte[] key : masterKeys) {
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalArgumentException("Master keys must be of 128, 192 or 256 bits!");
+            }
+            this.masterKeys.put(keyId(key), new SecretKeySpec(key, "AES"));
+        }
+        this.currentKeyId = keyId(masterKeys.get(0));
+        this.segmentSize = segmentSize;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Data key and parameters of an encrypted blob.
+     */
+    public record Envelope(SecretKeySpec dataKey, int segmentSize, byte[] noncePrefix) {
+
+        public long storedOffset(long segment) {
+            return HEADER_SIZE + segment * (segmentSize + TAG_SIZE);
+        }
+
+        /**
+         * @param storedSize size of the encrypted blob, header included
+         */
+        public long plaintextSize(long storedSize) {
+            long body = storedSize - HEADER_SIZE;
+            long segments = Math.max(1, (body + segmentSize + TAG_SIZE - 1) / (segmentSize + TAG_SIZE));
+            return body - segments * TAG_SIZE;
+        }
+    }
+
+    public static boolean isEncrypted(byte[] header) {
+        return header.length >= HEADER_SIZE
+                && Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                && header[MAGIC.length] == VERSION;
+    }
+
+    /**
+     * @param header first HEADER_SIZE bytes of the blob
+     * @return the envelope, or empty if the blob is not encrypted
+     */
+    public Optional<Envelope> open(byte[] header) throws IOException {
+        if (!isEncrypted(header)) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        int keyId = buffer.getInt(5);
+        SecretKeySpec masterKey = masterKeys.get(keyId);
+        if (masterKey == null) {
+            throw new IOException("Blob is encrypted with an unknown master key " + Integer.toHexString(keyId) + "!");
+        }
+        int segmentSize = buffer.getInt(9);
+        byte[] noncePrefix = Arrays.copyOfRange(header, 13, 13 + NONCE_PREFIX_SIZE);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_SIZE * 8, header, 21, IV_SIZE));
+            cipher.updateAAD(header, 0, 21);
+            byte[] dataKey = cipher.doFinal(header, 21 + IV_SIZE, HEADER_SIZE - 21 - IV_SIZE);
+            return Optional.of(new Envelope(new SecretKeySpec(dataKey, "AES"), segmentSize, noncePrefix));
+        } catch (AEADBadTagException e) {
+            throw new IOException("Data key of the blob failed authentication!", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not unwrap data key of the blob!", e);
+        }
+    }
+
+    /**
+     * @return header and segments of the content under a new data key, encrypted while read
+     */
+    public InputStream encrypt(InputStream plaintext) throws IOException {
+        byte[] dataKey = new byte[DATA_KEY_SIZE];
+        byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        byte[] iv = new byte[IV_SIZE];
+        random.nextBytes(dataKey);
+        random.nextBytes(noncePrefix);
+        random.nextBytes(iv);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .put(MAGIC).put(VERSION).putInt(currentKeyId).putInt(segmentSize).put(noncePrefix).put(iv);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, masterKeys.get(currentKeyId), new GCMParameterSpec(TAG_SIZE * 8, iv));
+            cipher.updateAAD(header.array(), 0, 21);
+            header.put(cipher.doFinal(dataKey));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not wrap data key of the blob!", e);
+        }
+        Envelope envelope = new Envelope(new SecretKeySpec(dataKey, "AES"), segmentSize, noncePrefix);
+
+        PushbackInputStream in = new PushbackInputStream(plaintext, 1);
+        return new PipelinedInputStream(executor, window) {
+
+            private long segment = -1;
+            private boolean last;
+
+            @Override
+            protected Callable<byte[]> next() throws IOException {
+                if (segment < 0) {
+                    segment++;
+                    return header::array;
+                }
+                if (last) {
+                    return null;
+                }
+                byte[] plain = in.readNBytes(segmentSize);
+                long index = segment++;
+                boolean isLast = last = plain.length < segmentSize || atEnd(in);
+                return () -> crypt(Cipher.ENCRYPT_MODE, envelope, index, isLast, plain);
+            }
+
+            @Override
+            protected void closeSource() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * @param ciphertext  segments of the blob starting with the first one
+     * @param maxSegments number of segments to decrypt, or -1 for all; the stream has
+     *                    to run past them to tell whether the last one is the last of the blob
+     */
+    public InputStream decrypt(Envelope envelope, InputStream ciphertext, long first, long maxSegments) {
+        int stored = envelope.segmentSize() + TAG_SIZE;
+        PushbackInputStream in = new PushbackInputStream(ciphertext, 1);
+        return new PipelinedInputStream(executor, window) {
+
+            private long segment = first;
+            private boolean done;
+
+            @Override
+            protected Callable<byte[]> next() throws IOException {
+                if (done || maxSegments >= 0 && segment - first >= maxSegments) {
+                    return null;
+                }
+                byte[] encrypted = in.readNBytes(stored);
+                if (encrypted.length == 0) {
+                    if (segment == 0) {
+                        throw new IOException("Encrypted blob has no segments!");
+                    }
+                    return null;
+                }
+                long index = segment++;
+                boolean isLast = done = encrypted.length < stored || atEnd(in);
+                return () -> crypt(Cipher.DECRYPT_MODE, envelope, index, isLast, encrypted);
+            }
+
+            @Override
+            protected void closeSource() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    private static byte[] crypt(int mode, Envelope envelope, long segment, boolean last, byte[] input)
+            throws IOException {
+        byte[] nonce = ByteBuffer.allocate(NONCE_PREFIX_SIZE + 4)
+                .put(envelope.noncePrefix())
+                .putInt((int) segment)
+                .array();
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(mode, envelope.dataKey(), new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            cipher.updateAAD(new byte[]{(byte) (last ? 1 : 0)});
+            return cipher.doFinal(input);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Segment " + segment + " of the blob failed authentication!", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not " + (mode == Cipher.ENCRYPT_MODE ? "encrypt" : "decrypt")
+                    + " segment " + segment + " of the blob!", e);
+        }
+    }
+
+    private static boolean atEnd(PushbackInputStream in) throws IOException {
+        int next = in.read();
+        if (next < 0) {
+            return true;
+        }
+        in.unread(next);
+        return false;
+    }
+
+    private static int keyId(byte[] key) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(key)).getInt();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package web.cloudfilestorage.erasure;
+
+/*
+ * Arithmetic in GF(2^8) with the polynomial x^8 + x^4 + x^3 + x^2 + 1: addition is
+ * XOR, multiplication goes through a full table so the coding loops are lookups.
+ * */
+final class Galois {
+
+    private static final int POLYNOMIAL = 0x11d;
+
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+
+    static final byte[][] MULTIPLY = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MULTIPLY[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private Galois() {
+    }
+
+    static int multiply(int a, int b) {
+        return MULTIPLY[a][b] & 0xff;
+    }
+
+    static int divide(int a, int b) {
+        if (b == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] - LOG[b] + 255];
+    }
+
+    static int power(int a, int n) {
+        if (n == 0) {
+            return 1;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] * n % 255];
+    }
+
+    /**
+     * Inverse of a square matrix by Gauss-Jordan elimination.
+     */
+    static int[][] invert(int[][] matrix) {
+        int size = matrix.length;
+        int[][] work = new int[size][2 * size];
+        for (int r = 0; r < size; r++) {
+            System.arraycopy(matrix[r], 0, work[r], 0, size);
+            work[r][size + r] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == size) {
+                throw new ArithmeticException("Matrix is singular");
+            }
+            int[] swap = work[pivot];
+            work[pivot] = work[column];
+            work[column] = swap;
+
+            int scale = work[column][column];
+            for (int c = 0; c < 2 * size; c++) {
+                work[column][c] = divide(work[column][c], scale);
+            }
+            for (int r = 0; r < size; r++) {
+                int factor = work[r][column];
+                if (r == column || factor == 0) {
+                    continue;
+                }
+                for (int c = 0; c < 2 * size; c++) {
+                    work[r][c] ^= multiply(factor, work[column][c]);
+                }
+            }
+        }
+        int[][] inverse = new int[size][size];
+        for (int r = 0; r < size; r++) {
+            System.arraycopy(work[r], size, inverse[r], 0, size);
+        }
+        return inverse;
+    }
+
+    static int[][] multiply(int[][] a, int[][] b) {
+        int[][] product = new int[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int value = 0;
+                for (int i = 0; i < b.length; i++) {
+                    value ^= multiply(a[r][i], b[i][c]);
+                }
+                product[r][c] = value;
+            }
+        }
+        return product;
+    }
+}
@@ -0,0 +1,120 @@
+package web.cloudfilestorage.erasure;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/*
+ * Systematic Reed-Solomon code over GF(2^8): data shards are stored as they are and
+ * any `dataShards` of the `dataShards + parityShards` shards restore the others.
+ *
+ * The coding matrix is a Vandermonde matrix multiplied by the inverse of its top
+ * square, so its top is the identity and every square of its rows stays invertible.
+ * */
+public class ReedSolomon {
+
+    @Getter
+    private final int dataShards;
+
+    @Getter
+    private final int parityShards;
+
+    private final int[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException(
+                    "Invalid number of shards: " + dataShards + " data, " + parityShards + " parity"
+            );
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        int[][] vandermonde = new int[dataShards + parityShards][dataShards];
+        for (int r = 0; r < vandermonde.length; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = Galois.power(r, c);
+            }
+        }
+        this.matrix = Galois.multiply(vandermonde, Galois.invert(Arrays.copyOf(vandermonde, dataShards)));
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    /**
+     * Computes the parity shards from the data shards.
+     *
+     * @param shards data shards followed by the parity shards to fill
+     * @param length number of bytes of each shard to code
+     */
+    public void encode(byte[][] shards, int length) {
+        for (int p = 0; p < parityShards; p++) {
+            code(matrix[dataShards + p], shards, shards[dataShards + p], length);
+        }
+    }
+
+    /**
+     * Restores missing data shards from any `dataShards` present ones. Missing parity
+     * shards are not restored.
+     *
+     * @param shards all shards, the missing ones are overwritten
+     * @param present which shards hold their content
+     * @param length number of bytes of each shard to code
+     */
+    public void decode(byte[][] shards, boolean[] present, int length) {
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < getTotalShards() && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Only " + found + " of " + dataShards + " required shards are present");
+        }
+
+        boolean complete = true;
+        for (int i = 0; i < dataShards; i++) {
+            complete &= present[i];
+        }
+        if (complete) {
+            return;
+        }
+
+        int[][] sub = new int[dataShards][];
+        byte[][] inputs = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            sub[i] = matrix[rows[i]];
+            inputs[i] = shards[rows[i]];
+        }
+        int[][] inverse = Galois.invert(sub);
+        for (int d = 0; d < dataShards; d++) {
+            if (!present[d]) {
+                code(inverse[d], inputs, shards[d], length);
+            }
+        }
+    }
+
+    private static void code(int[] coefficients, byte[][] inputs, byte[] output, int length) {
+        Arrays.fill(output, 0, length, (byte) 0);
+        for (int i = 0; i < coefficients.length; i++) {
+            int coefficient = coefficients[i];
+            if (coefficient == 0) {
+                continue;
+            }
+            byte[] input = inputs[i];
+            if (coefficient == 1) {
+                for (int b = 0; b < length; b++) {
+                    output[b] ^= input[b];
+                }
+                continue;
+            }
+            byte[] table = Galois.MULTIPLY[coefficient];
+            for (int b = 0; b < length; b++) {
+                output[b] ^= table[input[b] & 0xff];
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package web.cloudfilestorage.exceptions;
+
+public class InvalidFileNameException extends RuntimeException {
+
+    private final String field;
+
+    public InvalidFileNameException(String message, String field) {
+        super(message);
+        this.field = field;
+    }
+
+    public String getField() {
+        return field;
+    }
+}
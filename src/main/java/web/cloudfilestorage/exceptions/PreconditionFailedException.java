@@ -0,0 +1,15 @@
+package web.cloudfilestorage.exceptions;
+
+public class PreconditionFailedException extends RuntimeException {
+
+    private final String field;
+
+    public PreconditionFailedException(String message, String field) {
+        super(message);
+        this.field = field;
+    }
+
+    public String getField() {
+        return field;
+    }
+}
@@ -0,0 +1,23 @@
+package web.cloudfilestorage.exceptions;
+
+public class TooManyAttemptsException extends RuntimeException {
+
+    private final String field;
+
+    /* seconds */
+    private final long retryAfter;
+
+    public TooManyAttemptsException(String message, String field, long retryAfter) {
+        super(message);
+        this.field = field;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
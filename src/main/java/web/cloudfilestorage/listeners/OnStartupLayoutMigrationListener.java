@@ -0,0 +1,38 @@
+package web.cloudfilestorage.listeners;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+import web.cloudfilestorage.service.LayoutMigrationService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/*
+ * Started with storage.migrateLayout=true once after upgrading, moves existing blobs
+ * into the sharded layout.
+ * */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "storage.migrateLayout", havingValue = "true")
+public class OnStartupLayoutMigrationListener implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final LayoutMigrationService layoutMigrationService;
+
+    @Autowired
+    public OnStartupLayoutMigrationListener(LayoutMigrationService layoutMigrationService) {
+        this.layoutMigrationService = layoutMigrationService;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        try {
+            log.info("Moved {} blobs into the sharded layout", layoutMigrationService.migrate());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
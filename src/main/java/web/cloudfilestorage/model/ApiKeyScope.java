@@ -0,0 +1,12 @@
+package web.cloudfilestorage.model;
+
+public enum ApiKeyScope {
+    READ, WRITE;
+
+    public boolean permits(String method) {
+        if (this == WRITE) {
+            return true;
+        }
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+}
@@ -4,12 +4,14 @@ import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 
 @Entity
+@DynamicUpdate
 @Table(name = "file")
 @Data
 @Builder
@@ -32,6 +34,15 @@ public class File implements Serializable {
     @Column(name = "file")
     private String file;
 
+    @Version
+    @Column(name = "version", nullable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
+    @Column(name = "content_hash")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String contentHash;
+
     @Column(name = "share_link", unique = true)
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     private String shareLink;
@@ -48,9 +59,12 @@ public class File implements Serializable {
         this.shareLink = null;
     }
 
-    @ManyToOne(cascade = CascadeType.ALL)
+    /* lazy, so it is left out of equals, hashCode and toString which would load it */
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "owner", nullable = false)
     @JsonBackReference
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private User owner;
 
     public File() {
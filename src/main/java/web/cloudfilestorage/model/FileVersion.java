@@ -0,0 +1,61 @@
+package web.cloudfilestorage.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.*;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "file_version")
+@Data
+@Builder
+@AllArgsConstructor
+public class FileVersion implements Serializable {
+
+    @Id
+    @Column(name = "id")
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "file", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private File file;
+
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    /* may be shared with the current file and with other versions */
+    @Column(name = "path", nullable = false)
+    @JsonIgnore
+    private String path;
+
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    @Column(name = "description")
+    private String description;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public FileVersion(File file) {
+        this.file = file;
+        this.version = file.getVersion();
+        this.path = file.getFile();
+        this.contentHash = file.getContentHash();
+        this.description = file.getDescription();
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public FileVersion() {
+    }
+
+}
@@ -0,0 +1,44 @@
+package web.cloudfilestorage.model;
+
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/*
+ * Lease of a scheduled job which must run on one instance at a time, see ClusterLock.
+ * */
+@Entity
+@Table(name = "scheduled_lock")
+@Data
+@Builder
+@AllArgsConstructor
+public class ScheduledLock implements Persistable<String>, Serializable {
+
+    @Id
+    @Column(name = "name")
+    private String name;
+
+    @Column(name = "locked_until", nullable = false)
+    private LocalDateTime lockedUntil;
+
+    @Column(name = "locked_by", nullable = false)
+    private String lockedBy;
+
+    public ScheduledLock() {
+    }
+
+    @Override
+    public String getId() {
+        return name;
+    }
+
+    /* saved only to create a lease, which fails if another instance created it first */
+    @Override
+    @Transient
+    public boolean isNew() {
+        return true;
+    }
+}
@@ -15,6 +15,10 @@ import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
+/*
+ * Not in the second-level cache: it is local to each instance, so a ban, a new password or a
+ * role change made on one instance would not be seen by the others until the entry expires.
+ * */
 @Entity
 @Data
 @Builder
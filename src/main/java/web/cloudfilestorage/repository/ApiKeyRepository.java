@@ -0,0 +1,19 @@
+package web.cloudfilestorage.repository;
+
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import web.cloudfilestorage.model.ApiKey;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface ApiKeyRepository extends JpaRepository<ApiKey, Long> {
+
+    @EntityGraph(attributePaths = "owner")
+    Optional<ApiKey> findApiKeyByHash(String hash);
+
+    Optional<ApiKey> findApiKeyByIdAndOwner_Username(Long id, String username);
+
+    List<ApiKey> findAllByOwner_Username(String username);
+
+}
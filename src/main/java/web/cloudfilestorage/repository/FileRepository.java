@@ -1,17 +1,75 @@
 package web.cloudfilestorage.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import web.cloudfilestorage.chunking.Manifest;
 import web.cloudfilestorage.model.File;
 
+import javax.transaction.Transactional;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface FileRepository extends JpaRepository<File, Long> {
     Optional<File> findFileById(Long id);
 
+    Optional<File> findFileByIdAndOwner_Username(Long id, String username);
+
     Optional<File> findFileByShareLink(String shareLink);
 
     Optional<File> findFileByFile(String file);
 
+    boolean existsByFile(String file);
+
+    @Query("select f.file from File f where f.file in :files")
+    List<String> findFilesIn(@Param("files") Collection<String> files);
+
     List<File> findAllByOwner_Username(String username);
+
+    @Query("select f.file from File f where f.id = :id")
+    Optional<String> findPathById(@Param("id") Long id);
+
+    @Query("select f.file from File f where f.shareLink = :shareLink")
+    Optional<String> findPathByShareLink(@Param("shareLink") String shareLink);
+
+    @Query("select f.file from File f where f.file like concat('%', '" + Manifest.DIRECTORY_SUFFIX + "/%')")
+    List<String> findAllChunkedPaths();
+
+    @Query("select f.file from File f where f.file is not null")
+    List<String> findAllPaths();
+
+    /* !, % and _ in the prefix have to be escaped with ! */
+    @Query("select f.file from File f where f.file like concat(:prefix, '%') escape '!'")
+    List<String> findPathsStartingWith(@Param("prefix") String prefix, Pageable pageable);
+
+    /* a new version, so writers which read the file before fail instead of pointing it back at from */
+    @Transactional
+    @Modifying
+    @Query("update File f set f.file = :to, f.version = f.version + 1 where f.file = :from")
+    int updatePath(@Param("from") String from, @Param("to") String to);
+
+    @Transactional
+    @Modifying
+    @Query("update File f set f.file = :file, f.contentHash = :contentHash, f.description = :description, " +
+            "f.version = f.version + 1 where f.id = :id and f.version = :version")
+    int updateMetadata(
+            @Param("id") Long id,
+            @Param("version") Long version,
+            @Param("file") String file,
+            @Param("contentHash") String contentHash,
+            @Param("description") String description
+    );
+
+    @Transactional
+    @Modifying
+    @Query("update File f set f.shareLink = :shareLink where f.id = :id")
+    int updateShareLink(@Param("id") Long id, @Param("shareLink") String shareLink);
+
+    @Transactional
+    @Modifying
+    @Query("delete from File f where f.id = :id")
+    int deleteFileById(@Param("id") Long id);
 }
@@ -0,0 +1,60 @@
+package web.cloudfilestorage.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import web.cloudfilestorage.chunking.Manifest;
+import web.cloudfilestorage.model.FileVersion;
+
+import javax.persistence.LockModeType;
+import javax.transaction.Transactional;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface FileVersionRepository extends JpaRepository<FileVersion, Long> {
+
+    List<FileVersion> findAllByFile_IdOrderByVersionDesc(Long fileId);
+
+    Optional<FileVersion> findFileVersionByFile_IdAndVersion(Long fileId, Long version);
+
+    Optional<FileVersion> findFirstByFile_IdAndContentHash(Long fileId, String contentHash);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select v from FileVersion v where v.file.id = :fileId and v.path = :path")
+    List<FileVersion> lockAllByFileIdAndPath(@Param("fileId") Long fileId, @Param("path") String path);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select v from FileVersion v where v.file.id = :fileId and v.version = :version")
+    Optional<FileVersion> lockByFileIdAndVersion(@Param("fileId") Long fileId, @Param("version") Long version);
+
+    List<FileVersion> findAllByCreatedAtBefore(LocalDateTime createdAt);
+
+    boolean existsByPath(String path);
+
+    @Query("select v.path from FileVersion v where v.path in :paths")
+    List<String> findPathsIn(@Param("paths") Collection<String> paths);
+
+    @Query("select v.path from FileVersion v where v.path like concat('%', '" + Manifest.DIRECTORY_SUFFIX + "/%')")
+    List<String> findAllChunkedPaths();
+
+    @Query("select distinct v.path from FileVersion v where v.path is not null")
+    List<String> findAllPaths();
+
+    /* !, % and _ in the prefix have to be escaped with ! */
+    @Query("select distinct v.path from FileVersion v where v.path like concat(:prefix, '%') escape '!'")
+    List<String> findPathsStartingWith(@Param("prefix") String prefix, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("update FileVersion v set v.path = :to where v.path = :from")
+    int updatePath(@Param("from") String from, @Param("to") String to);
+
+    @Query("select v.file.id from FileVersion v group by v.file.id having count(v) > :count")
+    List<Long> findFileIdsWithMoreVersionsThan(@Param("count") long count);
+
+}
@@ -1,12 +1,15 @@
 package web.cloudfilestorage.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import web.cloudfilestorage.model.Role;
 
+import javax.persistence.QueryHint;
 import java.util.Optional;
 
 public interface RoleRepository extends JpaRepository<Role, Long> {
 
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<Role> findRoleByName(String name);
 
 }
@@ -0,0 +1,33 @@
+package web.cloudfilestorage.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import web.cloudfilestorage.model.ScheduledLock;
+
+import javax.transaction.Transactional;
+import java.time.LocalDateTime;
+
+public interface ScheduledLockRepository extends JpaRepository<ScheduledLock, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update ScheduledLock l set l.lockedUntil = :until, l.lockedBy = :owner " +
+            "where l.name = :name and (l.lockedUntil <= :now or l.lockedBy = :owner)")
+    int acquire(
+            @Param("name") String name,
+            @Param("owner") String owner,
+            @Param("now") LocalDateTime now,
+            @Param("until") LocalDateTime until
+    );
+
+    @Transactional
+    @Modifying
+    @Query("update ScheduledLock l set l.lockedUntil = :now where l.name = :name and l.lockedBy = :owner")
+    int release(
+            @Param("name") String name,
+            @Param("owner") String owner,
+            @Param("now") LocalDateTime now
+    );
+}
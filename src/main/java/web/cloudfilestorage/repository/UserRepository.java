@@ -1,6 +1,8 @@
 package web.cloudfilestorage.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import web.cloudfilestorage.model.User;
 
 import java.util.List;
@@ -11,5 +13,7 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findUserByEmail(String email);
     Optional<User> findUserByUsername(String username);
     Optional<User> findUserById(Long id);
+    @Query("select u.id from User u where u.username = :username")
+    Optional<Long> findIdByUsername(@Param("username") String username);
     void deleteUserByUsername(String username);
 }
@@ -0,0 +1,52 @@
+package web.cloudfilestorage.security;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import web.cloudfilestorage.model.ApiKeyScope;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+public class ApiKeyAuthentication extends AbstractAuthenticationToken {
+
+    private final String username;
+
+    private final ApiKeyScope scope;
+
+    public ApiKeyAuthentication(String username, ApiKeyScope scope) {
+        super(List.of(new SimpleGrantedAuthority("SCOPE_" + scope.name())));
+        this.username = username;
+        this.scope = scope;
+        setAuthenticated(true);
+    }
+
+    /*
+     * Api keys are meant for file synchronization only,
+     * account and admin endpoints still require a jwt token
+     * */
+    public boolean permits(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!path.startsWith("/api/files")) {
+            return false;
+        }
+        // a share link is created by a GET, but it gives anyone access to the file
+        if (path.startsWith("/api/files/share")) {
+            return scope == ApiKeyScope.WRITE;
+        }
+        return scope.permits(request.getMethod());
+    }
+
+    public ApiKeyScope getScope() {
+        return scope;
+    }
+
+    @Override
+    public Object getCredentials() {
+        return "";
+    }
+
+    @Override
+    public Object getPrincipal() {
+        return username;
+    }
+}
@@ -4,20 +4,35 @@ import org.springframework.security.config.annotation.SecurityConfigurerAdapter;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.DefaultSecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import web.cloudfilestorage.service.ApiKeyService;
+import web.cloudfilestorage.throttling.RateLimitFilter;
 
 
 public class JwtConfigurer extends SecurityConfigurerAdapter<DefaultSecurityFilterChain, HttpSecurity> {
 
     private final JwtTokenProvider jwtTokenProvider;
 
-    public JwtConfigurer(JwtTokenProvider jwtTokenProvider) {
+    private final ApiKeyService apiKeyService;
+
+    private final RateLimitFilter rateLimitFilter;
+
+    public JwtConfigurer(
+            JwtTokenProvider jwtTokenProvider,
+            ApiKeyService apiKeyService,
+            RateLimitFilter rateLimitFilter
+    ) {
         this.jwtTokenProvider = jwtTokenProvider;
+        this.apiKeyService = apiKeyService;
+        this.rateLimitFilter = rateLimitFilter;
     }
 
     @Override
     public void configure(HttpSecurity httpSecurity) throws Exception {
-        JwtTokenFilter jwtTokenFilter = new JwtTokenFilter(jwtTokenProvider);
+        JwtTokenFilter jwtTokenFilter = new JwtTokenFilter(jwtTokenProvider, apiKeyService);
         httpSecurity.addFilterBefore(jwtTokenFilter, UsernamePasswordAuthenticationFilter.class);
+        if (rateLimitFilter != null) {
+            httpSecurity.addFilterAfter(rateLimitFilter, JwtTokenFilter.class);
+        }
     }
 
 }
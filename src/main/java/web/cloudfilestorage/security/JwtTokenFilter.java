@@ -1,14 +1,12 @@
 package web.cloudfilestorage.security;
 
-import com.google.gson.Gson;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.GenericFilterBean;
-import org.springframework.web.util.ContentCachingResponseWrapper;
 import web.cloudfilestorage.exceptions.JwtAuthenticationException;
-import web.cloudfilestorage.validation.ValidationErrorResponse;
-import web.cloudfilestorage.validation.Violation;
+import web.cloudfilestorage.service.ApiKeyService;
+import web.cloudfilestorage.validation.ErrorResponseWriter;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -21,10 +19,22 @@ import java.io.IOException;
 
 public class JwtTokenFilter extends GenericFilterBean {
 
+    // error body never changes, so it is serialized once instead of per rejected request
+    private static final byte[] AUTHORIZATION_FAILURE = ErrorResponseWriter.body(
+            "Authorization", "Authorization failure!"
+    );
+
+    private static final byte[] SCOPE_FAILURE = ErrorResponseWriter.body(
+            "Authorization", "Api key does not permit this request!"
+    );
+
     private final JwtTokenProvider jwtTokenProvider;
 
-    public JwtTokenFilter(JwtTokenProvider jwtTokenProvider) {
+    private final ApiKeyService apiKeyService;
+
+    public JwtTokenFilter(JwtTokenProvider jwtTokenProvider, ApiKeyService apiKeyService) {
         this.jwtTokenProvider = jwtTokenProvider;
+        this.apiKeyService = apiKeyService;
     }
 
 
@@ -34,31 +44,47 @@ public class JwtTokenFilter extends GenericFilterBean {
             ServletResponse servletResponse,
             FilterChain filterChain
     ) throws IOException, ServletException {
-        String token = jwtTokenProvider.resolveToken((HttpServletRequest) servletRequest);
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        String token = jwtTokenProvider.resolveToken(request);
 
         try {
-            if (token != null && jwtTokenProvider.validateToken(token)) {
+            if (token != null) {
+                if (!jwtTokenProvider.validateToken(token)) {
+                    ErrorResponseWriter.write(
+                            (HttpServletResponse) servletResponse,
+                            HttpServletResponse.SC_UNAUTHORIZED,
+                            AUTHORIZATION_FAILURE
+                    );
+                    return;
+                }
                 Authentication authentication = jwtTokenProvider.getAuthentication(token);
 
                 if (authentication != null) {
                     SecurityContextHolder.getContext().setAuthentication(authentication);
                 }
+            } else {
+                String apiKey = request.getHeader(ApiKeyService.HEADER);
+                if (apiKey != null) {
+                    ApiKeyAuthentication authentication = apiKeyService.authenticate(apiKey);
+                    if (!authentication.permits(request)) {
+                        ErrorResponseWriter.write(
+                                (HttpServletResponse) servletResponse,
+                                HttpServletResponse.SC_FORBIDDEN,
+                                SCOPE_FAILURE
+                        );
+                        return;
+                    }
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                }
             }
-            ContentCachingResponseWrapper responseCacheWrapperObject = new ContentCachingResponseWrapper(
-                    (HttpServletResponse) servletResponse
-            );
             filterChain.doFilter(servletRequest, servletResponse);
         } catch (AuthenticationException | JwtAuthenticationException e) {
             // TODO: change to other type of error and divide by exceptions
-            HttpServletResponse response = (HttpServletResponse) servletResponse;
-            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-            ValidationErrorResponse errorResponse = new ValidationErrorResponse(
-                    new Violation("Authorization", "Authorization failure!")
+            ErrorResponseWriter.write(
+                    (HttpServletResponse) servletResponse,
+                    HttpServletResponse.SC_UNAUTHORIZED,
+                    AUTHORIZATION_FAILURE
             );
-            response.setContentType("application/json");
-            response.setCharacterEncoding("UTF-8");
-            response.getWriter().write(new Gson().toJson(errorResponse));
-            response.getWriter().flush();
         }
     }
 }
@@ -10,7 +10,6 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
-import web.cloudfilestorage.exceptions.JwtAuthenticationException;
 import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.service.UserService;
 
@@ -33,6 +32,8 @@ public class JwtTokenProvider {
 
     private Key key;
 
+    private JwtParser parser;
+
     @Value("${jwt.token.expired}")
     private long validityInMilliseconds;
 
@@ -47,6 +48,7 @@ public class JwtTokenProvider {
     protected void init() {
         secret = Base64.getEncoder().encodeToString(secret.getBytes());
         key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parserBuilder().setSigningKey(key).build();
     }
 
     // public String createToken(String username, List<Role> roles) {
@@ -71,17 +73,14 @@ public class JwtTokenProvider {
     }
 
     public Authentication getAuthentication(String token) throws UsernameNotFoundException {
-        UserDetails user = userService.loadUserByUsername(getUsername(token));
+        UserDetails user = userService.loadPrincipal(getUsername(token));
         return new UsernamePasswordAuthenticationToken(
                 user, "", user.getAuthorities()
         );
     }
 
     public String getUsername(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(key).build()
-                .parseClaimsJws(token)
-                .getBody().getSubject();
+        return parser.parseClaimsJws(token).getBody().getSubject();
     }
 
     public String resolveToken(HttpServletRequest request) {
@@ -92,17 +91,16 @@ public class JwtTokenProvider {
         return null;
     }
 
-    public boolean validateToken(String token) throws JwtAuthenticationException {
+    /**
+     * @return false if the token is expired or invalid; rejected tokens are common enough
+     * that building an exception for each of them shows up in the error path
+     */
+    public boolean validateToken(String token) {
         try {
-            Jws<Claims> claims = Jwts.parserBuilder()
-                    .setSigningKey(key).build()
-                    .parseClaimsJws(token);
+            Jws<Claims> claims = parser.parseClaimsJws(token);
             return !claims.getBody().getExpiration().before(new Date());
-        } catch (JwtException | IllegalArgumentException e) {
-            throw new JwtAuthenticationException(
-                    "Jwt token is expired or invalid!",
-                    "Authorization"
-            );
+        } catch (JwtException | IllegalArgumentException | ClassCastException e) {
+            return false;
         }
     }
 
@@ -0,0 +1,214 @@
+package web.cloudfilestorage.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.dto.apikey.ApiKeyData;
+import web.cloudfilestorage.dto.apikey.ApiKeyView;
+import web.cloudfilestorage.exceptions.JwtAuthenticationException;
+import web.cloudfilestorage.model.ApiKey;
+import web.cloudfilestorage.model.ApiKeyScope;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.repository.ApiKeyRepository;
+import web.cloudfilestorage.repository.UserRepository;
+import web.cloudfilestorage.security.ApiKeyAuthentication;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.persistence.EntityNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+/*
+ * Keys are random, so a keyed hash (HMAC-SHA256) is enough to store them:
+ * unlike passwords they can not be brute forced and do not need bcrypt.
+ * */
+@Service
+public class ApiKeyService {
+
+    public static final String HEADER = "X-Api-Key";
+
+    private static final String PREFIX = "cfs_";
+
+    private final ApiKeyRepository apiKeyRepository;
+    private final UserRepository userRepository;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /*
+     * Valid keys, so authenticated requests do not reach the database. Revoking a key, or
+     * banning or deleting its owner, drops it here at once; on the other instances it is
+     * accepted until its entry expires, for at most apiKey.cache.ttl (30 seconds).
+     * */
+    private final Cache<String, CachedKey> keys = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(Duration.ofSeconds(30))
+            .build();
+
+    /*
+     * Keys found to be unknown, revoked or of inactive users, so a misconfigured client
+     * retrying with such a key does not reach the database either. Kept apart from the
+     * valid ones, so many unknown keys can not push those out.
+     * */
+    private final Cache<String, Boolean> unknownKeys = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .build();
+
+    private final ThreadLocal<Mac> mac = ThreadLocal.withInitial(this::createMac);
+
+    @Value("${apiKey.secret:${jwt.token.secret:}}")
+    @Setter
+    private String secret;
+
+    @Value("${apiKey.cache.size:10000}")
+    public void setCacheSize(long cacheSize) {
+        keys.policy().eviction().orElseThrow().setMaximum(cacheSize);
+    }
+
+    @Value("${apiKey.cache.ttl:30000}")
+    public void setCacheTtl(long cacheTtl) {
+        keys.policy().expireAfterWrite().orElseThrow().setExpiresAfter(Duration.ofMillis(cacheTtl));
+    }
+
+    @Autowired
+    public ApiKeyService(
+            ApiKeyRepository apiKeyRepository,
+            UserRepository userRepository
+    ) {
+        this.apiKeyRepository = apiKeyRepository;
+        this.userRepository = userRepository;
+    }
+
+    public List<ApiKeyView> list(String username) {
+        return apiKeyRepository.findAllByOwner_Username(username).stream()
+                .map(ApiKeyView::new)
+                .toList();
+    }
+
+    public ApiKeyView create(
+            String username,
+            ApiKeyData apiKeyData
+    ) throws EntityNotFoundException {
+        Optional<User> owner = userRepository.findUserByUsername(username);
+        if (owner.isEmpty()) {
+            throw new EntityNotFoundException(
+                    "User " + username + " is not present in database!"
+            );
+        }
+
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String key = PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        ApiKey apiKey = ApiKey.builder()
+                .name(apiKeyData.getName())
+                .scope(apiKeyData.getScope())
+                .expiresAt(apiKeyData.getExpiresAt())
+                .createdAt(LocalDateTime.now())
+                .hash(hash(key))
+                .owner(owner.get())
+                .build();
+
+        return new ApiKeyView(apiKeyRepository.save(apiKey), key);
+    }
+
+    public void revoke(
+            Long id,
+            String username
+    ) throws EntityNotFoundException {
+        Optional<ApiKey> apiKey = apiKeyRepository.findApiKeyByIdAndOwner_Username(id, username);
+        if (apiKey.isEmpty()) {
+            throw new EntityNotFoundException(
+                    "Api key with id " + id + " is not present in database!"
+            );
+        }
+        apiKeyRepository.delete(apiKey.get());
+        keys.invalidate(apiKey.get().getHash());
+    }
+
+    /**
+     * Drops the cached keys of a user, to be called when its status changes or it is deleted.
+     */
+    public void invalidateOwner(String username) {
+        keys.asMap().values().removeIf(key -> key.username().equals(username));
+    }
+
+    public ApiKeyAuthentication authenticate(String key) throws JwtAuthenticationException {
+        if (!key.startsWith(PREFIX)) {
+            throw invalidKey();
+        }
+        String hash = hash(key);
+
+        CachedKey cached = keys.getIfPresent(hash);
+        if (cached == null) {
+            if (unknownKeys.getIfPresent(hash) != null) {
+                throw invalidKey();
+            }
+            Optional<CachedKey> loaded = load(hash);
+            if (loaded.isEmpty()) {
+                unknownKeys.put(hash, Boolean.TRUE);
+                throw invalidKey();
+            }
+            cached = loaded.get();
+            keys.put(hash, cached);
+        }
+
+        if (cached.expiresAt() != 0 && cached.expiresAt() < System.currentTimeMillis()) {
+            throw invalidKey();
+        }
+        return new ApiKeyAuthentication(cached.username(), cached.scope());
+    }
+
+    private Optional<CachedKey> load(String hash) {
+        Optional<ApiKey> apiKey = apiKeyRepository.findApiKeyByHash(hash);
+        if (apiKey.isEmpty() || apiKey.get().getOwner().getStatus() != Status.ACTIVE) {
+            return Optional.empty();
+        }
+        LocalDateTime expiresAt = apiKey.get().getExpiresAt();
+        return Optional.of(new CachedKey(
+                apiKey.get().getOwner().getUsername(),
+                apiKey.get().getScope(),
+                expiresAt == null ? 0 : expiresAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+        ));
+    }
+
+    private String hash(String key) {
+        return HexFormat.of().formatHex(
+                mac.get().doFinal(key.getBytes(StandardCharsets.UTF_8))
+        );
+    }
+
+    private Mac createMac() {
+        try {
+            Mac hmac = Mac.getInstance("HmacSHA256");
+            hmac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return hmac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Api key hashing is not available!", e);
+        }
+    }
+
+    private static JwtAuthenticationException invalidKey() {
+        return new JwtAuthenticationException(
+                "Api key is invalid, expired or revoked!",
+                HEADER
+        );
+    }
+
+    private record CachedKey(String username, ApiKeyScope scope, long expiresAt) {
+    }
+
+}
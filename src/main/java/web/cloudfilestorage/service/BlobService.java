@@ -0,0 +1,311 @@
+package web.cloudfilestorage.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import web.cloudfilestorage.chunking.ChunkFilter;
+import web.cloudfilestorage.chunking.ChunkStore;
+import web.cloudfilestorage.chunking.ChunkedContent;
+import web.cloudfilestorage.chunking.ChunkingOutputStream;
+import web.cloudfilestorage.chunking.GearChunker;
+import web.cloudfilestorage.chunking.Manifest;
+import web.cloudfilestorage.compression.Compressibility;
+import web.cloudfilestorage.compression.GzipContent;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.BlobStat;
+import web.cloudfilestorage.storage.EncodedResource;
+import web.cloudfilestorage.storage.RangeReader;
+import web.cloudfilestorage.storage.RangeResource;
+import web.cloudfilestorage.storage.StorageBackend;
+import web.cloudfilestorage.storage.StoredBlob;
+import web.cloudfilestorage.utils.FileUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/*
+ * Reads and writes content of files and versions. A blob is either stored as a whole or,
+ * when chunking is enabled, as a manifest of content-defined chunks shared by all blobs.
+ * Both kinds are addressed by a storage key, so blobs written before chunking was enabled
+ * stay readable.
+ *
+ * With compression enabled, uploads which are not chunked are stored gzipped when a sample
+ * of their beginning compresses well.
+ * */
+@Service
+public class BlobService {
+
+    private final StorageBackend storageBackend;
+    private final FileRepository fileRepository;
+    private final FileVersionRepository fileVersionRepository;
+
+    @Value("${chunking.enabled:false}")
+    @Setter
+    @Getter
+    private boolean chunkingEnabled;
+
+    @Value("${chunking.minSize:2048}")
+    @Setter
+    private int minChunkSize = 2048;
+
+    @Value("${chunking.avgSize:8192}")
+    @Setter
+    private int avgChunkSize = 8192;
+
+    @Value("${chunking.maxSize:65536}")
+    @Setter
+    private int maxChunkSize = 65536;
+
+    /* chunks younger than this are never collected, they may belong to an upload in progress */
+    @Value("${chunking.gracePeriod:3600000}")
+    @Setter
+    private long gracePeriod = 3600000;
+
+    /* share of dead chunks the collection may keep, see ChunkFilter */
+    @Value("${chunking.collectFalsePositiveRate:0.01}")
+    @Setter
+    private double collectFalsePositiveRate = 0.01;
+
+    @Value("${compression.enabled:false}")
+    @Setter
+    private boolean compressionEnabled;
+
+    /* bytes at the beginning of an upload compressed to decide whether to compress it */
+    @Value("${compression.sampleSize:65536}")
+    @Setter
+    private int compressionSampleSize = 65536;
+
+    /* compressed to original size of the sample at most */
+    @Value("${compression.maxRatio:0.8}")
+    @Setter
+    private double maxCompressionRatio = 0.8;
+
+    @Value("${compression.minSize:1024}")
+    @Setter
+    private long minCompressedSize = 1024;
+
+    @Value("${storage.packing.maxDeadShare:0.5}")
+    @Setter
+    private double maxDeadShare = 0.5;
+
+    @Autowired
+    public BlobService(
+            StorageBackend storageBackend,
+            FileRepository fileRepository,
+            FileVersionRepository fileVersionRepository
+    ) {
+        this.storageBackend = storageBackend;
+        this.fileRepository = fileRepository;
+        this.fileVersionRepository = fileVersionRepository;
+    }
+
+    public String write(
+            String directory,
+            String fileName,
+            MultipartFile multipartFile
+    ) throws IOException {
+        return write(directory, fileName, multipartFile, null);
+    }
+
+    /**
+     * @param digest updated with the content as it is written, so that the upload is read once
+     */
+    public String write(
+            String directory,
+            String fileName,
+            MultipartFile multipartFile,
+            MessageDigest digest
+    ) throws IOException {
+        fileName = FileUtil.fileName(fileName);
+        InputStream upload = multipartFile.getInputStream();
+        try (InputStream content = digest != null ? new DigestInputStream(upload, digest) : upload) {
+            if (compressionEnabled && !chunkingEnabled && multipartFile.getSize() >= minCompressedSize) {
+                return writeCompressible(directory, fileName, multipartFile.getContentType(), multipartFile.getSize(), content);
+            }
+            return write(directory, fileName, content);
+        }
+    }
+
+    /**
+     * @param directory key prefix, ending with '/'
+     * @return key of the written blob
+     */
+    public String write(
+            String directory,
+            String fileName,
+            InputStream content
+    ) throws IOException {
+        // a name with a path could reach other blobs or chunks, or change how the blob is read
+        fileName = FileUtil.fileName(fileName);
+        try {
+            if (!chunkingEnabled) {
+                String key = storageBackend.place(directory + fileName);
+                storageBackend.put(key, content);
+                return key;
+            }
+
+            String key = storageBackend.place(suffixedKey(directory, Manifest.DIRECTORY_SUFFIX, fileName));
+            ChunkingOutputStream out = chunkStore().writer(chunker());
+            try (out) {
+                content.transferTo(out);
+            }
+            out.getManifest().write(storageBackend, key);
+            return key;
+        } catch (IOException e) {
+            throw new IOException("Could not save file: " + fileName, e);
+        }
+    }
+
+    private String writeCompressible(
+            String directory,
+            String fileName,
+            String contentType,
+            long size,
+            InputStream content
+    ) throws IOException {
+        byte[] sample = content.readNBytes(compressionSampleSize);
+        InputStream whole = new SequenceInputStream(new ByteArrayInputStream(sample), content);
+        if (!Compressibility.isCompressible(contentType, fileName, sample, maxCompressionRatio)) {
+            return write(directory, fileName, whole);
+        }
+        try {
+            String key = storageBackend.place(suffixedKey(directory, GzipContent.DIRECTORY_SUFFIX, fileName));
+            storageBackend.put(key, GzipContent.encode(whole, size));
+            return key;
+        } catch (IOException e) {
+            throw new IOException("Could not save file: " + fileName, e);
+        }
+    }
+
+    /**
+     * Copies the blob as it is stored, a manifest keeps referring to the same chunks
+     * and a compressed blob stays compressed.
+     *
+     * @param directory key prefix, ending with '/'
+     * @return key of the copy
+     */
+    public String copy(String key, String directory) throws IOException {
+        String copy;
+        if (Manifest.isManifest(key)) {
+            copy = suffixedKey(directory, Manifest.DIRECTORY_SUFFIX, fileName(key));
+        } else if (GzipContent.isCompressed(key)) {
+            copy = suffixedKey(directory, GzipContent.DIRECTORY_SUFFIX, fileName(key));
+        } else {
+            copy = directory + fileName(key);
+        }
+        copy = storageBackend.place(copy);
+        try (InputStream content = storageBackend.get(key, 0, -1)) {
+            storageBackend.put(copy, content);
+        }
+        return copy;
+    }
+
+    public RangeResource resource(String key) throws FileNotFoundException {
+        try {
+            if (GzipContent.isCompressed(key)) {
+                GzipContent content = GzipContent.open(storageBackend, key);
+                return new EncodedResource(content, content.encoded(), GzipContent.ENCODING, fileName(key));
+            }
+            return new RangeResource(reader(key), fileName(key));
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not read file: " + key);
+        }
+    }
+
+    public RangeReader reader(String key) throws IOException {
+        if (Manifest.isManifest(key)) {
+            return new ChunkedContent(chunkStore(), Manifest.read(storageBackend, key));
+        }
+        if (GzipContent.isCompressed(key)) {
+            return GzipContent.open(storageBackend, key);
+        }
+        Optional<BlobStat> stat = storageBackend.stat(key);
+        if (stat.isEmpty()) {
+            throw new FileNotFoundException("Could not read file: " + key);
+        }
+        return new StoredBlob(storageBackend, stat.get());
+    }
+
+    public InputStream open(String key) throws IOException {
+        return reader(key).read(0, -1);
+    }
+
+    /*
+     * Chunks of a deleted manifest are left to the collection.
+     * */
+    public void delete(String key) throws IOException {
+        storageBackend.delete(key);
+    }
+
+    /*
+     * Mark and sweep: chunks referenced by manifests of files and versions are live,
+     * any other chunk older than the grace period is deleted. Live chunks are marked in
+     * a Bloom filter sized by the number of stored chunks, so memory stays bounded.
+     * */
+    @Scheduled(
+            initialDelayString = "${chunking.collectInterval:3600000}",
+            fixedDelayString = "${chunking.collectInterval:3600000}"
+    )
+    public void collect() throws IOException {
+        Instant before = Instant.now().minusMillis(gracePeriod);
+
+        ChunkStore chunks = chunkStore();
+        ChunkFilter live = new ChunkFilter(chunks.count(), collectFalsePositiveRate);
+        mark(fileRepository.findAllChunkedPaths(), live);
+        mark(fileVersionRepository.findAllChunkedPaths(), live);
+
+        chunks.sweep(live::mightContain, before);
+    }
+
+    /*
+     * Segments of packed blobs are rewritten once the given share of them is deleted.
+     * */
+    @Scheduled(
+            initialDelayString = "${storage.packing.compactInterval:600000}",
+            fixedDelayString = "${storage.packing.compactInterval:600000}"
+    )
+    public void compact() throws IOException {
+        storageBackend.compact(maxDeadShare);
+    }
+
+    public static String fileName(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private static String suffixedKey(String directory, String suffix, String fileName) {
+        return directory.substring(0, directory.length() - 1) + suffix + "/" + fileName;
+    }
+
+    private void mark(List<String> keys, ChunkFilter live) throws IOException {
+        for (String key : keys) {
+            try {
+                Manifest.read(storageBackend, key).chunks().forEach(chunk -> live.add(chunk.hash()));
+            } catch (FileNotFoundException e) {
+                // released after it was listed
+            }
+        }
+    }
+
+    private ChunkStore chunkStore() {
+        return new ChunkStore(storageBackend);
+    }
+
+    private GearChunker chunker() {
+        return new GearChunker(minChunkSize, avgChunkSize, maxChunkSize);
+    }
+}
@@ -0,0 +1,50 @@
+package web.cloudfilestorage.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.model.ScheduledLock;
+import web.cloudfilestorage.repository.ScheduledLockRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/*
+ * Lets one instance at a time run a scheduled job which every replica schedules. The lock
+ * is a lease in the database: it expires on its own, so an instance which dies while
+ * holding it blocks the job for one lease at most. A lease should outlast the job.
+ * */
+@Service
+public class ClusterLock {
+
+    private final ScheduledLockRepository scheduledLockRepository;
+
+    private final String owner = System.getenv().getOrDefault("HOSTNAME", "instance") + "/" + UUID.randomUUID();
+
+    @Autowired
+    public ClusterLock(ScheduledLockRepository scheduledLockRepository) {
+        this.scheduledLockRepository = scheduledLockRepository;
+    }
+
+    /**
+     * @return false if another instance holds the lock
+     */
+    public boolean tryLock(String name, Duration lease) {
+        LocalDateTime now = LocalDateTime.now();
+        if (scheduledLockRepository.acquire(name, owner, now, now.plus(lease)) == 1) {
+            return true;
+        }
+        try {
+            scheduledLockRepository.saveAndFlush(new ScheduledLock(name, now.plus(lease), owner));
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            // held by another instance
+            return false;
+        }
+    }
+
+    public void unlock(String name) {
+        scheduledLockRepository.release(name, owner, LocalDateTime.now());
+    }
+}
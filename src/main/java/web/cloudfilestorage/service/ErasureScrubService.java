@@ -0,0 +1,52 @@
+package web.cloudfilestorage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.storage.ErasureCodedStorageBackend;
+
+import java.io.IOException;
+
+/*
+ * Rewrites shards of blobs put while a volume failed soon after, and scrubs every
+ * blob for lost or corrupt shards now and then, before more of them than there are
+ * parity shards are gone.
+ * */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "erasure")
+public class ErasureScrubService {
+
+    private final ErasureCodedStorageBackend storageBackend;
+
+    @Autowired
+    public ErasureScrubService(ErasureCodedStorageBackend storageBackend) {
+        this.storageBackend = storageBackend;
+    }
+
+    /**
+     * @return number of shards rewritten
+     */
+    @Scheduled(
+            initialDelayString = "${storage.erasure.repairInterval:60000}",
+            fixedDelayString = "${storage.erasure.repairInterval:60000}"
+    )
+    public int repairDegraded() {
+        return storageBackend.repairDegraded();
+    }
+
+    /**
+     * @return number of shards rewritten
+     */
+    @Scheduled(
+            initialDelayString = "${storage.erasure.scrubInterval:86400000}",
+            fixedDelayString = "${storage.erasure.scrubInterval:86400000}"
+    )
+    public int scrub() throws IOException {
+        int repaired = storageBackend.scrub();
+        log.info("Rewrote {} lost or corrupt shards", repaired);
+        return repaired;
+    }
+}
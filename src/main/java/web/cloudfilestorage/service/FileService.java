@@ -1,48 +1,63 @@
 package web.cloudfilestorage.service;
 
-import lombok.Getter;
-import lombok.Setter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.web.multipart.MultipartFile;
+import web.cloudfilestorage.delta.Delta;
+import web.cloudfilestorage.delta.DeltaInputStream;
 import web.cloudfilestorage.dto.file.FileData;
+import web.cloudfilestorage.dto.file.FileSignatures;
 import web.cloudfilestorage.model.File;
+import web.cloudfilestorage.model.FileVersion;
 import web.cloudfilestorage.model.User;
 import web.cloudfilestorage.repository.FileRepository;
 import web.cloudfilestorage.repository.UserRepository;
+import web.cloudfilestorage.storage.KeyLayout;
+import web.cloudfilestorage.storage.RangeReader;
+import web.cloudfilestorage.storage.RangeResource;
 import web.cloudfilestorage.utils.FileUtil;
 
 import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
+/*
+ * Content is written to storage before any transaction is opened, so a database connection
+ * is held only for the metadata writes and not for the whole upload.
+ * */
 @Service
 public class FileService {
 
     private final UserRepository userRepository;
     private final FileRepository fileRepository;
-
-    @Value("${filesRoot}")
-    @Setter
-    @Getter
-    private String filesRoot;
+    private final FileVersionService fileVersionService;
+    private final BlobService blobService;
+    private final TransactionOperations transactions;
 
     @Autowired
     public FileService(
             UserRepository userRepository,
-            FileRepository fileRepository
+            FileRepository fileRepository,
+            FileVersionService fileVersionService,
+            BlobService blobService,
+            TransactionOperations transactions
     ) {
         this.fileRepository = fileRepository;
         this.userRepository = userRepository;
+        this.fileVersionService = fileVersionService;
+        this.blobService = blobService;
+        this.transactions = transactions;
     }
 
     public List<File> findAllFiles() {
@@ -63,6 +78,22 @@ public class FileService {
         return file.get();
     }
 
+    public File findOwnedFile(long id, String username)
+            throws EntityNotFoundException, AccessDeniedException {
+        Optional<File> file = fileRepository.findFileByIdAndOwner_Username(id, username);
+        if (file.isPresent()) {
+            return file.get();
+        }
+        if (!fileRepository.existsById(id)) {
+            throw new EntityNotFoundException(
+                    "File with id " + id + " is not present in database!"
+            );
+        }
+        throw new AccessDeniedException(
+                "Permission denied!"
+        );
+    }
+
     public File findByLink(String link) throws EntityNotFoundException {
         Optional<File> file = fileRepository.findFileByShareLink(link);
         if (file.isEmpty()) {
@@ -74,37 +105,33 @@ public class FileService {
     }
 
     public String generateLink(long id) throws EntityNotFoundException {
-        File file = findById(id);
         String link = UUID.randomUUID().toString();
-        file.setShareLink(link);
-        fileRepository.save(file);
+        if (fileRepository.updateShareLink(id, link) == 0) {
+            throw new EntityNotFoundException(
+                    "File with id " + id + " is not present in database!"
+            );
+        }
         return link;
     }
 
-    public Resource download(long id)
-            throws EntityNotFoundException, FileNotFoundException {
-        File file = findById(id);
-        return getResource(file);
+    public RangeResource download(long id, String username)
+            throws EntityNotFoundException, AccessDeniedException, FileNotFoundException {
+        File file = findOwnedFile(id, username);
+        try {
+            return blobService.resource(file.getFile());
+        } catch (FileNotFoundException e) {
+            // content may have been replaced after the metadata was read
+            return blobService.resource(fileRepository.findPathById(id).orElseThrow(() -> e));
+        }
     }
 
-    public Resource download(String link)
+    public RangeResource download(String link)
             throws EntityNotFoundException, FileNotFoundException {
         File file = findByLink(link);
-        return getResource(file);
-    }
-
-    private Resource getResource(File file) throws FileNotFoundException {
         try {
-            Path filePath = Path.of(file.getFile());
-            Resource resource = new UrlResource(filePath.toUri());
-            if (resource.exists() || resource.isReadable()) {
-                return resource;
-            } else {
-                throw new FileNotFoundException(
-                        "Could not read file: " + file.getFile());
-            }
-        } catch (MalformedURLException e) {
-            throw new FileNotFoundException("Could not read file: " + file.getFile());
+            return blobService.resource(file.getFile());
+        } catch (FileNotFoundException e) {
+            return blobService.resource(fileRepository.findPathByShareLink(link).orElseThrow(() -> e));
         }
     }
 
@@ -113,51 +140,185 @@ public class FileService {
             MultipartFile multipartFile,
             FileData fileData
     ) throws IOException, EntityNotFoundException {
-        Optional<User> ownerData = userRepository.findUserByUsername(username);
-        if (ownerData.isEmpty()) {
+        Optional<Long> ownerId = userRepository.findIdByUsername(username);
+        if (ownerId.isEmpty()) {
             throw new EntityNotFoundException(
                     "User " + username + " is not present in database!"
             );
         }
-        User owner = ownerData.get();
+        User owner = userRepository.getReferenceById(ownerId.get());
 
         String fileName = null;
+        String contentHash = null;
+        String path = null;
         if (multipartFile != null) {
-            fileName = StringUtils.cleanPath(multipartFile.getOriginalFilename());
-            String uploadDir = getFilesRoot() + owner.getId() + "/";
-            FileUtil.saveFile(uploadDir, fileName, multipartFile);
+            fileName = FileUtil.fileName(multipartFile.getOriginalFilename());
+            MessageDigest sha256 = FileUtil.sha256();
+            path = blobService.write(KeyLayout.directory(), fileName, multipartFile, sha256);
+            contentHash = FileUtil.hex(sha256);
         }
 
         File file = new File(
-                getFilesRoot() + owner.getId() + "/" + fileName,
+                path != null ? path : ownerId.get() + "/" + fileName,
                 fileData.getDescription(),
                 owner
         );
+        file.setContentHash(contentHash);
         return fileRepository.save(file);
     }
 
+    /*
+     * New content never overwrites the current one: it is written to a fresh directory and
+     * the metadata is switched to it only if the file's version is still the one that was
+     * read. If this file already has a blob with the same content and name, that blob is
+     * shared instead and the fresh one is deleted. The previous state is kept as a version
+     * referencing its blob.
+     * */
     public File update(
             File file,
             MultipartFile multipartFile,
             FileData fileData
-    ) throws IOException, EntityNotFoundException {
+    ) throws IOException, EntityNotFoundException, OptimisticLockException {
 
-        file.setDescription(fileData.getDescription());
+        String path = file.getFile();
+        String shared = null;
+        String contentHash = file.getContentHash();
+        boolean written = false;
 
         if (multipartFile != null) {
-            String newFileName = StringUtils.cleanPath(multipartFile.getOriginalFilename());
-            FileUtil.updateFile(file.getFile(), newFileName, multipartFile);
-            file.setFile(getFilesRoot() + file.getOwner().getId() + "/" + newFileName);
-            return fileRepository.save(file);
+            String newFileName = FileUtil.fileName(multipartFile.getOriginalFilename());
+            MessageDigest sha256 = FileUtil.sha256();
+            path = blobService.write(KeyLayout.directory(), newFileName, multipartFile, sha256);
+            written = true;
+            contentHash = FileUtil.hex(sha256);
+
+            Optional<String> blob = contentHash.equals(file.getContentHash())
+                    ? Optional.of(file.getFile())
+                    : fileVersionService.findBlob(file.getId(), contentHash);
+            if (blob.isPresent() && BlobService.fileName(blob.get()).equals(newFileName)) {
+                shared = blob.get();
+            }
+        }
+
+        File updated;
+        try {
+            updated = replace(file, path, shared, contentHash, fileData.getDescription());
+        } catch (OptimisticLockException e) {
+            if (written) {
+                blobService.delete(path);
+            }
+            throw e;
+        }
+        if (written && !updated.getFile().equals(path)) {
+            blobService.delete(path);
+        }
+        return updated;
+    }
+
+    public FileSignatures signatures(
+            File file,
+            Integer blockSize
+    ) throws IOException {
+        RangeReader content = blobService.reader(file.getFile());
+        int size = Delta.blockSize(content.size(), blockSize);
+        try (InputStream in = content.read(0, -1)) {
+            return new FileSignatures(file.getVersion(), content.size(), size, Delta.signatures(in, size));
+        }
+    }
+
+    /*
+     * New content is rebuilt from the current blob and the delta into a fresh blob,
+     * then it replaces the current one the same way as a full upload.
+     * */
+    public File applyDelta(
+            File file,
+            InputStream delta
+    ) throws IOException, OptimisticLockException {
+
+        DeltaInputStream content = new DeltaInputStream(blobService.reader(file.getFile()), delta);
+        String path = blobService.write(KeyLayout.directory(), BlobService.fileName(file.getFile()), content);
+        String contentHash = content.getContentHash();
+        if (contentHash.equals(file.getContentHash())) {
+            blobService.delete(path);
+            path = file.getFile();
+        }
+
+        try {
+            return replace(file, path, null, contentHash, file.getDescription());
+        } catch (OptimisticLockException e) {
+            if (!path.equals(file.getFile())) {
+                blobService.delete(path);
+            }
+            throw e;
         }
-        return fileRepository.save(file);
+    }
+
+    public List<FileVersion> versions(File file) {
+        return fileVersionService.list(file.getId());
+    }
+
+    @Transactional
+    public File restore(
+            File file,
+            long version
+    ) throws EntityNotFoundException, OptimisticLockException {
+        FileVersion fileVersion = fileVersionService.lock(file.getId(), version);
+        return replace(
+                file,
+                fileVersion.getPath(),
+                null,
+                fileVersion.getContentHash(),
+                fileVersion.getDescription()
+        );
+    }
+
+    /**
+     * @param shared blob of this file to use instead of path, if it is still referenced
+     */
+    private File replace(
+            File file,
+            String path,
+            String shared,
+            String contentHash,
+            String description
+    ) throws OptimisticLockException {
+        String current = transactions.execute(status -> {
+            String blob = shared != null
+                    && (shared.equals(file.getFile()) || fileVersionService.retain(file.getId(), shared))
+                    ? shared
+                    : path;
+            if (fileRepository.updateMetadata(
+                    file.getId(), file.getVersion(), blob, contentHash, description) == 0) {
+                throw new OptimisticLockException(
+                        "File with id " + file.getId() + " was modified concurrently!"
+                );
+            }
+            fileVersionService.archive(file);
+            return blob;
+        });
+
+        return File.builder()
+                .id(file.getId())
+                .version(file.getVersion() + 1)
+                .uploadDate(file.getUploadDate())
+                .description(description)
+                .file(current)
+                .contentHash(contentHash)
+                .shareLink(file.getShareLink())
+                .owner(file.getOwner())
+                .build();
     }
 
     public void delete(
             File file
     ) throws IOException, EntityNotFoundException {
-        FileUtil.deleteFile(file.getFile());
-        fileRepository.deleteById(file.getId());
+        Set<String> paths = new LinkedHashSet<>(fileVersionService.paths(file.getId()));
+        paths.add(file.getFile());
+
+        fileRepository.deleteFileById(file.getId());
+        for (String path : paths) {
+            fileVersionService.release(path);
+        }
     }
 
 }
@@ -0,0 +1,150 @@
+package web.cloudfilestorage.service;
+
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.model.File;
+import web.cloudfilestorage.model.FileVersion;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+
+import javax.persistence.EntityNotFoundException;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/*
+ * Previous states of files. Versions only reference blobs, so a blob may be shared
+ * by the current file and any number of its versions and is deleted only when the
+ * last reference is gone.
+ * */
+@Service
+public class FileVersionService {
+
+    private final FileVersionRepository fileVersionRepository;
+    private final FileRepository fileRepository;
+    private final BlobService blobService;
+
+    @Value("${fileVersions.maxCount:10}")
+    @Setter
+    private int maxCount;
+
+    @Value("${fileVersions.maxAgeDays:30}")
+    @Setter
+    private int maxAgeDays;
+
+    @Autowired
+    public FileVersionService(
+            FileVersionRepository fileVersionRepository,
+            FileRepository fileRepository,
+            BlobService blobService
+    ) {
+        this.fileVersionRepository = fileVersionRepository;
+        this.fileRepository = fileRepository;
+        this.blobService = blobService;
+    }
+
+    public List<FileVersion> list(long fileId) {
+        return fileVersionRepository.findAllByFile_IdOrderByVersionDesc(fileId);
+    }
+
+    public FileVersion find(long fileId, long version) throws EntityNotFoundException {
+        return found(fileId, version, fileVersionRepository.findFileVersionByFile_IdAndVersion(fileId, version));
+    }
+
+    /**
+     * Like find(), but the version can not be pruned, and its blob not released, until the
+     * current transaction ends.
+     */
+    public FileVersion lock(long fileId, long version) throws EntityNotFoundException {
+        return found(fileId, version, fileVersionRepository.lockByFileIdAndVersion(fileId, version));
+    }
+
+    private static FileVersion found(long fileId, long version, Optional<FileVersion> fileVersion)
+            throws EntityNotFoundException {
+        if (fileVersion.isEmpty()) {
+            throw new EntityNotFoundException(
+                    "Version " + version + " of file with id " + fileId + " is not present in database!"
+            );
+        }
+        return fileVersion.get();
+    }
+
+    /**
+     * Locks the versions of the file referencing the blob until the current transaction
+     * ends. A blob is released only after the last version referencing it is deleted, and
+     * deleting a locked version waits, so the blob stays until a reference from the file
+     * is committed.
+     *
+     * @return false if no version references the blob any more, it may be released already
+     */
+    public boolean retain(long fileId, String path) {
+        return !fileVersionRepository.lockAllByFileIdAndPath(fileId, path).isEmpty();
+    }
+
+    public Optional<String> findBlob(long fileId, String contentHash) {
+        return fileVersionRepository.findFirstByFile_IdAndContentHash(fileId, contentHash)
+                .map(FileVersion::getPath);
+    }
+
+    public FileVersion archive(File file) {
+        return fileVersionRepository.save(new FileVersion(file));
+    }
+
+    public List<String> paths(long fileId) {
+        return list(fileId).stream().map(FileVersion::getPath).toList();
+    }
+
+    /*
+     * Blobs are only ever shared with versions of the same file, and a file is pointed back
+     * at one of them while the versions referencing it are locked, see retain().
+     * */
+    public void release(String path) throws IOException {
+        if (!fileRepository.existsByFile(path) && !fileVersionRepository.existsByPath(path)) {
+            blobService.delete(path);
+        }
+    }
+
+    /**
+     * Points files and versions referencing a blob to its copy, the blob itself is
+     * deleted unless it has been referenced again meanwhile. Moved files get a new version,
+     * so an update which read one before fails instead of referencing the deleted blob.
+     */
+    public void relocate(String from, String to) throws IOException {
+        fileRepository.updatePath(from, to);
+        fileVersionRepository.updatePath(from, to);
+        release(from);
+    }
+
+    @Scheduled(
+            initialDelayString = "${fileVersions.pruneInterval:3600000}",
+            fixedDelayString = "${fileVersions.pruneInterval:3600000}"
+    )
+    public void prune() throws IOException {
+        List<FileVersion> expired = new ArrayList<>(
+                fileVersionRepository.findAllByCreatedAtBefore(LocalDateTime.now().minusDays(maxAgeDays))
+        );
+        for (Long fileId : fileVersionRepository.findFileIdsWithMoreVersionsThan(maxCount)) {
+            List<FileVersion> versions = fileVersionRepository.findAllByFile_IdOrderByVersionDesc(fileId);
+            expired.addAll(versions.subList(maxCount, versions.size()));
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        fileVersionRepository.deleteAllInBatch(new LinkedHashSet<>(expired));
+
+        Set<String> paths = new LinkedHashSet<>();
+        expired.forEach(version -> paths.add(version.getPath()));
+        for (String path : paths) {
+            release(path);
+        }
+    }
+
+}
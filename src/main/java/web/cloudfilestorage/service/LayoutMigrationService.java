@@ -0,0 +1,71 @@
+package web.cloudfilestorage.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.chunking.ChunkStore;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.KeyLayout;
+import web.cloudfilestorage.storage.StorageBackend;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*
+ * Moves blobs stored in per-owner directories (and chunks sharded over a single level)
+ * into the sharded layout. Safe to run while the application serves requests and to
+ * run again after it was interrupted.
+ * */
+@Service
+public class LayoutMigrationService {
+
+    private final StorageBackend storageBackend;
+    private final FileRepository fileRepository;
+    private final FileVersionRepository fileVersionRepository;
+    private final FileVersionService fileVersionService;
+    private final BlobService blobService;
+
+    @Autowired
+    public LayoutMigrationService(
+            StorageBackend storageBackend,
+            FileRepository fileRepository,
+            FileVersionRepository fileVersionRepository,
+            FileVersionService fileVersionService,
+            BlobService blobService
+    ) {
+        this.storageBackend = storageBackend;
+        this.fileRepository = fileRepository;
+        this.fileVersionRepository = fileVersionRepository;
+        this.fileVersionService = fileVersionService;
+        this.blobService = blobService;
+    }
+
+    /**
+     * @return number of moved file and version blobs
+     */
+    public int migrate() throws IOException {
+        new ChunkStore(storageBackend).migrate();
+
+        Set<String> keys = new LinkedHashSet<>(fileRepository.findAllPaths());
+        keys.addAll(fileVersionRepository.findAllPaths());
+
+        int moved = 0;
+        for (String key : keys) {
+            if (KeyLayout.isSharded(key)) {
+                continue;
+            }
+            String copy;
+            try {
+                copy = blobService.copy(key, KeyLayout.directory());
+            } catch (FileNotFoundException e) {
+                // released after it was listed, or lost before
+                continue;
+            }
+            fileVersionService.relocate(key, copy);
+            moved++;
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,154 @@
+package web.cloudfilestorage.service;
+
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.chunking.ChunkStore;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.MultiVolumeStorageBackend;
+import web.cloudfilestorage.storage.Volume;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Evens out volumes after one is added: chunks are moved to their home volumes and
+ * blobs are moved from the fullest volume to the emptiest one until the share of used
+ * space differs by no more than the threshold. A moved blob is switched in the metadata
+ * of files and versions before its old copy is deleted, moved files get a new version so
+ * an update which read one before the move fails instead of pointing it at the old copy.
+ *
+ * Every replica schedules it, the one holding the cluster lock runs it.
+ * */
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "volumes")
+public class RebalanceService {
+
+    private final MultiVolumeStorageBackend storageBackend;
+    private final FileRepository fileRepository;
+    private final FileVersionRepository fileVersionRepository;
+    private final FileVersionService fileVersionService;
+    private final ClusterLock clusterLock;
+
+    @Value("${storage.rebalance.threshold:0.1}")
+    @Setter
+    private double threshold = 0.1;
+
+    @Value("${storage.rebalance.batchSize:100}")
+    @Setter
+    private int batchSize = 100;
+
+    /* milliseconds, longer than a rebalance takes */
+    @Value("${storage.rebalance.lease:3600000}")
+    @Setter
+    private long lease = 3600000;
+
+    @Autowired
+    public RebalanceService(
+            MultiVolumeStorageBackend storageBackend,
+            FileRepository fileRepository,
+            FileVersionRepository fileVersionRepository,
+            FileVersionService fileVersionService,
+            ClusterLock clusterLock
+    ) {
+        this.storageBackend = storageBackend;
+        this.fileRepository = fileRepository;
+        this.fileVersionRepository = fileVersionRepository;
+        this.fileVersionService = fileVersionService;
+        this.clusterLock = clusterLock;
+    }
+
+    /**
+     * @return number of moved file and version blobs
+     */
+    @Scheduled(
+            initialDelayString = "${storage.rebalance.interval:3600000}",
+            fixedDelayString = "${storage.rebalance.interval:3600000}"
+    )
+    public int rebalance() throws IOException {
+        if (!clusterLock.tryLock("rebalance", Duration.ofMillis(lease))) {
+            return 0;
+        }
+        try {
+            return rebalanceLocked();
+        } finally {
+            clusterLock.unlock("rebalance");
+        }
+    }
+
+    private int rebalanceLocked() throws IOException {
+        storageBackend.rehome(ChunkStore.PREFIX);
+
+        int moved = 0;
+        int attempts = 0;
+        while (attempts < batchSize) {
+            Map<Volume, Double> usage = usage();
+            Volume fullest = Collections.max(usage.keySet(), Comparator.comparing(usage::get));
+            Volume emptiest = Collections.min(usage.keySet(), Comparator.comparing(usage::get));
+            if (usage.get(fullest) - usage.get(emptiest) <= threshold) {
+                break;
+            }
+
+            List<String> keys = keys(fullest, batchSize - attempts);
+            if (keys.isEmpty()) {
+                break;
+            }
+            for (String key : keys) {
+                if (fullest.usedFraction() - emptiest.usedFraction() <= threshold) {
+                    break;
+                }
+                attempts++;
+                if (move(key, emptiest)) {
+                    moved++;
+                }
+            }
+        }
+        return moved;
+    }
+
+    private boolean move(String key, Volume target) throws IOException {
+        String copy;
+        try {
+            copy = storageBackend.copy(key, target);
+        } catch (FileNotFoundException e) {
+            // released after it was listed
+            return false;
+        }
+        fileVersionService.relocate(key, copy);
+        return true;
+    }
+
+    private List<String> keys(Volume volume, int limit) {
+        String prefix = (volume.getName() + MultiVolumeStorageBackend.SEPARATOR)
+                .replace("!", "!!")
+                .replace("%", "!%")
+                .replace("_", "!_");
+        List<String> keys = new ArrayList<>(fileRepository.findPathsStartingWith(prefix, PageRequest.of(0, limit)));
+        if (keys.size() < limit) {
+            fileVersionRepository.findPathsStartingWith(prefix, PageRequest.of(0, limit - keys.size())).stream()
+                    .filter(key -> !keys.contains(key))
+                    .forEach(keys::add);
+        }
+        return keys;
+    }
+
+    private Map<Volume, Double> usage() throws IOException {
+        Map<Volume, Double> usage = new HashMap<>();
+        for (Volume volume : storageBackend.getVolumes()) {
+            usage.put(volume, volume.usedFraction());
+        }
+        return usage;
+    }
+}
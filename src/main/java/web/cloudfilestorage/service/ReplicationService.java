@@ -0,0 +1,172 @@
+package web.cloudfilestorage.service;
+
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.chunking.ChunkStore;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.BlobStat;
+import web.cloudfilestorage.storage.ReplicatedStorageBackend;
+import web.cloudfilestorage.storage.StorageBackend;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Anti-entropy: every node offers the blobs of its local storage to the replicas which
+ * lack them, and drops a copy it does not have to hold once all replicas have it.
+ *
+ * A blob no file or version refers to is not offered but deleted, so a blob deleted
+ * while the node was down is not brought back. Unreferenced chunks are left to the
+ * collection of BlobService, which sweeps them on all nodes.
+ *
+ * A pass compares the local listing with one listing of every other node, and looks up
+ * references in batches, instead of a stat per replica and queries per blob.
+ * */
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "replicated")
+public class ReplicationService {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final ReplicatedStorageBackend storageBackend;
+    private final FileRepository fileRepository;
+    private final FileVersionRepository fileVersionRepository;
+
+    /* a blob is written before the file or version referring to it is saved */
+    @Value("${chunking.gracePeriod:3600000}")
+    @Setter
+    private long gracePeriod = 3600000;
+
+    @Autowired
+    public ReplicationService(
+            ReplicatedStorageBackend storageBackend,
+            FileRepository fileRepository,
+            FileVersionRepository fileVersionRepository
+    ) {
+        this.storageBackend = storageBackend;
+        this.fileRepository = fileRepository;
+        this.fileVersionRepository = fileVersionRepository;
+    }
+
+    /**
+     * @return number of copies written to other nodes
+     */
+    @Scheduled(
+            initialDelayString = "${storage.replication.repairInterval:600000}",
+            fixedDelayString = "${storage.replication.repairInterval:600000}"
+    )
+    public int repair() throws IOException {
+        StorageBackend local = storageBackend.getLocal();
+        Instant before = Instant.now().minusMillis(gracePeriod);
+
+        // listed up front, a walk of the directories would trip over the ones emptied by deletes
+        List<BlobStat> blobs;
+        try (Stream<BlobStat> listed = local.listStored("")) {
+            blobs = listed.toList();
+        }
+
+        Set<String> referenced = referenced(blobs);
+        Set<String> keys = new HashSet<>();
+        for (BlobStat blob : blobs) {
+            String key = blob.key();
+            if (key.startsWith(ChunkStore.PREFIX) || referenced.contains(key)) {
+                keys.add(key);
+            } else if (blob.lastModified().isBefore(before)) {
+                local.delete(key);
+            }
+        }
+
+        Map<String, Set<String>> held = held(keys);
+        int repaired = 0;
+        for (String key : keys) {
+            List<String> replicas = storageBackend.replicas(key);
+            boolean complete = true;
+            for (String name : replicas) {
+                if (name.equals(storageBackend.getSelf())) {
+                    continue;
+                }
+                Set<String> has = held.get(name);
+                Optional<StorageBackend> node = storageBackend.node(name);
+                if (has == null || node.isEmpty()) {
+                    complete = false;
+                    continue;
+                }
+                if (has.contains(key)) {
+                    continue;
+                }
+                try {
+                    copy(local, key, node.get());
+                    repaired++;
+                } catch (FileNotFoundException e) {
+                    // deleted locally in between
+                    complete = false;
+                    break;
+                } catch (IOException e) {
+                    complete = false;
+                }
+            }
+
+            // left here by a change of the nodes
+            if (complete && !replicas.contains(storageBackend.getSelf())) {
+                local.delete(key);
+            }
+        }
+        return repaired;
+    }
+
+    private Set<String> referenced(List<BlobStat> blobs) {
+        List<String> keys = blobs.stream()
+                .map(BlobStat::key)
+                .filter(key -> !key.startsWith(ChunkStore.PREFIX))
+                .toList();
+        Set<String> referenced = new HashSet<>();
+        for (int i = 0; i < keys.size(); i += BATCH_SIZE) {
+            List<String> batch = keys.subList(i, Math.min(keys.size(), i + BATCH_SIZE));
+            referenced.addAll(fileRepository.findFilesIn(batch));
+            referenced.addAll(fileVersionRepository.findPathsIn(batch));
+        }
+        return referenced;
+    }
+
+    /*
+     * Which of the keys every other node holds, by one listing of each. Nodes which are
+     * down or fail to list are left out, and the keys they should hold are not complete.
+     * */
+    private Map<String, Set<String>> held(Set<String> keys) {
+        Map<String, Set<String>> held = new HashMap<>();
+        for (String name : storageBackend.getNodes()) {
+            Optional<StorageBackend> node = storageBackend.node(name);
+            if (name.equals(storageBackend.getSelf()) || node.isEmpty()) {
+                continue;
+            }
+            try (Stream<BlobStat> listed = node.get().listStored("")) {
+                held.put(name, listed.map(BlobStat::key).filter(keys::contains).collect(Collectors.toSet()));
+            } catch (IOException | UncheckedIOException e) {
+                // repaired by a later pass
+            }
+        }
+        return held;
+    }
+
+    private static void copy(StorageBackend from, String key, StorageBackend to) throws IOException {
+        try (InputStream in = from.get(key, 0, -1)) {
+            to.put(key, in);
+        }
+    }
+}
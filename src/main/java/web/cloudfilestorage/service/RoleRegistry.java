@@ -0,0 +1,87 @@
+package web.cloudfilestorage.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.model.Role;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.repository.RoleRepository;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityNotFoundException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * Roles change rarely, so they are kept in memory and reloaded on every change
+ * made through RoleService (and periodically, to pick up changes of other instances).
+ * */
+@Service
+public class RoleRegistry {
+
+    private final RoleRepository roleRepository;
+
+    private volatile Map<String, Role> roles = Map.of();
+
+    @Autowired
+    public RoleRegistry(RoleRepository roleRepository) {
+        this.roleRepository = roleRepository;
+    }
+
+    @PostConstruct
+    @Scheduled(
+            initialDelayString = "${roles.refreshInterval:60000}",
+            fixedDelayString = "${roles.refreshInterval:60000}"
+    )
+    public void refresh() {
+        roles = roleRepository.findAll().stream()
+                .map(role -> Role.builder().id(role.getId()).name(role.getName()).build())
+                .collect(Collectors.toUnmodifiableMap(Role::getName, Function.identity()));
+    }
+
+    public Role get(String name) throws EntityNotFoundException {
+        Role role = roles.get(name);
+        if (role == null) {
+            refresh();
+            role = roles.get(name);
+        }
+        if (role == null) {
+            throw new EntityNotFoundException(
+                    "Role with name " + name + " is not present in database!"
+            );
+        }
+        return role;
+    }
+
+    /**
+     * @return the role with the id, looked up again if it is not known yet
+     */
+    public Optional<Role> find(Long id) {
+        Optional<Role> role = find(roles, id);
+        if (role.isEmpty()) {
+            refresh();
+            role = find(roles, id);
+        }
+        return role;
+    }
+
+    private static Optional<Role> find(Map<String, Role> roles, Long id) {
+        return roles.values().stream()
+                .filter(role -> Objects.equals(role.getId(), id))
+                .findFirst();
+    }
+
+    public boolean hasRole(User user, String name) {
+        Role role = roles.get(name);
+        if (role == null || user.getRoles() == null) {
+            return false;
+        }
+        return user.getRoles().stream().anyMatch(
+                userRole -> Objects.equals(userRole.getId(), role.getId())
+        );
+    }
+
+}
@@ -19,10 +19,14 @@ public class RoleService {
 
     private final RoleRepository roleRepository;
 
+    private final RoleRegistry roleRegistry;
+
     @Autowired
     public RoleService(
-            RoleRepository roleRepository) {
+            RoleRepository roleRepository,
+            RoleRegistry roleRegistry) {
         this.roleRepository = roleRepository;
+        this.roleRegistry = roleRegistry;
     }
 
     public List<Role> list() {
@@ -46,7 +50,9 @@ public class RoleService {
                 .name(roleData.getName())
                 .users(List.of())
                 .build();
-        return roleRepository.save(role);
+        role = roleRepository.save(role);
+        roleRegistry.refresh();
+        return role;
     }
 
     public Role update(
@@ -66,7 +72,9 @@ public class RoleService {
                         roleUpdate.getName() :
                         role.getName()
         );
-        return roleRepository.save(role);
+        role = roleRepository.save(role);
+        roleRegistry.refresh();
+        return role;
     }
 
     @Transactional
@@ -78,6 +86,7 @@ public class RoleService {
             );
         }
         roleRepository.delete(role.get());
+        roleRegistry.refresh();
     }
 
 }
@@ -0,0 +1,73 @@
+package web.cloudfilestorage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import web.cloudfilestorage.storage.TieredStorageBackend;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/*
+ * Moves blobs which were neither written nor read within storage.tiering.window to
+ * the cold tier, and saves the access sketch so a restart does not forget the reads.
+ *
+ * Tiered storage is meant for a single instance: each instance records only the reads
+ * it serves, and saves its sketch to the same file. Should several instances share the
+ * tiers anyway, the one holding the cluster lock demotes, so demotions do not overlap.
+ * */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "tiered")
+public class TieringService {
+
+    private final TieredStorageBackend storageBackend;
+    private final ClusterLock clusterLock;
+
+    @Value("${storage.tiering.window:604800000}")
+    private long window;
+
+    /* milliseconds, longer than a demotion takes */
+    @Value("${storage.tiering.lease:3600000}")
+    private long lease;
+
+    @Value("${storage.tiering.sketch:${filesRoot:files}/../access.sketch}")
+    private String sketch;
+
+    @Autowired
+    public TieringService(TieredStorageBackend storageBackend, ClusterLock clusterLock) {
+        this.storageBackend = storageBackend;
+        this.clusterLock = clusterLock;
+    }
+
+    /**
+     * @return number of blobs moved to the cold tier
+     */
+    @Scheduled(
+            initialDelayString = "${storage.tiering.interval:3600000}",
+            fixedDelayString = "${storage.tiering.interval:3600000}"
+    )
+    public int demote() throws IOException {
+        save();
+        if (!clusterLock.tryLock("tiering", Duration.ofMillis(lease))) {
+            return 0;
+        }
+        try {
+            int demoted = storageBackend.demote(window);
+            log.info("Moved {} blobs to the cold tier", demoted);
+            return demoted;
+        } finally {
+            clusterLock.unlock("tiering");
+        }
+    }
+
+    @PreDestroy
+    public void save() throws IOException {
+        storageBackend.getSketch().save(Path.of(sketch));
+    }
+}
@@ -1,6 +1,9 @@
 package web.cloudfilestorage.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -12,12 +15,12 @@ import web.cloudfilestorage.dto.user.UserUpdateByAdmin;
 import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.model.Status;
 import web.cloudfilestorage.model.User;
-import web.cloudfilestorage.repository.RoleRepository;
 import web.cloudfilestorage.repository.UserRepository;
 
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityNotFoundException;
 import javax.transaction.Transactional;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,19 +29,41 @@ import java.util.Optional;
 public class UserService implements UserDetailsService {
 
     private final UserRepository userRepository;
-    private final RoleRepository roleRepository;
+    private final RoleRegistry roleRegistry;
     private final BCryptPasswordEncoder passwordEncoder;
+    private final ApiKeyService apiKeyService;
 
+    /*
+     * Users authenticated requests are made by, so a jwt does not cost a query of the user
+     * and its roles on every request. Entries are evicted when a user is changed here, a
+     * ban, a new password or new roles set on another instance apply once they expire.
+     * */
+    private final Cache<String, Principal> principals = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(Duration.ofSeconds(30))
+            .build();
+
+    @Value("${jwt.principalCache.size:10000}")
+    public void setPrincipalCacheSize(long cacheSize) {
+        principals.policy().eviction().orElseThrow().setMaximum(cacheSize);
+    }
+
+    @Value("${jwt.principalCache.ttl:30000}")
+    public void setPrincipalCacheTtl(long cacheTtl) {
+        principals.policy().expireAfterWrite().orElseThrow().setExpiresAfter(Duration.ofMillis(cacheTtl));
+    }
 
     @Autowired
     public UserService(
             UserRepository userRepository,
-            RoleRepository roleRepository,
-            BCryptPasswordEncoder passwordEncoder
+            RoleRegistry roleRegistry,
+            BCryptPasswordEncoder passwordEncoder,
+            ApiKeyService apiKeyService
     ) {
         this.userRepository = userRepository;
-        this.roleRepository = roleRepository;
+        this.roleRegistry = roleRegistry;
         this.passwordEncoder = passwordEncoder;
+        this.apiKeyService = apiKeyService;
     }
 
     public List<User> getAllUsers() {
@@ -99,7 +124,7 @@ public class UserService implements UserDetailsService {
         user.setPassword(passwordEncoder.encode(userData.getPassword()));
         user.setFirstName(userData.getFirstName());
         user.setLastName(userData.getLastName());
-        Role role_user = roleRepository.findRoleByName("ROLE_USER").get();
+        Role role_user = roleRegistry.get("ROLE_USER");
         user.setRoles(List.of(role_user));
         user.setStatus(Status.ACTIVE);
         return userRepository.save(user);
@@ -113,6 +138,7 @@ public class UserService implements UserDetailsService {
         }
 
         User user = userData.get();
+        String username = user.getUsername();
         user.setUsername(
                 userUpdate.getUsername() != null ?
                         userUpdate.getUsername() : user.getUsername()
@@ -130,11 +156,15 @@ public class UserService implements UserDetailsService {
                         passwordEncoder.encode(userUpdate.getPassword()) :
                         user.getPassword()
         );
-        return userRepository.save(user);
+        user = userRepository.save(user);
+        evict(username);
+        evict(user.getUsername());
+        return user;
     }
 
     public User update(UserUpdate userUpdate, User user) {
 
+        String username = user.getUsername();
         user.setUsername(
                 userUpdate.getUsername() != null ?
                         userUpdate.getUsername() : user.getUsername()
@@ -152,7 +182,10 @@ public class UserService implements UserDetailsService {
                         passwordEncoder.encode(userUpdate.getPassword()) :
                         user.getPassword()
         );
-        return userRepository.save(user);
+        user = userRepository.save(user);
+        evict(username);
+        evict(user.getUsername());
+        return user;
     }
     public User update(UserUpdateByAdmin userUpdate, Long id) throws EntityNotFoundException {
         Optional<User> userData = userRepository.findUserById(id);
@@ -161,6 +194,7 @@ public class UserService implements UserDetailsService {
         }
 
         User user = userData.get();
+        String username = user.getUsername();
         user.setUsername(
                 userUpdate.getUsername() != null ?
                         userUpdate.getUsername() : user.getUsername()
@@ -186,11 +220,15 @@ public class UserService implements UserDetailsService {
                 userUpdate.getRoles() != null ?
                         userUpdate.getRoles() : user.getRoles()
         );
-        return userRepository.save(user);
+        user = userRepository.save(user);
+        evict(username);
+        evict(user.getUsername());
+        return user;
     }
 
     public User update(UserUpdateByAdmin userUpdate, User user) {
 
+        String username = user.getUsername();
         user.setUsername(
                 userUpdate.getUsername() != null ?
                         userUpdate.getUsername() : user.getUsername()
@@ -216,7 +254,10 @@ public class UserService implements UserDetailsService {
                 userUpdate.getRoles() != null ?
                         userUpdate.getRoles() : user.getRoles()
         );
-        return userRepository.save(user);
+        user = userRepository.save(user);
+        evict(username);
+        evict(user.getUsername());
+        return user;
     }
 
     @Transactional
@@ -229,6 +270,7 @@ public class UserService implements UserDetailsService {
             );
         }
         userRepository.deleteById(id);
+        evict(user.get().getUsername());
     }
 
     @Transactional
@@ -240,10 +282,12 @@ public class UserService implements UserDetailsService {
             );
         }
         userRepository.deleteUserByUsername(username);
+        evict(username);
     }
     @Transactional
     public void delete(User user) {
         userRepository.delete(user);
+        evict(user.getUsername());
     }
 
     @Override
@@ -255,4 +299,39 @@ public class UserService implements UserDetailsService {
         return user.get();
     }
 
+    /**
+     * Like loadUserByUsername, but from the cache of principals: the user has no password,
+     * email or names, only what authorization needs.
+     */
+    public UserDetails loadPrincipal(String username) throws UsernameNotFoundException {
+        Principal principal = principals.getIfPresent(username);
+        if (principal == null) {
+            User user = (User) loadUserByUsername(username);
+            principal = new Principal(
+                    user.getId(),
+                    user.getStatus(),
+                    user.getRoles().stream().map(Role::getId).toList()
+            );
+            principals.put(username, principal);
+        }
+        return User.builder()
+                .id(principal.id())
+                .username(username)
+                .status(principal.status())
+                .roles(principal.roleIds().stream()
+                        .map(roleRegistry::find)
+                        .flatMap(Optional::stream)
+                        .toList())
+                .build();
+    }
+
+    /* once the change is saved, so it is what the next request loads */
+    private void evict(String username) {
+        principals.invalidate(username);
+        apiKeyService.invalidateOwner(username);
+    }
+
+    private record Principal(Long id, Status status, List<Long> roleIds) {
+    }
+
 }
@@ -0,0 +1,121 @@
+package web.cloudfilestorage.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * Last access of keys in fixed memory, like a count-min sketch keeping the latest
+ * minute instead of a count: every key sets a cell in each row, and its last access
+ * is the earliest of its cells. Collisions can only make a key look accessed later
+ * than it was, never earlier.
+ *
+ * Accesses before the sketch was started are unknown, they count as at its start.
+ * */
+public class AccessSketch {
+
+    private static final int ROWS = 4;
+
+    private final int width;
+
+    private final AtomicIntegerArray cells;
+
+    /* epoch minute the sketch started at */
+    private final int since;
+
+    public AccessSketch(int width, long now) {
+        this(width, minute(now));
+    }
+
+    private AccessSketch(int width, int since) {
+        if (Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("Width of the sketch must be a power of two: " + width);
+        }
+        this.width = width;
+        this.cells = new AtomicIntegerArray(ROWS * width);
+        this.since = since;
+    }
+
+    public void record(String key, long now) {
+        int minute = minute(now);
+        long hash = hash(key);
+        for (int row = 0; row < ROWS; row++) {
+            int cell = cell(hash, row);
+            int current = cells.get(cell);
+            while (current < minute && !cells.compareAndSet(cell, current, minute)) {
+                current = cells.get(cell);
+            }
+        }
+    }
+
+    /**
+     * @return epoch millis of the last access, at most a minute earlier than it was
+     */
+    public long lastAccess(String key) {
+        long hash = hash(key);
+        int minute = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            minute = Math.min(minute, cells.get(cell(hash, row)));
+        }
+        return TimeUnit.MINUTES.toMillis(Math.max(minute, since));
+    }
+
+    public void save(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(width);
+            out.writeInt(since);
+            for (int i = 0; i < cells.length(); i++) {
+                out.writeInt(cells.get(i));
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Sketch saved at the path, or a new one if there is none of that width.
+     */
+    public static AccessSketch load(Path path, int width, long now) throws IOException {
+        if (!Files.exists(path)) {
+            return new AccessSketch(width, now);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != width) {
+                return new AccessSketch(width, now);
+            }
+            AccessSketch sketch = new AccessSketch(width, in.readInt());
+            for (int i = 0; i < sketch.cells.length(); i++) {
+                sketch.cells.set(i, in.readInt());
+            }
+            return sketch;
+        }
+    }
+
+    private int cell(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return row * width + ((h1 + row * h2) & (width - 1));
+    }
+
+    private static int minute(long millis) {
+        return (int) TimeUnit.MILLISECONDS.toMinutes(millis);
+    }
+
+    /* 64 bit FNV-1a */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,6 @@
+package web.cloudfilestorage.storage;
+
+import java.time.Instant;
+
+public record BlobStat(String key, long size, Instant lastModified) {
+}
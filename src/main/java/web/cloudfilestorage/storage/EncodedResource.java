@@ -0,0 +1,28 @@
+package web.cloudfilestorage.storage;
+
+/*
+ * Downloadable view of a blob stored encoded, which can also be sent as it is stored
+ * to clients accepting the encoding.
+ * */
+public class EncodedResource extends RangeResource {
+
+    private final RangeReader encoded;
+    private final String encoding;
+
+    public EncodedResource(RangeReader content, RangeReader encoded, String encoding, String filename) {
+        super(content, filename);
+        this.encoded = encoded;
+        this.encoding = encoding;
+    }
+
+    /**
+     * @return Content-Encoding of the stored bytes
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public RangeResource getEncoded() {
+        return new RangeResource(encoded, getFilename());
+    }
+}
@@ -0,0 +1,147 @@
+package web.cloudfilestorage.storage;
+
+import web.cloudfilestorage.encryption.SegmentedGcm;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/*
+ * Encrypts blobs before they reach the backend, see SegmentedGcm. Blobs stored before
+ * encryption was enabled have no header and are read as they are.
+ *
+ * The size of an encrypted blob is only known from its header, so stat() and list()
+ * read the header of every blob, listStored() does not.
+ * */
+public class EncryptingStorageBackend implements StorageBackend {
+
+    private final StorageBackend backend;
+    private final SegmentedGcm gcm;
+
+    public EncryptingStorageBackend(StorageBackend backend, SegmentedGcm gcm) {
+        this.backend = backend;
+        this.gcm = gcm;
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        try (InputStream encrypted = gcm.encrypt(content)) {
+            backend.put(key, encrypted);
+        }
+    }
+
+    @Override
+    public String place(String key) throws IOException {
+        return backend.place(key);
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        Optional<SegmentedGcm.Envelope> envelope = envelope(key);
+        if (envelope.isEmpty()) {
+            return backend.get(key, offset, length);
+        }
+        int segmentSize = envelope.get().segmentSize();
+        long first = offset / segmentSize;
+        long storedOffset = envelope.get().storedOffset(first);
+
+        InputStream in;
+        if (length < 0) {
+            in = gcm.decrypt(envelope.get(), backend.get(key, storedOffset, -1), first, -1);
+        } else {
+            long segments = length == 0 ? 0 : (offset + length - 1) / segmentSize - first + 1;
+            // a byte past the segments tells whether the last of them is the last of the blob
+            long storedLength = envelope.get().storedOffset(first + segments) - storedOffset + 1;
+            in = gcm.decrypt(envelope.get(), backend.get(key, storedOffset, storedLength), first, segments);
+        }
+        try {
+            skip(in, offset - first * segmentSize);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return length < 0 ? in : new BoundedInputStream(in, length);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        backend.delete(key);
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        Optional<BlobStat> stat = backend.stat(key);
+        return stat.isEmpty() ? stat : Optional.of(plaintext(stat.get()));
+    }
+
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        List<BlobStat> blobs;
+        try (Stream<BlobStat> listed = backend.list(prefix)) {
+            blobs = listed.toList();
+        }
+        return blobs.stream().map(stat -> {
+            try {
+                return plaintext(stat);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public Stream<BlobStat> listStored(String prefix) throws IOException {
+        return backend.listStored(prefix);
+    }
+
+    @Override
+    public boolean touch(String key) throws IOException {
+        return backend.touch(key);
+    }
+
+    @Override
+    public int compact(double maxDeadShare) throws IOException {
+        return backend.compact(maxDeadShare);
+    }
+
+    private BlobStat plaintext(BlobStat stat) throws IOException {
+        if (stat.size() < SegmentedGcm.HEADER_SIZE + SegmentedGcm.TAG_SIZE) {
+            return stat;
+        }
+        Optional<SegmentedGcm.Envelope> envelope;
+        try {
+            envelope = envelope(stat.key());
+        } catch (FileNotFoundException e) {
+            // deleted after it was listed
+            return stat;
+        }
+        return envelope
+                .map(opened -> new BlobStat(stat.key(), opened.plaintextSize(stat.size()), stat.lastModified()))
+                .orElse(stat);
+    }
+
+    private Optional<SegmentedGcm.Envelope> envelope(String key) throws IOException {
+        byte[] header;
+        try (InputStream in = backend.get(key, 0, SegmentedGcm.HEADER_SIZE)) {
+            header = in.readNBytes(SegmentedGcm.HEADER_SIZE);
+        }
+        return gcm.open(header);
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
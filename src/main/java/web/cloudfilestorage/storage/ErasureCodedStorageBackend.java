@@ -0,0 +1,659 @@
+package web.cloudfilestorage.storage;
+
+import web.cloudfilestorage.erasure.ReedSolomon;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/*
+ * Blobs split into `dataShards` data and `parityShards` parity shards, each kept by
+ * another backend, so any `parityShards` of them may be lost at a storage overhead of
+ * (data + parity) / data. The backends of a key are chosen by rendezvous hashing and
+ * keep its shard under the key itself.
+ *
+ * A blob is coded in stripes of one cell per data shard. A shard is a header followed
+ * by its cell of every stripe and the cell's checksum; the last stripe is padded with
+ * zeros. Reads fetch the data shards and switch to parity shards for stripes of
+ * shards which are missing, unreachable or corrupt.
+ *
+ * A put succeeds once `writeQuorum` shards, by default one more than the data shards,
+ * are written. Keys with shards which failed are queued for repairDegraded, and scrub
+ * rewrites the missing or corrupt shards of every blob, which also covers a queue lost
+ * with a restart.
+ * */
+public class ErasureCodedStorageBackend implements StorageBackend {
+
+    private static final int MAGIC = 0x52530001;
+
+    /* magic, data shards, parity shards, index of the shard, cell size, blob length */
+    static final int HEADER_SIZE = Integer.BYTES + 3 + Integer.BYTES + Long.BYTES;
+
+    private static final int CHECKSUM_SIZE = Integer.BYTES;
+
+    private final Map<String, StorageBackend> backends;
+
+    private final ReedSolomon code;
+
+    private final int cellSize;
+
+    private final Path spool;
+
+    private final ExecutorService executor;
+
+    private final int writeQuorum;
+
+    /* keys put with fewer than all shards */
+    private final Set<String> degraded = ConcurrentHashMap.newKeySet();
+
+    public ErasureCodedStorageBackend(
+            Map<String, StorageBackend> backends,
+            int dataShards,
+            int parityShards,
+            int cellSize,
+            Path spool,
+            ExecutorService executor
+    ) throws IOException {
+        this(backends, dataShards, parityShards, cellSize, Math.min(dataShards + 1, dataShards + parityShards), spool, executor);
+    }
+
+    public ErasureCodedStorageBackend(
+            Map<String, StorageBackend> backends,
+            int dataShards,
+            int parityShards,
+            int cellSize,
+            int writeQuorum,
+            Path spool,
+            ExecutorService executor
+    ) throws IOException {
+        if (backends.size() < dataShards + parityShards) {
+            throw new IllegalArgumentException(
+                    (dataShards + parityShards) + " shards need as many backends, only " + backends.size() + " are given"
+            );
+        }
+        if (writeQuorum < dataShards || writeQuorum > dataShards + parityShards) {
+            throw new IllegalArgumentException(
+                    "Write quorum must be between " + dataShards + " and " + (dataShards + parityShards)
+            );
+        }
+        this.backends = new LinkedHashMap<>(backends);
+        this.code = new ReedSolomon(dataShards, parityShards);
+        this.cellSize = cellSize;
+        this.writeQuorum = writeQuorum;
+        this.spool = Files.createDirectories(spool);
+        this.executor = executor;
+    }
+
+    /**
+     * Names of the backends keeping the shards of the key, by shard index.
+     */
+    public List<String> placement(String key) {
+        Map<String, Double> scores = new HashMap<>();
+        for (String name : backends.keySet()) {
+            scores.put(name, MultiVolumeStorageBackend.score(key, name, 1));
+        }
+        List<String> names = new ArrayList<>(backends.keySet());
+        names.sort(Comparator.comparing(scores::get, Comparator.reverseOrder()));
+        return names.subList(0, code.getTotalShards());
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        int shards = code.getTotalShards();
+        List<Path> spooled = new ArrayList<>();
+        try {
+            for (int i = 0; i < shards; i++) {
+                spooled.add(Files.createTempFile(spool, "shard", ".tmp"));
+            }
+            encode(content, spooled);
+
+            List<String> placement = placement(key);
+            List<Callable<Void>> writes = new ArrayList<>();
+            for (int i = 0; i < shards; i++) {
+                StorageBackend backend = backends.get(placement.get(i));
+                Path shard = spooled.get(i);
+                writes.add(() -> {
+                    try (InputStream in = Files.newInputStream(shard)) {
+                        backend.put(key, in);
+                    }
+                    return null;
+                });
+            }
+            IOException failure = null;
+            List<Integer> failed = new ArrayList<>();
+            List<Future<Void>> written = executor.invokeAll(writes);
+            for (int i = 0; i < shards; i++) {
+                try {
+                    written.get(i).get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                    failed.add(i);
+                }
+            }
+            if (shards - failed.size() < writeQuorum) {
+                // a failed put leaves no shards behind
+                try {
+                    delete(key);
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+                throw failure;
+            }
+            if (!failed.isEmpty()) {
+                for (int i : failed) {
+                    // a shard of a blob put before under the key must not be read with the new ones
+                    try {
+                        backends.get(placement.get(i)).delete(key);
+                    } catch (IOException e) {
+                        // rewritten by repairDegraded
+                    }
+                }
+                degraded.add(key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing shards of " + key, e);
+        } finally {
+            for (Path path : spooled) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        List<String> placement = placement(key);
+        Header header = header(key, placement).orElseThrow(
+                () -> new FileNotFoundException("Could not read file: " + key)
+        );
+        long start = Math.min(offset, header.length());
+        long end = length < 0 ? header.length() : Math.min(header.length(), offset + length);
+        if (start >= end) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        long stripeSize = (long) cellSize * code.getDataShards();
+        long firstStripe = start / stripeSize;
+        long lastStripe = (end - 1) / stripeSize;
+        InputStream decoded = new DecodingInputStream(key, placement, header, firstStripe, lastStripe + 1);
+        decoded.skipNBytes(start - firstStripe * stripeSize);
+        return new BoundedInputStream(decoded, end - start);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        IOException failure = null;
+        for (String name : placement(key)) {
+            try {
+                backends.get(name).delete(key);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        IOException failure = null;
+        for (String name : placement(key)) {
+            try {
+                Optional<BlobStat> shard = backends.get(name).stat(key);
+                if (shard.isEmpty()) {
+                    continue;
+                }
+                Header header = readHeader(backends.get(name), key);
+                return Optional.of(new BlobStat(key, header.length(), shard.get().lastModified()));
+            } catch (FileNotFoundException e) {
+                // deleted in between
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Blobs with at least one shard. Sizes are those of whole stripes, the padding of
+     * the last one is known only from the header.
+     */
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        return list(prefix, false);
+    }
+
+    /**
+     * Like list(), without opening encrypted shards, so sizes are off by their overhead.
+     */
+    @Override
+    public Stream<BlobStat> listStored(String prefix) throws IOException {
+        return list(prefix, true);
+    }
+
+    /**
+     * Rewrites the missing or corrupt shards of blobs which were put with fewer than all
+     * shards. Keys which can not be repaired yet stay queued.
+     *
+     * @return number of shards rewritten
+     */
+    public int repairDegraded() {
+        int repaired = 0;
+        for (String key : degraded) {
+            try {
+                repaired += repair(key);
+                degraded.remove(key);
+            } catch (FileNotFoundException e) {
+                // deleted meanwhile
+                degraded.remove(key);
+            } catch (IOException e) {
+                // tried again by the next call
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Checks every shard of every blob and rewrites the missing or corrupt ones.
+     *
+     * @return number of shards rewritten
+     */
+    public int scrub() throws IOException {
+        List<String> keys;
+        try (Stream<BlobStat> blobs = listStored("")) {
+            keys = blobs.map(BlobStat::key).toList();
+        }
+        int repaired = 0;
+        for (String key : keys) {
+            try {
+                repaired += repair(key);
+                degraded.remove(key);
+            } catch (IOException e) {
+                // deleted meanwhile, or too many shards are lost
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Decodes the blob from the intact shards and rewrites the others.
+     *
+     * @return number of shards rewritten
+     */
+    public int repair(String key) throws IOException {
+        List<String> placement = placement(key);
+        List<Integer> damaged = new ArrayList<>();
+        for (int i = 0; i < placement.size(); i++) {
+            if (!isIntact(backends.get(placement.get(i)), key, i)) {
+                damaged.add(i);
+            }
+        }
+        if (damaged.isEmpty()) {
+            return 0;
+        }
+
+        List<Path> spooled = new ArrayList<>();
+        try {
+            for (int i = 0; i < placement.size(); i++) {
+                spooled.add(Files.createTempFile(spool, "shard", ".tmp"));
+            }
+            try (InputStream content = get(key, 0, -1)) {
+                encode(content, spooled);
+            }
+            for (int i : damaged) {
+                try (InputStream in = Files.newInputStream(spooled.get(i))) {
+                    backends.get(placement.get(i)).put(key, in);
+                }
+            }
+        } finally {
+            for (Path path : spooled) {
+                Files.deleteIfExists(path);
+            }
+        }
+        return damaged.size();
+    }
+
+    private Stream<BlobStat> list(String prefix, boolean stored) throws IOException {
+        Map<String, BlobStat> blobs = new LinkedHashMap<>();
+        for (StorageBackend backend : backends.values()) {
+            try (Stream<BlobStat> shards = stored ? backend.listStored(prefix) : backend.list(prefix)) {
+                shards.forEach(shard -> blobs.merge(
+                        shard.key(),
+                        new BlobStat(shard.key(), blobSize(shard.size()), shard.lastModified()),
+                        (a, b) -> a.lastModified().isAfter(b.lastModified()) ? a : b
+                ));
+            }
+        }
+        return blobs.values().stream();
+    }
+
+    /*
+     * Whether the shard is there with a header for its index and valid checksums of all
+     * of its cells. A shard which can not be read counts as damaged.
+     * */
+    private boolean isIntact(StorageBackend backend, String key, int index) {
+        try (InputStream in = backend.get(key, 0, -1)) {
+            byte[] header = in.readNBytes(HEADER_SIZE);
+            if (header.length < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            if (buffer.getInt() != MAGIC
+                    || buffer.get() != code.getDataShards()
+                    || buffer.get() != code.getParityShards()
+                    || buffer.get() != index
+                    || buffer.getInt() != cellSize) {
+                return false;
+            }
+            long stripeSize = (long) cellSize * code.getDataShards();
+            long stripes = (buffer.getLong() + stripeSize - 1) / stripeSize;
+
+            byte[] cell = new byte[cellSize + CHECKSUM_SIZE];
+            CRC32C checksum = new CRC32C();
+            for (long stripe = 0; stripe < stripes; stripe++) {
+                if (in.readNBytes(cell, 0, cell.length) < cell.length) {
+                    return false;
+                }
+                checksum.reset();
+                checksum.update(cell, 0, cellSize);
+                if ((int) checksum.getValue() != ByteBuffer.wrap(cell, cellSize, CHECKSUM_SIZE).getInt()) {
+                    return false;
+                }
+            }
+            return in.read() < 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean touch(String key) throws IOException {
+        boolean touched = false;
+        for (String name : placement(key)) {
+            touched |= backends.get(name).touch(key);
+        }
+        return touched;
+    }
+
+    private void encode(InputStream content, List<Path> spooled) throws IOException {
+        int dataShards = code.getDataShards();
+        int shards = code.getTotalShards();
+        FileChannel[] channels = new FileChannel[shards];
+        DataOutputStream[] outs = new DataOutputStream[shards];
+        try {
+            for (int i = 0; i < shards; i++) {
+                channels[i] = FileChannel.open(spooled.get(i), StandardOpenOption.WRITE);
+                channels[i].position(HEADER_SIZE);
+                outs[i] = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channels[i]), cellSize));
+            }
+
+            byte[][] cells = new byte[shards][cellSize];
+            CRC32C checksum = new CRC32C();
+            long length = 0;
+            boolean end = false;
+            while (!end) {
+                int read = 0;
+                for (int d = 0; d < dataShards; d++) {
+                    int cell = end ? 0 : content.readNBytes(cells[d], 0, cellSize);
+                    Arrays.fill(cells[d], cell, cellSize, (byte) 0);
+                    read += cell;
+                    end |= cell < cellSize;
+                }
+                if (read == 0) {
+                    break;
+                }
+                length += read;
+                code.encode(cells, cellSize);
+                for (int i = 0; i < shards; i++) {
+                    checksum.reset();
+                    checksum.update(cells[i], 0, cellSize);
+                    outs[i].write(cells[i]);
+                    outs[i].writeInt((int) checksum.getValue());
+                }
+            }
+
+            for (int i = 0; i < shards; i++) {
+                outs[i].flush();
+                ByteBuffer header = encodeHeader(i, length);
+                while (header.hasRemaining()) {
+                    channels[i].write(header, header.position());
+                }
+            }
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private ByteBuffer encodeHeader(int index, long length) {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .put((byte) code.getDataShards())
+                .put((byte) code.getParityShards())
+                .put((byte) index)
+                .putInt(cellSize)
+                .putLong(length)
+                .flip();
+    }
+
+    private Optional<Header> header(String key, List<String> placement) throws IOException {
+        IOException failure = null;
+        for (String name : placement) {
+            try {
+                return Optional.of(readHeader(backends.get(name), key));
+            } catch (FileNotFoundException e) {
+                // lost shard, or no blob at all
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return Optional.empty();
+    }
+
+    private Header readHeader(StorageBackend backend, String key) throws IOException {
+        byte[] bytes;
+        try (InputStream in = backend.get(key, 0, HEADER_SIZE)) {
+            bytes = in.readNBytes(HEADER_SIZE);
+        }
+        if (bytes.length < HEADER_SIZE) {
+            throw new IOException("Shard of " + key + " is truncated");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Shard of " + key + " has no valid header");
+        }
+        int dataShards = buffer.get();
+        int parityShards = buffer.get();
+        buffer.get();
+        int cellSize = buffer.getInt();
+        if (dataShards != code.getDataShards() || parityShards != code.getParityShards() || cellSize != this.cellSize) {
+            throw new IOException(
+                    "Blob " + key + " was coded into " + dataShards + "+" + parityShards + " shards of "
+                            + cellSize + " byte cells, the backend is configured otherwise"
+            );
+        }
+        return new Header(buffer.getLong());
+    }
+
+    private long blobSize(long shardSize) {
+        long stripes = Math.max(0, shardSize - HEADER_SIZE) / (cellSize + CHECKSUM_SIZE);
+        return stripes * cellSize * code.getDataShards();
+    }
+
+    private record Header(long length) {
+    }
+
+    /*
+     * Stripes [first, end) of a blob, restored from the first `dataShards` shards
+     * which can be read. A shard failing midway is replaced from the failed stripe on.
+     * */
+    private class DecodingInputStream extends InputStream {
+
+        private final String key;
+        private final List<String> placement;
+        private final long blobLength;
+        private final long end;
+
+        private final InputStream[] sources = new InputStream[code.getTotalShards()];
+        private final boolean[] failed = new boolean[code.getTotalShards()];
+        private final byte[][] cells = new byte[code.getTotalShards()][cellSize + CHECKSUM_SIZE];
+        private final boolean[] present = new boolean[code.getTotalShards()];
+        private final CRC32C checksum = new CRC32C();
+
+        private final byte[] stripe = new byte[cellSize * code.getDataShards()];
+        private long next;
+        private int position;
+        private int limit;
+
+        DecodingInputStream(String key, List<String> placement, Header header, long first, long end) {
+            this.key = key;
+            this.placement = placement;
+            this.blobLength = header.length();
+            this.next = first;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return stripe[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            int read = Math.min(length, limit - position);
+            System.arraycopy(stripe, position, bytes, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int i = 0; i < sources.length; i++) {
+                closeSource(i);
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (next >= end) {
+                return false;
+            }
+            int dataShards = code.getDataShards();
+            Arrays.fill(present, false);
+            int readable = 0;
+            for (int i = 0; i < sources.length && readable < dataShards; i++) {
+                if (failed[i]) {
+                    continue;
+                }
+                if (readCell(i)) {
+                    present[i] = true;
+                    readable++;
+                }
+            }
+            if (readable < dataShards) {
+                throw new IOException(
+                        "Only " + readable + " of " + dataShards + " required shards of " + key + " are readable"
+                );
+            }
+
+            byte[][] shards = new byte[sources.length][];
+            for (int i = 0; i < sources.length; i++) {
+                shards[i] = cells[i];
+            }
+            code.decode(shards, present, cellSize);
+            for (int d = 0; d < dataShards; d++) {
+                System.arraycopy(cells[d], 0, stripe, d * cellSize, cellSize);
+            }
+
+            long stripeSize = (long) cellSize * dataShards;
+            position = 0;
+            limit = (int) Math.min(stripeSize, blobLength - next * stripeSize);
+            next++;
+            return true;
+        }
+
+        /*
+         * Reads the cell of the next stripe from the shard, opening it at that stripe
+         * first. A shard which cannot be read or holds a corrupt cell is skipped from
+         * then on.
+         * */
+        private boolean readCell(int index) {
+            try {
+                if (sources[index] == null) {
+                    long cell = cellSize + CHECKSUM_SIZE;
+                    sources[index] = backends.get(placement.get(index))
+                            .get(key, HEADER_SIZE + next * cell, (end - next) * cell);
+                }
+                byte[] cell = cells[index];
+                if (sources[index].readNBytes(cell, 0, cell.length) < cell.length) {
+                    throw new IOException("Shard " + index + " of " + key + " is truncated");
+                }
+                checksum.reset();
+                checksum.update(cell, 0, cellSize);
+                if ((int) checksum.getValue() != ByteBuffer.wrap(cell, cellSize, CHECKSUM_SIZE).getInt()) {
+                    throw new IOException("Shard " + index + " of " + key + " is corrupt");
+                }
+                return true;
+            } catch (IOException e) {
+                failed[index] = true;
+                closeSource(index);
+                return false;
+            }
+        }
+
+        private void closeSource(int index) {
+            if (sources[index] == null) {
+                return;
+            }
+            try {
+                sources[index].close();
+            } catch (IOException e) {
+                // the shard is not read any more
+            }
+            sources[index] = null;
+        }
+    }
+}
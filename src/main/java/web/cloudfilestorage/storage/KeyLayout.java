@@ -0,0 +1,34 @@
+package web.cloudfilestorage.storage;
+
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/*
+ * Blobs of files and versions are kept in directories named by a random id and
+ * sharded over two levels by its first hex digits:
+ *
+ *   3f/a2/3fa21c0e-.../photo.jpg
+ *
+ * so no directory grows past a few hundred entries however many files an owner has.
+ * */
+public final class KeyLayout {
+
+    private static final Pattern SHARDED = Pattern.compile(
+            "^([^/:]+:)?[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f-]{36}[^/]*/[^/]+$"
+    );
+
+    private KeyLayout() {
+    }
+
+    /**
+     * @return fresh directory, ending with '/'
+     */
+    public static String directory() {
+        String id = UUID.randomUUID().toString();
+        return id.substring(0, 2) + "/" + id.substring(2, 4) + "/" + id + "/";
+    }
+
+    public static boolean isSharded(String key) {
+        return SHARDED.matcher(key).matches();
+    }
+}
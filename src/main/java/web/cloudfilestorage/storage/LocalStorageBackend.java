@@ -0,0 +1,222 @@
+package web.cloudfilestorage.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Blobs as files under a root directory.
+ *
+ * Absolute keys are accepted as absolute paths under the root, which keeps blobs
+ * referenced by absolute paths (stored before keys were introduced) readable.
+ *
+ * Directories above the one a blob is put into are remembered once they are known
+ * to exist, so a put costs one mkdir instead of a lookup of every path element.
+ *
+ * A durable backend syncs content to the disk before a put returns.
+ * */
+public class LocalStorageBackend implements StorageBackend {
+
+    private static final int MAX_KNOWN_DIRECTORIES = 100_000;
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /* puts in progress, or left over by a crash */
+    private static final Pattern TEMPORARY = Pattern.compile(".*\\.[0-9a-f-]{36}\\" + TEMPORARY_SUFFIX);
+
+    private final Path root;
+
+    private final boolean durable;
+
+    private final Set<Path> knownDirectories = ConcurrentHashMap.newKeySet();
+
+    public LocalStorageBackend(Path root) {
+        this(root, false);
+    }
+
+    public LocalStorageBackend(Path root, boolean durable) {
+        this.root = root.toAbsolutePath().normalize();
+        this.durable = durable;
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        Path path = resolve(key);
+        createParent(path);
+
+        Path temporary = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+        try {
+            try (FileChannel channel = create(temporary)) {
+                content.transferTo(Channels.newOutputStream(channel));
+                if (durable) {
+                    channel.force(true);
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            deleteEmptyParents(path);
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("Could not read file: " + key);
+        }
+        channel.position(offset);
+        InputStream content = Channels.newInputStream(channel);
+        if (length < 0) {
+            return content;
+        }
+        return new BoundedInputStream(content, length);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Path path = resolve(key);
+        Files.deleteIfExists(path);
+        deleteEmptyParents(path);
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+            return Optional.of(new BlobStat(key, attributes.size(), attributes.lastModifiedTime().toInstant()));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        Path directory = prefix.isEmpty() || prefix.endsWith("/") ? resolve(prefix) : resolve(prefix).getParent();
+        if (!Files.isDirectory(directory)) {
+            return Stream.empty();
+        }
+        return Files.walk(directory)
+                .filter(Files::isRegularFile)
+                .filter(path -> !TEMPORARY.matcher(path.getFileName().toString()).matches())
+                .map(path -> new BlobStat(root.relativize(path).toString().replace('\\', '/'), size(path), modified(path)))
+                .filter(stat -> stat.key().startsWith(prefix));
+    }
+
+    @Override
+    public boolean touch(String key) throws IOException {
+        try {
+            Files.setLastModifiedTime(resolve(key), FileTime.from(Instant.now()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private Path resolve(String key) throws IOException {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root)) {
+            throw new IOException("Key " + key + " is outside of storage root!");
+        }
+        return path;
+    }
+
+    private void createParent(Path path) throws IOException {
+        Path directory = path.getParent();
+        Path parent = directory.getParent();
+        if (parent == null || !knownDirectories.contains(parent)) {
+            Files.createDirectories(directory);
+            remember(parent);
+            return;
+        }
+        try {
+            Files.createDirectory(directory);
+        } catch (FileAlreadyExistsException e) {
+            // shared with another blob
+        } catch (NoSuchFileException e) {
+            // the parent was removed as empty since it was remembered
+            knownDirectories.remove(parent);
+            Files.createDirectories(directory);
+        }
+    }
+
+    private void remember(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        if (knownDirectories.size() >= MAX_KNOWN_DIRECTORIES) {
+            knownDirectories.clear();
+        }
+        knownDirectories.add(directory);
+    }
+
+    private FileChannel create(Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            // the directory was removed as empty in between
+            knownDirectories.remove(path.getParent().getParent());
+            Files.createDirectories(path.getParent());
+            return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+    }
+
+    /* directories are created on demand, so they are removed once nothing is left in them */
+    private void deleteEmptyParents(Path path) throws IOException {
+        Path directory = path.getParent();
+        while (directory != null && directory.startsWith(root) && !directory.equals(root)) {
+            try (Stream<Path> siblings = Files.list(directory)) {
+                if (siblings.findAny().isPresent()) {
+                    return;
+                }
+            } catch (NoSuchFileException e) {
+                directory = directory.getParent();
+                continue;
+            }
+            knownDirectories.remove(directory);
+            try {
+                Files.delete(directory);
+            } catch (IOException e) {
+                // written into concurrently
+                return;
+            }
+            directory = directory.getParent();
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static Instant modified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant();
+        } catch (IOException e) {
+            return Instant.now();
+        }
+    }
+}
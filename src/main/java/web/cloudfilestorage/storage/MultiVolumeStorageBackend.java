@@ -0,0 +1,305 @@
+package web.cloudfilestorage.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/*
+ * Blobs spread over several volumes of a node.
+ *
+ * New content is placed with rendezvous hashing weighted by the free space of the volumes
+ * above the reserve, divided by the writes in flight to them, so emptier and idler volumes
+ * take more of it and volumes below the reserve none. Its key is prefixed with the chosen
+ * volume ("disk2:1/<uuid>/photo.jpg"), so the placement is recorded wherever the key is
+ * stored; RebalanceService evens out the used space.
+ *
+ * Keys without a volume (chunks, blobs stored before volumes were configured) have a
+ * home volume given by the same hashing weighted by the capacity of the volumes, which
+ * only changes for a share of keys when a volume is added. They are looked up at home
+ * first and then on the other volumes until rehome() has moved them.
+ * */
+public class MultiVolumeStorageBackend implements StorageBackend {
+
+    public static final char SEPARATOR = ':';
+
+    private final Map<String, Volume> volumes = new LinkedHashMap<>();
+
+    /* puts running per volume */
+    private final Map<String, AtomicInteger> writes = new HashMap<>();
+
+    /* bytes kept free on every volume, new content goes elsewhere */
+    private final long reserve;
+
+    public MultiVolumeStorageBackend(List<Volume> volumes) {
+        this(volumes, 0);
+    }
+
+    public MultiVolumeStorageBackend(List<Volume> volumes, long reserve) {
+        if (volumes.isEmpty()) {
+            throw new IllegalArgumentException("At least one volume must be configured!");
+        }
+        for (Volume volume : volumes) {
+            if (this.volumes.put(volume.getName(), volume) != null) {
+                throw new IllegalArgumentException("Duplicate volume name: " + volume.getName());
+            }
+            writes.put(volume.getName(), new AtomicInteger());
+        }
+        this.reserve = reserve;
+    }
+
+    public List<Volume> getVolumes() {
+        return List.copyOf(volumes.values());
+    }
+
+    @Override
+    public String place(String key) throws IOException {
+        List<Volume> candidates = Path.of(key).isAbsolute() ? candidates(key) : List.copyOf(volumes.values());
+        Volume placed = null;
+        double best = 0;
+        for (Volume volume : candidates) {
+            long free = volume.usableSpace() - reserve;
+            if (free <= 0) {
+                continue;
+            }
+            double score = placementScore(key, volume.getName(), (double) free / (1 + writes.get(volume.getName()).get()));
+            if (placed == null || score > best) {
+                placed = volume;
+                best = score;
+            }
+        }
+        if (placed == null) {
+            // every volume is down to its reserve, the one with the most space left
+            long most = Long.MIN_VALUE;
+            for (Volume volume : candidates) {
+                long usable = volume.usableSpace();
+                if (usable > most) {
+                    placed = volume;
+                    most = usable;
+                }
+            }
+        }
+        return placed.getName() + SEPARATOR + key;
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        Volume volume = volumeOf(key).orElse(null);
+        if (volume == null) {
+            volume = candidates(key).get(0);
+        }
+        AtomicInteger running = writes.get(volume.getName());
+        running.incrementAndGet();
+        try {
+            volume.getBackend().put(pathOf(key), content);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        Volume volume = locate(key).orElseThrow(() -> new FileNotFoundException("Could not read file: " + key));
+        return volume.getBackend().get(pathOf(key), offset, length);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Optional<Volume> volume = volumeOf(key);
+        if (volume.isPresent()) {
+            volume.get().getBackend().delete(pathOf(key));
+            return;
+        }
+        // copies may be left on the previous home while the key is being rehomed
+        for (Volume candidate : candidates(key)) {
+            candidate.getBackend().delete(key);
+        }
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        Optional<Volume> volume = locate(key);
+        if (volume.isEmpty()) {
+            return Optional.empty();
+        }
+        return volume.get().getBackend().stat(pathOf(key))
+                .map(stat -> new BlobStat(key, stat.size(), stat.lastModified()));
+    }
+
+    /**
+     * Listing a prefix without a volume lists it on every volume.
+     */
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        Optional<Volume> volume = volumeOf(prefix);
+        if (volume.isPresent()) {
+            String name = volume.get().getName();
+            return volume.get().getBackend().list(pathOf(prefix))
+                    .map(stat -> new BlobStat(name + SEPARATOR + stat.key(), stat.size(), stat.lastModified()));
+        }
+        Stream<BlobStat> blobs = Stream.empty();
+        for (Volume candidate : volumes.values()) {
+            blobs = Stream.concat(blobs, candidate.getBackend().list(prefix));
+        }
+        return blobs;
+    }
+
+    @Override
+    public boolean touch(String key) throws IOException {
+        Optional<Volume> volume = volumeOf(key);
+        if (volume.isPresent()) {
+            return volume.get().getBackend().touch(pathOf(key));
+        }
+        for (Volume candidate : candidates(key)) {
+            if (candidate.getBackend().touch(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the blob to the volume, the source is left for the caller to delete
+     * once nothing refers to it.
+     *
+     * @return key of the copy
+     */
+    public String copy(String key, Volume target) throws IOException {
+        String copy = target.getName() + SEPARATOR + pathOf(key);
+        try (InputStream content = get(key, 0, -1)) {
+            put(copy, content);
+        }
+        return copy;
+    }
+
+    /**
+     * Moves blobs without a volume under the prefix to their home volumes.
+     *
+     * @return number of moved blobs
+     */
+    public int rehome(String prefix) throws IOException {
+        int moved = 0;
+        for (Volume volume : volumes.values()) {
+            List<String> keys;
+            try (Stream<BlobStat> blobs = volume.getBackend().list(prefix)) {
+                keys = blobs.map(BlobStat::key).toList();
+            }
+            for (String key : keys) {
+                Volume home = candidates(key).get(0);
+                if (home == volume) {
+                    continue;
+                }
+                if (home.getBackend().stat(key).isEmpty()) {
+                    try (InputStream content = volume.getBackend().get(key, 0, -1)) {
+                        home.getBackend().put(key, content);
+                    } catch (FileNotFoundException e) {
+                        // deleted in between
+                        continue;
+                    }
+                }
+                volume.getBackend().delete(key);
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    public Optional<Volume> volumeOf(String key) {
+        int separator = key.indexOf(SEPARATOR);
+        if (separator <= 0) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(volumes.get(key.substring(0, separator)));
+    }
+
+    private String pathOf(String key) {
+        return volumeOf(key).isPresent() ? key.substring(key.indexOf(SEPARATOR) + 1) : key;
+    }
+
+    private Optional<Volume> locate(String key) throws IOException {
+        Optional<Volume> volume = volumeOf(key);
+        if (volume.isPresent()) {
+            return volume;
+        }
+        for (Volume candidate : candidates(key)) {
+            if (candidate.getBackend().stat(key).isPresent()) {
+                return Optional.of(candidate);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /*
+     * Volumes a key without a volume may be stored on, home first. An absolute path
+     * can only be on the volume it lies under.
+     * */
+    private List<Volume> candidates(String key) throws IOException {
+        Path path = Path.of(key);
+        if (path.isAbsolute()) {
+            Path normalized = path.normalize();
+            List<Volume> candidates = volumes.values().stream()
+                    .filter(volume -> normalized.startsWith(volume.getRoot()))
+                    .toList();
+            if (candidates.isEmpty()) {
+                throw new IOException("Key " + key + " is outside of storage volumes!");
+            }
+            return candidates;
+        }
+
+        Map<Volume, Double> scores = new LinkedHashMap<>();
+        for (Volume volume : volumes.values()) {
+            scores.put(volume, placementScore(key, volume.getName(), volume.totalSpace()));
+        }
+        List<Volume> candidates = new ArrayList<>(volumes.values());
+        candidates.sort(Comparator.comparing(scores::get, Comparator.reverseOrder()));
+        return candidates;
+    }
+
+    /*
+     * Weighted rendezvous score: the volume with the highest score gets the key,
+     * and each volume wins a share of keys proportional to its weight.
+     *
+     * Replicas and shards of ReplicatedStorageBackend and ErasureCodedStorageBackend are
+     * found by this score, it has to stay as it is for their stored data.
+     * */
+    static double score(String key, String volume, double weight) {
+        long hash = mix(((long) key.hashCode() << 32) ^ (volume.hashCode() & 0xffffffffL));
+        return weighted(hash, weight);
+    }
+
+    /*
+     * Like score(), with a 64-bit hash of the whole key and volume name, so that keys
+     * with colliding String hash codes are spread independently.
+     * */
+    static double placementScore(String key, String volume, double weight) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < volume.length(); i++) {
+            hash = (hash ^ volume.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ SEPARATOR) * 0x100000001b3L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return weighted(mix(hash), weight);
+    }
+
+    private static double weighted(long hash, double weight) {
+        double uniform = ((hash >>> 11) + 0.5) / (1L << 53);
+        return weight / -Math.log(uniform);
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,545 @@
+package web.cloudfilestorage.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/*
+ * Blobs up to a size threshold are appended to large segment files instead of taking
+ * a file (an inode and a block) each, larger ones are passed to the delegate.
+ *
+ * A segment is a sequence of records:
+ *
+ *   key length (int), key (UTF-8), written at (long, epoch millis), content length (int), content
+ *
+ * Offsets of deleted or replaced records are appended to the segment's .del file.
+ * The offset index of live records is kept in memory and rebuilt on startup from
+ * record headers. Segments which are mostly dead are compacted by copying their live
+ * records to the active segment.
+ *
+ * A durable backend syncs a segment before a put into it returns. Puts which wait for the
+ * same sync share it, so concurrent puts cost one sync rather than one each.
+ *
+ * FileChannels are closed when a thread blocked in them is interrupted. A segment's channel
+ * is shared, so it is reopened when that happens, and only the interrupted thread fails.
+ * */
+public class PackingStorageBackend implements StorageBackend, Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String DELETED_SUFFIX = ".del";
+
+    private final StorageBackend delegate;
+    private final Path directory;
+    private final int threshold;
+    private final long segmentSize;
+    private final boolean durable;
+
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    /* writes to files are made under locks, not monitors, which would pin virtual threads */
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    /* guarded by appendLock */
+    private Segment active;
+
+    public PackingStorageBackend(
+            StorageBackend delegate,
+            Path directory,
+            int threshold,
+            long segmentSize
+    ) throws IOException {
+        this(delegate, directory, threshold, segmentSize, false);
+    }
+
+    public PackingStorageBackend(
+            StorageBackend delegate,
+            Path directory,
+            int threshold,
+            long segmentSize,
+            boolean durable
+    ) throws IOException {
+        this.delegate = delegate;
+        this.directory = Files.createDirectories(directory);
+        this.threshold = threshold;
+        this.segmentSize = segmentSize;
+        this.durable = durable;
+        load();
+    }
+
+    @Override
+    public String place(String key) throws IOException {
+        return delegate.place(key);
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        byte[] head = content.readNBytes(threshold + 1);
+        if (head.length > threshold) {
+            delegate.put(key, new SequenceInputStream(new ByteArrayInputStream(head), content));
+            Entry previous = index.remove(key);
+            if (previous != null) {
+                release(previous);
+            }
+            return;
+        }
+
+        Entry entry = append(key, head, Instant.now());
+        if (durable) {
+            sync(entry);
+        }
+        Entry previous = index.put(key, entry);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        // a compaction may move the record between the lookup and the read
+        for (int attempt = 0; ; attempt++) {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                return delegate.get(key, offset, length);
+            }
+            long start = Math.min(offset, entry.length());
+            long end = length < 0 ? entry.length() : Math.max(start, Math.min(entry.length(), offset + length));
+            try {
+                return new ByteArrayInputStream(read(entry, start, (int) (end - start)));
+            } catch (FileNotFoundException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+        delegate.delete(key);
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry != null) {
+            return Optional.of(new BlobStat(key, entry.length(), entry.lastModified()));
+        }
+        return delegate.stat(key);
+    }
+
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        List<BlobStat> packed = new ArrayList<>();
+        index.forEach((key, entry) -> {
+            if (key.startsWith(prefix)) {
+                packed.add(new BlobStat(key, entry.length(), entry.lastModified()));
+            }
+        });
+        return Stream.concat(packed.stream(), delegate.list(prefix));
+    }
+
+    @Override
+    public Stream<BlobStat> listStored(String prefix) throws IOException {
+        List<BlobStat> packed = new ArrayList<>();
+        index.forEach((key, entry) -> {
+            if (key.startsWith(prefix)) {
+                packed.add(new BlobStat(key, entry.length(), entry.lastModified()));
+            }
+        });
+        return Stream.concat(packed.stream(), delegate.listStored(prefix));
+    }
+
+    /*
+     * Touches of packed blobs are kept in memory only: after a restart no upload
+     * which reused them can still be in progress.
+     * */
+    @Override
+    public boolean touch(String key) throws IOException {
+        Instant now = Instant.now();
+        if (index.computeIfPresent(key, (k, entry) -> entry.touched(now)) != null) {
+            return true;
+        }
+        return delegate.touch(key);
+    }
+
+    /**
+     * Copies live records of sealed segments with at least the given share of dead bytes
+     * to the active segment and deletes the segments.
+     *
+     * @return number of compacted segments
+     */
+    @Override
+    public int compact(double maxDeadShare) throws IOException {
+        int compacted = 0;
+        for (Segment segment : segments.values()) {
+            appendLock.lock();
+            try {
+                if (segment == active) {
+                    continue;
+                }
+            } finally {
+                appendLock.unlock();
+            }
+            if (segment.deadBytes.get() < segment.size * maxDeadShare) {
+                continue;
+            }
+
+            List<Entry> copies = new ArrayList<>();
+            for (Record record : scan(segment)) {
+                Entry entry = index.get(record.key());
+                if (entry == null || !entry.isAt(segment.id, record.offset())) {
+                    continue;
+                }
+                Entry moved = append(record.key(), read(entry, 0, entry.length()), record.writtenAt());
+                copies.add(moved);
+                while (true) {
+                    Entry current = index.get(record.key());
+                    if (current == null || !current.isAt(segment.id, record.offset())) {
+                        // deleted or replaced meanwhile
+                        release(moved);
+                        break;
+                    }
+                    if (index.replace(record.key(), current, moved.touched(current.lastModified()))) {
+                        break;
+                    }
+                }
+            }
+            if (durable) {
+                // the copies have to be on the disk before the originals are deleted
+                for (Entry copy : copies) {
+                    sync(copy);
+                }
+            }
+
+            segment.lock.lock();
+            try {
+                segments.remove(segment.id);
+                Files.deleteIfExists(segment.deleted);
+            } finally {
+                segment.lock.unlock();
+            }
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+            compacted++;
+        }
+        return compacted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Entry append(String key, byte[] content, Instant writtenAt) throws IOException {
+        appendLock.lock();
+        try {
+            return appendToActive(key, content, writtenAt);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Entry appendToActive(String key, byte[] content, Instant writtenAt) throws IOException {
+        if (active == null || active.size >= segmentSize) {
+            active = create(active == null ? 0 : active.id + 1);
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + keyBytes.length + Long.BYTES + Integer.BYTES + content.length)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .putLong(writtenAt.toEpochMilli())
+                .putInt(content.length)
+                .put(content)
+                .flip();
+
+        long offset = active.size;
+        // a record cut short by a failed write is overwritten by the next one
+        io(active, channel -> {
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+            return null;
+        });
+        active.size += record.limit();
+        return new Entry(active.id, offset, offset + record.limit() - content.length, content.length, writtenAt);
+    }
+
+    private byte[] read(Entry entry, long offset, int length) throws IOException {
+        Segment segment = segments.get(entry.segment());
+        if (segment == null) {
+            throw new FileNotFoundException("Segment " + entry.segment() + " was compacted");
+        }
+        ByteBuffer content = ByteBuffer.allocate(length);
+        if (!readFully(segment, content, entry.contentOffset() + offset)) {
+            throw new IOException("Segment " + segment.id + " is truncated");
+        }
+        return content.array();
+    }
+
+    /*
+     * Forces the segment of the entry to the disk, unless a sync which started after the
+     * entry was written has done so already.
+     * */
+    private void sync(Entry entry) throws IOException {
+        Segment segment = segments.get(entry.segment());
+        long end = entry.contentOffset() + entry.length();
+        if (segment == null || segment.synced >= end) {
+            return;
+        }
+        segment.syncLock.lock();
+        try {
+            if (segment.synced >= end) {
+                return;
+            }
+            long size = segment.size;
+            // fdatasync, which includes the grown size of the file
+            io(segment, channel -> {
+                channel.force(false);
+                return null;
+            });
+            segment.synced = size;
+        } finally {
+            segment.syncLock.unlock();
+        }
+    }
+
+    /*
+     * Runs the operation on the segment's channel, reopening the channel if another thread
+     * closed it by being interrupted.
+     * */
+    private <T> T io(Segment segment, ChannelOperation<T> operation) throws IOException {
+        while (true) {
+            FileChannel channel = segment.channel;
+            try {
+                return operation.apply(channel);
+            } catch (ClosedChannelException e) {
+                if (!reopen(segment, channel)) {
+                    throw new FileNotFoundException("Segment " + segment.id + " was compacted");
+                }
+                if (e instanceof ClosedByInterruptException) {
+                    // this thread was interrupted
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the segment was compacted, which closed its channel
+     */
+    private boolean reopen(Segment segment, FileChannel closed) throws IOException {
+        segment.lock.lock();
+        try {
+            if (!segments.containsKey(segment.id)) {
+                return false;
+            }
+            if (segment.channel == closed) {
+                segment.channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    private void release(Entry entry) throws IOException {
+        Segment segment = segments.get(entry.segment());
+        if (segment == null) {
+            return;
+        }
+        segment.lock.lock();
+        try {
+            if (!segments.containsKey(segment.id)) {
+                // compacted in between
+                return;
+            }
+            Files.write(
+                    segment.deleted,
+                    ByteBuffer.allocate(Long.BYTES).putLong(entry.offset()).array(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND
+            );
+        } finally {
+            segment.lock.unlock();
+        }
+        segment.deadBytes.addAndGet(entry.contentOffset() + entry.length() - entry.offset());
+    }
+
+    private Segment create(long id) throws IOException {
+        Path path = directory.resolve(String.format("%016d", id) + SEGMENT_SUFFIX);
+        Segment segment = new Segment(id, path, FileChannel.open(
+                path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE
+        ));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void load() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, path, FileChannel.open(
+                    path, StandardOpenOption.READ, StandardOpenOption.WRITE
+            ));
+            segment.size = segment.channel.size();
+            segment.synced = segment.size;
+            segments.put(id, segment);
+
+            Set<Long> deleted = new HashSet<>();
+            if (Files.exists(segment.deleted)) {
+                ByteBuffer offsets = ByteBuffer.wrap(Files.readAllBytes(segment.deleted));
+                while (offsets.remaining() >= Long.BYTES) {
+                    deleted.add(offsets.getLong());
+                }
+            }
+
+            for (Record record : scan(segment)) {
+                Entry entry = new Entry(id, record.offset(), record.contentOffset(), record.length(), record.writtenAt());
+                if (deleted.contains(record.offset())) {
+                    segment.deadBytes.addAndGet(record.contentOffset() + record.length() - record.offset());
+                    continue;
+                }
+                Entry previous = index.put(record.key(), entry);
+                if (previous != null) {
+                    release(previous);
+                }
+            }
+            active = segment;
+        }
+    }
+
+    /*
+     * Record headers of the segment. A record cut short by a crash ends the segment.
+     * */
+    private List<Record> scan(Segment segment) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long size = io(segment, FileChannel::size);
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        while (offset < size) {
+            if (!readFully(segment, header.clear(), offset)) {
+                break;
+            }
+            int keyLength = header.flip().getInt();
+            if (keyLength < 0 || offset + Integer.BYTES + keyLength + Long.BYTES + Integer.BYTES > size) {
+                break;
+            }
+            ByteBuffer rest = ByteBuffer.allocate(keyLength + Long.BYTES + Integer.BYTES);
+            if (!readFully(segment, rest, offset + Integer.BYTES)) {
+                break;
+            }
+            rest.flip();
+            byte[] key = new byte[keyLength];
+            rest.get(key);
+            Instant writtenAt = Instant.ofEpochMilli(rest.getLong());
+            int length = rest.getInt();
+            long contentOffset = offset + Integer.BYTES + keyLength + Long.BYTES + Integer.BYTES;
+            if (length < 0 || contentOffset + length > size) {
+                break;
+            }
+            records.add(new Record(new String(key, StandardCharsets.UTF_8), offset, contentOffset, length, writtenAt));
+            offset = contentOffset + length;
+        }
+        if (offset < size) {
+            long end = offset;
+            io(segment, channel -> channel.truncate(end));
+            segment.size = offset;
+        }
+        return records;
+    }
+
+    private boolean readFully(Segment segment, ByteBuffer buffer, long position) throws IOException {
+        return io(segment, channel -> {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private interface ChannelOperation<T> {
+        T apply(FileChannel channel) throws IOException;
+    }
+
+    private record Entry(long segment, long offset, long contentOffset, int length, Instant lastModified) {
+
+        Entry touched(Instant now) {
+            return new Entry(segment, offset, contentOffset, length, now);
+        }
+
+        boolean isAt(long segment, long offset) {
+            return this.segment == segment && this.offset == offset;
+        }
+    }
+
+    private record Record(String key, long offset, long contentOffset, int length, Instant writtenAt) {
+    }
+
+    private static class Segment {
+
+        final long id;
+        final Path path;
+        final Path deleted;
+        final AtomicLong deadBytes = new AtomicLong();
+
+        /* guards the .del file and reopening the channel */
+        final ReentrantLock lock = new ReentrantLock();
+
+        /* taken by the thread syncing for every put waiting for a sync */
+        final ReentrantLock syncLock = new ReentrantLock();
+
+        volatile FileChannel channel;
+
+        /* guarded by appendLock while the segment is active */
+        volatile long size;
+
+        /* bytes known to be on the disk, guarded by syncLock */
+        volatile long synced;
+
+        Segment(long id, Path path, FileChannel channel) {
+            this.id = id;
+            this.path = path;
+            this.deleted = path.resolveSibling(path.getFileName().toString().replace(SEGMENT_SUFFIX, DELETED_SUFFIX));
+            this.channel = channel;
+        }
+    }
+}
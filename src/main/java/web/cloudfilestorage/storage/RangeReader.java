@@ -0,0 +1,15 @@
+package web.cloudfilestorage.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Random access to content of a blob.
+ * */
+public interface RangeReader {
+
+    long size();
+
+    InputStream read(long offset, long length) throws IOException;
+
+}
@@ -0,0 +1,52 @@
+package web.cloudfilestorage.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Downloadable view of a blob, whatever backend and layout it is stored with.
+ * */
+public class RangeResource extends AbstractResource {
+
+    private final RangeReader content;
+    private final String filename;
+
+    public RangeResource(RangeReader content, String filename) {
+        this.content = content;
+        this.filename = filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return "blob [" + filename + "]";
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return content.size();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return content.read(0, -1);
+    }
+
+    /**
+     * @param length number of bytes to read, or -1 to read to the end
+     */
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        return content.read(offset, length);
+    }
+}
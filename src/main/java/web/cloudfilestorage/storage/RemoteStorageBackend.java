@@ -0,0 +1,183 @@
+package web.cloudfilestorage.storage;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/*
+ * Local storage of another node, reached through its /internal/blobs endpoints.
+ *
+ * Listings are lines of "<url-encoded key>\t<size>\t<modified, epoch millis>".
+ * */
+public class RemoteStorageBackend implements StorageBackend {
+
+    public static final String TOKEN_HEADER = "X-Cluster-Token";
+    public static final String SIZE_HEADER = "X-Blob-Size";
+    public static final String MODIFIED_HEADER = "X-Blob-Modified";
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient client;
+    private final URI base;
+    private final String token;
+
+    public RemoteStorageBackend(HttpClient client, URI base, String token) {
+        this.client = client;
+        this.base = base;
+        this.token = token;
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        HttpResponse<Void> response = send(
+                request("", key).PUT(HttpRequest.BodyPublishers.ofInputStream(() -> content)),
+                HttpResponse.BodyHandlers.discarding()
+        );
+        check(response, key);
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        HttpResponse<InputStream> response = send(
+                request("", key, "&offset=" + offset + "&length=" + length).GET(),
+                HttpResponse.BodyHandlers.ofInputStream()
+        );
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+        }
+        check(response, key);
+        return response.body();
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        HttpResponse<Void> response = send(request("", key).DELETE(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 404) {
+            check(response, key);
+        }
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        HttpResponse<Void> response = send(request("/stat", key).GET(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 404) {
+            return Optional.empty();
+        }
+        check(response, key);
+        return Optional.of(new BlobStat(
+                key,
+                Long.parseLong(response.headers().firstValue(SIZE_HEADER).orElse("0")),
+                Instant.ofEpochMilli(Long.parseLong(response.headers().firstValue(MODIFIED_HEADER).orElse("0")))
+        ));
+    }
+
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        return list(prefix, false);
+    }
+
+    @Override
+    public Stream<BlobStat> listStored(String prefix) throws IOException {
+        return list(prefix, true);
+    }
+
+    @Override
+    public boolean touch(String key) throws IOException {
+        HttpResponse<Void> response = send(
+                request("/touch", key).POST(HttpRequest.BodyPublishers.noBody()),
+                HttpResponse.BodyHandlers.discarding()
+        );
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        check(response, key);
+        return true;
+    }
+
+    public static String format(BlobStat stat) {
+        return encode(stat.key()) + "\t" + stat.size() + "\t" + stat.lastModified().toEpochMilli();
+    }
+
+    private Stream<BlobStat> list(String prefix, boolean stored) throws IOException {
+        HttpResponse<InputStream> response = send(
+                HttpRequest.newBuilder(base.resolve("/internal/blobs/list?prefix=" + encode(prefix) + "&stored=" + stored))
+                        .header(TOKEN_HEADER, token)
+                        .timeout(TIMEOUT)
+                        .GET(),
+                HttpResponse.BodyHandlers.ofInputStream()
+        );
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+        }
+        check(response, prefix);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8));
+        return reader.lines()
+                .filter(line -> !line.isEmpty())
+                .map(RemoteStorageBackend::parse)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // the listing is complete or abandoned anyway
+                    }
+                });
+    }
+
+    private static BlobStat parse(String line) {
+        String[] fields = line.split("\t");
+        return new BlobStat(
+                URLDecoder.decode(fields[0], StandardCharsets.UTF_8),
+                Long.parseLong(fields[1]),
+                Instant.ofEpochMilli(Long.parseLong(fields[2]))
+        );
+    }
+
+    private HttpRequest.Builder request(String path, String key) {
+        return request(path, key, "");
+    }
+
+    private HttpRequest.Builder request(String path, String key, String parameters) {
+        return HttpRequest.newBuilder(base.resolve("/internal/blobs" + path + "?key=" + encode(key) + parameters))
+                .header(TOKEN_HEADER, token)
+                .timeout(TIMEOUT);
+    }
+
+    private <T> HttpResponse<T> send(
+            HttpRequest.Builder request,
+            HttpResponse.BodyHandler<T> handler
+    ) throws IOException {
+        try {
+            return client.send(request.build(), handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling " + base);
+        }
+    }
+
+    private void check(HttpResponse<?> response, String key) throws IOException {
+        if (response.statusCode() == 404) {
+            throw new FileNotFoundException("Could not read file: " + key);
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Node " + base + " answered " + response.statusCode() + " for " + key);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,349 @@
+package web.cloudfilestorage.storage;
+
+import lombok.Getter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Blobs kept on the local storage of several nodes. Every key has a replica set of
+ * `factor` nodes chosen by rendezvous hashing over the node names, so all nodes agree
+ * on it without coordination and adding a node moves only a share of the keys.
+ *
+ * A put is spooled to a temporary file and then written to the replicas in parallel;
+ * it returns once `writeQuorum` of them have stored it and the rest complete in the
+ * background. Reads go to the local replica if there is one, otherwise to a random
+ * healthy one, and move on to the next replica if a node fails or lacks the blob.
+ * A node that fails is skipped for a while. Copies lost that way are repaired by
+ * ReplicationService.
+ * */
+public class ReplicatedStorageBackend implements StorageBackend {
+
+    private static final long DOWN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Getter
+    private final String self;
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    private final int factor;
+
+    private final int writeQuorum;
+
+    private final Path spool;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param nodes storage of every node by name, including the local one
+     */
+    public ReplicatedStorageBackend(
+            String self,
+            Map<String, StorageBackend> nodes,
+            int factor,
+            int writeQuorum,
+            Path spool,
+            ExecutorService executor
+    ) throws IOException {
+        if (!nodes.containsKey(self)) {
+            throw new IllegalArgumentException("Node " + self + " is not one of the nodes!");
+        }
+        this.self = self;
+        nodes.forEach((name, backend) -> this.nodes.put(name, new Node(name, backend)));
+        this.factor = Math.min(factor, nodes.size());
+        if (writeQuorum < 1 || writeQuorum > this.factor) {
+            throw new IllegalArgumentException("Write quorum must be between 1 and " + this.factor);
+        }
+        this.writeQuorum = writeQuorum;
+        this.spool = Files.createDirectories(spool);
+        this.executor = executor;
+
+        // left over by puts of a previous run
+        try (Stream<Path> spooled = Files.list(this.spool)) {
+            for (Path path : (Iterable<Path>) spooled::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public StorageBackend getLocal() {
+        return nodes.get(self).backend;
+    }
+
+    /**
+     * Names of the nodes which should hold the key, most preferred first.
+     */
+    public List<String> replicas(String key) {
+        Map<String, Double> scores = new HashMap<>();
+        for (String name : nodes.keySet()) {
+            scores.put(name, MultiVolumeStorageBackend.score(key, name, 1));
+        }
+        List<String> replicas = new ArrayList<>(nodes.keySet());
+        replicas.sort(Comparator.comparing(scores::get, Comparator.reverseOrder()));
+        return replicas.subList(0, factor);
+    }
+
+    public List<String> getNodes() {
+        return List.copyOf(nodes.keySet());
+    }
+
+    public Optional<StorageBackend> node(String name) {
+        Node node = nodes.get(name);
+        return node == null || !node.isHealthy() ? Optional.empty() : Optional.of(node.backend);
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        Path spooled = Files.createTempFile(spool, "replica", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(spooled)) {
+                content.transferTo(out);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+
+        List<Node> replicas = replicas(key).stream().map(nodes::get).toList();
+        ExecutorCompletionService<Node> writes = new ExecutorCompletionService<>(executor);
+        for (Node node : replicas) {
+            writes.submit(() -> {
+                try (InputStream in = Files.newInputStream(spooled)) {
+                    node.backend.put(key, in);
+                    return node;
+                } catch (IOException e) {
+                    node.failed();
+                    throw e;
+                }
+            });
+        }
+
+        List<Node> written = new ArrayList<>();
+        int failed = 0;
+        IOException failure = null;
+        try {
+            while (written.size() < writeQuorum && failed <= replicas.size() - writeQuorum) {
+                try {
+                    written.add(writes.take().get());
+                } catch (ExecutionException e) {
+                    failed++;
+                    failure = cause(e);
+                }
+            }
+            if (written.size() < writeQuorum) {
+                // a failed put leaves no blob behind, so the writes still running are awaited
+                for (int i = written.size() + failed; i < replicas.size(); i++) {
+                    try {
+                        written.add(writes.take().get());
+                    } catch (ExecutionException e) {
+                        failed++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new InterruptedIOException("Interrupted while writing replicas of " + key);
+        } finally {
+            int pending = replicas.size() - written.size() - failed;
+            if (pending == 0) {
+                finish(writes, 0, spooled);
+            } else {
+                executor.execute(() -> finish(writes, pending, spooled));
+            }
+        }
+
+        if (written.size() < writeQuorum) {
+            for (Node node : written) {
+                try {
+                    node.backend.delete(key);
+                } catch (IOException e) {
+                    node.failed();
+                }
+            }
+            throw new IOException(
+                    "Only " + written.size() + " of " + writeQuorum + " replicas of " + key + " were written",
+                    failure
+            );
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        IOException failure = null;
+        for (Node node : readOrder(key)) {
+            try {
+                return node.backend.get(key, offset, length);
+            } catch (FileNotFoundException e) {
+                // not repaired yet
+            } catch (IOException e) {
+                node.failed();
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        throw new FileNotFoundException("Could not read file: " + key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        IOException failure = null;
+        for (String name : replicas(key)) {
+            Node node = nodes.get(name);
+            try {
+                node.backend.delete(key);
+            } catch (IOException e) {
+                node.failed();
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        IOException failure = null;
+        for (Node node : readOrder(key)) {
+            try {
+                Optional<BlobStat> stat = node.backend.stat(key);
+                if (stat.isPresent()) {
+                    return stat;
+                }
+            } catch (IOException e) {
+                node.failed();
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Blobs of all healthy nodes, each key once with its latest modification.
+     */
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        return list(prefix, false);
+    }
+
+    @Override
+    public Stream<BlobStat> listStored(String prefix) throws IOException {
+        return list(prefix, true);
+    }
+
+    @Override
+    public boolean touch(String key) throws IOException {
+        boolean touched = false;
+        for (String name : replicas(key)) {
+            Node node = nodes.get(name);
+            if (!node.isHealthy()) {
+                continue;
+            }
+            try {
+                touched |= node.backend.touch(key);
+            } catch (IOException e) {
+                node.failed();
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Other nodes compact their own storage.
+     */
+    @Override
+    public int compact(double maxDeadShare) throws IOException {
+        return getLocal().compact(maxDeadShare);
+    }
+
+    private Stream<BlobStat> list(String prefix, boolean stored) throws IOException {
+        Map<String, BlobStat> blobs = new LinkedHashMap<>();
+        for (Node node : nodes.values()) {
+            if (!node.isHealthy()) {
+                continue;
+            }
+            try (Stream<BlobStat> listed = stored ? node.backend.listStored(prefix) : node.backend.list(prefix)) {
+                listed.forEach(stat -> blobs.merge(
+                        stat.key(), stat, (a, b) -> a.lastModified().isAfter(b.lastModified()) ? a : b
+                ));
+            } catch (IOException | UncheckedIOException e) {
+                node.failed();
+            }
+        }
+        return blobs.values().stream();
+    }
+
+    private List<Node> readOrder(String key) {
+        List<Node> replicas = new ArrayList<>(replicas(key).stream().map(nodes::get).toList());
+        Collections.shuffle(replicas, ThreadLocalRandom.current());
+        // healthy ones first, the local one before all
+        replicas.sort(Comparator.comparing((Node node) -> !node.isHealthy())
+                .thenComparing(node -> !node.name.equals(self)));
+        return replicas;
+    }
+
+    private static IOException cause(ExecutionException e) {
+        return e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+    }
+
+    private static void finish(ExecutorCompletionService<Node> writes, int pending, Path spooled) {
+        try {
+            for (int i = 0; i < pending; i++) {
+                writes.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                Files.deleteIfExists(spooled);
+            } catch (IOException e) {
+                // removed on the next start
+            }
+        }
+    }
+
+    private static class Node {
+
+        final String name;
+        final StorageBackend backend;
+        volatile long downUntil;
+
+        Node(String name, StorageBackend backend) {
+            this.name = name;
+            this.backend = backend;
+        }
+
+        boolean isHealthy() {
+            return System.currentTimeMillis() >= downUntil;
+        }
+
+        void failed() {
+            downUntil = System.currentTimeMillis() + DOWN_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package web.cloudfilestorage.storage;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/*
+ * Blobs as objects of an S3-compatible bucket (AWS S3, MinIO, ...).
+ *
+ * Content of unknown length is uploaded in parts of partSize bytes, so memory used
+ * by an upload is bounded by one part whatever the size of the content.
+ * */
+public class S3StorageBackend implements StorageBackend, AutoCloseable {
+
+    /* S3 rejects parts smaller than 5 MiB, except the last one */
+    public static final int MIN_PART_SIZE = 5 << 20;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final int partSize;
+
+    public S3StorageBackend(S3Client s3, String bucket, int partSize) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size must be at least " + MIN_PART_SIZE + " bytes!");
+        }
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.partSize = partSize;
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        byte[] part = content.readNBytes(partSize);
+        try {
+            if (part.length < partSize) {
+                s3.putObject(request -> request.bucket(bucket).key(key), RequestBody.fromBytes(part));
+                return;
+            }
+        } catch (SdkException e) {
+            throw new IOException("Could not store " + key + "!", e);
+        }
+
+        String uploadId;
+        try {
+            uploadId = s3.createMultipartUpload(request -> request.bucket(bucket).key(key)).uploadId();
+        } catch (SdkException e) {
+            throw new IOException("Could not store " + key + "!", e);
+        }
+        try {
+            List<CompletedPart> parts = new ArrayList<>();
+            while (part.length > 0) {
+                int number = parts.size() + 1;
+                byte[] bytes = part;
+                String eTag = s3.uploadPart(
+                        request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(number),
+                        RequestBody.fromBytes(bytes)
+                ).eTag();
+                parts.add(CompletedPart.builder().partNumber(number).eTag(eTag).build());
+                part = content.readNBytes(partSize);
+            }
+            s3.completeMultipartUpload(request -> request
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(upload -> upload.parts(parts))
+            );
+        } catch (IOException | SdkException e) {
+            try {
+                s3.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+            } catch (SdkException abortFailure) {
+                e.addSuppressed(abortFailure);
+            }
+            if (e instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Could not store " + key + "!", e);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        String range = "bytes=" + offset + "-" + (length < 0 ? "" : String.valueOf(offset + length - 1));
+        try {
+            return s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).range(range).build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new FileNotFoundException("Could not read file: " + key);
+            }
+            if (e.statusCode() == 416) {
+                // range starts at the end of the object
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            throw new IOException("Could not read " + key + "!", e);
+        } catch (SdkException e) {
+            throw new IOException("Could not read " + key + "!", e);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            s3.deleteObject(request -> request.bucket(bucket).key(key));
+        } catch (SdkException e) {
+            throw new IOException("Could not delete " + key + "!", e);
+        }
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        try {
+            HeadObjectResponse head = s3.headObject(request -> request.bucket(bucket).key(key));
+            return Optional.of(new BlobStat(key, head.contentLength(), head.lastModified()));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return Optional.empty();
+            }
+            throw new IOException("Could not read " + key + "!", e);
+        } catch (SdkException e) {
+            throw new IOException("Could not read " + key + "!", e);
+        }
+    }
+
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        try {
+            return s3.listObjectsV2Paginator(request -> request.bucket(bucket).prefix(prefix))
+                    .contents()
+                    .stream()
+                    .map(object -> new BlobStat(object.key(), object.size(), object.lastModified()));
+        } catch (SdkException e) {
+            throw new IOException("Could not list " + prefix + "!", e);
+        }
+    }
+
+    /*
+     * Objects are immutable, copying an object onto itself is the way to refresh its modification time.
+     * */
+    @Override
+    public boolean touch(String key) throws IOException {
+        try {
+            s3.copyObject(request -> request
+                    .sourceBucket(bucket)
+                    .sourceKey(key)
+                    .destinationBucket(bucket)
+                    .destinationKey(key)
+                    .metadataDirective(MetadataDirective.REPLACE)
+                    .metadata(Map.of("touched", Instant.now().toString()))
+            );
+            return true;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw new IOException("Could not touch " + key + "!", e);
+        } catch (SdkException e) {
+            throw new IOException("Could not touch " + key + "!", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        s3.close();
+    }
+}
@@ -0,0 +1,67 @@
+package web.cloudfilestorage.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/*
+ * Where blobs are kept. Keys are relative, '/' separated paths such as "1/<uuid>/photo.jpg".
+ * */
+public interface StorageBackend {
+
+    /**
+     * Stores the whole stream under the key, replacing an existing blob. A failed put leaves no blob behind.
+     */
+    void put(String key, InputStream content) throws IOException;
+
+    /**
+     * Key new content for the given key should be put under. Backends spreading blobs
+     * over several places record the chosen one in the key.
+     */
+    default String place(String key) throws IOException {
+        return key;
+    }
+
+    /**
+     * @param length number of bytes to read, or -1 to read to the end
+     * @throws java.io.FileNotFoundException if there is no blob with the key
+     */
+    InputStream get(String key, long offset, long length) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    Optional<BlobStat> stat(String key) throws IOException;
+
+    /**
+     * Blobs whose keys start with the prefix, the stream must be closed.
+     */
+    Stream<BlobStat> list(String prefix) throws IOException;
+
+    /**
+     * Like list(), with sizes as the blobs are stored, which for some backends is not the
+     * size of their content. For callers needing only keys and modification times, it
+     * does not open blobs to find their size.
+     */
+    default Stream<BlobStat> listStored(String prefix) throws IOException {
+        return list(prefix);
+    }
+
+    /**
+     * Refreshes modification time of the blob.
+     *
+     * @return false if there is no blob with the key
+     */
+    boolean touch(String key) throws IOException;
+
+    /**
+     * Rewrites storage of blobs whose share of deleted content is above maxDeadShare,
+     * for backends which keep several blobs together.
+     *
+     * @return number of rewritten units of storage
+     */
+    default int compact(double maxDeadShare) throws IOException {
+        return 0;
+    }
+
+}
@@ -0,0 +1,28 @@
+package web.cloudfilestorage.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Random access to a blob kept as a whole by the backend.
+ * */
+public class StoredBlob implements RangeReader {
+
+    private final StorageBackend backend;
+    private final BlobStat stat;
+
+    public StoredBlob(StorageBackend backend, BlobStat stat) {
+        this.backend = backend;
+        this.stat = stat;
+    }
+
+    @Override
+    public long size() {
+        return stat.size();
+    }
+
+    @Override
+    public InputStream read(long offset, long length) throws IOException {
+        return backend.get(stat.key(), offset, length);
+    }
+}
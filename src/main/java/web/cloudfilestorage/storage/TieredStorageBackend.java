@@ -0,0 +1,221 @@
+package web.cloudfilestorage.storage;
+
+import lombok.Getter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/*
+ * Blobs on a fast hot tier and a cheap cold one under the same keys. Blobs are written
+ * to the hot tier, moved to the cold one by demote() once they were neither written
+ * nor read within a window, and moved back when they are read.
+ *
+ * Reads are recorded in an AccessSketch, not in the metadata. The sketch and the locks
+ * are those of one instance: the tiers are not meant to be shared by several.
+ * */
+public class TieredStorageBackend implements StorageBackend {
+
+    /* many, since a put holds its lock while the upload is written */
+    private static final int LOCKS = 1024;
+
+    @Getter
+    private final StorageBackend hot;
+
+    @Getter
+    private final StorageBackend cold;
+
+    @Getter
+    private final AccessSketch sketch;
+
+    private final Executor executor;
+
+    private final LongSupplier clock;
+
+    /* a key is put, moved between the tiers or deleted under its lock; not a monitor, which would pin virtual threads */
+    private final ReentrantLock[] locks = new ReentrantLock[LOCKS];
+
+    private final Set<String> promoting = ConcurrentHashMap.newKeySet();
+
+    public TieredStorageBackend(StorageBackend hot, StorageBackend cold, AccessSketch sketch, Executor executor) {
+        this(hot, cold, sketch, executor, System::currentTimeMillis);
+    }
+
+    public TieredStorageBackend(
+            StorageBackend hot,
+            StorageBackend cold,
+            AccessSketch sketch,
+            Executor executor,
+            LongSupplier clock
+    ) {
+        this.hot = hot;
+        this.cold = cold;
+        this.sketch = sketch;
+        this.executor = executor;
+        this.clock = clock;
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        // a demotion copying the previous blob would delete this one afterwards
+        ReentrantLock lock = lock(key);
+        lock.lock();
+        try {
+            hot.put(key, content);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        sketch.record(key, clock.getAsLong());
+        // a move between the tiers may complete between the two lookups
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return hot.get(key, offset, length);
+            } catch (FileNotFoundException e) {
+                // cold, or missing
+            }
+            try {
+                InputStream content = cold.get(key, offset, length);
+                if (promoting.add(key)) {
+                    executor.execute(() -> promote(key));
+                }
+                return content;
+            } catch (FileNotFoundException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        ReentrantLock lock = lock(key);
+        lock.lock();
+        try {
+            hot.delete(key);
+            cold.delete(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<BlobStat> stat(String key) throws IOException {
+        Optional<BlobStat> stat = hot.stat(key);
+        return stat.isPresent() ? stat : cold.stat(key);
+    }
+
+    @Override
+    public Stream<BlobStat> list(String prefix) throws IOException {
+        Map<String, BlobStat> blobs = new LinkedHashMap<>();
+        try (Stream<BlobStat> listed = cold.list(prefix)) {
+            listed.forEach(stat -> blobs.put(stat.key(), stat));
+        }
+        try (Stream<BlobStat> listed = hot.list(prefix)) {
+            listed.forEach(stat -> blobs.put(stat.key(), stat));
+        }
+        return blobs.values().stream();
+    }
+
+    @Override
+    public Stream<BlobStat> listStored(String prefix) throws IOException {
+        Map<String, BlobStat> blobs = new LinkedHashMap<>();
+        try (Stream<BlobStat> listed = cold.listStored(prefix)) {
+            listed.forEach(stat -> blobs.put(stat.key(), stat));
+        }
+        try (Stream<BlobStat> listed = hot.listStored(prefix)) {
+            listed.forEach(stat -> blobs.put(stat.key(), stat));
+        }
+        return blobs.values().stream();
+    }
+
+    @Override
+    public boolean touch(String key) throws IOException {
+        return hot.touch(key) || cold.touch(key);
+    }
+
+    /**
+     * Moves blobs of the hot tier which were neither written nor read within the window
+     * to the cold tier.
+     *
+     * @return number of moved blobs
+     */
+    public int demote(long window) throws IOException {
+        long before = clock.getAsLong() - window;
+        List<BlobStat> blobs;
+        try (Stream<BlobStat> listed = hot.listStored("")) {
+            blobs = listed.toList();
+        }
+
+        int demoted = 0;
+        for (BlobStat blob : blobs) {
+            if (!isIdle(blob, before)) {
+                continue;
+            }
+            ReentrantLock lock = lock(blob.key());
+            lock.lock();
+            try {
+                Optional<BlobStat> current = hot.stat(blob.key());
+                if (current.isEmpty() || !isIdle(current.get(), before)) {
+                    continue;
+                }
+                move(blob.key(), hot, cold);
+                demoted++;
+            } catch (FileNotFoundException e) {
+                // deleted in between
+            } finally {
+                lock.unlock();
+            }
+        }
+        return demoted;
+    }
+
+    private boolean isIdle(BlobStat blob, long before) {
+        return blob.lastModified().isBefore(Instant.ofEpochMilli(before))
+                && sketch.lastAccess(blob.key()) < before;
+    }
+
+    private void promote(String key) {
+        ReentrantLock lock = lock(key);
+        lock.lock();
+        try {
+            if (hot.stat(key).isEmpty()) {
+                move(key, cold, hot);
+            }
+        } catch (IOException e) {
+            // stays cold until the next read
+        } finally {
+            lock.unlock();
+            promoting.remove(key);
+        }
+    }
+
+    private static void move(String key, StorageBackend from, StorageBackend to) throws IOException {
+        try (InputStream in = from.get(key, 0, -1)) {
+            to.put(key, in);
+        }
+        from.delete(key);
+    }
+
+    private ReentrantLock lock(String key) {
+        return locks[Math.floorMod(key.hashCode(), LOCKS)];
+    }
+}
@@ -0,0 +1,44 @@
+package web.cloudfilestorage.storage;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * A disk or mount of a node: a named root directory with its space.
+ * */
+public class Volume {
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final Path root;
+
+    @Getter
+    private final LocalStorageBackend backend;
+
+    public Volume(String name, Path root) {
+        if (name.isEmpty() || name.indexOf(MultiVolumeStorageBackend.SEPARATOR) >= 0 || name.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("Invalid volume name: " + name);
+        }
+        this.name = name;
+        this.root = root.toAbsolutePath().normalize();
+        this.backend = new LocalStorageBackend(this.root);
+    }
+
+    public long usableSpace() throws IOException {
+        return Files.getFileStore(root).getUsableSpace();
+    }
+
+    public long totalSpace() throws IOException {
+        return Files.getFileStore(root).getTotalSpace();
+    }
+
+    public double usedFraction() throws IOException {
+        long total = totalSpace();
+        return total == 0 ? 1 : 1 - (double) usableSpace() / total;
+    }
+}
@@ -0,0 +1,57 @@
+package web.cloudfilestorage.streaming;
+
+import web.cloudfilestorage.storage.RangeResource;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/*
+ * Starts downloads written with non-blocking servlet I/O, see NonBlockingTransfer.
+ * Disabled downloads are written by a thread of the executor from start to end.
+ * */
+public class NonBlockingDownloads {
+
+    private final boolean enabled;
+    private final Executor executor;
+    private final long timeout;
+    private final int bufferSize;
+
+    public NonBlockingDownloads(boolean enabled, Executor executor, long timeout, int bufferSize) {
+        this.enabled = enabled;
+        this.executor = executor;
+        this.timeout = timeout;
+        this.bufferSize = bufferSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Writes the range of the resource to the response, whose status and headers are set.
+     *
+     * @param length number of bytes to write, or -1 to write to the end
+     */
+    public void start(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            RangeResource resource,
+            long offset,
+            long length
+    ) throws IOException {
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(timeout);
+        new NonBlockingTransfer(
+                context,
+                response.getOutputStream(),
+                resource,
+                offset,
+                length,
+                executor,
+                bufferSize
+        ).start();
+    }
+}
@@ -0,0 +1,205 @@
+package web.cloudfilestorage.streaming;
+
+import lombok.extern.slf4j.Slf4j;
+import web.cloudfilestorage.storage.RangeResource;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Writes a range of a blob to a response in non-blocking mode. A buffer is read on the
+ * executor only after the container took the previous one, and is written only when the
+ * connection is ready for it, so a download holds a single buffer and no thread while
+ * its client is slow.
+ *
+ * The container thread calls onWritePossible() and the executor calls pump() after each
+ * read, the lock keeps them from writing at the same time.
+ * */
+@Slf4j
+class NonBlockingTransfer implements WriteListener, AsyncListener {
+
+    private final AsyncContext context;
+    private final ServletOutputStream out;
+    private final RangeResource resource;
+    private final long offset;
+    private final long length;
+    private final Executor executor;
+    private final byte[] buffer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private InputStream in;
+
+    /* bytes at the start of the buffer which are read and not written yet */
+    private int pending;
+
+    private boolean reading;
+
+    private boolean eof;
+
+    private boolean finished;
+
+    NonBlockingTransfer(
+            AsyncContext context,
+            ServletOutputStream out,
+            RangeResource resource,
+            long offset,
+            long length,
+            Executor executor,
+            int bufferSize
+    ) {
+        this.context = context;
+        this.out = out;
+        this.resource = resource;
+        this.offset = offset;
+        this.length = length;
+        this.executor = executor;
+        this.buffer = new byte[bufferSize];
+    }
+
+    void start() {
+        context.addListener(this);
+        lock.lock();
+        try {
+            read();
+        } finally {
+            lock.unlock();
+        }
+        // the container calls onWritePossible() right away
+        out.setWriteListener(this);
+    }
+
+    @Override
+    public void onWritePossible() {
+        pump();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.debug("Download of {} aborted: {}", resource.getFilename(), t.toString());
+        finish();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        log.warn("Download of {} timed out", resource.getFilename());
+        finish();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        onError(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private void pump() {
+        lock.lock();
+        try {
+            // isReady() returning false makes the container call onWritePossible() later
+            while (!finished && out.isReady()) {
+                if (pending > 0) {
+                    out.write(buffer, 0, pending);
+                    pending = 0;
+                    if (!eof) {
+                        read();
+                    }
+                } else if (eof) {
+                    finish();
+                } else {
+                    // pump() is called again when the read is done
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            onError(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void read() {
+        reading = true;
+        try {
+            executor.execute(this::fill);
+        } catch (RuntimeException e) {
+            reading = false;
+            log.warn("Could not read {}: {}", resource.getFilename(), e.toString());
+            finish();
+        }
+    }
+
+    private void fill() {
+        int read = 0;
+        IOException failure = null;
+        try {
+            if (in == null) {
+                in = resource.getInputStream(offset, length);
+            }
+            read = in.readNBytes(buffer, 0, buffer.length);
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        lock.lock();
+        try {
+            reading = false;
+            if (finished) {
+                close();
+                return;
+            }
+            if (failure != null) {
+                // the status is sent already, the client sees a body shorter than its length
+                log.warn("Could not read {}: {}", resource.getFilename(), failure.toString());
+                finish();
+                return;
+            }
+            pending = read;
+            eof = read < buffer.length;
+        } finally {
+            lock.unlock();
+        }
+        pump();
+    }
+
+    private void finish() {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            // a read in progress closes the stream when it is done
+            if (!reading) {
+                close();
+            }
+            context.complete();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close() {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            log.debug("Could not close {}: {}", resource.getFilename(), e.toString());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package web.cloudfilestorage.throttling;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Concurrency limit found by AIMD against the latency requests see: it grows by one while
+ * requests use at least half of it and finish in time, and shrinks by backoffRatio when a
+ * request fails or takes longer than tolerance times the usual latency. The usual latency
+ * is a moving average over about window requests in time, so the limit follows slow
+ * changes of the workload but backs off as soon as requests start to queue.
+ *
+ * Requests in flight when the limit shrinks were sent at the old limit, so they are likely
+ * slow too: the limit shrinks at most once until as many requests as were in flight then
+ * have finished, a spike of slow requests halves it once instead of once per request.
+ * */
+public class AdaptiveLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final int window;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile double limit;
+
+    /* nanoseconds, 0 until the first request finishes in time */
+    private double usualLatency;
+
+    private long releases;
+
+    /* releases after which the limit may shrink again */
+    private long recovered;
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoffRatio, int window) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.window = window;
+    }
+
+    /**
+     * @return false if the limit is reached and the request has to be rejected
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a request taken by tryAcquire().
+     *
+     * @param failed whether the request failed because of the load, e.g. with a server error
+     */
+    public void release(long latency, boolean failed) {
+        int busy = inFlight.getAndDecrement();
+        lock.lock();
+        try {
+            releases++;
+            if (usualLatency == 0 && !failed) {
+                usualLatency = latency;
+            }
+            if (failed || latency > tolerance * usualLatency) {
+                if (releases >= recovered) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    recovered = releases + busy;
+                }
+                return;
+            }
+            if (busy * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            usualLatency += (latency - usualLatency) / window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
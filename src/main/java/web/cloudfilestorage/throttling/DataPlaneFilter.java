@@ -0,0 +1,93 @@
+package web.cloudfilestorage.throttling;
+
+import org.springframework.web.filter.GenericFilterBean;
+import web.cloudfilestorage.validation.ErrorResponseWriter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Keeps metadata calls off the data-plane connector, so a burst of transfers cannot take
+ * the threads metadata calls run on.
+ *
+ * Transfers are served on both connectors: clients which do not know the data-plane port
+ * keep working, a redirect to it would lose their Authorization header and is not followed
+ * by every client. On the control plane at most controlPlaneTransfers of them run at once,
+ * each counted until its response is complete, further ones are rejected with 503. Metadata
+ * calls sent to the data plane are refused. Replication between the nodes is served on both.
+ * */
+public class DataPlaneFilter extends GenericFilterBean {
+
+    public static final int SC_MISDIRECTED_REQUEST = 421;
+
+    private static final byte[] MISDIRECTED_REQUEST = ErrorResponseWriter.body(
+            "DataPlane", "Only uploads and downloads are served on this port!"
+    );
+
+    private static final byte[] SERVICE_UNAVAILABLE = ErrorResponseWriter.body(
+            "DataPlane", "Too many transfers on this port, try again later or use the data-plane port!"
+    );
+
+    private final int dataPlanePort;
+
+    private final Semaphore controlPlaneTransfers;
+
+    private final long retryAfter;
+
+    /**
+     * @param retryAfter seconds rejected clients are told to wait
+     */
+    public DataPlaneFilter(int dataPlanePort, int controlPlaneTransfers, long retryAfter) {
+        this.dataPlanePort = dataPlanePort;
+        this.controlPlaneTransfers = new Semaphore(controlPlaneTransfers);
+        this.retryAfter = retryAfter;
+    }
+
+    @Override
+    public void doFilter(
+            ServletRequest servletRequest,
+            ServletResponse servletResponse,
+            FilterChain filterChain
+    ) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        EndpointClass endpointClass = EndpointClass.of(request);
+        boolean dataPlane = request.getLocalPort() == dataPlanePort;
+        if (endpointClass == EndpointClass.INTERNAL || endpointClass.isTransfer() == dataPlane) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        if (dataPlane) {
+            ErrorResponseWriter.write(response, SC_MISDIRECTED_REQUEST, MISDIRECTED_REQUEST);
+            return;
+        }
+        if (!controlPlaneTransfers.tryAcquire()) {
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            ErrorResponseWriter.write(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, SERVICE_UNAVAILABLE);
+            return;
+        }
+        boolean completing = false;
+        try {
+            filterChain.doFilter(servletRequest, servletResponse);
+            completing = true;
+        } finally {
+            if (completing) {
+                RequestCompletion.whenComplete(request, false, failed -> controlPlaneTransfers.release());
+            } else {
+                controlPlaneTransfers.release();
+            }
+        }
+    }
+
+    public int getAvailableControlPlaneTransfers() {
+        return controlPlaneTransfers.availablePermits();
+    }
+}
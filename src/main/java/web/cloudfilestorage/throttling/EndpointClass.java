@@ -0,0 +1,32 @@
+package web.cloudfilestorage.throttling;
+
+import javax.servlet.http.HttpServletRequest;
+
+public enum EndpointClass {
+    METADATA, UPLOADS, DOWNLOADS,
+    /* replication between the nodes, not limited */
+    INTERNAL;
+
+    public static EndpointClass of(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String method = request.getMethod();
+        String contentType = request.getContentType();
+
+        if (path.startsWith("/internal/")) {
+            return INTERNAL;
+        }
+        if ("GET".equals(method) && path.startsWith("/api/files/resource")) {
+            return DOWNLOADS;
+        }
+        if (("POST".equals(method) || "PUT".equals(method))
+                && (contentType != null && contentType.startsWith("multipart/") || path.endsWith("/delta"))) {
+            return UPLOADS;
+        }
+        return METADATA;
+    }
+
+    /* bulk content transfers, as opposed to metadata calls */
+    public boolean isTransfer() {
+        return this == UPLOADS || this == DOWNLOADS;
+    }
+}
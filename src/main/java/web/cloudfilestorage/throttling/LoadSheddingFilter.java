@@ -0,0 +1,95 @@
+package web.cloudfilestorage.throttling;
+
+import org.springframework.web.filter.GenericFilterBean;
+import web.cloudfilestorage.validation.ErrorResponseWriter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/*
+ * Rejects requests beyond the adaptive concurrency limit of their endpoint class with 503
+ * right away, instead of letting them queue for threads and the database until every
+ * request times out. See AdaptiveLimit.
+ *
+ * A request is counted until its response is complete, a download written asynchronously
+ * until its last byte. Latency is measured from when the filter is reached, so it shows
+ * contention for the database and the disks, not waiting for a request thread. For uploads
+ * and downloads it is the service time of ServiceTime, which leaves out receiving the body
+ * and sending the response, so large files and slow clients do not shrink the limit.
+ * */
+public class LoadSheddingFilter extends GenericFilterBean {
+
+    private static final byte[] SERVICE_UNAVAILABLE = ErrorResponseWriter.body(
+            "LoadShedding", "Server is overloaded, try again later!"
+    );
+
+    private final Map<EndpointClass, AdaptiveLimit> limits;
+
+    private final long retryAfter;
+
+    private final LongSupplier clock;
+
+    /**
+     * @param retryAfter seconds rejected clients are told to wait
+     */
+    public LoadSheddingFilter(Map<EndpointClass, AdaptiveLimit> limits, long retryAfter) {
+        this(limits, retryAfter, System::nanoTime);
+    }
+
+    public LoadSheddingFilter(Map<EndpointClass, AdaptiveLimit> limits, long retryAfter, LongSupplier clock) {
+        this.limits = new EnumMap<>(limits);
+        this.retryAfter = retryAfter;
+        this.clock = clock;
+    }
+
+    @Override
+    public void doFilter(
+            ServletRequest servletRequest,
+            ServletResponse servletResponse,
+            FilterChain filterChain
+    ) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        EndpointClass endpointClass = EndpointClass.of(request);
+        AdaptiveLimit limit = limits.get(endpointClass);
+        if (limit == null) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        if (!limit.tryAcquire()) {
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            ErrorResponseWriter.write(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        ServiceTime time = new ServiceTime(clock);
+        if (endpointClass.isTransfer()) {
+            request = time.request(request);
+            response = time.response(response);
+        }
+        boolean completing = false;
+        try {
+            filterChain.doFilter(request, response);
+            completing = true;
+        } finally {
+            if (completing) {
+                RequestCompletion.whenComplete(
+                        request,
+                        response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        failed -> limit.release(time.elapsed(), failed)
+                );
+            } else {
+                limit.release(time.elapsed(), true);
+            }
+        }
+    }
+}
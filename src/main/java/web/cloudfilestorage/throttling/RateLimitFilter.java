@@ -0,0 +1,101 @@
+package web.cloudfilestorage.throttling;
+
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.GenericFilterBean;
+import web.cloudfilestorage.validation.ErrorResponseWriter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+public class RateLimitFilter extends GenericFilterBean {
+
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final byte[] TOO_MANY_REQUESTS = ErrorResponseWriter.body(
+            "RateLimit", "Too many requests!"
+    );
+
+    private final RateLimiter rateLimiter;
+
+    private final String clientIpHeader;
+
+    private final Pattern trustedProxies;
+
+    /**
+     * @param clientIpHeader header proxies append the address of their client to, e.g. X-Forwarded-For
+     * @param trustedProxies addresses of the proxies whose header is believed, or null to ignore the header
+     */
+    public RateLimitFilter(RateLimiter rateLimiter, String clientIpHeader, Pattern trustedProxies) {
+        this.rateLimiter = rateLimiter;
+        this.clientIpHeader = clientIpHeader;
+        this.trustedProxies = trustedProxies;
+    }
+
+    @Override
+    public void doFilter(
+            ServletRequest servletRequest,
+            ServletResponse servletResponse,
+            FilterChain filterChain
+    ) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+
+        long wait = rateLimiter.tryAcquire(EndpointClass.of(request), subject(request));
+        if (wait == 0) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        response.setHeader(
+                "Retry-After",
+                String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1)))
+        );
+        ErrorResponseWriter.write(response, SC_TOO_MANY_REQUESTS, TOO_MANY_REQUESTS);
+    }
+
+    private String subject(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null
+                && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return "user:" + authentication.getName();
+        }
+        return "ip:" + clientAddress(request);
+    }
+
+    /*
+     * The last address not of a trusted proxy, so a client can not pick its address by
+     * sending the header itself.
+     * */
+    String clientAddress(HttpServletRequest request) {
+        String address = request.getRemoteAddr();
+        if (trustedProxies == null || !trustedProxies.matcher(address).matches()) {
+            return address;
+        }
+        String forwarded = request.getHeader(clientIpHeader);
+        if (forwarded == null) {
+            return address;
+        }
+        String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (hop.isEmpty()) {
+                continue;
+            }
+            address = hop;
+            if (!trustedProxies.matcher(hop).matches()) {
+                break;
+            }
+        }
+        return address;
+    }
+}
@@ -0,0 +1,136 @@
+package web.cloudfilestorage.throttling;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/*
+ * Token buckets per endpoint class and subject. At most maxKeys buckets are kept; once
+ * all of them are in use, buckets refilled since their last request are dropped, and
+ * subjects still without a bucket share one overflow bucket of their endpoint class.
+ * Buckets in use are never dropped, so new subjects can not reset the limits of others.
+ * */
+public class RateLimiter {
+
+    private static final long EVICTION_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<EndpointClass, Limit> limits;
+
+    private final Map<EndpointClass, ConcurrentHashMap<String, TokenBucket>> buckets = new EnumMap<>(EndpointClass.class);
+
+    private final Map<EndpointClass, TokenBucket> overflow = new EnumMap<>(EndpointClass.class);
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong lastEviction;
+
+    private final int maxKeys;
+
+    private final LongSupplier clock;
+
+    public RateLimiter(Map<EndpointClass, Limit> limits, int maxKeys) {
+        this(limits, maxKeys, System::nanoTime);
+    }
+
+    public RateLimiter(Map<EndpointClass, Limit> limits, int maxKeys, LongSupplier clock) {
+        this.limits = new EnumMap<>(limits);
+        this.maxKeys = maxKeys;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.lastEviction = new AtomicLong(now - EVICTION_INTERVAL);
+        for (EndpointClass endpointClass : this.limits.keySet()) {
+            buckets.put(endpointClass, new ConcurrentHashMap<>());
+            overflow.put(endpointClass, new TokenBucket(now));
+        }
+    }
+
+    /**
+     * @return 0 if request is allowed, otherwise nanoseconds the client has to wait
+     */
+    public long tryAcquire(EndpointClass endpointClass, String subject) {
+        Limit limit = limits.get(endpointClass);
+        if (limit == null) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+
+        ConcurrentHashMap<String, TokenBucket> classBuckets = buckets.get(endpointClass);
+        TokenBucket bucket = classBuckets.get(subject);
+        if (bucket == null) {
+            bucket = newBucket(endpointClass, classBuckets, subject, now);
+        }
+        return bucket.tryAcquire(now, limit.emissionInterval(), limit.burstTolerance());
+    }
+
+    /**
+     * @return like tryAcquire, without taking a token
+     */
+    public long peek(EndpointClass endpointClass, String subject) {
+        Limit limit = limits.get(endpointClass);
+        if (limit == null) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.get(endpointClass).get(subject);
+        if (bucket == null) {
+            if (size.get() < maxKeys) {
+                return 0;
+            }
+            bucket = overflow.get(endpointClass);
+        }
+        return bucket.peek(clock.getAsLong(), limit.emissionInterval(), limit.burstTolerance());
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private TokenBucket newBucket(
+            EndpointClass endpointClass,
+            ConcurrentHashMap<String, TokenBucket> classBuckets,
+            String subject,
+            long now
+    ) {
+        if (size.get() >= maxKeys) {
+            evict(now);
+        }
+        if (size.incrementAndGet() > maxKeys) {
+            size.decrementAndGet();
+            return overflow.get(endpointClass);
+        }
+        TokenBucket created = new TokenBucket(now);
+        TokenBucket existing = classBuckets.putIfAbsent(subject, created);
+        if (existing != null) {
+            size.decrementAndGet();
+            return existing;
+        }
+        return created;
+    }
+
+    private void evict(long now) {
+        // a scan at most every EVICTION_INTERVAL, not on every new subject while all buckets are in use
+        long last = lastEviction.get();
+        if (now - last < EVICTION_INTERVAL || !lastEviction.compareAndSet(last, now)) {
+            return;
+        }
+        // buckets that are full again hold no state worth keeping
+        for (ConcurrentHashMap<String, TokenBucket> classBuckets : buckets.values()) {
+            for (Map.Entry<String, TokenBucket> entry : classBuckets.entrySet()) {
+                if (entry.getValue().isFull(now) && classBuckets.remove(entry.getKey(), entry.getValue())) {
+                    size.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    public record Limit(long emissionInterval, long burstTolerance) {
+
+        public static Limit of(double permitsPerSecond, int burst) {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            return new Limit(interval, interval * (Math.max(burst, 1) - 1));
+        }
+    }
+}
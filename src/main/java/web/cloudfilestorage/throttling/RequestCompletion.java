@@ -0,0 +1,69 @@
+package web.cloudfilestorage.throttling;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/*
+ * Runs a callback once a request is done: when the filter chain returns, or for a request
+ * which went asynchronous, such as a download, when its async context completes, times
+ * out or fails. The callback is told whether the request failed.
+ * */
+final class RequestCompletion implements AsyncListener {
+
+    private final Consumer<Boolean> callback;
+
+    /* failed before it went asynchronous */
+    private final boolean failed;
+
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private RequestCompletion(Consumer<Boolean> callback, boolean failed) {
+        this.callback = callback;
+        this.failed = failed;
+    }
+
+    /**
+     * To be called after the filter chain returned.
+     *
+     * @param failed whether the request failed up to now
+     */
+    static void whenComplete(HttpServletRequest request, boolean failed, Consumer<Boolean> callback) {
+        if (!request.isAsyncStarted()) {
+            callback.accept(failed);
+            return;
+        }
+        request.getAsyncContext().addListener(new RequestCompletion(callback, failed));
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        finish(failed || event.getSuppliedResponse() instanceof HttpServletResponse response
+                && response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        finish(true);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        finish(true);
+    }
+
+    /* listeners are dropped when the request goes asynchronous again */
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        event.getAsyncContext().addListener(this);
+    }
+
+    private void finish(boolean failed) {
+        if (done.compareAndSet(false, true)) {
+            callback.accept(failed);
+        }
+    }
+}
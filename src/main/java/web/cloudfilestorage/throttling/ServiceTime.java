@@ -0,0 +1,191 @@
+package web.cloudfilestorage.throttling;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/*
+ * Time a request spends on the server: from when it is reached until its response starts,
+ * less the time spent waiting for the client to send the body. An upload of a large body
+ * or a download to a slow client takes long without the server being slow, only the
+ * requests wrapped by request() and response() are measured this way.
+ * */
+final class ServiceTime {
+
+    private final LongSupplier clock;
+    private final long start;
+
+    /* nanoseconds spent waiting for the body */
+    private final AtomicLong receiving = new AtomicLong();
+
+    /* clock when the response started, null before */
+    private final AtomicReference<Long> respondedAt = new AtomicReference<>();
+
+    ServiceTime(LongSupplier clock) {
+        this.clock = clock;
+        this.start = clock.getAsLong();
+    }
+
+    /**
+     * @return nanoseconds until the response started, or until now if it did not yet
+     */
+    long elapsed() {
+        Long responded = respondedAt.get();
+        long end = responded != null ? responded : clock.getAsLong();
+        return Math.max(0, end - start - receiving.get());
+    }
+
+    HttpServletRequest request(HttpServletRequest request) {
+        return new HttpServletRequestWrapper(request) {
+            @Override
+            public ServletInputStream getInputStream() throws IOException {
+                return new TimedInputStream(super.getInputStream());
+            }
+
+            /* multipart bodies are received as a whole when their parts are first asked for */
+            @Override
+            public Collection<Part> getParts() throws IOException, ServletException {
+                long started = clock.getAsLong();
+                try {
+                    return super.getParts();
+                } finally {
+                    receiving.addAndGet(clock.getAsLong() - started);
+                }
+            }
+
+            @Override
+            public Part getPart(String name) throws IOException, ServletException {
+                long started = clock.getAsLong();
+                try {
+                    return super.getPart(name);
+                } finally {
+                    receiving.addAndGet(clock.getAsLong() - started);
+                }
+            }
+        };
+    }
+
+    HttpServletResponse response(HttpServletResponse response) {
+        return new HttpServletResponseWrapper(response) {
+            @Override
+            public ServletOutputStream getOutputStream() throws IOException {
+                return new TimedOutputStream(super.getOutputStream());
+            }
+
+            @Override
+            public void flushBuffer() throws IOException {
+                responded();
+                super.flushBuffer();
+            }
+        };
+    }
+
+    private void responded() {
+        if (respondedAt.get() == null) {
+            respondedAt.compareAndSet(null, clock.getAsLong());
+        }
+    }
+
+    private class TimedInputStream extends ServletInputStream {
+
+        private final ServletInputStream in;
+
+        TimedInputStream(ServletInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long started = clock.getAsLong();
+            try {
+                return in.read();
+            } finally {
+                receiving.addAndGet(clock.getAsLong() - started);
+            }
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            long started = clock.getAsLong();
+            try {
+                return in.read(bytes, offset, length);
+            } finally {
+                receiving.addAndGet(clock.getAsLong() - started);
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return in.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            in.setReadListener(listener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private class TimedOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream out;
+
+        TimedOutputStream(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            responded();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            responded();
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            responded();
+            out.flush();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package web.cloudfilestorage.throttling;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Token bucket kept as a single "theoretical arrival time" (GCRA), so that
+ * acquiring a token is one CAS on an AtomicLong instead of a lock.
+ * */
+public class TokenBucket {
+
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(long now) {
+        this.theoreticalArrival = new AtomicLong(now);
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise nanoseconds until the next token is available
+     */
+    public long tryAcquire(long now, long emissionInterval, long burstTolerance) {
+        while (true) {
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now) + emissionInterval;
+            long wait = next - burstTolerance - emissionInterval - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return like tryAcquire, without taking a token
+     */
+    public long peek(long now, long emissionInterval, long burstTolerance) {
+        long next = Math.max(theoreticalArrival.get(), now) + emissionInterval;
+        return Math.max(0, next - burstTolerance - emissionInterval - now);
+    }
+
+    public boolean isFull(long now) {
+        return theoreticalArrival.get() <= now;
+    }
+}
@@ -1,66 +1,63 @@
 package web.cloudfilestorage.utils;
 
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
+import web.cloudfilestorage.exceptions.InvalidFileNameException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 public class FileUtil {
-    public static void saveFile(
-            String uploadDir,
-            String fileName,
-            MultipartFile multipartFile
-    ) throws IOException {
-        Path uploadPath = Paths.get(uploadDir);
 
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
-        }
-
-        try (InputStream inputStream = multipartFile.getInputStream()) {
-            Path filePath = uploadPath.resolve(fileName);
-            Files.copy(inputStream, filePath, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException ioe) {
-            throw new IOException("Could not save image file: " + fileName, ioe);
+    /**
+     * Reduces the name of an upload to its last path element, it becomes part of a storage key.
+     *
+     * @throws InvalidFileNameException if no usable name is left
+     */
+    public static String fileName(
+            String originalFilename
+    ) throws InvalidFileNameException {
+        String fileName = StringUtils.getFilename(originalFilename);
+        if (!StringUtils.hasText(fileName)
+                || fileName.equals(".")
+                || fileName.equals("..")
+                || fileName.contains("/")
+                || fileName.contains("\\")) {
+            throw new InvalidFileNameException(
+                    "File name " + originalFilename + " is not valid!",
+                    "file"
+            );
         }
+        return fileName;
     }
 
-    public static void updateFile(
-            String currentPathToFile,
-            String newFileName,
+    public static String sha256(
             MultipartFile multipartFile
     ) throws IOException {
-        Path currentPath = Paths.get(currentPathToFile);
-
-        Files.deleteIfExists(currentPath);
-
-        Path parentDirectory = currentPath.getParent();
-
-        if (!Files.exists(parentDirectory)) {
-            Files.createDirectories(parentDirectory);
-        }
-
+        MessageDigest digest = sha256();
         try (InputStream inputStream = multipartFile.getInputStream()) {
-            Path filePath = parentDirectory.resolve(newFileName);
-            Files.copy(inputStream, filePath, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            throw new IOException("Could not save image file: " + newFileName, e);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
         }
+        return hex(digest);
     }
 
-    public static void deleteFile(
-            String filename
-    ) throws IOException {
-        Path path = Paths.get(filename);
-        Files.deleteIfExists(path);
-
-        if (Files.list(path.getParent()).findAny().isEmpty()) {
-            Files.delete(path.getParent());
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
 }
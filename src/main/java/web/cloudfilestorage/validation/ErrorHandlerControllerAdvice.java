@@ -10,10 +10,13 @@ import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import web.cloudfilestorage.exceptions.InvalidFileNameException;
 import web.cloudfilestorage.exceptions.JwtAuthenticationException;
+import web.cloudfilestorage.exceptions.PreconditionFailedException;
 
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
 import javax.servlet.ServletException;
 import javax.validation.ConstraintViolationException;
 import java.io.FileNotFoundException;
@@ -99,6 +102,51 @@ public class ErrorHandlerControllerAdvice {
         return new ValidationErrorResponse(violation);
     }
 
+    @ExceptionHandler({
+            InvalidFileNameException.class
+    })
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    public ValidationErrorResponse onInvalidFileNameException(
+            InvalidFileNameException e
+    ) {
+        final Violation violation = new Violation(
+                e.getField(),
+                e.getMessage()
+        );
+        return new ValidationErrorResponse(violation);
+    }
+
+    @ExceptionHandler({
+            PreconditionFailedException.class
+    })
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    @ResponseBody
+    public ValidationErrorResponse onPreconditionFailedException(
+            PreconditionFailedException e
+    ) {
+        final Violation violation = new Violation(
+                e.getField(),
+                e.getMessage()
+        );
+        return new ValidationErrorResponse(violation);
+    }
+
+    @ExceptionHandler({
+            OptimisticLockException.class
+    })
+    @ResponseStatus(HttpStatus.CONFLICT)
+    @ResponseBody
+    public ValidationErrorResponse onOptimisticLockException(
+            OptimisticLockException e
+    ) {
+        final Violation violation = new Violation(
+                "version",
+                e.getMessage()
+        );
+        return new ValidationErrorResponse(violation);
+    }
+
     @ExceptionHandler({
             JwtException.class,
             AuthenticationException.class
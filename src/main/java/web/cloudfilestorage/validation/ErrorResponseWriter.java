@@ -0,0 +1,31 @@
+package web.cloudfilestorage.validation;
+
+import com.google.gson.Gson;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class ErrorResponseWriter {
+
+    private static final Gson GSON = new Gson();
+
+    public static byte[] body(String fieldName, String message) {
+        return GSON.toJson(
+                new ValidationErrorResponse(new Violation(fieldName, message))
+        ).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static void write(
+            HttpServletResponse response,
+            int status,
+            byte[] body
+    ) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json;charset=UTF-8");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        response.flushBuffer();
+    }
+
+}
@@ -0,0 +1,22 @@
+
+CREATE TABLE main.api_key (
+    id bigint NOT NULL,
+    name character varying(255),
+    hash character varying(64) NOT NULL,
+    scope character varying(255) NOT NULL,
+    created_at timestamp without time zone,
+    expires_at timestamp without time zone,
+    owner bigint NOT NULL
+);
+
+
+ALTER TABLE ONLY main.api_key
+    ADD CONSTRAINT api_key_pkey PRIMARY KEY (id);
+
+
+ALTER TABLE ONLY main.api_key
+    ADD CONSTRAINT uk_api_key_hash UNIQUE (hash);
+
+
+ALTER TABLE ONLY main.api_key
+    ADD CONSTRAINT fk_api_key_owner FOREIGN KEY (owner) REFERENCES main."user"(id) ON DELETE CASCADE;
@@ -0,0 +1,2 @@
+ALTER TABLE main.file
+    ADD COLUMN version bigint NOT NULL DEFAULT 0;
@@ -0,0 +1,34 @@
+ALTER TABLE main.file
+    ADD COLUMN content_hash character varying(64);
+
+
+CREATE TABLE main.file_version (
+    id bigint NOT NULL,
+    file bigint NOT NULL,
+    version bigint NOT NULL,
+    path character varying(255) NOT NULL,
+    content_hash character varying(64),
+    description character varying(255),
+    created_at timestamp without time zone NOT NULL
+);
+
+
+ALTER TABLE ONLY main.file_version
+    ADD CONSTRAINT file_version_pkey PRIMARY KEY (id);
+
+
+ALTER TABLE ONLY main.file_version
+    ADD CONSTRAINT uk_file_version_file_version UNIQUE (file, version);
+
+
+ALTER TABLE ONLY main.file_version
+    ADD CONSTRAINT fk_file_version_file FOREIGN KEY (file) REFERENCES main.file(id) ON DELETE CASCADE;
+
+
+CREATE INDEX idx_file_version_path ON main.file_version (path);
+
+
+CREATE INDEX idx_file_version_created_at ON main.file_version (created_at);
+
+
+CREATE INDEX idx_file_file ON main.file (file);
@@ -0,0 +1,9 @@
+CREATE TABLE main.scheduled_lock (
+    name character varying(64) NOT NULL,
+    locked_until timestamp without time zone NOT NULL,
+    locked_by character varying(255) NOT NULL
+);
+
+
+ALTER TABLE ONLY main.scheduled_lock
+    ADD CONSTRAINT scheduled_lock_pkey PRIMARY KEY (name);
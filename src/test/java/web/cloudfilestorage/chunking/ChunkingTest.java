@@ -0,0 +1,161 @@
+package web.cloudfilestorage.chunking;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import web.cloudfilestorage.storage.BlobStat;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.storage.RangeResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChunkingTest {
+
+    private final GearChunker chunker = new GearChunker(1024, 4096, 16384);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void chunkSizes() throws IOException {
+
+        Manifest manifest = write(new ChunkStore(new LocalStorageBackend(dir)), random(1 << 20, 1));
+
+        assertThat(manifest.length()).isEqualTo(1 << 20);
+        List<Manifest.Chunk> chunks = manifest.chunks();
+        for (Manifest.Chunk chunk : chunks.subList(0, chunks.size() - 1)) {
+            assertThat(chunk.length()).isBetween(1024, 16384);
+        }
+        // normalized chunking keeps the average close to the configured one
+        assertThat((double) manifest.length() / chunks.size()).isBetween(2048.0, 8192.0);
+
+    }
+
+    @Test
+    void insertionKeepsOtherChunks() throws IOException {
+
+        ChunkStore store = new ChunkStore(new LocalStorageBackend(dir));
+        byte[] content = random(1 << 20, 2);
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        edited.write(content, 0, 300_000);
+        edited.write("inserted".getBytes());
+        edited.write(content, 300_000, content.length - 300_000);
+
+        Manifest original = write(store, content);
+        Manifest changed = write(store, edited.toByteArray());
+
+        Set<String> originalChunks = new HashSet<>();
+        original.chunks().forEach(chunk -> originalChunks.add(chunk.hash()));
+        long newChunks = changed.chunks().stream()
+                .filter(chunk -> !originalChunks.contains(chunk.hash()))
+                .count();
+        assertThat(newChunks).isLessThanOrEqualTo(2);
+
+    }
+
+    @Test
+    void sweepKeepsChunksReusedAfterListing() throws IOException {
+
+        ChunkStore store = new ChunkStore(new LocalStorageBackend(dir) {
+            @Override
+            public Stream<BlobStat> list(String prefix) throws IOException {
+                // listed before the chunks were reused
+                return super.list(prefix).map(chunk -> new BlobStat(chunk.key(), chunk.size(), Instant.EPOCH));
+            }
+        });
+        byte[] reused = random(100, 3);
+        byte[] unused = random(100, 4);
+        String reusedHash = store.put(reused, 0, reused.length);
+        String unusedHash = store.put(unused, 0, unused.length);
+        Files.setLastModifiedTime(dir.resolve(store.key(unusedHash)), FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS)));
+
+        assertThat(store.sweep(hash -> false, Instant.now().minus(1, ChronoUnit.MINUTES))).isEqualTo(1);
+        assertThat(Files.exists(dir.resolve(store.key(reusedHash)))).isTrue();
+        assertThat(Files.exists(dir.resolve(store.key(unusedHash)))).isFalse();
+
+    }
+
+    @Test
+    void randomAccess() throws IOException {
+
+        LocalStorageBackend backend = new LocalStorageBackend(dir);
+        ChunkStore store = new ChunkStore(backend);
+        byte[] content = random(100_000, 3);
+        Manifest manifest = write(store, content);
+
+        String key = "1/file" + Manifest.DIRECTORY_SUFFIX + "/file.bin";
+        manifest.write(backend, key);
+        assertThat(Manifest.isManifest(key)).isTrue();
+        assertThat(Manifest.isManifest("1/file/file.bin")).isFalse();
+        assertThat(Manifest.read(backend, key)).isEqualTo(manifest);
+
+        ChunkedContent chunked = new ChunkedContent(store, manifest);
+        assertThat(chunked.size()).isEqualTo(content.length);
+        try (InputStream in = chunked.read(45_678, 20_000)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 45_678, 65_678));
+        }
+        try (InputStream in = chunked.read(99_990, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 99_990, 100_000));
+        }
+        try (InputStream in = new RangeResource(chunked, "file.bin").getInputStream()) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+
+    }
+
+    @Test
+    void filterHasNoFalseNegatives() {
+
+        ChunkFilter filter = new ChunkFilter(10_000, 0.01);
+        Random random = new Random(5);
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            added.add(HexFormat.of().formatHex(random(32, random.nextLong())));
+        }
+        added.forEach(filter::add);
+
+        assertThat(added).allMatch(filter::mightContain);
+        long falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain(HexFormat.of().formatHex(random(32, random.nextLong())))) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(200);
+        // anything else in the chunk store is kept
+        assertThat(filter.mightContain("not-a-chunk")).isTrue();
+
+    }
+
+    private Manifest write(ChunkStore store, byte[] content) throws IOException {
+        ChunkingOutputStream out = store.writer(chunker);
+        // odd sized writes, boundaries must not depend on them
+        for (int offset = 0; offset < content.length; offset += 7919) {
+            out.write(content, offset, Math.min(7919, content.length - offset));
+        }
+        out.close();
+        return out.getManifest();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,151 @@
+package web.cloudfilestorage.compression;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.storage.StorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class GzipContentTest {
+
+    private static final String KEY = "1/log.gz/app.log";
+
+    @TempDir
+    Path root;
+
+    private StorageBackend backend;
+
+    private final byte[] content = text(50_000);
+
+    @BeforeEach
+    void setUp() {
+        backend = Mockito.spy(new LocalStorageBackend(root));
+    }
+
+    @Test
+    void encodedIsOneGzipMember() throws IOException {
+
+        backend.put(KEY, GzipContent.encode(new ByteArrayInputStream(content), content.length, 4096));
+        GzipContent gzip = GzipContent.open(backend, KEY);
+
+        assertThat(gzip.size()).isEqualTo(content.length);
+        assertThat(gzip.encoded().size()).isLessThan(backend.stat(KEY).orElseThrow().size());
+        try (InputStream in = new GZIPInputStream(gzip.encoded().read(0, -1))) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        try (InputStream in = gzip.read(0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+
+    }
+
+    @Test
+    void rangesAreDecodedFromTheirBlock() throws IOException {
+
+        backend.put(KEY, GzipContent.encode(new ByteArrayInputStream(content), content.length, 4096));
+        GzipContent gzip = GzipContent.open(backend, KEY);
+
+        for (long[] range : new long[][]{{0, 10}, {4090, 20}, {4096, 4096}, {30_001, 12_345}, {49_990, 100}, {60_000, 5}}) {
+            int from = (int) Math.min(range[0], content.length);
+            int to = (int) Math.min(content.length, range[0] + range[1]);
+            try (InputStream in = gzip.read(range[0], range[1])) {
+                assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, from, to));
+            }
+        }
+
+        // the tail is fetched from past the start of the blob
+        Mockito.clearInvocations(backend);
+        try (InputStream in = gzip.read(45_000, 10)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 45_000, 45_010));
+        }
+        Mockito.verify(backend, Mockito.never()).get(eq(KEY), eq(0L), anyLong());
+
+    }
+
+    @Test
+    void emptyContent() throws IOException {
+
+        backend.put(KEY, GzipContent.encode(new ByteArrayInputStream(new byte[0]), 0));
+        GzipContent gzip = GzipContent.open(backend, KEY);
+
+        assertThat(gzip.size()).isZero();
+        try (InputStream in = new GZIPInputStream(gzip.encoded().read(0, -1))) {
+            assertThat(in.readAllBytes()).isEmpty();
+        }
+        try (InputStream in = gzip.read(0, -1)) {
+            assertThat(in.readAllBytes()).isEmpty();
+        }
+
+    }
+
+    @Test
+    void contentOfWrongLengthFails() {
+
+        assertThatThrownBy(() -> GzipContent.encode(new ByteArrayInputStream(content), content.length + 1L, 4096).readAllBytes())
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> GzipContent.encode(new ByteArrayInputStream(content), content.length - 1L, 4096).readAllBytes())
+                .isInstanceOf(IOException.class);
+
+    }
+
+    @Test
+    void singleBlockBlobsStayReadable() throws IOException {
+
+        backend.put(KEY, new ByteArrayInputStream(singleBlock(content)));
+        GzipContent gzip = GzipContent.open(backend, KEY);
+
+        assertThat(gzip.size()).isEqualTo(content.length);
+        assertThat(gzip.encoded().size()).isEqualTo(backend.stat(KEY).orElseThrow().size());
+        try (InputStream in = gzip.read(30_001, 100)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 30_001, 30_101));
+        }
+
+    }
+
+    /* a blob as it was stored before blocks */
+    private static byte[] singleBlock(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN)
+                .putShort((short) 0x8b1f).put((byte) 8).put((byte) 0x04).putInt(0).put((byte) 4).put((byte) 0xff)
+                .putShort((short) 12).put((byte) 'C').put((byte) 'L').putShort((short) 8).putLong(content.length)
+                .array());
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED, true))) {
+            deflater.write(content);
+            deflater.finish();
+            CRC32 checksum = new CRC32();
+            checksum.update(content);
+            out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) checksum.getValue()).putInt(content.length).array());
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] text(int size) {
+        Random random = new Random(1);
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,39 @@
+package web.cloudfilestorage.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class VirtualThreadsTest {
+
+    @Test
+    void tasksRunOnVirtualThreads() throws Exception {
+
+        assumeTrue(VirtualThreads.isAvailable());
+
+        ExecutorService executor = VirtualThreads.newExecutor("test-");
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get();
+            assertThat(Thread.class.getMethod("isVirtual").invoke(thread)).isEqualTo(true);
+            assertThat(thread.getName()).startsWith("test-");
+        } finally {
+            executor.shutdown();
+        }
+
+    }
+
+    @Test
+    void olderRuntimesAreRejected() {
+
+        assumeFalse(VirtualThreads.isAvailable());
+
+        assertThatThrownBy(() -> VirtualThreads.newExecutor("test-"))
+                .isInstanceOf(IllegalStateException.class);
+
+    }
+}
@@ -27,7 +27,9 @@ import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.model.Status;
 import web.cloudfilestorage.model.User;
 import web.cloudfilestorage.security.JwtTokenProvider;
+import web.cloudfilestorage.service.ApiKeyService;
 import web.cloudfilestorage.service.FileService;
+import web.cloudfilestorage.service.RoleRegistry;
 import web.cloudfilestorage.service.RoleService;
 import web.cloudfilestorage.service.UserService;
 
@@ -54,9 +56,15 @@ public class AdminControllerTest {
     @MockBean
     private RoleService roleService;
 
+    @MockBean
+    private RoleRegistry roleRegistry;
+
     @MockBean
     private JwtTokenProvider jwtTokenProvider;
 
+    @MockBean
+    private ApiKeyService apiKeyService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -246,6 +254,12 @@ public class AdminControllerTest {
         Mockito.when(roleService.retrieve(roleAdmin.getName())).thenReturn(roleAdmin);
         Mockito.when(roleService.retrieve(roleUser.getName())).thenReturn(roleUser);
 
+        Mockito.when(roleRegistry.hasRole(Mockito.any(User.class), Mockito.anyString())).thenAnswer(
+                invocation -> invocation.<User>getArgument(0).getRoles().stream().anyMatch(
+                        role -> role.getName().equals(invocation.getArgument(1))
+                )
+        );
+
         roleData = new RoleData();
         roleData.setName("ROLE_NEW");
 
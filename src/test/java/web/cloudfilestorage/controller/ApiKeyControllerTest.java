@@ -0,0 +1,178 @@
+package web.cloudfilestorage.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.web.servlet.MockMvc;
+import web.cloudfilestorage.dto.apikey.ApiKeyData;
+import web.cloudfilestorage.dto.apikey.ApiKeyView;
+import web.cloudfilestorage.exceptions.JwtAuthenticationException;
+import web.cloudfilestorage.model.ApiKey;
+import web.cloudfilestorage.model.ApiKeyScope;
+import web.cloudfilestorage.model.Role;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.security.ApiKeyAuthentication;
+import web.cloudfilestorage.security.JwtTokenProvider;
+import web.cloudfilestorage.service.ApiKeyService;
+
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(ApiKeyController.class)
+public class ApiKeyControllerTest {
+
+    @MockBean
+    private JwtTokenProvider jwtTokenProvider;
+
+    @MockBean
+    private ApiKeyService apiKeyService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private final String ownerToken = "owner_token";
+
+    private final String ownerApiKey = "cfs_owner_key";
+
+    private final ApiKeyData apiKeyData = ApiKeyData.builder()
+            .name("backup agent")
+            .scope(ApiKeyScope.WRITE)
+            .build();
+
+    private ApiKey apiKey;
+
+    @BeforeEach
+    void setUp() throws JwtAuthenticationException {
+
+        User owner = User.builder()
+                .id(1L)
+                .username("owner")
+                .email("owner@test.com")
+                .password("qwerty1234")
+                .status(Status.ACTIVE)
+                .files(List.of())
+                .roles(List.of(Role.builder().id(1L).name("ROLE_USER").build()))
+                .build();
+        Authentication ownerAuthentication = new UsernamePasswordAuthenticationToken(
+                owner, "", owner.getAuthorities()
+        );
+
+        Mockito.when(jwtTokenProvider.validateToken(ownerToken))
+                .thenReturn(Boolean.TRUE);
+        Mockito.when(jwtTokenProvider.getAuthentication(ownerToken))
+                .thenReturn(ownerAuthentication);
+        Mockito.when(jwtTokenProvider.resolveToken(Mockito.any(HttpServletRequest.class)))
+                .thenAnswer(
+                        i -> {
+                            HttpServletRequest request = (HttpServletRequest) i.getArguments()[0];
+                            String token = request.getHeader("Authorization");
+                            if (token != null && token.startsWith("Bearer_")) {
+                                return token.substring(7);
+                            }
+                            return token;
+                        }
+                );
+
+        apiKey = ApiKey.builder()
+                .id(1L)
+                .name(apiKeyData.getName())
+                .scope(apiKeyData.getScope())
+                .createdAt(LocalDateTime.now())
+                .owner(owner)
+                .build();
+
+        Mockito.when(apiKeyService.authenticate(ownerApiKey))
+                .thenReturn(new ApiKeyAuthentication(owner.getUsername(), ApiKeyScope.WRITE));
+        Mockito.when(apiKeyService.list(owner.getUsername()))
+                .thenReturn(List.of(new ApiKeyView(apiKey)));
+        Mockito.when(apiKeyService.create(owner.getUsername(), apiKeyData))
+                .thenReturn(new ApiKeyView(apiKey, ownerApiKey));
+
+    }
+
+    @Test
+    void listTest() throws Exception {
+
+        mockMvc.perform(
+                get("/api/users/keys")
+        ).andExpect(
+                status().isForbidden()
+        );
+
+        mockMvc.perform(
+                get("/api/users/keys")
+                        .header("Authorization", "Bearer_" + ownerToken)
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                jsonPath("$[0].id").value(apiKey.getId())
+        ).andExpect(
+                jsonPath("$[0].name").value(apiKey.getName())
+        ).andExpect(
+                jsonPath("$[0].key").doesNotExist()
+        );
+
+    }
+
+    @Test
+    void createTest() throws Exception {
+
+        mockMvc.perform(
+                post("/api/users/keys")
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(apiKeyData))
+        ).andExpect(
+                status().isCreated()
+        ).andExpect(
+                jsonPath("$.key").value(ownerApiKey)
+        ).andExpect(
+                jsonPath("$.scope").value(apiKeyData.getScope().name())
+        );
+
+    }
+
+    @Test
+    void apiKeyCanNotManageApiKeysTest() throws Exception {
+
+        mockMvc.perform(
+                post("/api/users/keys")
+                        .header(ApiKeyService.HEADER, ownerApiKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(apiKeyData))
+        ).andExpect(
+                status().isForbidden()
+        );
+
+    }
+
+    @Test
+    void revokeTest() throws Exception {
+
+        mockMvc.perform(
+                delete("/api/users/keys/{id}", apiKey.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+        ).andExpect(
+                status().isNoContent()
+        ).andExpect(
+                content().string("Api key " + apiKey.getId() + " is revoked!")
+        );
+
+    }
+
+}
@@ -8,34 +8,50 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMultipartHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import web.cloudfilestorage.delta.BlockSignature;
 import web.cloudfilestorage.dto.file.FileData;
+import web.cloudfilestorage.dto.file.FileSignatures;
 import web.cloudfilestorage.exceptions.JwtAuthenticationException;
 import web.cloudfilestorage.model.File;
+import web.cloudfilestorage.model.FileVersion;
 import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.model.Status;
 import web.cloudfilestorage.model.User;
 import web.cloudfilestorage.security.JwtTokenProvider;
+import web.cloudfilestorage.service.ApiKeyService;
 import web.cloudfilestorage.service.FileService;
 import web.cloudfilestorage.service.UserService;
+import web.cloudfilestorage.storage.EncodedResource;
+import web.cloudfilestorage.storage.RangeReader;
 
+import javax.persistence.OptimisticLockException;
 import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static web.cloudfilestorage.utils.TestFIleUtil.getMultipartFile;
 
@@ -52,6 +68,9 @@ public class FileControllerTest {
     @MockBean
     private JwtTokenProvider jwtTokenProvider;
 
+    @MockBean
+    private ApiKeyService apiKeyService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -123,6 +142,7 @@ public class FileControllerTest {
 
         file1 = File.builder()
                 .id(1L)
+                .version(3L)
                 .owner(owner)
                 .file("/owner_file_1.jpg")
                 .description("Owner file 1")
@@ -130,6 +150,7 @@ public class FileControllerTest {
                 .build();
         file2 = File.builder()
                 .id(2L)
+                .version(0L)
                 .owner(owner)
                 .file("/owner_file_2.jpg")
                 .description("Owner file 2")
@@ -141,8 +162,8 @@ public class FileControllerTest {
 
         multipartFile = getMultipartFile("src/test/resources/test_files/test_image1.jpg", "file");
 
-        Mockito.when(fileService.findById(file1.getId())).thenReturn(file1);
-        Mockito.when(fileService.findById(file2.getId())).thenReturn(file2);
+        Mockito.when(fileService.findOwnedFile(file1.getId(), owner.getUsername())).thenReturn(file1);
+        Mockito.when(fileService.findOwnedFile(file2.getId(), owner.getUsername())).thenReturn(file2);
 
         Mockito.when(fileService.create(
                         ownerAuthentication.getName(),
@@ -161,15 +182,27 @@ public class FileControllerTest {
                 file1, multipartFile, fileMetadata
         )).thenReturn(File.builder()
                 .id(file1.getId())
+                .version(file1.getVersion() + 1)
                 .file("updated_file1.some_type")
                 .description(fileMetadata.getDescription())
                 .owner(owner)
                 .uploadDate(file1.getUploadDate())
                 .build());
+        Mockito.when(fileService.update(
+                file1, null, fileMetadata
+        )).thenReturn(File.builder()
+                .id(file1.getId())
+                .version(file1.getVersion() + 1)
+                .file(file1.getFile())
+                .description(fileMetadata.getDescription())
+                .owner(owner)
+                .uploadDate(file1.getUploadDate())
+                .build());
         Mockito.when(fileService.update(
                 file2, multipartFile, fileMetadata
         )).thenReturn(File.builder()
                 .id(file2.getId())
+                .version(file2.getVersion() + 1)
                 .file("updated_file2.some_type")
                 .description(fileMetadata.getDescription())
                 .owner(owner)
@@ -283,6 +316,8 @@ public class FileControllerTest {
                 builder1.file(multipartFile)
         ).andExpect(
                 status().isOk()
+        ).andExpect(
+                header().string("ETag", "\"4\"")
         ).andExpect(
                 jsonPath("$.id").value(file1.getId())
         ).andExpect(
@@ -321,6 +356,281 @@ public class FileControllerTest {
         );
     }
 
+    @Test
+    void updateMetadataTest() throws Exception {
+
+        mockMvc.perform(
+                patch("/api/files/{id}", file1.getId())
+                        .param("description", fileMetadata.getDescription())
+        ).andExpect(
+                status().isForbidden()
+        );
+
+        mockMvc.perform(
+                patch("/api/files/{id}", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .param("description", fileMetadata.getDescription())
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                jsonPath("$.id").value(file1.getId())
+        ).andExpect(
+                jsonPath("$.file").value(file1.getFile())
+        ).andExpect(
+                jsonPath("$.description").value(fileMetadata.getDescription())
+        );
+
+        FileData unchanged = FileData.builder().description(file1.getDescription()).build();
+        Mockito.when(fileService.update(file1, null, unchanged)).thenReturn(File.builder()
+                .id(file1.getId())
+                .version(file1.getVersion() + 1)
+                .file(file1.getFile())
+                .description(file1.getDescription())
+                .owner(owner)
+                .uploadDate(file1.getUploadDate())
+                .build());
+        mockMvc.perform(
+                patch("/api/files/{id}", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                jsonPath("$.description").value(file1.getDescription())
+        );
+        Mockito.verify(fileService).update(file1, null, unchanged);
+    }
+
+    @Test
+    void conditionalUpdateTest() throws Exception {
+
+        mockMvc.perform(
+                patch("/api/files/{id}", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("If-Match", "\"2\"")
+                        .param("description", fileMetadata.getDescription())
+        ).andExpect(
+                status().isPreconditionFailed()
+        );
+
+        mockMvc.perform(
+                patch("/api/files/{id}", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("If-Match", "W/\"3\"")
+                        .param("description", fileMetadata.getDescription())
+        ).andExpect(
+                status().isPreconditionFailed()
+        );
+
+        mockMvc.perform(
+                patch("/api/files/{id}", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("If-Match", "\"2\", \"3\"")
+                        .param("description", fileMetadata.getDescription())
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                header().string("ETag", "\"4\"")
+        );
+
+        Mockito.when(fileService.update(file2, null, fileMetadata))
+                .thenThrow(new OptimisticLockException("File with id 2 was modified concurrently!"));
+        mockMvc.perform(
+                patch("/api/files/{id}", file2.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("If-Match", "\"0\"")
+                        .param("description", fileMetadata.getDescription())
+        ).andExpect(
+                status().isConflict()
+        );
+    }
+
+    @Test
+    void versionsTest() throws Exception {
+
+        Mockito.when(fileService.versions(file1)).thenReturn(List.of(
+                FileVersion.builder()
+                        .id(1L)
+                        .version(2L)
+                        .path("/owner_file_1_old.jpg")
+                        .description("Owner file 1, version 2")
+                        .createdAt(LocalDateTime.now())
+                        .build()
+        ));
+        Mockito.when(fileService.restore(file1, 2L)).thenReturn(File.builder()
+                .id(file1.getId())
+                .version(file1.getVersion() + 1)
+                .file("/owner_file_1_old.jpg")
+                .description("Owner file 1, version 2")
+                .owner(owner)
+                .uploadDate(file1.getUploadDate())
+                .build());
+
+        mockMvc.perform(
+                get("/api/files/{id}/versions", file1.getId())
+        ).andExpect(
+                status().isForbidden()
+        );
+
+        mockMvc.perform(
+                get("/api/files/{id}/versions", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                jsonPath("$[0].version").value(2L)
+        ).andExpect(
+                jsonPath("$[0].description").value("Owner file 1, version 2")
+        ).andExpect(
+                jsonPath("$[0].path").doesNotExist()
+        );
+
+        mockMvc.perform(
+                post("/api/files/{id}/versions/{version}/restore", file1.getId(), 2L)
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("If-Match", "\"3\"")
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                header().string("ETag", "\"4\"")
+        ).andExpect(
+                jsonPath("$.file").value("/owner_file_1_old.jpg")
+        );
+    }
+
+    @Test
+    void deltaTest() throws Exception {
+
+        Mockito.when(fileService.signatures(file1, null)).thenReturn(new FileSignatures(
+                file1.getVersion(), 1024L, 512, List.of(new BlockSignature(0, 42, "strong"))
+        ));
+        Mockito.when(fileService.applyDelta(Mockito.eq(file1), Mockito.any())).thenReturn(File.builder()
+                .id(file1.getId())
+                .version(file1.getVersion() + 1)
+                .file(file1.getFile())
+                .description(file1.getDescription())
+                .owner(owner)
+                .uploadDate(file1.getUploadDate())
+                .build());
+
+        mockMvc.perform(
+                get("/api/files/{id}/signatures", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                header().string("ETag", "\"3\"")
+        ).andExpect(
+                jsonPath("$.blockSize").value(512)
+        ).andExpect(
+                jsonPath("$.blocks[0].weak").value(42)
+        );
+
+        mockMvc.perform(
+                put("/api/files/{id}/delta", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{1, 2, 3})
+        ).andExpect(
+                status().isPreconditionFailed()
+        );
+
+        mockMvc.perform(
+                put("/api/files/{id}/delta", file1.getId())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("If-Match", "\"3\"")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{1, 2, 3})
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                header().string("ETag", "\"4\"")
+        );
+    }
+
+    @Test
+    void resourceTest() throws Exception {
+
+        byte[] content = "content ".repeat(100).getBytes();
+        byte[] encoded = {0x1f, (byte) 0x8b, 8, 4};
+        Mockito.when(fileService.download(file1.getId(), owner.getUsername()))
+                .thenReturn(new EncodedResource(bytes(content), bytes(encoded), "gzip", "file.txt"));
+
+        download(
+                get("/api/files/resource").param("id", file1.getId().toString())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("Accept-Encoding", "br, gzip;q=0.8")
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                header().string("Content-Encoding", "gzip")
+        ).andExpect(
+                header().string("Vary", "Accept-Encoding")
+        ).andExpect(
+                content().bytes(encoded)
+        );
+
+        download(
+                get("/api/files/resource").param("id", file1.getId().toString())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("Accept-Encoding", "gzip;q=0")
+        ).andExpect(
+                header().doesNotExist("Content-Encoding")
+        ).andExpect(
+                header().string("Vary", "Accept-Encoding")
+        ).andExpect(
+                header().longValue("Content-Length", content.length)
+        ).andExpect(
+                content().contentType(MediaType.TEXT_PLAIN)
+        ).andExpect(
+                content().bytes(content)
+        );
+
+        download(
+                get("/api/files/resource").param("id", file1.getId().toString())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("Accept-Encoding", "gzip")
+                        .header("Range", "bytes=8-14")
+        ).andExpect(
+                status().isPartialContent()
+        ).andExpect(
+                header().doesNotExist("Content-Encoding")
+        ).andExpect(
+                header().string("Content-Range", "bytes 8-14/" + content.length)
+        ).andExpect(
+                content().bytes("content".getBytes())
+        );
+
+        mockMvc.perform(
+                get("/api/files/resource").param("id", file1.getId().toString())
+                        .header("Authorization", "Bearer_" + ownerToken)
+                        .header("Range", "bytes=1000-")
+        ).andExpect(
+                status().isRequestedRangeNotSatisfiable()
+        ).andExpect(
+                header().string("Content-Range", "bytes */" + content.length)
+        );
+    }
+
+    /* downloads are written asynchronously */
+    private ResultActions download(RequestBuilder request) throws Exception {
+        MvcResult started = mockMvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+        return mockMvc.perform(asyncDispatch(started));
+    }
+
+    private static RangeReader bytes(byte[] bytes) {
+        return new RangeReader() {
+            @Override
+            public long size() {
+                return bytes.length;
+            }
+
+            @Override
+            public InputStream read(long offset, long length) {
+                return new ByteArrayInputStream(bytes, (int) offset, length < 0 ? bytes.length : (int) length);
+            }
+        };
+    }
+
     @Test
     void deleteTest() throws Exception {
 
@@ -0,0 +1,238 @@
+package web.cloudfilestorage.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import web.cloudfilestorage.security.JwtTokenProvider;
+import web.cloudfilestorage.service.ApiKeyService;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.storage.RemoteStorageBackend;
+import web.cloudfilestorage.storage.ReplicatedStorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(
+        controllers = ReplicaController.class,
+        properties = {"storage.backend=replicated", "storage.replication.token=cluster_token"}
+)
+public class ReplicaControllerTest {
+
+    @MockBean
+    private JwtTokenProvider jwtTokenProvider;
+
+    @MockBean
+    private ApiKeyService apiKeyService;
+
+    @MockBean
+    private ReplicatedStorageBackend replicatedStorageBackend;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @TempDir
+    Path root;
+
+    private final String token = "cluster_token";
+
+    private final String key = "ab/cd/1/file.txt";
+
+    private LocalStorageBackend local;
+
+    @BeforeEach
+    void setUp() throws Exception {
+
+        local = new LocalStorageBackend(root);
+        local.put(key, new ByteArrayInputStream("content".getBytes()));
+        Mockito.when(replicatedStorageBackend.getLocal()).thenReturn(local);
+
+    }
+
+    @Test
+    void putTest() throws Exception {
+
+        mockMvc.perform(
+                put("/internal/blobs")
+                        .param("key", "ab/cd/2/file.txt")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("replica".getBytes())
+        ).andExpect(
+                status().isForbidden()
+        );
+
+        mockMvc.perform(
+                put("/internal/blobs")
+                        .param("key", "ab/cd/2/file.txt")
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("replica".getBytes())
+        ).andExpect(
+                status().isCreated()
+        );
+
+        assertThat(Files.readString(root.resolve("ab/cd/2/file.txt"))).isEqualTo("replica");
+
+    }
+
+    @Test
+    void getAndStatTest() throws Exception {
+
+        mockMvc.perform(
+                get("/internal/blobs")
+                        .param("key", key)
+                        .param("offset", "2")
+                        .param("length", "3")
+                        .header(RemoteStorageBackend.TOKEN_HEADER, "wrong_token")
+        ).andExpect(
+                status().isForbidden()
+        );
+
+        mockMvc.perform(
+                get("/internal/blobs")
+                        .param("key", key)
+                        .param("offset", "2")
+                        .param("length", "3")
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                content().bytes("nte".getBytes())
+        );
+
+        mockMvc.perform(
+                get("/internal/blobs/stat")
+                        .param("key", key)
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                header().string(RemoteStorageBackend.SIZE_HEADER, "7")
+        );
+
+        mockMvc.perform(
+                get("/internal/blobs/stat")
+                        .param("key", "ab/cd/2/file.txt")
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                status().isNotFound()
+        );
+
+        mockMvc.perform(
+                get("/internal/blobs")
+                        .param("key", "ab/cd/2/file.txt")
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                status().isNotFound()
+        );
+
+    }
+
+    @Test
+    void listTest() throws Exception {
+
+        MvcResult result = mockMvc.perform(
+                get("/internal/blobs/list")
+                        .param("prefix", "ab/")
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                request().asyncStarted()
+        ).andReturn();
+
+        mockMvc.perform(
+                asyncDispatch(result)
+        ).andExpect(
+                status().isOk()
+        ).andExpect(
+                content().string(RemoteStorageBackend.format(local.stat(key).orElseThrow()) + "\n")
+        );
+
+    }
+
+    @Test
+    void touchAndDeleteTest() throws Exception {
+
+        mockMvc.perform(
+                post("/internal/blobs/touch")
+                        .param("key", key)
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                status().isOk()
+        );
+
+        mockMvc.perform(
+                delete("/internal/blobs")
+                        .param("key", key)
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                status().isNoContent()
+        );
+
+        assertThat(local.stat(key)).isEmpty();
+
+        mockMvc.perform(
+                post("/internal/blobs/touch")
+                        .param("key", key)
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+        ).andExpect(
+                status().isNotFound()
+        );
+
+    }
+
+    @Test
+    void failedTokenChecksAreThrottled() throws Exception {
+
+        for (int i = 0; i < 10; i++) {
+            mockMvc.perform(
+                    get("/internal/blobs/stat")
+                            .param("key", key)
+                            .header(RemoteStorageBackend.TOKEN_HEADER, "guess_" + i)
+                            .with(from("10.0.0.1"))
+            ).andExpect(
+                    status().isForbidden()
+            );
+        }
+
+        // not even the right token is checked any more
+        mockMvc.perform(
+                get("/internal/blobs/stat")
+                        .param("key", key)
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+                        .with(from("10.0.0.1"))
+        ).andExpect(
+                status().isTooManyRequests()
+        ).andExpect(
+                header().exists("Retry-After")
+        );
+
+        mockMvc.perform(
+                get("/internal/blobs/stat")
+                        .param("key", key)
+                        .header(RemoteStorageBackend.TOKEN_HEADER, token)
+                        .with(from("10.0.0.2"))
+        ).andExpect(
+                status().isOk()
+        );
+
+    }
+
+    private static RequestPostProcessor from(String address) {
+        return request -> {
+            request.setRemoteAddr(address);
+            return request;
+        };
+    }
+}
@@ -20,6 +20,7 @@ import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.model.Status;
 import web.cloudfilestorage.model.User;
 import web.cloudfilestorage.security.JwtTokenProvider;
+import web.cloudfilestorage.service.ApiKeyService;
 import web.cloudfilestorage.service.UserService;
 
 import javax.servlet.http.HttpServletRequest;
@@ -37,6 +38,9 @@ public class UserControllerTest {
     @MockBean
     private JwtTokenProvider jwtTokenProvider;
 
+    @MockBean
+    private ApiKeyService apiKeyService;
+
     @MockBean
     private AuthenticationManager authenticationManager;
 
@@ -0,0 +1,102 @@
+package web.cloudfilestorage.delta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Client side of the delta protocol, used to check that the server rebuilds what a client sends.
+ * */
+public class DeltaEncoder {
+
+    public static byte[] encode(List<BlockSignature> signatures, int blockSize, byte[] content) throws IOException {
+        Map<Integer, List<BlockSignature>> byWeak = new HashMap<>();
+        for (BlockSignature signature : signatures) {
+            byWeak.computeIfAbsent(signature.weak(), k -> new ArrayList<>()).add(signature);
+        }
+        MessageDigest digest = Delta.strongDigest();
+        HexFormat hex = HexFormat.of();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Delta.MAGIC);
+        out.writeInt(blockSize);
+
+        RollingChecksum checksum = new RollingChecksum();
+        int literalStart = 0;
+        int position = 0;
+        int copyStart = -1;
+        int copyCount = 0;
+        boolean windowValid = false;
+
+        while (position + blockSize <= content.length) {
+            if (!windowValid) {
+                checksum.reset(content, position, blockSize);
+                windowValid = true;
+            }
+            BlockSignature match = null;
+            List<BlockSignature> candidates = byWeak.get(checksum.value());
+            if (candidates != null) {
+                digest.update(content, position, blockSize);
+                String strong = hex.formatHex(digest.digest());
+                for (BlockSignature candidate : candidates) {
+                    if (candidate.strong().equals(strong)) {
+                        match = candidate;
+                        break;
+                    }
+                }
+            }
+            if (match != null) {
+                if (literalStart < position) {
+                    copyStart = flushCopy(out, copyStart, copyCount);
+                    copyCount = 0;
+                    writeData(out, content, literalStart, position);
+                }
+                if (copyStart >= 0 && copyStart + copyCount == match.index()) {
+                    copyCount++;
+                } else {
+                    flushCopy(out, copyStart, copyCount);
+                    copyStart = match.index();
+                    copyCount = 1;
+                }
+                position += blockSize;
+                literalStart = position;
+                windowValid = false;
+            } else if (position + blockSize < content.length) {
+                checksum.roll(content[position], content[position + blockSize]);
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (literalStart < content.length) {
+            flushCopy(out, copyStart, copyCount);
+            copyStart = -1;
+            writeData(out, content, literalStart, content.length);
+        }
+        flushCopy(out, copyStart, copyCount);
+        out.writeByte(Delta.END);
+        return bytes.toByteArray();
+    }
+
+    private static int flushCopy(DataOutputStream out, int copyStart, int copyCount) throws IOException {
+        if (copyStart >= 0 && copyCount > 0) {
+            out.writeByte(Delta.COPY);
+            out.writeInt(copyStart);
+            out.writeInt(copyCount);
+        }
+        return -1;
+    }
+
+    private static void writeData(DataOutputStream out, byte[] content, int from, int to) throws IOException {
+        out.writeByte(Delta.DATA);
+        out.writeInt(to - from);
+        out.write(content, from, to - from);
+    }
+}
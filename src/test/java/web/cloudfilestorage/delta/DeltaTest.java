@@ -0,0 +1,135 @@
+package web.cloudfilestorage.delta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.storage.StoredBlob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DeltaTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rollingChecksum() {
+
+        byte[] content = random(4096, 1);
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(content, 0, BLOCK_SIZE);
+
+        for (int offset = 1; offset + BLOCK_SIZE <= content.length; offset++) {
+            checksum.roll(content[offset - 1], content[offset + BLOCK_SIZE - 1]);
+            assertThat(checksum.value()).isEqualTo(RollingChecksum.of(content, offset, BLOCK_SIZE));
+        }
+
+    }
+
+    @Test
+    void blockSize() {
+
+        assertThat(Delta.blockSize(10, null)).isEqualTo(Delta.MIN_BLOCK_SIZE);
+        assertThat(Delta.blockSize(100L << 20, null)).isEqualTo(10240);
+        assertThat(Delta.blockSize(100L << 20, 4096)).isEqualTo(4096);
+        assertThat(Delta.blockSize(100L << 20, Integer.MAX_VALUE)).isEqualTo(Delta.MAX_BLOCK_SIZE);
+
+    }
+
+    @Test
+    void editInsertAndDelete() throws IOException {
+
+        byte[] base = random(256 * BLOCK_SIZE, 2);
+        Path basePath = Files.write(dir.resolve("base"), base);
+        List<BlockSignature> signatures = Delta.signatures(new ByteArrayInputStream(base), BLOCK_SIZE);
+        assertThat(signatures).hasSize(256);
+
+        ByteArrayOutputStream changed = new ByteArrayOutputStream();
+        changed.write(base, 0, 10 * BLOCK_SIZE + 17);
+        changed.write("inserted".getBytes());
+        changed.write(base, 10 * BLOCK_SIZE + 17, 90 * BLOCK_SIZE);
+        changed.write(base, 120 * BLOCK_SIZE + 5, 100 * BLOCK_SIZE);
+        changed.write(random(300, 3));
+        changed.write(base, 221 * BLOCK_SIZE, base.length - 221 * BLOCK_SIZE);
+        byte[] content = changed.toByteArray();
+
+        byte[] delta = DeltaEncoder.encode(signatures, BLOCK_SIZE, content);
+        assertThat(delta.length).isLessThan(content.length / 20);
+
+        ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+        String hash = apply(basePath, new ByteArrayInputStream(delta), rebuilt);
+
+        assertThat(rebuilt.toByteArray()).isEqualTo(content);
+        assertThat(hash).isEqualTo(sha256(content));
+
+    }
+
+    @Test
+    void malformedDelta() throws IOException {
+
+        Path basePath = Files.write(dir.resolve("base"), random(4 * BLOCK_SIZE, 4));
+
+        assertThatThrownBy(() -> apply(
+                basePath, new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}), new ByteArrayOutputStream()
+        )).isInstanceOf(IOException.class);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Delta.MAGIC);
+        out.writeInt(BLOCK_SIZE);
+        out.writeByte(Delta.COPY);
+        out.writeInt(4);
+        out.writeInt(1);
+        out.writeByte(Delta.END);
+        assertThatThrownBy(() -> apply(
+                basePath, new ByteArrayInputStream(bytes.toByteArray()), new ByteArrayOutputStream()
+        )).isInstanceOf(IOException.class);
+
+        byte[] truncated = new byte[bytes.size() - 5];
+        System.arraycopy(bytes.toByteArray(), 0, truncated, 0, truncated.length);
+        assertThatThrownBy(() -> apply(
+                basePath, new ByteArrayInputStream(truncated), new ByteArrayOutputStream()
+        )).isInstanceOf(IOException.class);
+
+    }
+
+    private static String apply(Path base, InputStream delta, OutputStream out) throws IOException {
+        LocalStorageBackend backend = new LocalStorageBackend(base.getParent());
+        String key = base.getFileName().toString();
+        try (DeltaInputStream content = new DeltaInputStream(
+                new StoredBlob(backend, backend.stat(key).orElseThrow()), delta)) {
+            content.transferTo(out);
+            return content.getContentHash();
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
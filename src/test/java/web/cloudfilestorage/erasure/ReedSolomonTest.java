@@ -0,0 +1,84 @@
+package web.cloudfilestorage.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReedSolomonTest {
+
+    private final ReedSolomon code = new ReedSolomon(4, 2);
+
+    @Test
+    void dataShardsAreKept() {
+
+        byte[][] shards = shards(1000, 1);
+        byte[][] original = copy(shards);
+
+        code.encode(shards, 1000);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(shards[i]).isEqualTo(original[i]);
+        }
+        assertThat(shards[4]).isNotEqualTo(new byte[1000]);
+
+    }
+
+    @Test
+    void anyTwoLostShardsAreRestored() {
+
+        byte[][] shards = shards(1000, 2);
+        code.encode(shards, 1000);
+        byte[][] encoded = copy(shards);
+
+        for (int a = 0; a < 6; a++) {
+            for (int b = a + 1; b < 6; b++) {
+                byte[][] damaged = copy(encoded);
+                boolean[] present = new boolean[6];
+                Arrays.fill(present, true);
+                present[a] = false;
+                present[b] = false;
+                Arrays.fill(damaged[a], (byte) 0);
+                Arrays.fill(damaged[b], (byte) 0);
+
+                code.decode(damaged, present, 1000);
+
+                for (int d = 0; d < 4; d++) {
+                    assertThat(damaged[d]).as("shard %d without %d and %d", d, a, b).isEqualTo(encoded[d]);
+                }
+            }
+        }
+
+    }
+
+    @Test
+    void tooManyLostShards() {
+
+        byte[][] shards = shards(100, 3);
+        code.encode(shards, 100);
+
+        assertThatThrownBy(() -> code.decode(shards, new boolean[]{true, false, true, false, false, true}, 100))
+                .isInstanceOf(IllegalArgumentException.class);
+
+    }
+
+    private static byte[][] shards(int length, long seed) {
+        Random random = new Random(seed);
+        byte[][] shards = new byte[6][length];
+        for (int i = 0; i < 4; i++) {
+            random.nextBytes(shards[i]);
+        }
+        return shards;
+    }
+
+    private static byte[][] copy(byte[][] shards) {
+        byte[][] copy = new byte[shards.length][];
+        for (int i = 0; i < shards.length; i++) {
+            copy[i] = shards[i].clone();
+        }
+        return copy;
+    }
+}
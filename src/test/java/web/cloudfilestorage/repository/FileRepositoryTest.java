@@ -0,0 +1,161 @@
+package web.cloudfilestorage.repository;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import web.cloudfilestorage.model.File;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Runs against in-memory H2 and counts the SQL statements issued by file writes.
+ * */
+@DataJpaTest(properties = {
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class FileRepositoryTest {
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Statistics statistics;
+
+    private Long ownerId;
+
+    @BeforeEach
+    void setUp() {
+
+        fileRepository.deleteAll();
+        userRepository.deleteAll();
+
+        ownerId = userRepository.save(
+                User.builder()
+                        .username("owner")
+                        .email("owner@test.com")
+                        .status(Status.ACTIVE)
+                        .roles(List.of())
+                        .build()
+        ).getId();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+    }
+
+    @Test
+    void createDoesNotTouchOwner() {
+
+        File file = transactionTemplate.execute(status -> fileRepository.save(
+                new File("/owner/file.txt", "description", userRepository.getReferenceById(ownerId))
+        ));
+
+        assertThat(file.getId()).isNotNull();
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+        assertThat(statistics.getEntityUpdateCount()).isZero();
+
+    }
+
+    @Test
+    void metadataWritesAreSingleStatements() {
+
+        File file = fileRepository.save(
+                new File("/owner/file.txt", "description", userRepository.getReferenceById(ownerId))
+        );
+
+        statistics.clear();
+        assertThat(fileRepository.updateMetadata(file.getId(), file.getVersion(), file.getFile(), null, "updated"))
+                .isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(fileRepository.updateMetadata(file.getId(), file.getVersion(), file.getFile(), null, "stale"))
+                .isZero();
+
+        statistics.clear();
+        assertThat(fileRepository.updateShareLink(file.getId(), "link")).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        File updated = fileRepository.findFileByIdAndOwner_Username(file.getId(), "owner").orElseThrow();
+        assertThat(updated.getDescription()).isEqualTo("updated");
+        assertThat(updated.getShareLink()).isEqualTo("link");
+        assertThat(updated.getVersion()).isEqualTo(file.getVersion() + 1);
+
+        statistics.clear();
+        assertThat(fileRepository.deleteFileById(file.getId())).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(fileRepository.existsById(file.getId())).isFalse();
+
+    }
+
+    @Test
+    void ownedFileIsUpdatedWithoutLoadingOwner() {
+
+        File file = fileRepository.save(
+                new File("/owner/file.txt", "description", userRepository.getReferenceById(ownerId))
+        );
+
+        statistics.clear();
+        transactionTemplate.executeWithoutResult(status -> {
+            File managed = fileRepository.findFileByIdAndOwner_Username(file.getId(), "owner").orElseThrow();
+            managed.setFile("/owner/renamed.txt");
+        });
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(1);
+        assertThat(statistics.getEntityUpdateCount()).isEqualTo(1);
+
+    }
+
+    @Test
+    void equalityDoesNotLoadOwner() {
+
+        Long id = fileRepository.save(
+                new File("/owner/file.txt", "description", userRepository.getReferenceById(ownerId))
+        ).getId();
+
+        statistics.clear();
+        File file = fileRepository.findById(id).orElseThrow();
+        File same = fileRepository.findById(id).orElseThrow();
+
+        // outside of a session, the lazy owner could not be loaded any more
+        assertThat(file).isEqualTo(same).hasSameHashCodeAs(same);
+        assertThat(file.toString()).doesNotContain("owner=");
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(2);
+
+    }
+
+    @Test
+    void escapedPrefixMatchesLiterally() {
+
+        fileRepository.save(new File("disk_1:1/a/file.txt", "description", userRepository.getReferenceById(ownerId)));
+        fileRepository.save(new File("diskX1:1/b/file.txt", "description", userRepository.getReferenceById(ownerId)));
+
+        assertThat(fileRepository.findPathsStartingWith("disk!_1:", PageRequest.of(0, 10)))
+                .containsExactly("disk_1:1/a/file.txt");
+
+    }
+
+}
@@ -0,0 +1,119 @@
+package web.cloudfilestorage.repository;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import web.cloudfilestorage.config.CacheConfiguration;
+import web.cloudfilestorage.model.Role;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Runs against in-memory H2 with the second-level cache of CacheConfiguration.
+ * */
+@DataJpaTest(properties = {
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import(CacheConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class SecondLevelCacheTest {
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private SessionFactory sessionFactory;
+
+    private Statistics statistics;
+
+    private Long roleId;
+
+    @BeforeEach
+    void setUp() {
+
+        userRepository.deleteAll();
+        roleRepository.deleteAll();
+
+        roleId = roleRepository.save(Role.builder().name("ROLE_USER").build()).getId();
+
+        sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        sessionFactory.getCache().evictAllRegions();
+        statistics = sessionFactory.getStatistics();
+        statistics.clear();
+
+    }
+
+    @Test
+    void cacheableQueryIsServedFromCache() {
+
+        assertThat(roleRepository.findRoleByName("ROLE_USER")).isPresent();
+        assertThat(statistics.getQueryCacheMissCount()).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        statistics.clear();
+        assertThat(roleRepository.findRoleByName("ROLE_USER")).get()
+                .extracting(Role::getId).isEqualTo(roleId);
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+        assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+
+    }
+
+    @Test
+    void updateEvictsCachedEntity() {
+
+        roleRepository.findById(roleId).orElseThrow();
+        assertThat(sessionFactory.getCache().containsEntity(Role.class, roleId)).isTrue();
+
+        transactionTemplate.executeWithoutResult(status ->
+                roleRepository.findById(roleId).orElseThrow().setName("ROLE_MEMBER")
+        );
+
+        statistics.clear();
+        assertThat(roleRepository.findById(roleId).orElseThrow().getName()).isEqualTo("ROLE_MEMBER");
+        assertThat(roleRepository.findRoleByName("ROLE_USER")).isEmpty();
+        assertThat(statistics.getQueryCacheHitCount()).isZero();
+
+    }
+
+    @Test
+    void usersAreNotCached() {
+
+        Long userId = userRepository.save(
+                User.builder()
+                        .username("owner")
+                        .email("owner@test.com")
+                        .status(Status.ACTIVE)
+                        .roles(List.of(roleRepository.getReferenceById(roleId)))
+                        .build()
+        ).getId();
+
+        assertThat(userRepository.findUserByUsername("owner")).isPresent();
+        assertThat(sessionFactory.getCache().containsEntity(User.class, userId)).isFalse();
+        assertThat(sessionFactory.getCache().containsCollection(User.class.getName() + ".roles", userId)).isFalse();
+
+    }
+
+}
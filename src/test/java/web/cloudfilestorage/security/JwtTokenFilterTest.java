@@ -0,0 +1,121 @@
+package web.cloudfilestorage.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import web.cloudfilestorage.model.Role;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.service.ApiKeyService;
+import web.cloudfilestorage.service.UserService;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JwtTokenFilterTest {
+
+    private static final String SECRET = "test-secret-test-secret-test-secret-test-secret";
+
+    private final UserService userService = Mockito.mock(UserService.class);
+
+    private final ApiKeyService apiKeyService = Mockito.mock(ApiKeyService.class);
+
+    private final User user = User.builder()
+            .id(1L)
+            .username("owner")
+            .email("owner@test.com")
+            .status(Status.ACTIVE)
+            .roles(List.of(Role.builder().id(1L).name("ROLE_USER").build()))
+            .build();
+
+    private JwtTokenProvider jwtTokenProvider;
+
+    private JwtTokenFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(userService.loadPrincipal("owner")).thenReturn(user);
+        jwtTokenProvider = provider(SECRET, TimeUnit.HOURS.toMillis(1));
+        filter = new JwtTokenFilter(jwtTokenProvider, apiKeyService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void validTokenAuthenticates() throws ServletException, IOException {
+
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request(jwtTokenProvider.createToken("owner", user.getAuthorities())), new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isNotNull();
+        assertThat(SecurityContextHolder.getContext().getAuthentication().getName()).isEqualTo("owner");
+
+    }
+
+    @Test
+    void anonymousRequestPasses() throws ServletException, IOException {
+
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/files"), new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isNotNull();
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+
+    }
+
+    @Test
+    void rejectedTokensGetUnauthorized() throws ServletException, IOException {
+
+        String token = jwtTokenProvider.createToken("owner", user.getAuthorities());
+        String forged = provider("other-secret-other-secret-other-secret-other", TimeUnit.HOURS.toMillis(1))
+                .createToken("owner", user.getAuthorities());
+        String expired = provider(SECRET, -1000).createToken("owner", user.getAuthorities());
+        // a header which is not an object makes the parser throw ClassCastException
+        String notAnObject = Base64.getUrlEncoder().withoutPadding().encodeToString("[1]".getBytes(StandardCharsets.UTF_8))
+                + token.substring(token.indexOf('.'));
+
+        for (String rejected : List.of(forged, expired, notAnObject, "garbage")) {
+            MockFilterChain chain = new MockFilterChain();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request(rejected), response, chain);
+
+            assertThat(chain.getRequest()).isNull();
+            assertThat(response.getStatus()).isEqualTo(401);
+            assertThat(response.getContentType()).isEqualTo("application/json;charset=UTF-8");
+            assertThat(response.getContentAsString())
+                    .isEqualTo("{\"violations\":[{\"fieldName\":\"Authorization\",\"message\":\"Authorization failure!\"}]}");
+            assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+        }
+        Mockito.verifyNoInteractions(userService);
+
+    }
+
+    private JwtTokenProvider provider(String secret, long validity) {
+        JwtTokenProvider provider = new JwtTokenProvider(userService);
+        ReflectionTestUtils.setField(provider, "secret", secret);
+        ReflectionTestUtils.setField(provider, "validityInMilliseconds", validity);
+        provider.init();
+        return provider;
+    }
+
+    private static MockHttpServletRequest request(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files");
+        request.addHeader("Authorization", "Bearer_" + token);
+        return request;
+    }
+}
@@ -0,0 +1,213 @@
+package web.cloudfilestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import web.cloudfilestorage.dto.apikey.ApiKeyData;
+import web.cloudfilestorage.dto.apikey.ApiKeyView;
+import web.cloudfilestorage.exceptions.JwtAuthenticationException;
+import web.cloudfilestorage.model.ApiKey;
+import web.cloudfilestorage.model.ApiKeyScope;
+import web.cloudfilestorage.model.Role;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.repository.ApiKeyRepository;
+import web.cloudfilestorage.repository.UserRepository;
+import web.cloudfilestorage.security.ApiKeyAuthentication;
+
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ApiKeyServiceTest {
+
+    private final ApiKeyRepository apiKeyRepository = Mockito.mock(ApiKeyRepository.class);
+
+    private final UserRepository userRepository = Mockito.mock(UserRepository.class);
+
+    private ApiKeyService apiKeyService;
+
+    private final AtomicReference<ApiKey> saved = new AtomicReference<>();
+
+    private final User owner = User.builder()
+            .id(1L)
+            .username("owner")
+            .email("owner@test.com")
+            .password("qwerty1234")
+            .status(Status.ACTIVE)
+            .roles(List.of(Role.builder().name("ROLE_USER").build()))
+            .build();
+
+    @BeforeEach
+    void setUp() {
+
+        apiKeyService = new ApiKeyService(apiKeyRepository, userRepository);
+        apiKeyService.setSecret("api_key_test_secret");
+
+        Mockito.when(userRepository.findUserByUsername(owner.getUsername()))
+                .thenReturn(Optional.of(owner));
+        Mockito.when(userRepository.findUserByUsername("NotPresentUser"))
+                .thenReturn(Optional.empty());
+
+        Mockito.when(apiKeyRepository.save(Mockito.any(ApiKey.class)))
+                .then(invocation -> {
+                    ApiKey apiKey = invocation.getArgument(0);
+                    apiKey.setId(1L);
+                    saved.set(apiKey);
+                    return apiKey;
+                });
+        Mockito.when(apiKeyRepository.findApiKeyByHash(Mockito.anyString()))
+                .then(invocation -> Optional.ofNullable(saved.get())
+                        .filter(apiKey -> apiKey.getHash().equals(invocation.getArgument(0))));
+        Mockito.when(apiKeyRepository.findApiKeyByIdAndOwner_Username(1L, owner.getUsername()))
+                .then(invocation -> Optional.ofNullable(saved.get()));
+        Mockito.doAnswer(AdditionalAnswers.answerVoid(apiKey -> saved.set(null)))
+                .when(apiKeyRepository).delete(Mockito.any(ApiKey.class));
+
+    }
+
+    @Test
+    void create() {
+
+        ApiKeyView view = apiKeyService.create(
+                owner.getUsername(),
+                ApiKeyData.builder().name("backup agent").scope(ApiKeyScope.READ).build()
+        );
+
+        assertThat(view.getKey()).startsWith("cfs_");
+        assertThat(view.getName()).isEqualTo("backup agent");
+        assertThat(view.getScope()).isEqualTo(ApiKeyScope.READ);
+        assertThat(saved.get().getHash())
+                .hasSize(64)
+                .doesNotContain(view.getKey());
+
+        assertThatThrownBy(
+                () -> apiKeyService.create(
+                        "NotPresentUser",
+                        ApiKeyData.builder().scope(ApiKeyScope.READ).build()
+                )
+        ).isInstanceOf(EntityNotFoundException.class).hasMessage(
+                "User NotPresentUser is not present in database!"
+        );
+
+    }
+
+    @Test
+    void authenticate() throws JwtAuthenticationException {
+
+        String key = apiKeyService.create(
+                owner.getUsername(),
+                ApiKeyData.builder().scope(ApiKeyScope.READ).build()
+        ).getKey();
+
+        ApiKeyAuthentication authentication = apiKeyService.authenticate(key);
+        assertThat(authentication.getName()).isEqualTo(owner.getUsername());
+        assertThat(authentication.isAuthenticated()).isTrue();
+
+        assertThat(authentication.permits(new MockHttpServletRequest("GET", "/api/files"))).isTrue();
+        assertThat(authentication.permits(new MockHttpServletRequest("POST", "/api/files"))).isFalse();
+        assertThat(authentication.permits(new MockHttpServletRequest("GET", "/api/users"))).isFalse();
+        assertThat(authentication.permits(new MockHttpServletRequest("GET", "/api/files/share"))).isFalse();
+
+        apiKeyService.authenticate(key);
+        Mockito.verify(apiKeyRepository, Mockito.times(1)).findApiKeyByHash(Mockito.anyString());
+
+        assertThatThrownBy(
+                () -> apiKeyService.authenticate("cfs_unknown")
+        ).isInstanceOf(JwtAuthenticationException.class);
+        assertThatThrownBy(
+                () -> apiKeyService.authenticate("not_an_api_key")
+        ).isInstanceOf(JwtAuthenticationException.class);
+
+    }
+
+    @Test
+    void unknownKeysDoNotEvictValidOnes() throws JwtAuthenticationException {
+
+        apiKeyService.setCacheSize(10);
+        String key = apiKeyService.create(
+                owner.getUsername(),
+                ApiKeyData.builder().scope(ApiKeyScope.WRITE).build()
+        ).getKey();
+        ApiKeyAuthentication authentication = apiKeyService.authenticate(key);
+        assertThat(authentication.permits(new MockHttpServletRequest("GET", "/api/files/share"))).isTrue();
+
+        for (int i = 0; i < 100; i++) {
+            String guess = "cfs_guess" + i;
+            assertThatThrownBy(() -> apiKeyService.authenticate(guess)).isInstanceOf(JwtAuthenticationException.class);
+        }
+        // a repeated unknown key is answered from the cache as well
+        assertThatThrownBy(() -> apiKeyService.authenticate("cfs_guess99")).isInstanceOf(JwtAuthenticationException.class);
+        apiKeyService.authenticate(key);
+
+        Mockito.verify(apiKeyRepository, Mockito.times(101)).findApiKeyByHash(Mockito.anyString());
+
+    }
+
+    @Test
+    void expiredKeyIsRejected() {
+
+        String key = apiKeyService.create(
+                owner.getUsername(),
+                ApiKeyData.builder()
+                        .scope(ApiKeyScope.WRITE)
+                        .expiresAt(LocalDateTime.now().minusMinutes(1))
+                        .build()
+        ).getKey();
+
+        assertThatThrownBy(
+                () -> apiKeyService.authenticate(key)
+        ).isInstanceOf(JwtAuthenticationException.class);
+
+    }
+
+    @Test
+    void revoke() throws JwtAuthenticationException {
+
+        String key = apiKeyService.create(
+                owner.getUsername(),
+                ApiKeyData.builder().scope(ApiKeyScope.WRITE).build()
+        ).getKey();
+        apiKeyService.authenticate(key);
+
+        apiKeyService.revoke(1L, owner.getUsername());
+
+        assertThatThrownBy(
+                () -> apiKeyService.authenticate(key)
+        ).isInstanceOf(JwtAuthenticationException.class);
+        assertThatThrownBy(
+                () -> apiKeyService.revoke(1L, owner.getUsername())
+        ).isInstanceOf(EntityNotFoundException.class).hasMessage(
+                "Api key with id 1 is not present in database!"
+        );
+
+    }
+
+    @Test
+    void keysOfBannedOwnerAreInvalidated() throws JwtAuthenticationException {
+
+        String key = apiKeyService.create(
+                owner.getUsername(),
+                ApiKeyData.builder().scope(ApiKeyScope.WRITE).build()
+        ).getKey();
+        apiKeyService.authenticate(key);
+
+        owner.setStatus(Status.DISABLED);
+        apiKeyService.invalidateOwner("other");
+        apiKeyService.authenticate(key);
+        apiKeyService.invalidateOwner(owner.getUsername());
+
+        assertThatThrownBy(
+                () -> apiKeyService.authenticate(key)
+        ).isInstanceOf(JwtAuthenticationException.class);
+        Mockito.verify(apiKeyRepository, Mockito.times(2)).findApiKeyByHash(Mockito.anyString());
+
+    }
+
+}
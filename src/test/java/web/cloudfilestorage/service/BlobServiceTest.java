@@ -0,0 +1,205 @@
+package web.cloudfilestorage.service;
+
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockMultipartFile;
+import web.cloudfilestorage.chunking.Manifest;
+import web.cloudfilestorage.compression.GzipContent;
+import web.cloudfilestorage.exceptions.InvalidFileNameException;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.EncodedResource;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BlobServiceTest {
+
+    private final Path filesRoot = Path.of("src/test/resources/media/blobs");
+
+    private final Path chunksRoot = filesRoot.resolve("chunks");
+
+    private final LocalStorageBackend storageBackend = new LocalStorageBackend(filesRoot);
+
+    private final FileRepository fileRepository = Mockito.mock(FileRepository.class);
+
+    private final FileVersionRepository fileVersionRepository = Mockito.mock(FileVersionRepository.class);
+
+    private BlobService blobService;
+
+    @BeforeEach
+    void setUp() {
+
+        blobService = new BlobService(storageBackend, fileRepository, fileVersionRepository);
+        blobService.setChunkingEnabled(true);
+
+    }
+
+    @Test
+    void writeShared() throws IOException {
+
+        byte[] content = random(1 << 20, 1);
+        byte[] edited = content.clone();
+        edited[500_000] ^= 1;
+
+        String first = blobService.write("1/first/", "file.bin", new ByteArrayInputStream(content));
+        long chunksAfterFirst = countChunks();
+        String second = blobService.write("1/second/", "file.bin", new ByteArrayInputStream(edited));
+
+        assertThat(first).isEqualTo("1/first" + Manifest.DIRECTORY_SUFFIX + "/file.bin");
+        assertThat(countChunks() - chunksAfterFirst).isLessThanOrEqualTo(2);
+        assertThat(blobService.reader(second).size()).isEqualTo(edited.length);
+        try (InputStream in = blobService.open(first)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        try (InputStream in = blobService.resource(second).getInputStream()) {
+            assertThat(in.readAllBytes()).isEqualTo(edited);
+        }
+        assertThat(blobService.resource(second).getFilename()).isEqualTo("file.bin");
+
+    }
+
+    @Test
+    void plainBlobsStayReadable() throws IOException {
+
+        blobService.setChunkingEnabled(false);
+        String plain = blobService.write("1/plain/", "file.txt", new ByteArrayInputStream("plain".getBytes()));
+        blobService.setChunkingEnabled(true);
+
+        assertThat(plain).isEqualTo("1/plain/file.txt");
+        assertThat(Files.exists(filesRoot.resolve(plain))).isTrue();
+        try (InputStream in = blobService.open(plain)) {
+            assertThat(in.readAllBytes()).isEqualTo("plain".getBytes());
+        }
+
+    }
+
+    @Test
+    void compressedBlobs() throws IOException {
+
+        blobService.setChunkingEnabled(false);
+        blobService.setCompressionEnabled(true);
+        byte[] log = "2024-01-01 12:00:00 INFO request served\n".repeat(10_000).getBytes();
+
+        String compressed = blobService.write("1/log/", "app.log",
+                new MockMultipartFile("file", "app.log", "text/plain", log));
+        String random = blobService.write("1/random/", "file.bin",
+                new MockMultipartFile("file", "file.bin", "application/octet-stream", random(100_000, 4)));
+        String image = blobService.write("1/image/", "image.jpg",
+                new MockMultipartFile("file", "image.jpg", "image/jpeg", log));
+
+        assertThat(compressed).isEqualTo("1/log" + GzipContent.DIRECTORY_SUFFIX + "/app.log");
+        assertThat(Files.size(filesRoot.resolve(compressed))).isLessThan(log.length / 10);
+        assertThat(random).isEqualTo("1/random/file.bin");
+        assertThat(image).isEqualTo("1/image/image.jpg");
+
+        assertThat(blobService.reader(compressed).size()).isEqualTo(log.length);
+        try (InputStream in = blobService.open(compressed)) {
+            assertThat(in.readAllBytes()).isEqualTo(log);
+        }
+        try (InputStream in = blobService.reader(compressed).read(100_000, 1000)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(log, 100_000, 101_000));
+        }
+        EncodedResource resource = (EncodedResource) blobService.resource(compressed);
+        try (InputStream in = new GZIPInputStream(resource.getEncoded().getInputStream())) {
+            assertThat(in.readAllBytes()).isEqualTo(log);
+        }
+
+        String copy = blobService.copy(compressed, "1/copy/");
+        assertThat(copy).isEqualTo("1/copy" + GzipContent.DIRECTORY_SUFFIX + "/app.log");
+        assertThat(blobService.reader(copy).size()).isEqualTo(log.length);
+
+    }
+
+    @Test
+    void collect() throws IOException {
+
+        String kept = blobService.write("1/kept/", "file.bin", new ByteArrayInputStream(random(100_000, 2)));
+        String released = blobService.write("1/released/", "file.bin", new ByteArrayInputStream(random(100_000, 3)));
+        int keptChunks = Manifest.read(storageBackend, kept).chunks().size();
+        int releasedChunks = Manifest.read(storageBackend, released).chunks().size();
+        Mockito.when(fileRepository.findAllChunkedPaths()).thenReturn(List.of(kept));
+        Mockito.when(fileVersionRepository.findAllChunkedPaths()).thenReturn(List.of(released));
+
+        blobService.setGracePeriod(0);
+        blobService.collect();
+        assertThat(countChunks()).isEqualTo(keptChunks + releasedChunks);
+
+        blobService.delete(released);
+
+        // unreferenced, but young enough to belong to an upload in progress
+        blobService.setGracePeriod(3600000);
+        blobService.collect();
+        assertThat(countChunks()).isEqualTo(keptChunks + releasedChunks);
+
+        blobService.setGracePeriod(0);
+        blobService.collect();
+        assertThat(countChunks()).isEqualTo(keptChunks);
+        try (InputStream in = blobService.open(kept)) {
+            assertThat(in.readAllBytes()).isEqualTo(random(100_000, 2));
+        }
+
+    }
+
+    @Test
+    void namesCanNotReachOtherKeys() throws IOException {
+
+        byte[] content = random(100_000, 3);
+        String manifest = blobService.write("1/first/", "file.bin", new ByteArrayInputStream(content));
+        String hash = Manifest.read(storageBackend, manifest).chunks().get(0).hash();
+        Path chunk = chunksRoot.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+        byte[] chunkContent = Files.readAllBytes(chunk);
+
+        blobService.setChunkingEnabled(false);
+        String traversal = blobService.write(
+                "1/second/", "../../../chunks/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash,
+                new MockMultipartFile("file", "../../../chunks/ab/" + hash, null, "overwritten".getBytes()),
+                null
+        );
+
+        assertThat(traversal).isEqualTo("1/second/" + hash);
+        assertThat(Files.readAllBytes(chunk)).isEqualTo(chunkContent);
+        try (InputStream in = blobService.open(manifest)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(blobService.write("1/third/", "x" + Manifest.DIRECTORY_SUFFIX + "/file.bin", new ByteArrayInputStream("plain".getBytes())))
+                .isEqualTo("1/third/file.bin");
+        for (String name : List.of("..", ".", "a\\..\\..\\chunks", "dir/", "")) {
+            assertThatThrownBy(() -> blobService.write("1/fourth/", name, new ByteArrayInputStream(content)))
+                    .isInstanceOf(InvalidFileNameException.class);
+        }
+
+    }
+
+    private long countChunks() throws IOException {
+        try (Stream<Path> files = Files.walk(chunksRoot)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileUtils.deleteDirectory(filesRoot.toFile());
+    }
+}
@@ -0,0 +1,67 @@
+package web.cloudfilestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import web.cloudfilestorage.repository.ScheduledLockRepository;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+ * Two ClusterLocks stand for two instances sharing a database, in-memory H2.
+ * */
+@DataJpaTest(properties = {
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@Import(ClusterLock.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ClusterLockTest {
+
+    @Autowired
+    private ScheduledLockRepository scheduledLockRepository;
+
+    @Autowired
+    private ClusterLock clusterLock;
+
+    private ClusterLock other;
+
+    @BeforeEach
+    void setUp() {
+        // deleteAll skips entities which are always new
+        scheduledLockRepository.deleteAllInBatch();
+        other = new ClusterLock(scheduledLockRepository);
+    }
+
+    @Test
+    void oneInstanceHoldsLock() {
+
+        assertThat(clusterLock.tryLock("rebalance", Duration.ofHours(1))).isTrue();
+        assertThat(other.tryLock("rebalance", Duration.ofHours(1))).isFalse();
+        assertThat(other.tryLock("demote", Duration.ofHours(1))).isTrue();
+
+        // the holder may extend its lease, unlocking is only for the holder
+        assertThat(clusterLock.tryLock("rebalance", Duration.ofHours(1))).isTrue();
+        other.unlock("rebalance");
+        assertThat(other.tryLock("rebalance", Duration.ofHours(1))).isFalse();
+
+        clusterLock.unlock("rebalance");
+        assertThat(other.tryLock("rebalance", Duration.ofHours(1))).isTrue();
+
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() {
+
+        assertThat(clusterLock.tryLock("rebalance", Duration.ofMillis(-1))).isTrue();
+        assertThat(other.tryLock("rebalance", Duration.ofHours(1))).isTrue();
+        assertThat(clusterLock.tryLock("rebalance", Duration.ofHours(1))).isFalse();
+
+    }
+}
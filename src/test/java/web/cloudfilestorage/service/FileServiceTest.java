@@ -6,22 +6,40 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.AdditionalAnswers;
 import org.mockito.Mockito;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.web.multipart.MultipartFile;
+import web.cloudfilestorage.delta.DeltaEncoder;
 import web.cloudfilestorage.dto.file.FileData;
+import web.cloudfilestorage.dto.file.FileSignatures;
 import web.cloudfilestorage.model.File;
 import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.model.Status;
 import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.model.FileVersion;
 import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
 import web.cloudfilestorage.repository.UserRepository;
+import web.cloudfilestorage.storage.KeyLayout;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.utils.FileUtil;
 
 import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.*;
 import static web.cloudfilestorage.utils.TestFIleUtil.getMultipartFile;
@@ -34,6 +52,14 @@ public class FileServiceTest {
 
     private final UserRepository userRepository = Mockito.mock(UserRepository.class);
 
+    private final FileVersionRepository fileVersionRepository = Mockito.mock(FileVersionRepository.class);
+
+    private final Path filesRoot = Path.of(testFilesRoot).getParent().resolve("media/files");
+
+    private final BlobService blobService = new BlobService(
+            new LocalStorageBackend(filesRoot), fileRepository, fileVersionRepository
+    );
+
     private FileService fileService;
 
     private MultipartFile multipartFile_1;
@@ -76,19 +102,13 @@ public class FileServiceTest {
 
         fileService = new FileService(
                 userRepository,
-                fileRepository
-        );
-        fileService.setFilesRoot(
-                Path.of(testFilesRoot).getParent()
-                        .resolve("media/files") + "/"
+                fileRepository,
+                new FileVersionService(fileVersionRepository, fileRepository, blobService),
+                blobService,
+                TransactionOperations.withoutTransaction()
         );
-
-        owner_1FilesDirectory = Path.of(testFilesRoot).getParent()
-                .resolve("media/files/")
-                .resolve(Path.of(String.valueOf(owner_1.getId())));
-        owner_2FilesDirectory = Path.of(testFilesRoot).getParent()
-                .resolve("media/files/")
-                .resolve(Path.of(String.valueOf(owner_2.getId())));
+        owner_1FilesDirectory = filesRoot.resolve(String.valueOf(owner_1.getId()));
+        owner_2FilesDirectory = filesRoot.resolve(String.valueOf(owner_2.getId()));
 
 
         multipartFile_1 = getMultipartFile(testFilesRoot + "test_image1.jpg");
@@ -112,9 +132,8 @@ public class FileServiceTest {
 
         file_1 = File.builder()
                 .id(1L)
-                .file(
-                        String.valueOf(owner_1FilesDirectory.resolve(multipartFile_1.getOriginalFilename()))
-                )
+                .version(0L)
+                .file(owner_1.getId() + "/" + multipartFile_1.getOriginalFilename())
                 .description("Test file of owner 1")
                 .owner(owner_1)
                 .uploadDate(LocalDateTime.now())
@@ -122,9 +141,8 @@ public class FileServiceTest {
 
         file_2 = File.builder()
                 .id(2L)
-                .file(
-                        String.valueOf(owner_2FilesDirectory.resolve(multipartFile_2.getOriginalFilename()))
-                )
+                .version(0L)
+                .file(owner_2.getId() + "/" + multipartFile_2.getOriginalFilename())
                 .description("Test file of owner 2")
                 .owner(owner_2)
                 .uploadDate(LocalDateTime.now())
@@ -162,6 +180,26 @@ public class FileServiceTest {
         Mockito.when(userRepository.findUserByUsername("NotPresentUser"))
                 .thenReturn(Optional.empty());
 
+        Mockito.when(userRepository.findIdByUsername(owner_1.getUsername()))
+                .thenReturn(Optional.of(owner_1.getId()));
+        Mockito.when(userRepository.findIdByUsername(owner_2.getUsername()))
+                .thenReturn(Optional.of(owner_2.getId()));
+        Mockito.when(userRepository.findIdByUsername("NotPresentUser"))
+                .thenReturn(Optional.empty());
+        Mockito.when(userRepository.getReferenceById(owner_1.getId()))
+                .thenReturn(owner_1);
+        Mockito.when(userRepository.getReferenceById(owner_2.getId()))
+                .thenReturn(owner_2);
+
+        Mockito.when(fileRepository.findFileByIdAndOwner_Username(file_1.getId(), owner_1.getUsername()))
+                .thenReturn(Optional.of(file_1));
+        Mockito.when(fileRepository.existsById(file_1.getId()))
+                .thenReturn(true);
+
+        Mockito.when(fileRepository.updateMetadata(
+                        Mockito.eq(file_1.getId()), Mockito.eq(0L), Mockito.anyString(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
     }
 
     @Test
@@ -186,6 +224,26 @@ public class FileServiceTest {
 
     }
 
+    @Test
+    void findOwnedFile() {
+
+        assertThat(fileService.findOwnedFile(file_1.getId(), owner_1.getUsername()))
+                .isEqualTo(file_1);
+
+        assertThatThrownBy(
+                () -> fileService.findOwnedFile(file_1.getId(), owner_2.getUsername())
+        ).isInstanceOf(AccessDeniedException.class).hasMessage(
+                "Permission denied!"
+        );
+
+        assertThatThrownBy(
+                () -> fileService.findOwnedFile(3L, owner_1.getUsername())
+        ).isInstanceOf(EntityNotFoundException.class).hasMessage(
+                "File with id 3 is not present in database!"
+        );
+
+    }
+
     @Test
     void create() throws IOException {
 
@@ -199,10 +257,9 @@ public class FileServiceTest {
         );
 
         assertThat(file).isInstanceOf(File.class);
-        assertThat(file.getFile())
-                .isEqualTo(
-                        String.valueOf(owner_2FilesDirectory.resolve(multipartFile_1.getOriginalFilename()))
-                );
+        assertThat(KeyLayout.isSharded(file.getFile())).isTrue();
+        assertThat(BlobService.fileName(file.getFile())).isEqualTo(multipartFile_1.getOriginalFilename());
+        assertThat(Files.exists(blob(file.getFile()))).isTrue();
         assertThat(file.getOwner()).isEqualTo(owner_2);
         assertThat(file.getDescription()).isEqualTo(fileData.getDescription());
 
@@ -228,22 +285,227 @@ public class FileServiceTest {
                 fileData
         );
 
-        assertThat(file_updated.getFile())
-                .isEqualTo(
-                        String.valueOf(
-                                owner_1FilesDirectory
-                                        .resolve(multipartFile_2.getOriginalFilename()))
-                );
-        assertThat(
-                Files.exists(
-                        owner_1FilesDirectory
-                                .resolve(multipartFile_2.getOriginalFilename())
-                )
-        ).isTrue();
+        assertThat(Path.of(file_updated.getFile()).getFileName().toString())
+                .isEqualTo(multipartFile_2.getOriginalFilename());
+        assertThat(KeyLayout.isSharded(file_updated.getFile())).isTrue();
+        assertThat(Files.exists(blob(file_updated.getFile()))).isTrue();
+        assertThat(Files.exists(blob(file_1.getFile()))).isTrue();
         assertThat(file_updated.getId()).isEqualTo(file_1.getId());
+        assertThat(file_updated.getVersion()).isEqualTo(1L);
         assertThat(file_updated.getDescription()).isEqualTo(fileData.getDescription());
+        assertThat(file_updated.getContentHash()).isEqualTo(FileUtil.sha256(multipartFile_2));
         assertThat(file_updated.getOwner()).isEqualTo(file_1.getOwner());
 
+        Mockito.verify(fileVersionRepository).save(Mockito.argThat(
+                version -> version.getVersion() == 0L
+                        && version.getPath().equals(file_1.getFile())
+                        && version.getDescription().equals(file_1.getDescription())
+        ));
+
+    }
+
+    @Test
+    void contentIsWrittenBeforeTransaction() throws IOException {
+
+        List<Long> blobsInTransaction = new ArrayList<>();
+        fileService = new FileService(
+                userRepository,
+                fileRepository,
+                new FileVersionService(fileVersionRepository, fileRepository, blobService),
+                blobService,
+                new TransactionOperations() {
+                    @Override
+                    public <T> T execute(TransactionCallback<T> action) {
+                        try (Stream<Path> files = Files.walk(filesRoot)) {
+                            blobsInTransaction.add(files.filter(Files::isRegularFile).count());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return action.doInTransaction(new SimpleTransactionStatus());
+                    }
+                }
+        );
+
+        fileService.update(file_1, multipartFile_2, FileData.builder().description("File 1 updated").build());
+
+        assertThat(blobsInTransaction).containsExactly(3L);
+
+    }
+
+    @Test
+    void updateSharesUnchangedContent() throws IOException {
+
+        file_1.setContentHash(FileUtil.sha256(multipartFile_1));
+
+        File file_updated = fileService.update(
+                file_1,
+                multipartFile_1,
+                FileData.builder().description("Same content").build()
+        );
+
+        assertThat(file_updated.getFile()).isEqualTo(file_1.getFile());
+        try (Stream<Path> files = Files.list(owner_1FilesDirectory)) {
+            assertThat(files).containsExactly(blob(file_1.getFile()));
+        }
+        Mockito.verify(fileVersionRepository).save(Mockito.argThat(
+                version -> version.getPath().equals(file_1.getFile())
+        ));
+
+    }
+
+    @Test
+    void updateSharesRetainedVersionBlob() throws IOException {
+
+        String contentHash = FileUtil.sha256(multipartFile_2);
+        String versionBlob = blobService.write(KeyLayout.directory(), multipartFile_2.getOriginalFilename(), multipartFile_2);
+        Mockito.when(fileVersionRepository.findFirstByFile_IdAndContentHash(file_1.getId(), contentHash))
+                .thenReturn(Optional.of(FileVersion.builder().path(versionBlob).contentHash(contentHash).build()));
+        Mockito.when(fileVersionRepository.lockAllByFileIdAndPath(file_1.getId(), versionBlob))
+                .thenReturn(List.of(FileVersion.builder().path(versionBlob).build()));
+
+        MultipartFile upload = Mockito.spy(multipartFile_2);
+        File file_updated = fileService.update(file_1, upload, FileData.builder().description("Shared").build());
+
+        assertThat(file_updated.getFile()).isEqualTo(versionBlob);
+        assertThat(file_updated.getContentHash()).isEqualTo(contentHash);
+        // hashed while written, the upload is read once
+        Mockito.verify(upload, Mockito.times(1)).getInputStream();
+        try (Stream<Path> files = Files.walk(filesRoot)) {
+            assertThat(files.filter(Files::isRegularFile)).hasSize(3);
+        }
+
+    }
+
+    @Test
+    void updateWritesContentOfReleasedVersionBlob() throws IOException {
+
+        String contentHash = FileUtil.sha256(multipartFile_2);
+        Mockito.when(fileVersionRepository.findFirstByFile_IdAndContentHash(file_1.getId(), contentHash))
+                .thenReturn(Optional.of(FileVersion.builder().path("released/" + multipartFile_2.getOriginalFilename()).build()));
+        // the version was pruned after it was found
+
+        File file_updated = fileService.update(file_1, multipartFile_2, FileData.builder().description("Fresh").build());
+
+        assertThat(KeyLayout.isSharded(file_updated.getFile())).isTrue();
+        assertThat(Files.exists(blob(file_updated.getFile()))).isTrue();
+        Mockito.verify(fileRepository).updateMetadata(
+                file_1.getId(), 0L, file_updated.getFile(), contentHash, "Fresh"
+        );
+
+    }
+
+    @Test
+    void restore() {
+
+        Mockito.when(fileVersionRepository.lockByFileIdAndVersion(file_1.getId(), 5L))
+                .thenReturn(Optional.empty());
+        Mockito.when(fileVersionRepository.lockByFileIdAndVersion(file_1.getId(), 0L))
+                .thenReturn(Optional.of(
+                        FileVersion.builder()
+                                .version(0L)
+                                .path("/old/path.jpg")
+                                .contentHash("hash")
+                                .description("Old description")
+                                .build()
+                ));
+
+        File restored = fileService.restore(file_1, 0L);
+        assertThat(restored.getFile()).isEqualTo("/old/path.jpg");
+        assertThat(restored.getDescription()).isEqualTo("Old description");
+        assertThat(restored.getVersion()).isEqualTo(1L);
+        Mockito.verify(fileRepository).updateMetadata(
+                file_1.getId(), 0L, "/old/path.jpg", "hash", "Old description"
+        );
+
+        assertThatThrownBy(
+                () -> fileService.restore(file_1, 5L)
+        ).isInstanceOf(EntityNotFoundException.class).hasMessage(
+                "Version 5 of file with id 1 is not present in database!"
+        );
+
+    }
+
+    @Test
+    void applyDelta() throws IOException {
+
+        byte[] current = Files.readAllBytes(blob(file_1.getFile()));
+        byte[] content = Arrays.copyOf(current, current.length + 5);
+        System.arraycopy("delta".getBytes(), 0, content, current.length, 5);
+
+        FileSignatures signatures = fileService.signatures(file_1, null);
+        assertThat(signatures.getLength()).isEqualTo(current.length);
+        byte[] delta = DeltaEncoder.encode(signatures.getBlocks(), signatures.getBlockSize(), content);
+
+        File file_updated = fileService.applyDelta(file_1, new ByteArrayInputStream(delta));
+
+        assertThat(KeyLayout.isSharded(file_updated.getFile())).isTrue();
+        assertThat(Files.readAllBytes(blob(file_updated.getFile()))).isEqualTo(content);
+        assertThat(file_updated.getVersion()).isEqualTo(1L);
+        assertThat(Files.readAllBytes(blob(file_1.getFile()))).isEqualTo(current);
+
+        assertThatThrownBy(
+                () -> fileService.applyDelta(file_1, new ByteArrayInputStream(new byte[]{1, 2, 3}))
+        ).isInstanceOf(IOException.class);
+        try (Stream<Path> files = Files.walk(filesRoot)) {
+            assertThat(files.filter(Files::isRegularFile)).hasSize(3);
+        }
+
+    }
+
+    @Test
+    void updateChunked() throws IOException {
+
+        blobService.setChunkingEnabled(true);
+
+        File file_updated = fileService.update(
+                file_1,
+                multipartFile_2,
+                FileData.builder().description("File 1 chunked").build()
+        );
+
+        Path manifest = Path.of(file_updated.getFile());
+        assertThat(manifest.getParent().getFileName().toString()).endsWith(".chunks");
+        assertThat(manifest.getFileName().toString()).isEqualTo(multipartFile_2.getOriginalFilename());
+        try (InputStream content = blobService.resource(file_updated.getFile()).getInputStream()) {
+            assertThat(content.readAllBytes()).isEqualTo(multipartFile_2.getBytes());
+        }
+
+        byte[] appended = Arrays.copyOf(multipartFile_2.getBytes(), multipartFile_2.getBytes().length + 5);
+        FileSignatures signatures = fileService.signatures(file_updated, null);
+        byte[] delta = DeltaEncoder.encode(signatures.getBlocks(), signatures.getBlockSize(), appended);
+        Mockito.when(fileRepository.updateMetadata(
+                        Mockito.eq(file_1.getId()), Mockito.eq(1L), Mockito.anyString(), Mockito.any(), Mockito.any()))
+                .thenReturn(1);
+
+        File file_patched = fileService.applyDelta(file_updated, new ByteArrayInputStream(delta));
+        try (InputStream content = blobService.open(file_patched.getFile())) {
+            assertThat(content.readAllBytes()).isEqualTo(appended);
+        }
+
+    }
+
+    @Test
+    void concurrentUpdate() throws IOException {
+
+        FileData fileData = FileData.builder().description("File 2 updated").build();
+        Mockito.when(fileRepository.updateMetadata(
+                        Mockito.eq(file_2.getId()), Mockito.eq(0L), Mockito.anyString(), Mockito.any(), Mockito.any()))
+                .thenReturn(0);
+
+        assertThatThrownBy(
+                () -> fileService.update(file_2, multipartFile_1, fileData)
+        ).isInstanceOf(OptimisticLockException.class).hasMessage(
+                "File with id 2 was modified concurrently!"
+        );
+
+        try (Stream<Path> files = Files.walk(filesRoot)) {
+            assertThat(files.filter(Files::isRegularFile)).containsExactlyInAnyOrder(
+                    owner_1FilesDirectory.resolve(multipartFile_1.getOriginalFilename()),
+                    owner_2FilesDirectory.resolve(multipartFile_2.getOriginalFilename())
+            );
+        }
+        assertThat(file_2.getVersion()).isEqualTo(0L);
+
     }
 
     @Test
@@ -259,6 +521,10 @@ public class FileServiceTest {
 
     }
 
+    private Path blob(String key) {
+        return filesRoot.resolve(key);
+    }
+
     @AfterEach
     void tearDown() throws IOException {
 
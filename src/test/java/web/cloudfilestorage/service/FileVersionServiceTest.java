@@ -0,0 +1,117 @@
+package web.cloudfilestorage.service;
+
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import web.cloudfilestorage.model.FileVersion;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileVersionServiceTest {
+
+    private final Path filesRoot = Path.of("src/test/resources/media/versions");
+
+    private final FileVersionRepository fileVersionRepository = Mockito.mock(FileVersionRepository.class);
+
+    private final FileRepository fileRepository = Mockito.mock(FileRepository.class);
+
+    private FileVersionService fileVersionService;
+
+    private Path sharedBlob;
+
+    private Path oldBlob;
+
+    private Path expiredBlob;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        fileVersionService = new FileVersionService(
+                fileVersionRepository, fileRepository, new BlobService(new LocalStorageBackend(filesRoot), fileRepository, fileVersionRepository)
+        );
+        fileVersionService.setMaxCount(2);
+        fileVersionService.setMaxAgeDays(30);
+
+        sharedBlob = Files.createDirectories(filesRoot.resolve("shared")).resolve("file.txt");
+        oldBlob = Files.createDirectories(filesRoot.resolve("old")).resolve("file.txt");
+        expiredBlob = Files.createDirectories(filesRoot.resolve("expired")).resolve("file.txt");
+        Files.writeString(sharedBlob, "shared");
+        Files.writeString(oldBlob, "old");
+        Files.writeString(expiredBlob, "expired");
+
+    }
+
+    @Test
+    void prune() throws IOException {
+
+        FileVersion v3 = version(1L, 3L, sharedBlob, 1);
+        FileVersion v2 = version(2L, 2L, sharedBlob, 2);
+        FileVersion v1 = version(3L, 1L, oldBlob, 3);
+        FileVersion expired = version(4L, 1L, expiredBlob, 40);
+
+        Mockito.when(fileVersionRepository.findAllByCreatedAtBefore(Mockito.any(LocalDateTime.class)))
+                .thenReturn(List.of(expired));
+        Mockito.when(fileVersionRepository.findFileIdsWithMoreVersionsThan(2L))
+                .thenReturn(List.of(1L));
+        Mockito.when(fileVersionRepository.findAllByFile_IdOrderByVersionDesc(1L))
+                .thenReturn(List.of(v3, v2, v1));
+        Mockito.when(fileVersionRepository.existsByPath(key(sharedBlob)))
+                .thenReturn(true);
+
+        fileVersionService.prune();
+
+        Mockito.verify(fileVersionRepository).deleteAllInBatch(Mockito.argThat(
+                (Collection<FileVersion> versions) -> versions.size() == 2
+                        && versions.contains(v1)
+                        && versions.contains(expired)
+        ));
+        assertThat(Files.exists(sharedBlob)).isTrue();
+        assertThat(Files.exists(oldBlob)).isFalse();
+        assertThat(Files.exists(expiredBlob)).isFalse();
+
+    }
+
+    @Test
+    void blobReferencedByFileIsKept() throws IOException {
+
+        Mockito.when(fileRepository.existsByFile(key(oldBlob))).thenReturn(true);
+
+        fileVersionService.release(key(oldBlob));
+        fileVersionService.release(key(expiredBlob));
+
+        assertThat(Files.exists(oldBlob)).isTrue();
+        assertThat(Files.exists(expiredBlob)).isFalse();
+
+    }
+
+    private FileVersion version(long id, long version, Path blob, int daysAgo) {
+        return FileVersion.builder()
+                .id(id)
+                .version(version)
+                .path(key(blob))
+                .createdAt(LocalDateTime.now().minusDays(daysAgo))
+                .build();
+    }
+
+    private String key(Path blob) {
+        return filesRoot.toAbsolutePath().relativize(blob.toAbsolutePath()).toString();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileUtils.deleteDirectory(filesRoot.toFile());
+    }
+
+}
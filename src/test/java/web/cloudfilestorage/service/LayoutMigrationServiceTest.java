@@ -0,0 +1,97 @@
+package web.cloudfilestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import web.cloudfilestorage.chunking.ChunkStore;
+import web.cloudfilestorage.chunking.Manifest;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.KeyLayout;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LayoutMigrationServiceTest {
+
+    @TempDir
+    Path filesRoot;
+
+    private final FileRepository fileRepository = Mockito.mock(FileRepository.class);
+
+    private final FileVersionRepository fileVersionRepository = Mockito.mock(FileVersionRepository.class);
+
+    private LocalStorageBackend storageBackend;
+
+    private BlobService blobService;
+
+    private LayoutMigrationService layoutMigrationService;
+
+    @BeforeEach
+    void setUp() {
+
+        storageBackend = new LocalStorageBackend(filesRoot);
+        blobService = new BlobService(storageBackend, fileRepository, fileVersionRepository);
+        layoutMigrationService = new LayoutMigrationService(
+                storageBackend,
+                fileRepository,
+                fileVersionRepository,
+                new FileVersionService(fileVersionRepository, fileRepository, blobService),
+                blobService
+        );
+
+    }
+
+    @Test
+    void migrate() throws IOException {
+
+        String sharded = KeyLayout.directory() + "new.txt";
+        storageBackend.put("1/old.txt", new ByteArrayInputStream("old".getBytes()));
+        storageBackend.put("1/abc.chunks/old.bin", new ByteArrayInputStream("cfs-manifest 1\n".getBytes()));
+        storageBackend.put(sharded, new ByteArrayInputStream("new".getBytes()));
+        String absolute = filesRoot.resolve("2/legacy.txt").toAbsolutePath().toString();
+        storageBackend.put(absolute, new ByteArrayInputStream("legacy".getBytes()));
+
+        String hash = "ab".repeat(32);
+        Files.writeString(Files.createDirectories(filesRoot.resolve("chunks/ab")).resolve(hash), "chunk");
+
+        Mockito.when(fileRepository.findAllPaths()).thenReturn(List.of("1/old.txt", sharded, absolute));
+        Mockito.when(fileVersionRepository.findAllPaths()).thenReturn(List.of("1/old.txt", "1/abc.chunks/old.bin"));
+
+        assertThat(layoutMigrationService.migrate()).isEqualTo(3);
+
+        ArgumentCaptor<String> copy = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(fileRepository).updatePath(Mockito.eq("1/old.txt"), copy.capture());
+        assertThat(KeyLayout.isSharded(copy.getValue())).isTrue();
+        assertThat(copy.getValue()).endsWith("/old.txt");
+        try (InputStream in = blobService.open(copy.getValue())) {
+            assertThat(in.readAllBytes()).isEqualTo("old".getBytes());
+        }
+        assertThat(storageBackend.stat("1/old.txt")).isEmpty();
+
+        Mockito.verify(fileVersionRepository).updatePath(Mockito.eq("1/abc.chunks/old.bin"), copy.capture());
+        assertThat(Manifest.isManifest(copy.getValue())).isTrue();
+        assertThat(KeyLayout.isSharded(copy.getValue())).isTrue();
+
+        Mockito.verify(fileRepository, Mockito.never()).updatePath(Mockito.eq(sharded), Mockito.any());
+        assertThat(storageBackend.stat(absolute)).isEmpty();
+
+        try (InputStream in = new ChunkStore(storageBackend).open(hash, 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("chunk".getBytes());
+        }
+        assertThat(filesRoot.resolve("chunks/ab/ab/" + hash)).exists();
+        assertThat(filesRoot.resolve("chunks/ab/" + hash)).doesNotExist();
+
+        assertThat(layoutMigrationService.migrate()).isZero();
+
+    }
+}
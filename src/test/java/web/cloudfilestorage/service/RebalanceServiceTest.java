@@ -0,0 +1,121 @@
+package web.cloudfilestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.MultiVolumeStorageBackend;
+import web.cloudfilestorage.storage.Volume;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class RebalanceServiceTest {
+
+    @TempDir
+    Path root;
+
+    private final FileRepository fileRepository = Mockito.mock(FileRepository.class);
+
+    private final FileVersionRepository fileVersionRepository = Mockito.mock(FileVersionRepository.class);
+
+    private final ClusterLock clusterLock = Mockito.mock(ClusterLock.class);
+
+    private MultiVolumeStorageBackend storageBackend;
+
+    private RebalanceService rebalanceService;
+
+    @BeforeEach
+    void setUp() {
+
+        storageBackend = new MultiVolumeStorageBackend(List.of(
+                new CountingVolume("disk1", root.resolve("disk1")),
+                new CountingVolume("disk2", root.resolve("disk2"))
+        ));
+        FileVersionService fileVersionService = new FileVersionService(
+                fileVersionRepository,
+                fileRepository,
+                new BlobService(storageBackend, fileRepository, fileVersionRepository)
+        );
+        Mockito.when(clusterLock.tryLock(eq("rebalance"), any())).thenReturn(true);
+        rebalanceService = new RebalanceService(
+                storageBackend, fileRepository, fileVersionRepository, fileVersionService, clusterLock
+        );
+
+    }
+
+    @Test
+    void blobsAreMovedToAddedVolume() throws IOException {
+
+        List<String> keys = List.of("disk1:1/a/file.txt", "disk1:1/b/file.txt", "disk1:1/c/file.txt", "disk1:1/d/file.txt");
+        for (String key : keys) {
+            storageBackend.put(key, new ByteArrayInputStream(key.getBytes()));
+        }
+        Mockito.when(fileRepository.findPathsStartingWith(eq("disk1:"), any())).thenReturn(keys.subList(0, 3));
+        Mockito.when(fileVersionRepository.findPathsStartingWith(eq("disk1:"), any())).thenReturn(keys.subList(2, 4));
+
+        assertThat(rebalanceService.rebalance()).isEqualTo(2);
+
+        // 4 of 10 used against none, moved until both have 2
+        Mockito.verify(fileRepository).updatePath("disk1:1/a/file.txt", "disk2:1/a/file.txt");
+        Mockito.verify(fileVersionRepository).updatePath("disk1:1/b/file.txt", "disk2:1/b/file.txt");
+        try (InputStream in = storageBackend.get("disk2:1/a/file.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("disk1:1/a/file.txt".getBytes());
+        }
+        assertThat(storageBackend.stat("disk1:1/a/file.txt")).isEmpty();
+        assertThat(storageBackend.stat("disk1:1/c/file.txt")).isPresent();
+
+    }
+
+    @Test
+    void referencedSourceIsKept() throws IOException {
+
+        storageBackend.put("disk1:1/a/file.txt", new ByteArrayInputStream(new byte[]{1}));
+        storageBackend.put("disk1:1/b/file.txt", new ByteArrayInputStream(new byte[]{2}));
+        Mockito.when(fileRepository.findPathsStartingWith(eq("disk1:"), any()))
+                .thenReturn(List.of("disk1:1/a/file.txt", "disk1:1/b/file.txt"));
+        // referenced again by a version archived while the blob was copied
+        Mockito.when(fileVersionRepository.existsByPath("disk1:1/a/file.txt")).thenReturn(true);
+
+        rebalanceService.setThreshold(0);
+        rebalanceService.rebalance();
+
+        assertThat(storageBackend.stat("disk1:1/a/file.txt")).isPresent();
+        assertThat(storageBackend.stat("disk2:1/a/file.txt")).isPresent();
+
+    }
+
+    /* ten units of space, one used by every blob */
+    private static class CountingVolume extends Volume {
+
+        CountingVolume(String name, Path root) {
+            super(name, root);
+        }
+
+        @Override
+        public long usableSpace() throws IOException {
+            if (!Files.isDirectory(getRoot())) {
+                return totalSpace();
+            }
+            try (Stream<Path> files = Files.walk(getRoot())) {
+                return totalSpace() - files.filter(Files::isRegularFile).count();
+            }
+        }
+
+        @Override
+        public long totalSpace() {
+            return 10;
+        }
+    }
+}
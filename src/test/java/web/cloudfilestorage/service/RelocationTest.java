@@ -0,0 +1,191 @@
+package web.cloudfilestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import web.cloudfilestorage.dto.file.FileData;
+import web.cloudfilestorage.model.File;
+import web.cloudfilestorage.model.Status;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.repository.UserRepository;
+import web.cloudfilestorage.storage.KeyLayout;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.storage.MultiVolumeStorageBackend;
+import web.cloudfilestorage.storage.StorageBackend;
+import web.cloudfilestorage.storage.Volume;
+import web.cloudfilestorage.utils.FileUtil;
+
+import javax.persistence.OptimisticLockException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+/*
+ * A blob is relocated, as by the layout migration or the rebalancer, between an update
+ * reading the file and writing it back. Runs against in-memory H2.
+ * */
+@DataJpaTest(properties = {
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class RelocationTest {
+
+    private static final byte[] CONTENT = "content".getBytes();
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private FileVersionRepository fileVersionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @TempDir
+    Path root;
+
+    private BlobService blobService;
+
+    private FileVersionService fileVersionService;
+
+    private FileService fileService;
+
+    private Long ownerId;
+
+    @BeforeEach
+    void setUp() {
+
+        fileVersionRepository.deleteAll();
+        fileRepository.deleteAll();
+        userRepository.deleteAll();
+
+        ownerId = userRepository.save(
+                User.builder()
+                        .username("owner")
+                        .email("owner@test.com")
+                        .status(Status.ACTIVE)
+                        .roles(List.of())
+                        .build()
+        ).getId();
+
+        use(new LocalStorageBackend(root));
+
+    }
+
+    private void use(StorageBackend storageBackend) {
+        blobService = new BlobService(storageBackend, fileRepository, fileVersionRepository);
+        fileVersionService = new FileVersionService(fileVersionRepository, fileRepository, blobService);
+        fileService = new FileService(userRepository, fileRepository, fileVersionService, blobService, transactionTemplate);
+    }
+
+    @Test
+    void staleUpdatesFailAfterRelocation() throws IOException {
+
+        // the same content would share the current blob, other content archives it as a version
+        for (byte[] uploaded : List.of(CONTENT, "other content".getBytes())) {
+            String key = blobService.write("1/legacy/", "file.txt", new ByteArrayInputStream(CONTENT));
+            File created = new File(key, "description", userRepository.getReferenceById(ownerId));
+            created.setContentHash(FileUtil.sha256(new MockMultipartFile("file.txt", CONTENT)));
+            Long id = fileRepository.save(created).getId();
+
+            File read = fileRepository.findById(id).orElseThrow();
+            String copy = blobService.copy(key, KeyLayout.directory());
+            fileVersionService.relocate(key, copy);
+
+            assertThatThrownBy(() -> fileService.update(
+                    read,
+                    new MockMultipartFile("file", "file.txt", null, uploaded),
+                    FileData.builder().description("updated").build()
+            )).isInstanceOf(OptimisticLockException.class);
+
+            File current = fileRepository.findById(id).orElseThrow();
+            assertThat(current.getFile()).isEqualTo(copy);
+            try (InputStream in = blobService.open(current.getFile())) {
+                assertThat(in.readAllBytes()).isEqualTo(CONTENT);
+            }
+            assertThat(fileVersionRepository.count()).isZero();
+
+            fileRepository.deleteFileById(id);
+        }
+
+    }
+
+    @Test
+    void staleUpdatesFailAfterRebalancing() throws IOException {
+
+        MultiVolumeStorageBackend storageBackend = new MultiVolumeStorageBackend(List.of(
+                new FixedVolume("disk1", root.resolve("disk1"), 0),
+                new FixedVolume("disk2", root.resolve("disk2"), 10)
+        ));
+        use(storageBackend);
+        ClusterLock clusterLock = Mockito.mock(ClusterLock.class);
+        Mockito.when(clusterLock.tryLock(eq("rebalance"), any())).thenReturn(true);
+        RebalanceService rebalanceService = new RebalanceService(
+                storageBackend, fileRepository, fileVersionRepository, fileVersionService, clusterLock
+        );
+
+        String key = "disk1:1/legacy/file.txt";
+        storageBackend.put(key, new ByteArrayInputStream(CONTENT));
+        File created = new File(key, "description", userRepository.getReferenceById(ownerId));
+        created.setContentHash(FileUtil.sha256(new MockMultipartFile("file.txt", CONTENT)));
+        Long id = fileRepository.save(created).getId();
+
+        File read = fileRepository.findById(id).orElseThrow();
+        assertThat(rebalanceService.rebalance()).isEqualTo(1);
+
+        assertThatThrownBy(() -> fileService.update(
+                read,
+                new MockMultipartFile("file", "file.txt", null, "other content".getBytes()),
+                FileData.builder().description("updated").build()
+        )).isInstanceOf(OptimisticLockException.class);
+
+        File current = fileRepository.findById(id).orElseThrow();
+        assertThat(current.getFile()).isEqualTo("disk2:1/legacy/file.txt");
+        assertThat(storageBackend.stat(key)).isEmpty();
+        try (InputStream in = blobService.open(current.getFile())) {
+            assertThat(in.readAllBytes()).isEqualTo(CONTENT);
+        }
+
+    }
+
+    /* ten units of space of which a fixed share is free */
+    private static class FixedVolume extends Volume {
+
+        private final long usable;
+
+        FixedVolume(String name, Path root, long usable) {
+            super(name, root);
+            this.usable = usable;
+        }
+
+        @Override
+        public long usableSpace() {
+            return usable;
+        }
+
+        @Override
+        public long totalSpace() {
+            return 10;
+        }
+    }
+}
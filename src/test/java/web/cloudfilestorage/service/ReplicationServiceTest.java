@@ -0,0 +1,148 @@
+package web.cloudfilestorage.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import web.cloudfilestorage.repository.FileRepository;
+import web.cloudfilestorage.repository.FileVersionRepository;
+import web.cloudfilestorage.storage.LocalStorageBackend;
+import web.cloudfilestorage.storage.ReplicatedStorageBackend;
+import web.cloudfilestorage.storage.StorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplicationServiceTest {
+
+    @TempDir
+    Path root;
+
+    private final FileRepository fileRepository = Mockito.mock(FileRepository.class);
+
+    private final FileVersionRepository fileVersionRepository = Mockito.mock(FileVersionRepository.class);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Map<String, StorageBackend> nodes = new LinkedHashMap<>();
+
+    private ReplicatedStorageBackend storageBackend;
+
+    private ReplicationService replicationService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+
+        for (String name : List.of("node-0", "node-1", "node-2")) {
+            nodes.put(name, new LocalStorageBackend(root.resolve(name)));
+        }
+        storageBackend = new ReplicatedStorageBackend("node-0", nodes, 2, 1, root.resolve("spool"), executor);
+        replicationService = new ReplicationService(storageBackend, fileRepository, fileVersionRepository);
+        Mockito.when(fileRepository.findFilesIn(Mockito.any())).thenAnswer(call -> List.copyOf(call.getArgument(0)));
+
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void missingCopiesAreRepaired() throws IOException {
+
+        String key = key(replicas -> replicas.contains("node-0"));
+        nodes.get("node-0").put(key, new ByteArrayInputStream("content".getBytes()));
+
+        assertThat(replicationService.repair()).isEqualTo(1);
+
+        String other = storageBackend.replicas(key).stream().filter(name -> !name.equals("node-0")).findFirst().orElseThrow();
+        try (InputStream in = nodes.get(other).get(key, 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("content".getBytes());
+        }
+        assertThat(nodes.get("node-0").stat(key)).isPresent();
+        assertThat(replicationService.repair()).isZero();
+
+    }
+
+    @Test
+    void copiesAreHandedOverToReplicas() throws IOException {
+
+        String key = key(replicas -> !replicas.contains("node-0"));
+        nodes.get("node-0").put(key, new ByteArrayInputStream("content".getBytes()));
+
+        assertThat(replicationService.repair()).isEqualTo(2);
+
+        for (String name : storageBackend.replicas(key)) {
+            assertThat(nodes.get(name).stat(key)).isPresent();
+        }
+        assertThat(nodes.get("node-0").stat(key)).isEmpty();
+
+    }
+
+    @Test
+    void unreferencedBlobsAreNotRepaired() throws IOException {
+
+        String key = key(replicas -> replicas.contains("node-0"));
+        String recent = key.replace("file.txt", "recent.txt");
+        nodes.get("node-0").put(key, new ByteArrayInputStream("deleted".getBytes()));
+        nodes.get("node-0").put(recent, new ByteArrayInputStream("uploading".getBytes()));
+        Files.setLastModifiedTime(
+                root.resolve("node-0").resolve(key),
+                FileTime.from(Instant.now().minus(2, ChronoUnit.HOURS))
+        );
+        Mockito.doReturn(List.of()).when(fileRepository).findFilesIn(Mockito.any());
+
+        assertThat(replicationService.repair()).isZero();
+
+        assertThat(nodes.get("node-0").stat(key)).isEmpty();
+        assertThat(nodes.get("node-0").stat(recent)).isPresent();
+
+    }
+
+    @Test
+    void nodesAreListedInsteadOfStatted() throws IOException {
+
+        for (String name : List.of("node-1", "node-2")) {
+            nodes.put(name, Mockito.spy(nodes.get(name)));
+        }
+        storageBackend = new ReplicatedStorageBackend("node-0", nodes, 2, 1, root.resolve("spool"), executor);
+        replicationService = new ReplicationService(storageBackend, fileRepository, fileVersionRepository);
+        for (int i = 0; i < 20; i++) {
+            nodes.get("node-0").put("ab/cd/" + i + "/file.txt", new ByteArrayInputStream("content".getBytes()));
+        }
+
+        assertThat(replicationService.repair()).isPositive();
+        assertThat(replicationService.repair()).isZero();
+
+        for (String name : List.of("node-1", "node-2")) {
+            Mockito.verify(nodes.get(name), Mockito.never()).stat(Mockito.anyString());
+            Mockito.verify(nodes.get(name), Mockito.times(2)).listStored("");
+        }
+        Mockito.verify(fileRepository, Mockito.times(2)).findFilesIn(Mockito.any());
+
+    }
+
+    private String key(Predicate<List<String>> replicas) {
+        return IntStream.range(0, 100)
+                .mapToObj(i -> "ab/cd/" + i + "/file.txt")
+                .filter(key -> replicas.test(storageBackend.replicas(key)))
+                .findFirst()
+                .orElseThrow();
+    }
+}
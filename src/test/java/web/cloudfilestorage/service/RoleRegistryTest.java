@@ -0,0 +1,66 @@
+package web.cloudfilestorage.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import web.cloudfilestorage.model.Role;
+import web.cloudfilestorage.model.User;
+import web.cloudfilestorage.repository.RoleRepository;
+
+import javax.persistence.EntityNotFoundException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class RoleRegistryTest {
+
+    private final RoleRepository roleRepository = Mockito.mock(RoleRepository.class);
+
+    private RoleRegistry roleRegistry;
+
+    private final Role roleAdmin = Role.builder().id(1L).name("ROLE_ADMIN").build();
+
+    private final Role roleUser = Role.builder().id(2L).name("ROLE_USER").build();
+
+    @BeforeEach
+    void setUp() {
+
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(roleAdmin, roleUser));
+
+        roleRegistry = new RoleRegistry(roleRepository);
+        roleRegistry.refresh();
+
+    }
+
+    @Test
+    void get() {
+
+        assertThat(roleRegistry.get("ROLE_USER").getId()).isEqualTo(roleUser.getId());
+        assertThat(roleRegistry.get("ROLE_ADMIN").getId()).isEqualTo(roleAdmin.getId());
+        Mockito.verify(roleRepository, Mockito.times(1)).findAll();
+
+        assertThatThrownBy(
+                () -> roleRegistry.get("ROLE_UNPRESENT")
+        ).isInstanceOf(EntityNotFoundException.class).hasMessage(
+                "Role with name ROLE_UNPRESENT is not present in database!"
+        );
+
+    }
+
+    @Test
+    void hasRole() {
+
+        User admin = User.builder()
+                .roles(List.of(Role.builder().id(1L).name("ROLE_ADMIN").build()))
+                .build();
+        User user = User.builder()
+                .roles(List.of(Role.builder().id(2L).name("ROLE_USER").build()))
+                .build();
+
+        assertThat(roleRegistry.hasRole(admin, "ROLE_ADMIN")).isTrue();
+        assertThat(roleRegistry.hasRole(user, "ROLE_ADMIN")).isFalse();
+        assertThat(roleRegistry.hasRole(user, "ROLE_UNPRESENT")).isFalse();
+
+    }
+
+}
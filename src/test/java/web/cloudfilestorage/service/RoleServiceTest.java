@@ -18,6 +18,8 @@ public class RoleServiceTest {
 
     private final RoleRepository roleRepository = Mockito.mock(RoleRepository.class);
 
+    private final RoleRegistry roleRegistry = Mockito.mock(RoleRegistry.class);
+
     private RoleService roleService;
 
     private Role roleAdmin;
@@ -29,7 +31,7 @@ public class RoleServiceTest {
     @BeforeEach
     void setUp() {
 
-        roleService = new RoleService(roleRepository);
+        roleService = new RoleService(roleRepository, roleRegistry);
 
         roleAdmin = Role.builder()
                 .id(1L)
@@ -91,6 +93,7 @@ public class RoleServiceTest {
         Role new_role = roleService.create(roleData);
         assertThat(new_role.getName()).isEqualTo(roleData.getName());
         assertThat(new_role.getUsers()).isEmpty();
+        Mockito.verify(roleRegistry).refresh();
 
     }
 
@@ -5,10 +5,13 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockito.AdditionalAnswers;
 import org.mockito.Mockito;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import web.cloudfilestorage.dto.user.UserRegister;
 import web.cloudfilestorage.dto.user.UserUpdate;
+import web.cloudfilestorage.dto.user.UserUpdateByAdmin;
 import web.cloudfilestorage.model.Role;
 import web.cloudfilestorage.model.Status;
 import web.cloudfilestorage.model.User;
@@ -29,17 +32,19 @@ public class UserServiceTest {
 
     private final BCryptPasswordEncoder passwordEncoder = Mockito.mock(BCryptPasswordEncoder.class);
 
+    private final ApiKeyService apiKeyService = Mockito.mock(ApiKeyService.class);
+
     private UserService userService;
 
-    private final Role role_user = Role.builder().name("ROLE_USER").build();
-    private final Role role_admin = Role.builder().name("ROLE_ADMIN").build();
+    private final Role role_user = Role.builder().id(2L).name("ROLE_USER").build();
+    private final Role role_admin = Role.builder().id(1L).name("ROLE_ADMIN").build();
 
     private User user;
 
     @BeforeEach
     void setUp() {
 
-        userService = new UserService(userRepository, roleRepository, passwordEncoder);
+        userService = new UserService(userRepository, new RoleRegistry(roleRepository), passwordEncoder, apiKeyService);
 
         user = User.builder()
                 .id(1L)
@@ -65,6 +70,7 @@ public class UserServiceTest {
 
         Mockito.when(roleRepository.findRoleByName("ROLE_ADMIN")).thenReturn(Optional.ofNullable(role_admin));
         Mockito.when(roleRepository.findRoleByName("ROLE_USER")).thenReturn(Optional.ofNullable(role_user));
+        Mockito.when(roleRepository.findAll()).thenReturn(List.of(role_admin, role_user));
     }
     @Test
     void read() {
@@ -189,4 +195,39 @@ public class UserServiceTest {
         );
 
     }
+
+    @Test
+    void principalIsCachedUntilUserChanges() {
+
+        UserDetails principal = userService.loadPrincipal(user.getUsername());
+        assertThat(userService.loadPrincipal(user.getUsername())).isEqualTo(principal);
+        assertThat(principal.getUsername()).isEqualTo(user.getUsername());
+        assertThat(principal.isEnabled()).isFalse();
+        assertThat(principal.getAuthorities()).extracting(GrantedAuthority::getAuthority).containsExactly("ROLE_USER");
+        // repeated requests do not query the user
+        Mockito.verify(userRepository, Mockito.times(1)).findUserByUsername(user.getUsername());
+
+        userService.update(
+                UserUpdateByAdmin.builder().status(Status.ACTIVE).roles(List.of(role_user, role_admin)).build(),
+                user
+        );
+
+        Mockito.verify(apiKeyService, Mockito.atLeastOnce()).invalidateOwner(user.getUsername());
+        Mockito.clearInvocations(apiKeyService);
+
+        principal = userService.loadPrincipal(user.getUsername());
+        assertThat(principal.isEnabled()).isTrue();
+        assertThat(principal.getAuthorities()).extracting(GrantedAuthority::getAuthority)
+                .containsExactly("ROLE_USER", "ROLE_ADMIN");
+        Mockito.verify(userRepository, Mockito.times(2)).findUserByUsername(user.getUsername());
+
+        userService.delete(user);
+        Mockito.verify(apiKeyService).invalidateOwner(user.getUsername());
+
+        Mockito.when(userRepository.findUserByUsername(user.getUsername())).thenReturn(Optional.empty());
+        assertThatThrownBy(
+                () -> userService.loadPrincipal(user.getUsername())
+        ).isInstanceOf(UsernameNotFoundException.class);
+
+    }
 }
@@ -0,0 +1,178 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import web.cloudfilestorage.encryption.SegmentedGcm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class EncryptingStorageBackendTest extends StorageBackendContractTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path root;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final byte[] oldKey = key(1);
+
+    private final byte[] newKey = key(2);
+
+    private LocalStorageBackend local;
+
+    private EncryptingStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        local = new LocalStorageBackend(root);
+        backend = encrypting(List.of(newKey, oldKey));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void blobsAreEncryptedInSegments() throws IOException {
+
+        byte[] content = "secret ".repeat(1000).getBytes();
+        backend.put("1/abc/file.txt", new ByteArrayInputStream(content));
+
+        byte[] stored = Files.readAllBytes(root.resolve("1/abc/file.txt"));
+        // 7 segments, the last one partial
+        assertThat(stored).hasSize(SegmentedGcm.HEADER_SIZE + content.length + 7 * SegmentedGcm.TAG_SIZE);
+        assertThat(new String(stored)).doesNotContain("secret");
+
+        // ranges within a segment, across segments and ending at the last one
+        for (int[] range : new int[][]{{10, 20}, {1000, 2100}, {6000, 1000}, {3072, 1024}}) {
+            try (InputStream in = backend.get("1/abc/file.txt", range[0], range[1])) {
+                assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, range[0], range[0] + range[1]));
+            }
+        }
+        assertThat(backend.stat("1/abc/file.txt").orElseThrow().size()).isEqualTo(content.length);
+
+    }
+
+    @Test
+    void tamperedBlobsFailToDecrypt() throws IOException {
+
+        byte[] content = random(10 * SEGMENT_SIZE);
+        backend.put("1/flipped.bin", new ByteArrayInputStream(content));
+        backend.put("1/truncated.bin", new ByteArrayInputStream(content));
+
+        Path flipped = root.resolve("1/flipped.bin");
+        try (FileChannel channel = FileChannel.open(flipped, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1}), SegmentedGcm.HEADER_SIZE + 3L * (SEGMENT_SIZE + 16) + 5);
+        }
+        // cut at a segment boundary
+        try (FileChannel channel = FileChannel.open(root.resolve("1/truncated.bin"), StandardOpenOption.WRITE)) {
+            channel.truncate(SegmentedGcm.HEADER_SIZE + 5L * (SEGMENT_SIZE + 16));
+        }
+
+        assertThatThrownBy(() -> readAll("1/flipped.bin")).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> readAll("1/truncated.bin")).isInstanceOf(IOException.class);
+        // untouched segments stay readable
+        try (InputStream in = backend.get("1/flipped.bin", 0, 3 * SEGMENT_SIZE)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOf(content, 3 * SEGMENT_SIZE));
+        }
+
+    }
+
+    @Test
+    void plaintextAndRotatedBlobsStayReadable() throws IOException {
+
+        local.put("1/plain.txt", new ByteArrayInputStream("plain".getBytes()));
+        encrypting(List.of(oldKey)).put("1/old.txt", new ByteArrayInputStream("old".getBytes()));
+
+        try (InputStream in = backend.get("1/plain.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("plain".getBytes());
+        }
+        try (InputStream in = backend.get("1/old.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("old".getBytes());
+        }
+        assertThatThrownBy(() -> encrypting(List.of(key(3))).get("1/old.txt", 0, -1))
+                .isInstanceOf(IOException.class);
+
+    }
+
+    @Test
+    void storedListingDoesNotOpenBlobs() throws IOException {
+
+        local = Mockito.spy(local);
+        backend = encrypting(List.of(newKey));
+        for (int i = 0; i < 10; i++) {
+            backend.put("1/abc/" + i, new ByteArrayInputStream(new byte[2000]));
+        }
+
+        try (Stream<BlobStat> listed = backend.listStored("1/")) {
+            assertThat(listed).hasSize(10)
+                    .allSatisfy(stat -> assertThat(stat.size()).isGreaterThan(2000));
+        }
+        Mockito.verify(local, Mockito.never()).get(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong());
+
+    }
+
+    @Test
+    void compactionReachesPackedSegments() throws IOException {
+
+        PackingStorageBackend packing = new PackingStorageBackend(local, root.resolve("segments"), 1000, 4096);
+        backend = new EncryptingStorageBackend(packing, new SegmentedGcm(List.of(newKey), SEGMENT_SIZE, executor, 4));
+        for (int i = 0; i < 200; i++) {
+            backend.put("notes/" + i, new ByteArrayInputStream(("note " + i).getBytes()));
+        }
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 != 0) {
+                backend.delete("notes/" + i);
+            }
+        }
+
+        assertThat(backend.compact(0.5)).isPositive();
+        try (InputStream in = backend.get("notes/190", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("note 190".getBytes());
+        }
+        packing.close();
+
+    }
+
+    private EncryptingStorageBackend encrypting(List<byte[]> keys) {
+        return new EncryptingStorageBackend(local, new SegmentedGcm(keys, SEGMENT_SIZE, executor, 4));
+    }
+
+    private static byte[] key(long seed) {
+        byte[] key = new byte[32];
+        new Random(seed).nextBytes(key);
+        return key;
+    }
+
+    private byte[] readAll(String key) throws IOException {
+        try (InputStream in = backend.get(key, 0, -1)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ErasureCodedStorageBackendTest extends StorageBackendContractTest {
+
+    @TempDir
+    Path root;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private ErasureCodedStorageBackend backend;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Map<String, StorageBackend> volumes = new LinkedHashMap<>();
+        for (int i = 0; i < 7; i++) {
+            volumes.put("disk" + i, new LocalStorageBackend(root.resolve("disk" + i)));
+        }
+        backend = new ErasureCodedStorageBackend(volumes, 4, 2, 1024, root.resolve("spool"), executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void shardsAreSpreadOverVolumes() throws IOException {
+
+        byte[] content = random(40_000);
+        backend.put("1/abc/file.bin", new ByteArrayInputStream(content));
+
+        List<String> placement = backend.placement("1/abc/file.bin");
+        assertThat(placement).hasSize(6).doesNotHaveDuplicates();
+        long stored = 0;
+        for (String volume : placement) {
+            stored += Files.size(shard(volume, "1/abc/file.bin"));
+        }
+        // 40 000 bytes in 10 stripes of 4 cells, plus 2 parity cells each
+        assertThat(stored).isBetween(60_000L, 62_000L);
+        try (Stream<Path> spooled = Files.list(root.resolve("spool"))) {
+            assertThat(spooled).isEmpty();
+        }
+
+    }
+
+    @Test
+    void degradedReads() throws IOException {
+
+        byte[] content = random(40_000);
+        backend.put("1/abc/file.bin", new ByteArrayInputStream(content));
+        List<String> placement = backend.placement("1/abc/file.bin");
+
+        // a lost data shard and a corrupt cell in another one
+        Files.delete(shard(placement.get(0), "1/abc/file.bin"));
+        try (FileChannel channel = FileChannel.open(shard(placement.get(2), "1/abc/file.bin"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), ErasureCodedStorageBackend.HEADER_SIZE + 5 * (1024 + 4) + 10);
+        }
+
+        try (InputStream in = backend.get("1/abc/file.bin", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        try (InputStream in = backend.get("1/abc/file.bin", 20_000, 5000)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 20_000, 25_000));
+        }
+        assertThat(backend.stat("1/abc/file.bin").orElseThrow().size()).isEqualTo(content.length);
+
+    }
+
+    @Test
+    void tooManyLostShards() throws IOException {
+
+        backend.put("1/abc/file.bin", new ByteArrayInputStream(random(40_000)));
+        List<String> placement = backend.placement("1/abc/file.bin");
+        for (String volume : placement.subList(3, 6)) {
+            Files.delete(shard(volume, "1/abc/file.bin"));
+        }
+
+        assertThatThrownBy(() -> {
+            try (InputStream in = backend.get("1/abc/file.bin", 0, -1)) {
+                in.readAllBytes();
+            }
+        }).isInstanceOf(IOException.class);
+
+    }
+
+    @Test
+    void emptyBlob() throws IOException {
+
+        backend.put("1/empty.txt", new ByteArrayInputStream(new byte[0]));
+
+        try (InputStream in = backend.get("1/empty.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEmpty();
+        }
+        assertThat(backend.stat("1/empty.txt").orElseThrow().size()).isZero();
+
+    }
+
+    @Test
+    void putNeedsOneShardMoreThanData() throws IOException {
+
+        Map<String, FailingVolume> volumes = new LinkedHashMap<>();
+        for (int i = 0; i < 7; i++) {
+            volumes.put("disk" + i, new FailingVolume(root.resolve("failing" + i)));
+        }
+        backend = new ErasureCodedStorageBackend(new LinkedHashMap<>(volumes), 4, 2, 1024, root.resolve("spool"), executor);
+        byte[] content = random(40_000);
+        List<String> placement = backend.placement("1/abc/file.bin");
+
+        volumes.get(placement.get(1)).down = true;
+        backend.put("1/abc/file.bin", new ByteArrayInputStream(content));
+        try (InputStream in = backend.get("1/abc/file.bin", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+
+        // queued until the volume is back
+        assertThat(backend.repairDegraded()).isZero();
+        volumes.get(placement.get(1)).down = false;
+        assertThat(backend.repairDegraded()).isEqualTo(1);
+        assertThat(backend.repairDegraded()).isZero();
+        assertThat(backend.repair("1/abc/file.bin")).isZero();
+
+        volumes.get(placement.get(1)).down = true;
+        volumes.get(placement.get(4)).down = true;
+        assertThatThrownBy(() -> backend.put("1/abc/other.bin", new ByteArrayInputStream(content)))
+                .isInstanceOf(IOException.class);
+        assertThat(backend.stat("1/abc/other.bin")).isEmpty();
+
+    }
+
+    @Test
+    void scrubRewritesLostAndCorruptShards() throws IOException {
+
+        byte[] content = random(40_000);
+        backend.put("1/abc/file.bin", new ByteArrayInputStream(content));
+        backend.put("1/abc/intact.bin", new ByteArrayInputStream(content));
+        List<String> placement = backend.placement("1/abc/file.bin");
+        byte[] lost = Files.readAllBytes(shard(placement.get(0), "1/abc/file.bin"));
+        byte[] corrupt = Files.readAllBytes(shard(placement.get(5), "1/abc/file.bin"));
+
+        Files.delete(shard(placement.get(0), "1/abc/file.bin"));
+        try (FileChannel channel = FileChannel.open(shard(placement.get(5), "1/abc/file.bin"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), ErasureCodedStorageBackend.HEADER_SIZE + 5 * (1024 + 4) + 10);
+        }
+
+        assertThat(backend.scrub()).isEqualTo(2);
+        assertThat(Files.readAllBytes(shard(placement.get(0), "1/abc/file.bin"))).isEqualTo(lost);
+        assertThat(Files.readAllBytes(shard(placement.get(5), "1/abc/file.bin"))).isEqualTo(corrupt);
+        assertThat(backend.scrub()).isZero();
+
+    }
+
+    private Path shard(String volume, String key) {
+        return root.resolve(volume).resolve(key);
+    }
+
+    private static class FailingVolume extends LocalStorageBackend {
+
+        volatile boolean down;
+
+        FailingVolume(Path root) {
+            super(root);
+        }
+
+        @Override
+        public void put(String key, InputStream content) throws IOException {
+            if (down) {
+                throw new IOException("Volume is down");
+            }
+            super.put(key, content);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LocalStorageBackendTest extends StorageBackendContractTest {
+
+    @TempDir
+    Path root;
+
+    private LocalStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        backend = new LocalStorageBackend(root);
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void emptyDirectoriesAreRemoved() throws IOException {
+
+        backend.put("1/abc/file.txt", new ByteArrayInputStream(new byte[]{1}));
+        backend.delete("1/abc/file.txt");
+
+        assertThat(Files.exists(root.resolve("1"))).isFalse();
+        assertThat(Files.exists(root)).isTrue();
+
+    }
+
+    @Test
+    void putAfterKnownDirectoryWasRemoved() throws IOException {
+
+        backend.put("ab/cd/first/file.txt", new ByteArrayInputStream(new byte[]{1}));
+        backend.put("ab/cd/second/file.txt", new ByteArrayInputStream(new byte[]{2}));
+        backend.delete("ab/cd/first/file.txt");
+        backend.delete("ab/cd/second/file.txt");
+        assertThat(Files.exists(root.resolve("ab"))).isFalse();
+
+        backend.put("ab/cd/third/file.txt", new ByteArrayInputStream(new byte[]{3}));
+        assertThat(Files.exists(root.resolve("ab/cd/third/file.txt"))).isTrue();
+
+        // removed by another process behind the backend's back
+        Files.delete(root.resolve("ab/cd/third/file.txt"));
+        Files.delete(root.resolve("ab/cd/third"));
+        Files.delete(root.resolve("ab/cd"));
+        backend.put("ab/cd/fourth/file.txt", new ByteArrayInputStream(new byte[]{4}));
+        assertThat(Files.exists(root.resolve("ab/cd/fourth/file.txt"))).isTrue();
+
+    }
+
+    @Test
+    void keysStayInsideRoot() throws IOException {
+
+        assertThatThrownBy(() -> backend.put("1/../../outside.txt", new ByteArrayInputStream(new byte[]{1})))
+                .isInstanceOf(IOException.class);
+
+        // blobs stored before keys were introduced are referenced by absolute paths under the root
+        Files.writeString(Files.createDirectories(root.resolve("2")).resolve("old.txt"), "old");
+        assertThat(backend.stat(root.resolve("2/old.txt").toAbsolutePath().toString())).isPresent();
+
+    }
+}
@@ -0,0 +1,64 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Runs the contract against a real S3-compatible server, such as the MinIO
+ * of deployment/docker/docker-compose.yaml:
+ *
+ *   S3_TEST_ENDPOINT=http://localhost:9000 S3_TEST_ACCESS_KEY=... S3_TEST_SECRET_KEY=... ./gradlew test
+ * */
+@EnabledIfEnvironmentVariable(named = "S3_TEST_ENDPOINT", matches = ".+")
+public class MinioStorageBackendTest extends StorageBackendContractTest {
+
+    private S3Client s3;
+
+    private String bucket;
+
+    private S3StorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        s3 = S3Client.builder()
+                .endpointOverride(URI.create(System.getenv("S3_TEST_ENDPOINT")))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(
+                        System.getenv("S3_TEST_ACCESS_KEY"), System.getenv("S3_TEST_SECRET_KEY")
+                )))
+                .serviceConfiguration(configuration -> configuration.pathStyleAccessEnabled(true))
+                .build();
+        bucket = "test-" + UUID.randomUUID();
+        s3.createBucket(request -> request.bucket(bucket));
+        backend = new S3StorageBackend(s3, bucket, S3StorageBackend.MIN_PART_SIZE);
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @AfterEach
+    void tearDown() {
+        List<ObjectIdentifier> objects = s3.listObjectsV2Paginator(request -> request.bucket(bucket))
+                .contents()
+                .stream()
+                .map(object -> ObjectIdentifier.builder().key(object.key()).build())
+                .toList();
+        if (!objects.isEmpty()) {
+            s3.deleteObjects(request -> request.bucket(bucket).delete(delete -> delete.objects(objects)));
+        }
+        s3.deleteBucket(request -> request.bucket(bucket));
+        s3.close();
+    }
+}
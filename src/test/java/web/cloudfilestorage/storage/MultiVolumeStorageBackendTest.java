@@ -0,0 +1,190 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultiVolumeStorageBackendTest extends StorageBackendContractTest {
+
+    @TempDir
+    Path root;
+
+    private MultiVolumeStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        backend = new MultiVolumeStorageBackend(List.of(
+                new FixedVolume("disk1", root.resolve("disk1"), 100, 1000),
+                new FixedVolume("disk2", root.resolve("disk2"), 2000, 3000)
+        ));
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void placementFollowsFreeSpace() throws IOException {
+
+        Map<String, Integer> placed = new HashMap<>();
+        for (int i = 0; i < 4000; i++) {
+            String key = backend.place("1/" + i + "/file.txt");
+            assertThat(key).endsWith(":1/" + i + "/file.txt");
+            assertThat(backend.place("1/" + i + "/file.txt")).isEqualTo(key);
+            placed.merge(key.substring(0, key.indexOf(':')), 1, Integer::sum);
+        }
+
+        // disk2 has twenty times the free space of disk1
+        assertThat(placed.get("disk2")).isBetween(3700, 3900);
+
+        String key = backend.place("1/abc/file.txt");
+        backend.put(key, new ByteArrayInputStream("content".getBytes()));
+        String volume = key.substring(0, key.indexOf(':'));
+        assertThat(Files.readString(root.resolve(volume).resolve("1/abc/file.txt"))).isEqualTo("content");
+        assertThat(backend.stat(key).orElseThrow().key()).isEqualTo(key);
+
+    }
+
+    @Test
+    void placementSkipsVolumesBelowReserve() throws IOException {
+
+        FixedVolume disk1 = new FixedVolume("disk1", root.resolve("disk1"), 1000, 1000);
+        FixedVolume disk2 = new FixedVolume("disk2", root.resolve("disk2"), 1000, 1000);
+        backend = new MultiVolumeStorageBackend(List.of(disk1, disk2), 100);
+
+        disk2.usable = 100;
+        for (int i = 0; i < 1000; i++) {
+            assertThat(backend.place("1/" + i)).isEqualTo("disk1:1/" + i);
+        }
+
+        // with every volume down to the reserve, the one with the most space left
+        disk1.usable = 50;
+        for (int i = 0; i < 1000; i++) {
+            assertThat(backend.place("1/" + i)).isEqualTo("disk2:1/" + i);
+        }
+
+    }
+
+    @Test
+    void placementAvoidsVolumesBeingWritten() throws Exception {
+
+        backend = new MultiVolumeStorageBackend(List.of(
+                new FixedVolume("disk1", root.resolve("disk1"), 1000, 1000),
+                new FixedVolume("disk2", root.resolve("disk2"), 1000, 1000)
+        ));
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        InputStream content = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    written.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+        };
+        Thread writer = new Thread(() -> {
+            try {
+                backend.put("disk1:1/slow", content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.start();
+        reading.await();
+
+        Map<String, Integer> placed = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = backend.place("1/" + i);
+            placed.merge(key.substring(0, key.indexOf(':')), 1, Integer::sum);
+        }
+        written.countDown();
+        writer.join();
+
+        // disk1 has a write in flight, so it weighs half of disk2
+        assertThat(placed.get("disk1")).isBetween(900, 1100);
+        assertThat(backend.stat("disk1:1/slow")).isPresent();
+
+    }
+
+    @Test
+    void keysWithoutVolumeAreRehomed() throws IOException {
+
+        // blob stored before volumes were configured, and a chunk whose home changed
+        Files.writeString(Files.createDirectories(root.resolve("disk1/1")).resolve("old.txt"), "old");
+        Files.writeString(Files.createDirectories(root.resolve("disk2/chunks/ab")).resolve("ab01"), "chunk");
+        Files.writeString(Files.createDirectories(root.resolve("disk1/chunks/cd")).resolve("cd02"), "chunk");
+
+        try (InputStream in = backend.get("1/old.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("old".getBytes());
+        }
+        assertThat(backend.stat(root.resolve("disk1/1/old.txt").toString())).isPresent();
+
+        backend.rehome("chunks/");
+
+        for (String chunk : List.of("chunks/ab/ab01", "chunks/cd/cd02")) {
+            assertThat(backend.stat(chunk)).isPresent();
+            long copies = List.of("disk1", "disk2").stream()
+                    .filter(volume -> Files.exists(root.resolve(volume).resolve(chunk)))
+                    .count();
+            assertThat(copies).isEqualTo(1);
+        }
+        assertThat(backend.rehome("chunks/")).isZero();
+
+    }
+
+    @Test
+    void copyToVolume() throws IOException {
+
+        backend.put("disk1:1/abc/file.txt", new ByteArrayInputStream("content".getBytes()));
+        String copy = backend.copy("disk1:1/abc/file.txt", backend.getVolumes().get(1));
+
+        assertThat(copy).isEqualTo("disk2:1/abc/file.txt");
+        try (InputStream in = backend.get(copy, 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("content".getBytes());
+        }
+        assertThat(backend.stat("disk1:1/abc/file.txt")).isPresent();
+
+    }
+
+    public static class FixedVolume extends Volume {
+
+        private long usable;
+
+        private final long total;
+
+        public FixedVolume(String name, Path root, long usable, long total) {
+            super(name, root);
+            this.usable = usable;
+            this.total = total;
+        }
+
+        @Override
+        public long usableSpace() {
+            return usable;
+        }
+
+        @Override
+        public long totalSpace() {
+            return total;
+        }
+    }
+}
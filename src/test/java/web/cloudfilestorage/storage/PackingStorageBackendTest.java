@@ -0,0 +1,197 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PackingStorageBackendTest extends StorageBackendContractTest {
+
+    @TempDir
+    Path root;
+
+    private PackingStorageBackend backend;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        backend = open();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        backend.close();
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void smallBlobsArePacked() throws IOException {
+
+        for (int i = 0; i < 100; i++) {
+            backend.put("ab/cd/" + i + "/note.txt", new ByteArrayInputStream(("note " + i).getBytes()));
+        }
+        backend.put("ab/cd/large/file.bin", new ByteArrayInputStream(random(5000)));
+
+        try (Stream<Path> files = Files.walk(root.resolve("files"))) {
+            assertThat(files.filter(Files::isRegularFile))
+                    .containsExactly(root.resolve("files/ab/cd/large/file.bin"));
+        }
+        try (InputStream in = backend.get("ab/cd/42/note.txt", 5, 2)) {
+            assertThat(in.readAllBytes()).isEqualTo("42".getBytes());
+        }
+        try (Stream<BlobStat> blobs = backend.list("ab/cd/")) {
+            assertThat(blobs).hasSize(101);
+        }
+
+    }
+
+    @Test
+    void indexIsRebuiltOnStartup() throws IOException {
+
+        for (int i = 0; i < 100; i++) {
+            backend.put("notes/" + i, new ByteArrayInputStream(("note " + i).getBytes()));
+        }
+        backend.delete("notes/1");
+        backend.put("notes/2", new ByteArrayInputStream("replaced".getBytes()));
+        backend.put("notes/3", new ByteArrayInputStream(random(5000)));
+
+        backend.close();
+        // a record cut short by a crash
+        try (Stream<Path> segments = Files.list(root.resolve("segments"))) {
+            Path last = segments.filter(path -> path.toString().endsWith(".seg")).sorted().reduce((a, b) -> b).orElseThrow();
+            Files.write(last, new byte[]{0, 0, 0, 10, 'n', 'o'}, StandardOpenOption.APPEND);
+        }
+        backend = open();
+
+        assertThat(backend.stat("notes/1")).isEmpty();
+        try (InputStream in = backend.get("notes/2", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("replaced".getBytes());
+        }
+        try (InputStream in = backend.get("notes/3", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(random(5000));
+        }
+        try (InputStream in = backend.get("notes/99", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("note 99".getBytes());
+        }
+        backend.put("notes/100", new ByteArrayInputStream("after restart".getBytes()));
+        try (InputStream in = backend.get("notes/100", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("after restart".getBytes());
+        }
+
+    }
+
+    @Test
+    void compaction() throws IOException {
+
+        for (int i = 0; i < 1000; i++) {
+            backend.put("notes/" + i, new ByteArrayInputStream(("note " + i).getBytes()));
+        }
+        long before = segments();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0) {
+                backend.delete("notes/" + i);
+            }
+        }
+
+        assertThat(backend.compact(0.5)).isPositive();
+        assertThat(segments()).isLessThan(before / 2);
+
+        backend.close();
+        backend = open();
+        try (Stream<BlobStat> notes = backend.list("notes/")) {
+            assertThat(notes).hasSize(100);
+        }
+        try (InputStream in = backend.get("notes/990", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("note 990".getBytes());
+        }
+
+    }
+
+    @Test
+    void interruptedReaderDoesNotCloseSegmentForOthers() throws IOException {
+
+        backend.put("notes/1", new ByteArrayInputStream("note 1".getBytes()));
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> backend.get("notes/1", 0, -1)).isInstanceOf(ClosedByInterruptException.class);
+        } finally {
+            Thread.interrupted();
+        }
+
+        try (InputStream in = backend.get("notes/1", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("note 1".getBytes());
+        }
+        backend.put("notes/2", new ByteArrayInputStream("note 2".getBytes()));
+        try (InputStream in = backend.get("notes/2", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("note 2".getBytes());
+        }
+
+    }
+
+    @Test
+    void durablePutsShareSyncs() throws Exception {
+
+        backend.close();
+        backend = new PackingStorageBackend(
+                new LocalStorageBackend(root.resolve("files"), true), root.resolve("segments"), 1000, 4096, true
+        );
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> puts = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String key = "notes/" + i;
+                byte[] content = ("note " + i).getBytes();
+                puts.add(executor.submit(() -> {
+                    backend.put(key, new ByteArrayInputStream(content));
+                    return null;
+                }));
+            }
+            for (Future<?> put : puts) {
+                put.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < 200; i++) {
+            try (InputStream in = backend.get("notes/" + i, 0, -1)) {
+                assertThat(in.readAllBytes()).isEqualTo(("note " + i).getBytes());
+            }
+        }
+
+    }
+
+    private PackingStorageBackend open() throws IOException {
+        return new PackingStorageBackend(
+                new LocalStorageBackend(root.resolve("files")), root.resolve("segments"), 1000, 4096
+        );
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> segments = Files.list(root.resolve("segments"))) {
+            return segments.filter(path -> path.toString().endsWith(".seg")).count();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReplicatedStorageBackendTest extends StorageBackendContractTest {
+
+    @TempDir
+    Path root;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Map<String, StorageBackend> nodes = new LinkedHashMap<>();
+
+    private ReplicatedStorageBackend backend;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        for (String name : List.of("node-0", "node-1", "node-2", "node-3")) {
+            nodes.put(name, new LocalStorageBackend(root.resolve(name)));
+        }
+        // every write completes before the put returns
+        backend = new ReplicatedStorageBackend("node-0", nodes, 3, 3, root.resolve("spool"), executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void blobsAreWrittenToReplicas() throws IOException {
+
+        backend.put("1/abc/file.txt", new ByteArrayInputStream("content".getBytes()));
+
+        List<String> replicas = backend.replicas("1/abc/file.txt");
+        assertThat(replicas).hasSize(3).doesNotHaveDuplicates();
+        for (String name : nodes.keySet()) {
+            assertThat(nodes.get(name).stat("1/abc/file.txt").isPresent()).isEqualTo(replicas.contains(name));
+        }
+        try (Stream<Path> spooled = Files.list(root.resolve("spool"))) {
+            assertThat(spooled).isEmpty();
+        }
+
+    }
+
+    @Test
+    void putSucceedsWithQuorum() throws IOException {
+
+        nodes.put("node-1", new FailingBackend(root.resolve("node-1")));
+        backend = new ReplicatedStorageBackend("node-0", nodes, 4, 3, root.resolve("spool"), executor);
+
+        backend.put("1/abc/file.txt", new ByteArrayInputStream("content".getBytes()));
+
+        try (InputStream in = backend.get("1/abc/file.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("content".getBytes());
+        }
+
+    }
+
+    @Test
+    void putFailsWithoutQuorum() throws IOException {
+
+        nodes.put("node-1", new FailingBackend(root.resolve("node-1")));
+        nodes.put("node-2", new FailingBackend(root.resolve("node-2")));
+        backend = new ReplicatedStorageBackend("node-0", nodes, 4, 3, root.resolve("spool"), executor);
+
+        assertThatThrownBy(() -> backend.put("1/abc/file.txt", new ByteArrayInputStream("content".getBytes())))
+                .isInstanceOf(IOException.class);
+
+        assertThat(nodes.get("node-0").stat("1/abc/file.txt")).isEmpty();
+        assertThat(nodes.get("node-3").stat("1/abc/file.txt")).isEmpty();
+        // failed nodes are not asked again for a while
+        assertThat(backend.node("node-1")).isEmpty();
+        assertThat(backend.node("node-3")).isPresent();
+
+    }
+
+    @Test
+    void readsFallBackToOtherReplicas() throws IOException {
+
+        backend.put("1/abc/file.txt", new ByteArrayInputStream("content".getBytes()));
+        for (String name : backend.replicas("1/abc/file.txt").subList(0, 2)) {
+            nodes.get(name).delete("1/abc/file.txt");
+        }
+
+        try (InputStream in = backend.get("1/abc/file.txt", 2, 3)) {
+            assertThat(in.readAllBytes()).isEqualTo("nte".getBytes());
+        }
+        assertThat(backend.stat("1/abc/file.txt")).isPresent();
+
+    }
+
+    @Test
+    void listIsUnionOfNodes() throws IOException {
+
+        nodes.get("node-0").put("1/a.txt", new ByteArrayInputStream(new byte[]{1}));
+        nodes.get("node-1").put("1/a.txt", new ByteArrayInputStream(new byte[]{1}));
+        nodes.get("node-3").put("1/b.txt", new ByteArrayInputStream(new byte[]{2}));
+
+        try (Stream<BlobStat> blobs = backend.list("1/")) {
+            assertThat(blobs.map(BlobStat::key).sorted().toList()).containsExactly("1/a.txt", "1/b.txt");
+        }
+
+    }
+
+    @Test
+    void replicaSetIsSharedByNodes() throws IOException {
+
+        ReplicatedStorageBackend other = new ReplicatedStorageBackend(
+                "node-2", nodes, 3, 2, root.resolve("other"), executor
+        );
+        for (int i = 0; i < 100; i++) {
+            assertThat(other.replicas(i + "/file.txt")).isEqualTo(backend.replicas(i + "/file.txt"));
+        }
+
+    }
+
+    private static class FailingBackend extends LocalStorageBackend {
+
+        FailingBackend(Path root) {
+            super(root);
+        }
+
+        @Override
+        public void put(String key, InputStream content) throws IOException {
+            throw new IOException("Node is down");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class S3StorageBackendTest {
+
+    private static final int PART_SIZE = S3StorageBackend.MIN_PART_SIZE;
+
+    private final S3Client s3 = Mockito.mock(S3Client.class);
+
+    private final S3StorageBackend backend = new S3StorageBackend(s3, "bucket", PART_SIZE);
+
+    @Test
+    void smallContentIsPutAtOnce() throws IOException {
+
+        backend.put("1/file.txt", new ByteArrayInputStream("content".getBytes()));
+
+        Mockito.verify(s3).putObject(Mockito.<Consumer<PutObjectRequest.Builder>>any(), Mockito.any(RequestBody.class));
+        Mockito.verify(s3, Mockito.never()).createMultipartUpload(
+                Mockito.<Consumer<CreateMultipartUploadRequest.Builder>>any()
+        );
+
+    }
+
+    @Test
+    void largeContentIsUploadedInParts() throws IOException {
+
+        Mockito.when(s3.createMultipartUpload(Mockito.<Consumer<CreateMultipartUploadRequest.Builder>>any()))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        Mockito.when(s3.uploadPart(Mockito.<Consumer<UploadPartRequest.Builder>>any(), Mockito.any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+        backend.put("1/file.bin", new ByteArrayInputStream(new byte[PART_SIZE * 2 + 10]));
+
+        ArgumentCaptor<RequestBody> parts = ArgumentCaptor.forClass(RequestBody.class);
+        Mockito.verify(s3, Mockito.times(3)).uploadPart(
+                Mockito.<Consumer<UploadPartRequest.Builder>>any(), parts.capture()
+        );
+        try (InputStream last = parts.getAllValues().get(2).contentStreamProvider().newStream()) {
+            assertThat(last.readAllBytes()).hasSize(10);
+        }
+        Mockito.verify(s3).completeMultipartUpload(Mockito.<Consumer<CompleteMultipartUploadRequest.Builder>>any());
+
+    }
+
+    @Test
+    void failedUploadIsAborted() {
+
+        Mockito.when(s3.createMultipartUpload(Mockito.<Consumer<CreateMultipartUploadRequest.Builder>>any()))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        Mockito.when(s3.uploadPart(Mockito.<Consumer<UploadPartRequest.Builder>>any(), Mockito.any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+        InputStream failing = new SequenceInputStream(
+                new ByteArrayInputStream(new byte[PART_SIZE]),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("Client went away");
+                    }
+                }
+        );
+
+        assertThatThrownBy(() -> backend.put("1/file.bin", failing)).isInstanceOf(IOException.class);
+        Mockito.verify(s3).abortMultipartUpload(Mockito.<Consumer<AbortMultipartUploadRequest.Builder>>any());
+        Mockito.verify(s3, Mockito.never()).completeMultipartUpload(
+                Mockito.<Consumer<CompleteMultipartUploadRequest.Builder>>any()
+        );
+
+    }
+
+    @Test
+    void missingObject() throws IOException {
+
+        Mockito.when(s3.headObject(Mockito.<Consumer<HeadObjectRequest.Builder>>any()))
+                .thenThrow(S3Exception.builder().statusCode(404).build());
+
+        assertThat(backend.stat("1/missing.txt")).isEmpty();
+
+    }
+}
@@ -0,0 +1,116 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/*
+ * Behaviour every storage backend has to provide.
+ * */
+public abstract class StorageBackendContractTest {
+
+    protected abstract StorageBackend backend();
+
+    @Test
+    void putGetAndStat() throws IOException {
+
+        byte[] content = random(100_000);
+        backend().put("1/abc/file.bin", new ByteArrayInputStream(content));
+
+        try (InputStream in = backend().get("1/abc/file.bin", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        try (InputStream in = backend().get("1/abc/file.bin", 1000, 500)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 1000, 1500));
+        }
+        try (InputStream in = backend().get("1/abc/file.bin", 99_000, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 99_000, 100_000));
+        }
+
+        BlobStat stat = backend().stat("1/abc/file.bin").orElseThrow();
+        assertThat(stat.key()).isEqualTo("1/abc/file.bin");
+        assertThat(stat.size()).isEqualTo(content.length);
+        assertThat(backend().stat("1/abc/missing.bin")).isEmpty();
+        assertThatThrownBy(() -> backend().get("1/abc/missing.bin", 0, -1))
+                .isInstanceOf(FileNotFoundException.class);
+
+    }
+
+    @Test
+    void putReplaces() throws IOException {
+
+        backend().put("1/file.txt", new ByteArrayInputStream("first".getBytes()));
+        backend().put("1/file.txt", new ByteArrayInputStream("second".getBytes()));
+
+        try (InputStream in = backend().get("1/file.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("second".getBytes());
+        }
+
+    }
+
+    @Test
+    void failedPutLeavesNothing() {
+
+        InputStream failing = new InputStream() {
+            private int read;
+
+            @Override
+            public int read() throws IOException {
+                if (read++ > 1000) {
+                    throw new IOException("Client went away");
+                }
+                return 1;
+            }
+        };
+
+        assertThatThrownBy(() -> backend().put("1/failed.bin", failing)).isInstanceOf(IOException.class);
+        try (Stream<BlobStat> blobs = backend().list("1/")) {
+            assertThat(blobs).isEmpty();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+    }
+
+    @Test
+    void listDeleteAndTouch() throws IOException {
+
+        backend().put("chunks/ab/ab01", new ByteArrayInputStream(new byte[]{1}));
+        backend().put("chunks/cd/cd02", new ByteArrayInputStream(new byte[]{2}));
+        backend().put("1/file.txt", new ByteArrayInputStream(new byte[]{3}));
+
+        try (Stream<BlobStat> chunks = backend().list("chunks/")) {
+            assertThat(chunks.map(BlobStat::key).sorted().toList())
+                    .isEqualTo(List.of("chunks/ab/ab01", "chunks/cd/cd02"));
+        }
+
+        Instant before = backend().stat("chunks/ab/ab01").orElseThrow().lastModified();
+        assertThat(backend().touch("chunks/ab/ab01")).isTrue();
+        assertThat(backend().stat("chunks/ab/ab01").orElseThrow().lastModified()).isAfterOrEqualTo(before);
+        assertThat(backend().touch("chunks/ab/missing")).isFalse();
+
+        backend().delete("chunks/ab/ab01");
+        backend().delete("chunks/ab/missing");
+        try (Stream<BlobStat> chunks = backend().list("chunks/")) {
+            assertThat(chunks.map(BlobStat::key).toList()).containsExactly("chunks/cd/cd02");
+        }
+
+    }
+
+    protected static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,130 @@
+package web.cloudfilestorage.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredStorageBackendTest extends StorageBackendContractTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    Path root;
+
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+
+    private LocalStorageBackend hot;
+
+    private LocalStorageBackend cold;
+
+    private TieredStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        hot = new LocalStorageBackend(root.resolve("ssd"));
+        cold = new LocalStorageBackend(root.resolve("hdd"));
+        // promotions run within the read
+        backend = new TieredStorageBackend(hot, cold, new AccessSketch(1024, clock.get()), Runnable::run, clock::get);
+    }
+
+    @Override
+    protected StorageBackend backend() {
+        return backend;
+    }
+
+    @Test
+    void idleBlobsAreDemoted() throws IOException {
+
+        backend.put("1/read.txt", new ByteArrayInputStream("read".getBytes()));
+        backend.put("1/idle.txt", new ByteArrayInputStream("idle".getBytes()));
+
+        assertThat(backend.demote(DAY)).isZero();
+
+        clock.addAndGet(2 * DAY);
+        backend.get("1/read.txt", 0, -1).close();
+
+        assertThat(backend.demote(DAY)).isEqualTo(1);
+        assertThat(hot.stat("1/read.txt")).isPresent();
+        assertThat(hot.stat("1/idle.txt")).isEmpty();
+        assertThat(cold.stat("1/idle.txt")).isPresent();
+        assertThat(backend.stat("1/idle.txt")).isPresent();
+
+    }
+
+    @Test
+    void coldBlobsArePromotedOnRead() throws IOException {
+
+        cold.put("1/archive.txt", new ByteArrayInputStream("archive".getBytes()));
+
+        try (InputStream in = backend.get("1/archive.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("archive".getBytes());
+        }
+
+        assertThat(hot.stat("1/archive.txt")).isPresent();
+        assertThat(cold.stat("1/archive.txt")).isEmpty();
+
+    }
+
+    @Test
+    void putDuringDemotionIsKept() throws Exception {
+
+        backend.put("1/file.txt", new ByteArrayInputStream("old".getBytes()));
+
+        Thread[] put = new Thread[1];
+        LocalStorageBackend slowHot = new LocalStorageBackend(root.resolve("ssd")) {
+            @Override
+            public void delete(String key) throws IOException {
+                // the blob is replaced after the demotion copied it
+                put[0] = new Thread(() -> {
+                    try {
+                        backend.put("1/file.txt", new ByteArrayInputStream("new".getBytes()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                put[0].start();
+                try {
+                    put[0].join(200);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                super.delete(key);
+            }
+        };
+        backend = new TieredStorageBackend(slowHot, cold, new AccessSketch(1024, clock.get()), Runnable::run, clock::get);
+        clock.addAndGet(2 * DAY);
+
+        assertThat(backend.demote(DAY)).isEqualTo(1);
+        put[0].join();
+
+        try (InputStream in = backend.get("1/file.txt", 0, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo("new".getBytes());
+        }
+
+    }
+
+    @Test
+    void sketchIsSaved() throws IOException {
+
+        AccessSketch sketch = new AccessSketch(1024, clock.get());
+        sketch.record("1/read.txt", clock.get() + DAY);
+        sketch.save(root.resolve("access.sketch"));
+
+        AccessSketch loaded = AccessSketch.load(root.resolve("access.sketch"), 1024, clock.get() + 2 * DAY);
+
+        assertThat(loaded.lastAccess("1/read.txt")).isBetween(clock.get() + DAY - 60_000, clock.get() + DAY);
+        assertThat(loaded.lastAccess("1/other.txt")).isLessThanOrEqualTo(clock.get());
+
+    }
+}
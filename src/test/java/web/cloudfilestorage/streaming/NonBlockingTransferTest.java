@@ -0,0 +1,200 @@
+package web.cloudfilestorage.streaming;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import web.cloudfilestorage.storage.RangeReader;
+import web.cloudfilestorage.storage.RangeResource;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NonBlockingTransferTest {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final AsyncContext context = Mockito.mock(AsyncContext.class);
+
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    private final SlowOutput out = new SlowOutput();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    NonBlockingTransferTest() {
+        Mockito.doAnswer(invocation -> {
+            completed.countDown();
+            return null;
+        }).when(context).complete();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void writesRangeWhenClientIsReady() throws InterruptedException, IOException {
+
+        byte[] content = new byte[10 * BUFFER_SIZE + 100];
+        new Random(1).nextBytes(content);
+
+        transfer(content, -1, 500, 9000).start();
+        drain();
+
+        assertThat(out.written.toByteArray()).isEqualTo(Arrays.copyOfRange(content, 500, 9500));
+        // a buffer at a time, each after the client took the previous one
+        assertThat(out.writes).isEqualTo(9);
+        assertThat(closed).isTrue();
+        Mockito.verify(context).complete();
+
+    }
+
+    @Test
+    void failedReadCompletesResponse() throws InterruptedException, IOException {
+
+        byte[] content = new byte[10 * BUFFER_SIZE];
+
+        transfer(content, 3 * BUFFER_SIZE, 0, -1).start();
+        drain();
+
+        assertThat(out.written.size()).isEqualTo(3 * BUFFER_SIZE);
+        assertThat(closed).isTrue();
+        Mockito.verify(context).complete();
+
+    }
+
+    @Test
+    void abortedDownloadClosesBlob() throws InterruptedException, IOException {
+
+        NonBlockingTransfer transfer = transfer(new byte[10 * BUFFER_SIZE], -1, 0, -1);
+        transfer.start();
+        out.listener.onWritePossible();
+        transfer.onError(new IOException("Broken pipe"));
+
+        assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(closed).isTrue();
+        Mockito.verify(context).complete();
+
+    }
+
+    /**
+     * @param failAt position the blob fails to be read at, or -1
+     */
+    private NonBlockingTransfer transfer(byte[] content, int failAt, long offset, long length) {
+        RangeReader reader = new RangeReader() {
+            @Override
+            public long size() {
+                return content.length;
+            }
+
+            @Override
+            public InputStream read(long offset, long length) {
+                int end = length < 0 ? content.length : (int) (offset + length);
+                return new Blob(new ByteArrayInputStream(content, (int) offset, end - (int) offset), failAt);
+            }
+        };
+        return new NonBlockingTransfer(
+                context, out, new RangeResource(reader, "file.bin"), offset, length, executor, BUFFER_SIZE
+        );
+    }
+
+    /*
+     * Acts as the container: calls onWritePossible() whenever the client took a write.
+     * */
+    private void drain() throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!completed.await(1, TimeUnit.MILLISECONDS) && System.nanoTime() < deadline) {
+            if (out.taken()) {
+                out.listener.onWritePossible();
+            }
+        }
+    }
+
+    private class Blob extends FilterInputStream {
+
+        private final int failAt;
+        private int position;
+
+        Blob(InputStream in, int failAt) {
+            super(in);
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (failAt >= 0 && position >= failAt) {
+                throw new IOException("Disk failed");
+            }
+            int read = super.read(b, off, failAt < 0 ? len : Math.min(len, failAt - position));
+            position += Math.max(read, 0);
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed.set(true);
+            super.close();
+        }
+    }
+
+    /*
+     * Client which is not ready for the next write until it took the previous one.
+     * */
+    private static class SlowOutput extends ServletOutputStream {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private volatile boolean ready = true;
+        private volatile WriteListener listener;
+        private int writes;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            listener = writeListener;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written.write(b, off, len);
+            writes++;
+            ready = false;
+        }
+
+        boolean taken() {
+            if (ready) {
+                return false;
+            }
+            ready = true;
+            return true;
+        }
+    }
+}
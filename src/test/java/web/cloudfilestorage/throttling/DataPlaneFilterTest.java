@@ -0,0 +1,94 @@
+package web.cloudfilestorage.throttling;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataPlaneFilterTest {
+
+    private static final int CONTROL_PLANE_PORT = 8080;
+
+    private static final int DATA_PLANE_PORT = 8081;
+
+    private final DataPlaneFilter filter = new DataPlaneFilter(DATA_PLANE_PORT, 2, 1);
+
+    @Test
+    void transfersAreServedOnBothPlanes() throws ServletException, IOException {
+
+        MockHttpServletRequest upload = request("POST", "/api/files", CONTROL_PLANE_PORT);
+        upload.setContentType("multipart/form-data; boundary=x");
+        assertThat(passes(upload)).isTrue();
+        assertThat(passes(request("GET", "/api/files/resource", CONTROL_PLANE_PORT))).isTrue();
+        assertThat(filter.getAvailableControlPlaneTransfers()).isEqualTo(2);
+
+        assertThat(passes(request("GET", "/api/files/resource", DATA_PLANE_PORT))).isTrue();
+        assertThat(passes(request("PUT", "/api/files/1/delta", DATA_PLANE_PORT))).isTrue();
+
+    }
+
+    @Test
+    void controlPlaneTransfersAreBulkheadedUntilComplete() throws ServletException, IOException {
+
+        // downloads going asynchronous, as they are written by the download executor
+        MockHttpServletRequest[] downloads = new MockHttpServletRequest[2];
+        for (int i = 0; i < downloads.length; i++) {
+            downloads[i] = request("GET", "/api/files/resource", CONTROL_PLANE_PORT);
+            downloads[i].setAsyncSupported(true);
+            filter.doFilter(downloads[i], new MockHttpServletResponse(), (request, response) -> request.startAsync());
+        }
+        assertThat(filter.getAvailableControlPlaneTransfers()).isZero();
+
+        MockHttpServletResponse rejected = filter(request("GET", "/api/files/resource", CONTROL_PLANE_PORT));
+        assertThat(rejected.getStatus()).isEqualTo(503);
+        assertThat(rejected.getHeader("Retry-After")).isEqualTo("1");
+        assertThat(passes(request("GET", "/api/files/resource", DATA_PLANE_PORT))).isTrue();
+        assertThat(passes(request("GET", "/api/files", CONTROL_PLANE_PORT))).isTrue();
+
+        downloads[0].getAsyncContext().complete();
+        assertThat(filter.getAvailableControlPlaneTransfers()).isEqualTo(1);
+        assertThat(passes(request("GET", "/api/files/resource", CONTROL_PLANE_PORT))).isTrue();
+
+    }
+
+    @Test
+    void metadataCallsStayOnControlPlane() throws ServletException, IOException {
+
+        assertThat(passes(request("GET", "/api/files", CONTROL_PLANE_PORT))).isTrue();
+        assertThat(passes(request("POST", "/api/users/login", CONTROL_PLANE_PORT))).isTrue();
+
+        MockHttpServletResponse response = filter(request("GET", "/api/files", DATA_PLANE_PORT));
+        assertThat(response.getStatus()).isEqualTo(DataPlaneFilter.SC_MISDIRECTED_REQUEST);
+
+        assertThat(passes(request("PUT", "/internal/blobs/1/a", CONTROL_PLANE_PORT))).isTrue();
+        assertThat(passes(request("PUT", "/internal/blobs/1/a", DATA_PLANE_PORT))).isTrue();
+
+    }
+
+    private MockHttpServletRequest request(String method, String path, int port) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setServerName("storage.local");
+        request.setServerPort(port);
+        request.setLocalPort(port);
+        return request;
+    }
+
+    private boolean passes(MockHttpServletRequest request) throws ServletException, IOException {
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        return chain.getRequest() != null;
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+        assertThat(chain.getRequest()).isNull();
+        return response;
+    }
+}
@@ -0,0 +1,200 @@
+package web.cloudfilestorage.throttling;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoadSheddingFilterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong(0);
+
+    @Test
+    void limitGrowsUnderLoadAndBacksOffOnLatency() {
+
+        AdaptiveLimit limit = new AdaptiveLimit(10, 2, 12, 2.0, 0.5, 100);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limit.tryAcquire()).isTrue();
+        }
+        assertThat(limit.tryAcquire()).isFalse();
+
+        // fast requests using the whole limit
+        for (int i = 0; i < 4; i++) {
+            limit.release(10 * MILLIS, false);
+            assertThat(limit.tryAcquire()).isTrue();
+        }
+        assertThat(limit.getLimit()).isEqualTo(12);
+
+        // queueing shows as latency, requests sent before backing off do not back off again
+        limit.release(50 * MILLIS, false);
+        assertThat(limit.getLimit()).isEqualTo(6);
+        limit.release(10 * MILLIS, true);
+        assertThat(limit.getLimit()).isEqualTo(6);
+        limit.release(50 * MILLIS, false);
+        assertThat(limit.getLimit()).isEqualTo(6);
+
+        // in flight above the limit until they finish
+        assertThat(limit.getInFlight()).isEqualTo(7);
+        assertThat(limit.tryAcquire()).isFalse();
+
+        for (int i = 0; i < 7; i++) {
+            limit.release(50 * MILLIS, false);
+        }
+        assertThat(limit.tryAcquire()).isTrue();
+        limit.release(10 * MILLIS, true);
+        assertThat(limit.getLimit()).isEqualTo(3);
+        assertThat(limit.tryAcquire()).isTrue();
+        limit.release(50 * MILLIS, false);
+        assertThat(limit.getLimit()).isEqualTo(2);
+
+    }
+
+    @Test
+    void correlatedSpikeBacksOffOnce() {
+
+        AdaptiveLimit limit = new AdaptiveLimit(20, 1, 20, 2.0, 0.5, 100);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 20; i++) {
+                assertThat(limit.tryAcquire()).isTrue();
+            }
+            for (int i = 0; i < 20; i++) {
+                limit.release((round == 0 ? 10 : 50) * MILLIS, false);
+            }
+        }
+        // every request of the spike was slow, the limit was halved once
+        assertThat(limit.getLimit()).isEqualTo(10);
+
+        // slow requests did not raise the usual latency of 10 ms
+        assertThat(limit.tryAcquire()).isTrue();
+        limit.release(25 * MILLIS, false);
+        assertThat(limit.getLimit()).isEqualTo(5);
+
+    }
+
+    @Test
+    void requestsBeyondLimitAreRejected() throws ServletException, IOException {
+
+        AdaptiveLimit metadata = new AdaptiveLimit(1, 1, 1, 2.0, 0.9, 100);
+        AdaptiveLimit downloads = new AdaptiveLimit(1, 1, 1, 2.0, 0.9, 100);
+        LoadSheddingFilter filter = new LoadSheddingFilter(
+                Map.of(EndpointClass.METADATA, metadata, EndpointClass.DOWNLOADS, downloads), 3, clock::get
+        );
+
+        MockHttpServletResponse[] inner = new MockHttpServletResponse[2];
+        FilterChain slow = (request, response) -> {
+            clock.addAndGet(30 * MILLIS);
+            // a second metadata call and a download arrive meanwhile
+            inner[0] = new MockHttpServletResponse();
+            filter.doFilter(new MockHttpServletRequest("GET", "/api/files"), inner[0], (r, s) -> {
+            });
+            inner[1] = new MockHttpServletResponse();
+            filter.doFilter(new MockHttpServletRequest("GET", "/api/files/resource"), inner[1], (r, s) -> {
+            });
+        };
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/files"), response, slow);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(inner[0].getStatus()).isEqualTo(503);
+        assertThat(inner[0].getHeader("Retry-After")).isEqualTo("3");
+        assertThat(inner[1].getStatus()).isEqualTo(200);
+
+        assertThat(metadata.getInFlight()).isZero();
+        assertThat(downloads.getInFlight()).isZero();
+        assertThat(metadata.tryAcquire()).isTrue();
+
+    }
+
+    @Test
+    void receivingUploadsDoesNotCount() throws ServletException, IOException {
+
+        AdaptiveLimit uploads = new AdaptiveLimit(1, 1, 4, 2.0, 0.5, 100);
+        LoadSheddingFilter filter = new LoadSheddingFilter(Map.of(EndpointClass.UPLOADS, uploads), 1, clock::get);
+        FilterChain store = (request, response) -> {
+            request.getInputStream().readAllBytes();
+            clock.addAndGet(10 * MILLIS);
+            response.getOutputStream().write('{');
+        };
+
+        filter.doFilter(upload(1000), new MockHttpServletResponse(), store);
+        // five times the body, but as fast to store
+        filter.doFilter(upload(5000), new MockHttpServletResponse(), store);
+
+        // grown by both, not backed off by the second
+        assertThat(uploads.getLimit()).isEqualTo(3);
+        assertThat(uploads.getInFlight()).isZero();
+
+    }
+
+    @Test
+    void asyncDownloadsCountUntilComplete() throws ServletException, IOException {
+
+        AdaptiveLimit downloads = new AdaptiveLimit(1, 1, 4, 2.0, 0.5, 100);
+        LoadSheddingFilter filter = new LoadSheddingFilter(Map.of(EndpointClass.DOWNLOADS, downloads), 1, clock::get);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/resource");
+        request.setAsyncSupported(true);
+        ServletResponse[] started = new ServletResponse[1];
+        filter.doFilter(request, new MockHttpServletResponse(), (r, response) -> {
+            r.startAsync();
+            started[0] = response;
+        });
+
+        assertThat(downloads.getInFlight()).isEqualTo(1);
+        assertThat(filter(filter, "/api/files/resource").getStatus()).isEqualTo(503);
+
+        // the first buffer is read, then a slow client takes its time
+        clock.addAndGet(5 * MILLIS);
+        started[0].getOutputStream().write(new byte[1024]);
+        clock.addAndGet(1000 * MILLIS);
+        request.getAsyncContext().complete();
+
+        assertThat(downloads.getInFlight()).isZero();
+        assertThat(filter(filter, "/api/files/resource").getStatus()).isEqualTo(200);
+        // the download took 5 ms, not a second, and the limit grew by both requests
+        assertThat(downloads.getLimit()).isEqualTo(3);
+
+    }
+
+    private MockHttpServletRequest upload(long receiving) {
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/files/1/delta") {
+            @Override
+            public ServletInputStream getInputStream() {
+                return new DelegatingServletInputStream(new ByteArrayInputStream(new byte[16]) {
+                    @Override
+                    public synchronized int read() {
+                        // the body arrives slowly
+                        if (pos == 0) {
+                            clock.addAndGet(receiving * MILLIS);
+                        }
+                        return super.read();
+                    }
+                });
+            }
+        };
+        request.setContentType("application/octet-stream");
+        return request;
+    }
+
+    private static MockHttpServletResponse filter(LoadSheddingFilter filter, String path) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", path), response, (request, r) -> {
+        });
+        return response;
+    }
+}
@@ -0,0 +1,130 @@
+package web.cloudfilestorage.throttling;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong(0);
+
+    private RateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = new RateLimiter(
+                Map.of(
+                        EndpointClass.METADATA, RateLimiter.Limit.of(10, 5),
+                        EndpointClass.UPLOADS, RateLimiter.Limit.of(1, 1)
+                ),
+                3,
+                clock::get
+        );
+    }
+
+    @Test
+    void burstAndRefill() {
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner")).isZero();
+        }
+        long wait = rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner");
+        assertThat(wait).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:other")).isZero();
+
+        clock.addAndGet(wait);
+        assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner")).isZero();
+        assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner")).isPositive();
+
+    }
+
+    @Test
+    void limitsAreSeparatedByEndpointClass() {
+
+        assertThat(rateLimiter.tryAcquire(EndpointClass.UPLOADS, "user:owner")).isZero();
+        assertThat(rateLimiter.tryAcquire(EndpointClass.UPLOADS, "user:owner"))
+                .isEqualTo(TimeUnit.SECONDS.toNanos(1));
+        assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner")).isZero();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(rateLimiter.tryAcquire(EndpointClass.DOWNLOADS, "user:owner")).isZero();
+        }
+
+    }
+
+    @Test
+    void numberOfBucketsIsBounded() {
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.tryAcquire(EndpointClass.METADATA, "ip:10.0.0." + i);
+            assertThat(rateLimiter.size()).isLessThanOrEqualTo(3);
+        }
+
+    }
+
+    @Test
+    void newSubjectsDoNotResetLiveBuckets() {
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner")).isZero();
+        }
+        assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner")).isPositive();
+
+        // subjects beyond maxKeys share a bucket instead of evicting the exhausted one
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.tryAcquire(EndpointClass.METADATA, "ip:10.0.0." + i);
+        }
+        assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "user:owner")).isPositive();
+        assertThat(rateLimiter.tryAcquire(EndpointClass.METADATA, "ip:10.0.1.1")).isPositive();
+
+    }
+
+    @Test
+    void clientAddressFromTrustedProxies() {
+
+        RateLimitFilter filter = new RateLimitFilter(rateLimiter, "X-Forwarded-For", Pattern.compile("10\\..*"));
+
+        MockHttpServletRequest proxied = new MockHttpServletRequest("GET", "/api/files/resource");
+        proxied.setRemoteAddr("10.0.0.1");
+        proxied.addHeader("X-Forwarded-For", "1.1.1.1, 203.0.113.7, 10.0.0.2");
+        assertThat(filter.clientAddress(proxied)).isEqualTo("203.0.113.7");
+
+        MockHttpServletRequest direct = new MockHttpServletRequest("GET", "/api/files/resource");
+        direct.setRemoteAddr("198.51.100.3");
+        direct.addHeader("X-Forwarded-For", "1.1.1.1");
+        assertThat(filter.clientAddress(direct)).isEqualTo("198.51.100.3");
+
+    }
+
+    @Test
+    void endpointClassification() {
+
+        MockHttpServletRequest download = new MockHttpServletRequest("GET", "/api/files/resource");
+        assertThat(EndpointClass.of(download)).isEqualTo(EndpointClass.DOWNLOADS);
+
+        MockHttpServletRequest upload = new MockHttpServletRequest("PUT", "/api/files/1");
+        upload.setContentType("multipart/form-data; boundary=xyz");
+        assertThat(EndpointClass.of(upload)).isEqualTo(EndpointClass.UPLOADS);
+
+        MockHttpServletRequest delta = new MockHttpServletRequest("PUT", "/api/files/1/delta");
+        delta.setContentType("application/octet-stream");
+        assertThat(EndpointClass.of(delta)).isEqualTo(EndpointClass.UPLOADS);
+
+        MockHttpServletRequest list = new MockHttpServletRequest("GET", "/api/files");
+        assertThat(EndpointClass.of(list)).isEqualTo(EndpointClass.METADATA);
+
+        MockHttpServletRequest replica = new MockHttpServletRequest("PUT", "/internal/blobs");
+        replica.setContentType("application/octet-stream");
+        assertThat(EndpointClass.of(replica)).isEqualTo(EndpointClass.INTERNAL);
+
+    }
+
+}